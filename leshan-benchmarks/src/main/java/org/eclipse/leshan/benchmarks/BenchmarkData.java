@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.StaticModel;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Realistic data shared by the benchmarks.
+ */
+class BenchmarkData {
+
+    static final LwM2mModel MODEL = new StaticModel(ObjectLoader.loadDefault());
+
+    static final Link[] OBJECT_LINKS = Link
+            .parse("</>;rt=\"oma.lwm2m\",</1/0>,</2>,</3/0>,</4/0>,</5>,</6/0>,</7>".getBytes());
+
+    /**
+     * @return the instance 0 of the Device object (3).
+     */
+    static LwM2mObjectInstance device() {
+        List<LwM2mResource> resources = new ArrayList<>();
+        resources.add(LwM2mSingleResource.newStringResource(0, "Open Mobile Alliance"));
+        resources.add(LwM2mSingleResource.newStringResource(1, "Lightweight M2M Client"));
+        resources.add(LwM2mSingleResource.newStringResource(2, "345000123"));
+        resources.add(LwM2mSingleResource.newStringResource(3, "1.0"));
+        resources.add(LwM2mMultipleResource.newIntegerResource(6, integers(1L, 5L)));
+        resources.add(LwM2mMultipleResource.newIntegerResource(7, integers(3800L, 5000L)));
+        resources.add(LwM2mMultipleResource.newIntegerResource(8, integers(125L, 900L)));
+        resources.add(LwM2mSingleResource.newIntegerResource(9, 100));
+        resources.add(LwM2mSingleResource.newIntegerResource(10, 15));
+        resources.add(LwM2mMultipleResource.newIntegerResource(11, integers(0L)));
+        resources.add(LwM2mSingleResource.newDateResource(13, new Date(1367491215000L)));
+        resources.add(LwM2mSingleResource.newStringResource(14, "+02:00"));
+        resources.add(LwM2mSingleResource.newStringResource(15, "Europe/Paris"));
+        resources.add(LwM2mSingleResource.newStringResource(16, "U"));
+        resources.add(LwM2mSingleResource.newStringResource(17, "Demo"));
+        resources.add(LwM2mSingleResource.newStringResource(18, "1.0.1"));
+        resources.add(LwM2mSingleResource.newStringResource(19, "1.0.2"));
+        resources.add(LwM2mSingleResource.newIntegerResource(20, 0));
+        resources.add(LwM2mSingleResource.newIntegerResource(21, 128));
+        return new LwM2mObjectInstance(0, resources);
+    }
+
+    /**
+     * @return the instance 0 of the Connectivity Monitoring object (4).
+     */
+    static LwM2mObjectInstance connectivityMonitoring() {
+        List<LwM2mResource> resources = new ArrayList<>();
+        resources.add(LwM2mSingleResource.newIntegerResource(0, 6));
+        resources.add(LwM2mMultipleResource.newIntegerResource(1, integers(0L, 6L, 7L)));
+        resources.add(LwM2mSingleResource.newIntegerResource(2, -89));
+        resources.add(LwM2mSingleResource.newIntegerResource(3, 12));
+        resources.add(LwM2mMultipleResource.newStringResource(4, strings("10.120.43.12", "fe80::1ff:fe23:4567:890a")));
+        resources.add(LwM2mMultipleResource.newStringResource(5, strings("10.120.43.1")));
+        resources.add(LwM2mSingleResource.newIntegerResource(6, 80));
+        resources.add(LwM2mMultipleResource.newStringResource(7, strings("internet.m2m")));
+        resources.add(LwM2mSingleResource.newIntegerResource(8, 45000));
+        resources.add(LwM2mSingleResource.newIntegerResource(9, 15));
+        resources.add(LwM2mSingleResource.newIntegerResource(10, 208));
+        return new LwM2mObjectInstance(0, resources);
+    }
+
+    /**
+     * @return <code>samples</code> values of the instance 0 of the Location object (6), one each 10 seconds, the most
+     *         recent first.
+     */
+    static List<TimestampedLwM2mNode> locationTimeSeries(int samples) {
+        List<TimestampedLwM2mNode> timeSeries = new ArrayList<>(samples);
+        long now = 1367491215L;
+        for (int i = 0; i < samples; i++) {
+            long timestamp = now - i * 10;
+            LwM2mObjectInstance location = new LwM2mObjectInstance(0,
+                    LwM2mSingleResource.newFloatResource(0, 45.1876 + i * 0.0001),
+                    LwM2mSingleResource.newFloatResource(1, 5.7319 - i * 0.0001),
+                    LwM2mSingleResource.newFloatResource(2, 212.5),
+                    LwM2mSingleResource.newDateResource(5, new Date(timestamp * 1000)),
+                    LwM2mSingleResource.newFloatResource(6, 13.9));
+            timeSeries.add(new TimestampedLwM2mNode(timestamp, location));
+        }
+        return timeSeries;
+    }
+
+    static Registration registration(String registrationId, String endpoint, int port) {
+        return new Registration.Builder(registrationId, endpoint,
+                Identity.unsecure(InetAddress.getLoopbackAddress(), port)).lifeTimeInSec(300L)
+                        .objectLinks(OBJECT_LINKS).build();
+    }
+
+    private static Map<Integer, Long> integers(Long... values) {
+        Map<Integer, Long> result = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            result.put(i, values[i]);
+        }
+        return result;
+    }
+
+    private static Map<Integer, String> strings(String... values) {
+        Map<Integer, String> result = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            result.put(i, values[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of object instances with {@link DefaultLwM2mNodeEncoder} and {@link DefaultLwM2mNodeDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeCodecBenchmark {
+
+    @Param({ "device", "connectivity" })
+    public String object;
+
+    @Param({ "TLV", "JSON", "SENML_JSON", "SENML_CBOR" })
+    public String format;
+
+    private final LwM2mNodeEncoder encoder = new DefaultLwM2mNodeEncoder();
+    private final LwM2mNodeDecoder decoder = new DefaultLwM2mNodeDecoder();
+
+    private ContentFormat contentFormat;
+    private LwM2mNode node;
+    private LwM2mPath path;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        contentFormat = ContentFormat.fromName(format);
+        if (object.equals("device")) {
+            node = BenchmarkData.device();
+            path = new LwM2mPath(3, 0);
+        } else {
+            node = BenchmarkData.connectivityMonitoring();
+            path = new LwM2mPath(4, 0);
+        }
+        content = encoder.encode(node, contentFormat, path, BenchmarkData.MODEL);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(node, contentFormat, path, BenchmarkData.MODEL);
+    }
+
+    @Benchmark
+    public LwM2mNode decode() {
+        return decoder.decode(content, contentFormat, path, BenchmarkData.MODEL);
+    }
+}
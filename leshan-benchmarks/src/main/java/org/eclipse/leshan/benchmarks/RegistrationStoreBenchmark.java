@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.leshan.core.californium.EndpointContextUtil;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.server.Destroyable;
+import org.eclipse.leshan.server.californium.observation.ObserveUtil;
+import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
+import org.eclipse.leshan.server.californium.registration.InMemoryRegistrationStore;
+import org.eclipse.leshan.server.redis.RedisRegistrationStore;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Concurrent register, update and lookup on {@link InMemoryRegistrationStore} and {@link RedisRegistrationStore}.
+ * <p>
+ * Each operation targets a random client among the <code>clients</code> registered during setup. The "mixed" group
+ * runs registrations, updates and lookups at the same time.
+ * <p>
+ * Only the in-memory store is benchmarked by default, use <code>-p store=redis</code> (or
+ * <code>-p store=in-memory,redis</code>) to benchmark the redis store. It needs a running redis-server (by default on
+ * localhost:6379, else use REDIS_URI environment variable). The registrations of the benchmark clients are overwritten
+ * during setup and removed during teardown, other keys of the Redis database are left untouched.
+ * <p>
+ * With <code>-p countRoundTrips=true</code>, the redis store connects through a {@link RoundTripCountingProxy} which
+ * can also add <code>redisLatency</code> milliseconds to each round trip to simulate a remote Redis. Round trips are
+ * then reported as a rate next to the score, so their ratio is the number of round trips per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RegistrationStoreBenchmark {
+
+    @Param({ "in-memory" })
+    public String store;
+
+    @Param({ "10000" })
+    public int clients;
+
+    @Param({ "false" })
+    public boolean countRoundTrips;
+
+    @Param({ "0" })
+    public long redisLatency;
+
+    private CaliforniumRegistrationStore registrationStore;
+    private JedisPool pool;
+    private RoundTripCountingProxy proxy;
+    // round trips already reported, guarded by this
+    private long reportedRoundTrips;
+
+    @Setup
+    public void setup() throws URISyntaxException, IOException {
+        if (store.equals("redis")) {
+            String redisURI = System.getenv("REDIS_URI");
+            URI uri = new URI(redisURI == null ? "redis://localhost:6379" : redisURI);
+            if (countRoundTrips) {
+                proxy = new RoundTripCountingProxy(
+                        new InetSocketAddress(uri.getHost(), uri.getPort() == -1 ? 6379 : uri.getPort()), redisLatency);
+                uri = new URI(uri.getScheme(), uri.getUserInfo(), "localhost", proxy.getPort(), uri.getPath(),
+                        uri.getQuery(), uri.getFragment());
+            }
+            pool = new JedisPool(uri);
+            registrationStore = new RedisRegistrationStore(pool);
+        } else {
+            registrationStore = new InMemoryRegistrationStore();
+        }
+
+        for (int i = 0; i < clients; i++) {
+            registrationStore.addRegistration(registration(i));
+        }
+        collectRoundTrips();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            // only remove the keys of the benchmark clients
+            for (int i = 0; i < clients; i++) {
+                registrationStore.removeRegistration("reg" + i);
+            }
+        }
+        if (registrationStore instanceof Destroyable) {
+            ((Destroyable) registrationStore).destroy();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    /**
+     * @return the round trips since the last call.
+     */
+    private synchronized long collectRoundTrips() {
+        if (proxy == null) {
+            return 0;
+        }
+        long roundTrips = proxy.getRoundTrips();
+        long collected = roundTrips - reportedRoundTrips;
+        reportedRoundTrips = roundTrips;
+        return collected;
+    }
+
+    /**
+     * The round trips of an iteration, all reported by the first thread which completes it.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RoundTrips {
+        public long roundTrips;
+
+        @TearDown(Level.Iteration)
+        public void collect(RegistrationStoreBenchmark benchmark) {
+            roundTrips = benchmark.collectRoundTrips();
+        }
+    }
+
+    @Benchmark
+    public Deregistration register(RoundTrips roundTrips) {
+        return registrationStore.addRegistration(registration(randomClient()));
+    }
+
+    @Benchmark
+    public UpdatedRegistration update(RoundTrips roundTrips) {
+        return registrationStore.updateRegistration(update(randomClient()));
+    }
+
+    @Benchmark
+    public Registration lookupById(RoundTrips roundTrips) {
+        return registrationStore.getRegistration("reg" + randomClient());
+    }
+
+    @Benchmark
+    public Registration lookupByEndpoint(RoundTrips roundTrips) {
+        return registrationStore.getRegistrationByEndpoint("endpoint" + randomClient());
+    }
+
+    @Benchmark
+    public Observation observe(RoundTrips roundTrips) {
+        int client = randomClient();
+        Request coapRequest = observeRequest(client);
+        registrationStore.put(coapRequest.getToken(),
+                new org.eclipse.californium.core.observe.Observation(coapRequest, null));
+        registrationStore.addObservation("reg" + client, ObserveUtil.createLwM2mObservation(coapRequest));
+        return registrationStore.removeObservation("reg" + client, coapRequest.getToken().getBytes());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Deregistration mixedRegister(RoundTrips roundTrips) {
+        return register(roundTrips);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public UpdatedRegistration mixedUpdate(RoundTrips roundTrips) {
+        return update(roundTrips);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Registration mixedLookup(RoundTrips roundTrips) {
+        return lookupById(roundTrips);
+    }
+
+    private int randomClient() {
+        return ThreadLocalRandom.current().nextInt(clients);
+    }
+
+    private Registration registration(int client) {
+        return BenchmarkData.registration("reg" + client, "endpoint" + client, port(client));
+    }
+
+    private RegistrationUpdate update(int client) {
+        return new RegistrationUpdate("reg" + client, Identity.unsecure(InetAddress.getLoopbackAddress(), port(client)),
+                300L, null, null, null, null);
+    }
+
+    private int port(int client) {
+        return 10000 + client % 50000;
+    }
+
+    private Request observeRequest(int client) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(new Token(
+                new byte[] { (byte) (client >> 24), (byte) (client >> 16), (byte) (client >> 8), (byte) client }));
+        coapRequest.getOptions().addUriPath("3").addUriPath("0").addUriPath("13");
+        coapRequest.setObserve();
+        coapRequest.setDestinationContext(EndpointContextUtil
+                .extractContext(Identity.unsecure(InetAddress.getLoopbackAddress(), port(client)), false));
+        Map<String, String> context = ObserveUtil.createCoapObserveRequestContext("endpoint" + client, "reg" + client,
+                new ObserveRequest("/3/0/13"));
+        coapRequest.setUserContext(context);
+        return coapRequest;
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.californium.EndpointContextUtil;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.server.californium.observation.ObserveUtil;
+import org.eclipse.leshan.server.redis.serialization.BinaryRegistrationStoreSerDes;
+import org.eclipse.leshan.server.redis.serialization.JsonRegistrationStoreSerDes;
+import org.eclipse.leshan.server.redis.serialization.RegistrationStoreSerDes;
+import org.eclipse.leshan.server.registration.Registration;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization of registrations and observations with the {@link RegistrationStoreSerDes}
+ * implementations used by the redis store. The size of the serialized value is reported as "bytes" next to the score
+ * of serialization benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationStoreSerDesBenchmark {
+
+    @Param({ "json", "binary" })
+    public String format;
+
+    private RegistrationStoreSerDes serDes;
+    private Registration registration;
+    private Observation observation;
+    private byte[] serializedRegistration;
+    private byte[] serializedObservation;
+
+    @Setup
+    public void setup() {
+        serDes = format.equals("json") ? new JsonRegistrationStoreSerDes() : new BinaryRegistrationStoreSerDes();
+        registration = registration();
+        observation = observation(registration);
+        serializedRegistration = serDes.serializeRegistration(registration);
+        serializedObservation = serDes.serializeObservation(observation);
+    }
+
+    /**
+     * The size of the last serialized value.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long bytes;
+    }
+
+    @Benchmark
+    public byte[] serializeRegistration(Size size) {
+        byte[] serialized = serDes.serializeRegistration(registration);
+        size.bytes = serialized.length;
+        return serialized;
+    }
+
+    @Benchmark
+    public Registration deserializeRegistration() {
+        return serDes.deserializeRegistration(serializedRegistration);
+    }
+
+    @Benchmark
+    public byte[] serializeObservation(Size size) {
+        byte[] serialized = serDes.serializeObservation(observation);
+        size.bytes = serialized.length;
+        return serialized;
+    }
+
+    @Benchmark
+    public Observation deserializeObservation() {
+        return serDes.deserializeObservation(serializedObservation);
+    }
+
+    private static Registration registration() {
+        Link[] objectLinks = Link.parse(("</>;rt=\"oma.lwm2m\";ct=11543,</1/0>,</3>;ver=1.1,</3/0>,</4>;ver=1.1,"
+                + "</4/0>,</5>,</6>,</7>,</3303>;ver=1.1,</3303/0>,</3303/1>").getBytes());
+        return new Registration.Builder("Wc6dnUaQ43", "urn:imei:123456789012345",
+                Identity.psk(InetAddress.getLoopbackAddress(), 40321, "urn:imei:123456789012345"))
+                        .lifeTimeInSec(300L).lwM2mVersion("1.1").objectLinks(objectLinks).build();
+    }
+
+    private static Observation observation(Registration registration) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(new Token(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+        coapRequest.getOptions().addUriPath("3303").addUriPath("0").addUriPath("5700");
+        coapRequest.setObserve();
+        coapRequest.setDestinationContext(EndpointContextUtil.extractContext(registration.getIdentity(), false));
+        Map<String, String> context = ObserveUtil.createCoapObserveRequestContext(registration.getEndpoint(),
+                registration.getId(), new ObserveRequest("/3303/0/5700"));
+        coapRequest.setUserContext(context);
+        return new Observation(coapRequest, coapRequest.getDestinationContext());
+    }
+}
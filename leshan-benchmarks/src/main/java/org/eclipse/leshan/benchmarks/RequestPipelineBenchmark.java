@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ReadRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.response.ReadResponse;
+import org.eclipse.leshan.core.response.WriteResponse;
+import org.eclipse.leshan.server.californium.request.CoapRequestBuilder;
+import org.eclipse.leshan.server.californium.request.LwM2mResponseBuilder;
+import org.eclipse.leshan.server.registration.Registration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips through the server request pipeline: a LWM2M request is converted to a CoAP request with
+ * {@link CoapRequestBuilder}, then a CoAP response is converted to a LWM2M response with {@link LwM2mResponseBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPipelineBenchmark {
+
+    @Param({ "TLV", "JSON", "SENML_JSON", "SENML_CBOR" })
+    public String format;
+
+    private final LwM2mNodeEncoder encoder = new DefaultLwM2mNodeEncoder();
+    private final LwM2mNodeDecoder decoder = new DefaultLwM2mNodeDecoder();
+    private final Registration registration = BenchmarkData.registration("reg", "endpoint", 5683);
+
+    private ContentFormat contentFormat;
+    private byte[] devicePayload;
+
+    @Setup
+    public void setup() {
+        contentFormat = ContentFormat.fromName(format);
+        devicePayload = encoder.encode(BenchmarkData.device(), contentFormat, new LwM2mPath(3, 0),
+                BenchmarkData.MODEL);
+    }
+
+    @Benchmark
+    public ReadResponse read() {
+        ReadRequest request = new ReadRequest(contentFormat, 3, 0);
+        Request coapRequest = toCoapRequest(request);
+
+        Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
+        coapResponse.getOptions().setContentFormat(contentFormat.getCode());
+        coapResponse.setPayload(devicePayload);
+
+        LwM2mResponseBuilder<ReadResponse> responseBuilder = new LwM2mResponseBuilder<>(coapRequest, coapResponse,
+                registration.getEndpoint(), BenchmarkData.MODEL, decoder);
+        request.accept(responseBuilder);
+        return responseBuilder.getResponse();
+    }
+
+    @Benchmark
+    public WriteResponse write() {
+        // update the Server object: lifetime, default periods, notification storing and binding
+        WriteRequest request = new WriteRequest(WriteRequest.Mode.UPDATE, contentFormat, 1, 0,
+                LwM2mSingleResource.newIntegerResource(1, 300), LwM2mSingleResource.newIntegerResource(2, 10),
+                LwM2mSingleResource.newIntegerResource(3, 60), LwM2mSingleResource.newBooleanResource(6, true),
+                LwM2mSingleResource.newStringResource(7, "UQ"));
+        Request coapRequest = toCoapRequest(request);
+
+        Response coapResponse = new Response(CoAP.ResponseCode.CHANGED);
+
+        LwM2mResponseBuilder<WriteResponse> responseBuilder = new LwM2mResponseBuilder<>(coapRequest, coapResponse,
+                registration.getEndpoint(), BenchmarkData.MODEL, decoder);
+        request.accept(responseBuilder);
+        return responseBuilder.getResponse();
+    }
+
+    private Request toCoapRequest(DownlinkRequest<?> request) {
+        CoapRequestBuilder requestBuilder = new CoapRequestBuilder(registration.getIdentity(),
+                registration.getRootPath(), registration.getId(), registration.getEndpoint(), BenchmarkData.MODEL,
+                encoder, false);
+        request.accept(requestBuilder);
+        return requestBuilder.getRequest();
+    }
+}
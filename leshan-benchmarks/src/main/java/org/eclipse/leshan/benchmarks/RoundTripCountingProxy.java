@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP proxy which counts round trips: a round trip starts each time the client sends data after it received a
+ * response (or for the first time). Several commands sent in a pipeline count as 1 round trip.
+ */
+class RoundTripCountingProxy implements Closeable {
+
+    private final InetSocketAddress target;
+    private final long latency;
+    private final ServerSocket serverSocket;
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    RoundTripCountingProxy(InetSocketAddress target, long latencyInMs) throws IOException {
+        this.target = target;
+        this.latency = latencyInMs;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "RoundTripCountingProxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    private void accept() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket client = serverSocket.accept();
+                final Socket server = new Socket(target.getAddress(), target.getPort());
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                final boolean[] waitingResponse = new boolean[1];
+                pump(client, server, new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (waitingResponse) {
+                            if (!waitingResponse[0]) {
+                                waitingResponse[0] = true;
+                                roundTrips.incrementAndGet();
+                                sleep(latency);
+                            }
+                        }
+                    }
+                });
+                pump(server, client, new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (waitingResponse) {
+                            waitingResponse[0] = false;
+                        }
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // proxy closed
+        }
+    }
+
+    private void pump(final Socket from, final Socket to, final Runnable onData) {
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[16 * 1024];
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        onData.run();
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // connection closed
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            }
+        }, "RoundTripCountingProxy pump");
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    private static void sleep(long ms) {
+        if (ms > 0) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.senml.SenMLCbor;
+import org.eclipse.leshan.senml.SenMLCborException;
+import org.eclipse.leshan.senml.SenMLJson;
+import org.eclipse.leshan.senml.SenMLPack;
+import org.eclipse.leshan.senml.SenMLRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of time series as received in notifications of a Location object instance, using
+ * {@link LwM2mNodeDecoder#decodeTimestampedData}.
+ * <p>
+ * Only the JSON encoder supports timestamped values, so SenML content is created from a {@link SenMLPack}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeSeriesCodecBenchmark {
+
+    @Param({ "JSON", "SENML_JSON", "SENML_CBOR" })
+    public String format;
+
+    @Param({ "10", "100" })
+    public int samples;
+
+    private final LwM2mNodeDecoder decoder = new DefaultLwM2mNodeDecoder();
+    private final LwM2mPath path = new LwM2mPath(6, 0);
+
+    private ContentFormat contentFormat;
+    private byte[] content;
+
+    @Setup
+    public void setup() throws SenMLCborException {
+        contentFormat = ContentFormat.fromName(format);
+        List<TimestampedLwM2mNode> timeSeries = BenchmarkData.locationTimeSeries(samples);
+        switch (contentFormat.getCode()) {
+        case ContentFormat.JSON_CODE:
+            content = new DefaultLwM2mNodeEncoder().encodeTimestampedData(timeSeries, contentFormat, path,
+                    BenchmarkData.MODEL);
+            break;
+        case ContentFormat.SENML_JSON_CODE:
+            content = SenMLJson.toSenMLJson(toSenMLPack(timeSeries)).getBytes(StandardCharsets.UTF_8);
+            break;
+        case ContentFormat.SENML_CBOR_CODE:
+            content = SenMLCbor.toSenMLCbor(toSenMLPack(timeSeries));
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+    }
+
+    @Benchmark
+    public List<TimestampedLwM2mNode> decode() {
+        return decoder.decodeTimestampedData(content, contentFormat, path, BenchmarkData.MODEL);
+    }
+
+    private SenMLPack toSenMLPack(List<TimestampedLwM2mNode> timeSeries) {
+        SenMLPack pack = new SenMLPack();
+        Long baseTime = timeSeries.get(0).getTimestamp();
+        for (TimestampedLwM2mNode timestampedNode : timeSeries) {
+            LwM2mObjectInstance instance = (LwM2mObjectInstance) timestampedNode.getNode();
+            for (LwM2mResource resource : instance.getResources().values()) {
+                SenMLRecord record = new SenMLRecord();
+                if (pack.getRecords().isEmpty()) {
+                    record.setBaseName("/6/0/");
+                    record.setBaseTime(baseTime);
+                }
+                record.setName(Integer.toString(resource.getId()));
+                record.setTime(timestampedNode.getTimestamp() - baseTime);
+                Object value = resource.getValue();
+                if (value instanceof Date) {
+                    record.setFloatValue(((Date) value).getTime() / 1000);
+                } else {
+                    record.setFloatValue((Number) value);
+                }
+                pack.addRecord(record);
+            }
+        }
+        return pack;
+    }
+}
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Zebra Technologies - initial API and implementation
+ *     Sierra Wireless - add optional cache of encoded payloads
  *******************************************************************************/
 package org.eclipse.leshan.client.californium;
 
@@ -39,6 +40,7 @@ import org.eclipse.leshan.client.engine.RegistrationEngineFactory;
 import org.eclipse.leshan.client.engine.RegistrationEngineFactory2;
 import org.eclipse.leshan.client.observer.LwM2mClientObserver;
 import org.eclipse.leshan.client.observer.LwM2mClientObserverDispatcher;
+import org.eclipse.leshan.client.resource.EncodedPayloadCache;
 import org.eclipse.leshan.client.resource.LwM2mObjectEnabler;
 import org.eclipse.leshan.client.resource.LwM2mObjectTree;
 import org.eclipse.leshan.client.resource.listener.ObjectListener;
@@ -68,6 +70,7 @@ public class LeshanClient implements LwM2mClient {
     private final BootstrapHandler bootstrapHandler;
     private final RegistrationEngine engine;
     private final LwM2mClientObserverDispatcher observers;
+    private final EncodedPayloadCache payloadCache;
 
     public LeshanClient(String endpoint, InetSocketAddress localAddress,
             List<? extends LwM2mObjectEnabler> objectEnablers, NetworkConfig coapConfig, Builder dtlsConfigBuilder,
@@ -84,11 +87,27 @@ public class LeshanClient implements LwM2mClient {
             EndpointFactory endpointFactory, RegistrationEngineFactory engineFactory,
             Map<String, String> additionalAttributes, Map<String, String> bsAdditionalAttributes,
             LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder, ScheduledExecutorService sharedExecutor) {
+        this(endpoint, localAddress, objectEnablers, coapConfig, dtlsConfigBuilder, endpointFactory, engineFactory,
+                additionalAttributes, bsAdditionalAttributes, encoder, decoder, sharedExecutor, null);
+    }
+
+    /**
+     * @param payloadCache an optional cache of the encoded payloads of Read/Observe responses (see
+     *        {@link EncodedPayloadCache} for its constraints).
+     */
+    public LeshanClient(String endpoint, InetSocketAddress localAddress,
+            List<? extends LwM2mObjectEnabler> objectEnablers, NetworkConfig coapConfig, Builder dtlsConfigBuilder,
+            EndpointFactory endpointFactory, RegistrationEngineFactory engineFactory,
+            Map<String, String> additionalAttributes, Map<String, String> bsAdditionalAttributes,
+            LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder, ScheduledExecutorService sharedExecutor,
+            EncodedPayloadCache payloadCache) {
 
         Validate.notNull(endpoint);
         Validate.notEmpty(objectEnablers);
         Validate.notNull(coapConfig);
 
+        this.payloadCache = payloadCache;
+
         objectTree = createObjectTree(objectEnablers);
         observers = createClientObserverDispatcher();
         bootstrapHandler = createBoostrapHandler(objectTree);
@@ -177,7 +196,7 @@ public class LeshanClient implements LwM2mClient {
 
     protected CoapResource createObjectResource(LwM2mObjectEnabler enabler, RegistrationEngine registrationEngine,
             LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder) {
-        return new ObjectResource(enabler, registrationEngine, encoder, decoder);
+        return new ObjectResource(enabler, registrationEngine, encoder, decoder, payloadCache);
     }
 
     protected CoapResource createBootstrapResource(RegistrationEngine engine, BootstrapHandler bootstrapHandler) {
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - add optional cache of encoded payloads
  *******************************************************************************/
 package org.eclipse.leshan.client.californium;
 
@@ -35,6 +36,7 @@ import org.eclipse.leshan.client.engine.RegistrationEngineFactory;
 import org.eclipse.leshan.client.object.Device;
 import org.eclipse.leshan.client.object.Security;
 import org.eclipse.leshan.client.object.Server;
+import org.eclipse.leshan.client.resource.EncodedPayloadCache;
 import org.eclipse.leshan.client.resource.LwM2mObjectEnabler;
 import org.eclipse.leshan.client.resource.ObjectsInitializer;
 import org.eclipse.leshan.core.LwM2mId;
@@ -74,6 +76,8 @@ public class LeshanClientBuilder {
     /** @since 1.1 */
     protected Map<String, String> bsAdditionalAttributes;
 
+    protected EncodedPayloadCache payloadCache;
+
     /**
      * Creates a new instance for setting the configuration options for a {@link LeshanClient} instance.
      * 
@@ -222,6 +226,21 @@ public class LeshanClientBuilder {
         return this;
     }
 
+    /**
+     * Set a cache of the encoded payloads of Read/Observe responses, so reading again unchanged resources does not
+     * need to read and encode them again.
+     * <p>
+     * By default no cache is used. This should only be used if all object enablers notify every change of their
+     * resources, see {@link EncodedPayloadCache} for more details.
+     * 
+     * @param payloadCache the cache to use or <code>null</code> to disable caching.
+     * @return the builder for fluent client creation.
+     */
+    public LeshanClientBuilder setEncodedPayloadCache(EncodedPayloadCache payloadCache) {
+        this.payloadCache = payloadCache;
+        return this;
+    }
+
     public static NetworkConfig createDefaultNetworkConfig() {
         NetworkConfig networkConfig = new NetworkConfig();
         networkConfig.set(Keys.MID_TRACKER, "NULL");
@@ -341,6 +360,6 @@ public class LeshanClientBuilder {
             Map<String, String> additionalAttributes, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
             ScheduledExecutorService sharedExecutor) {
         return new LeshanClient(endpoint, localAddress, objectEnablers, coapConfig, dtlsConfigBuilder, endpointFactory,
-                engineFactory, additionalAttributes, bsAdditionalAttributes, encoder, decoder, executor);
+                engineFactory, additionalAttributes, bsAdditionalAttributes, encoder, decoder, executor, payloadCache);
     }
 }
@@ -16,6 +16,7 @@
  *     Achim Kraus (Bosch Software Innovations GmbH) - use ServerIdentity
  *     Achim Kraus (Bosch Software Innovations GmbH) - implement POST "/oid/iid" 
  *                                                     as UPDATE instance
+ *     Sierra Wireless - cache encoded payloads of Read/Observe responses
  *******************************************************************************/
 package org.eclipse.leshan.client.californium.object;
 
@@ -29,6 +30,7 @@ import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.leshan.client.californium.LwM2mClientCoapResource;
 import org.eclipse.leshan.client.engine.RegistrationEngine;
+import org.eclipse.leshan.client.resource.EncodedPayloadCache;
 import org.eclipse.leshan.client.resource.LwM2mObjectEnabler;
 import org.eclipse.leshan.client.resource.LwM2mObjectEnabler2;
 import org.eclipse.leshan.client.resource.listener.ObjectListener;
@@ -83,14 +85,28 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
     protected final LwM2mObjectEnabler nodeEnabler;
     protected final LwM2mNodeEncoder encoder;
     protected final LwM2mNodeDecoder decoder;
+    protected final EncodedPayloadCache payloadCache;
 
     public ObjectResource(LwM2mObjectEnabler nodeEnabler, RegistrationEngine registrationEngine,
             LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder) {
+        this(nodeEnabler, registrationEngine, encoder, decoder, null);
+    }
+
+    /**
+     * @param payloadCache an optional cache of the encoded payloads of Read/Observe responses.
+     */
+    public ObjectResource(LwM2mObjectEnabler nodeEnabler, RegistrationEngine registrationEngine,
+            LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder, EncodedPayloadCache payloadCache) {
         super(Integer.toString(nodeEnabler.getId()), registrationEngine);
         this.nodeEnabler = nodeEnabler;
         this.nodeEnabler.addListener(this);
         this.encoder = encoder;
         this.decoder = decoder;
+        this.payloadCache = payloadCache;
+        if (payloadCache != null) {
+            // payloads of a previous enabler of this object could still be cached
+            payloadCache.invalidate(nodeEnabler.getId());
+        }
         setObservable(true);
     }
 
@@ -146,14 +162,17 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
             // Manage Observe Request
             if (exchange.getRequestOptions().hasObserve()) {
                 ObserveRequest observeRequest = new ObserveRequest(URI);
+                ContentFormat format = getContentFormat(observeRequest, requestedContentFormat);
+                EncodedPayloadCache.Entry cacheEntry = getCacheEntry(identity, observeRequest.getPath(), format);
+                byte[] payload = cacheEntry == null ? null : cacheEntry.get();
+                if (payload != null) {
+                    exchange.respond(ResponseCode.CONTENT, payload, format.getCode());
+                    return;
+                }
                 ObserveResponse response = nodeEnabler.observe(identity, observeRequest);
                 if (response.getCode() == org.eclipse.leshan.core.ResponseCode.CONTENT) {
-                    LwM2mPath path = new LwM2mPath(URI);
-                    LwM2mNode content = response.getContent();
-                    LwM2mModel model = new StaticModel(nodeEnabler.getObjectModel());
-                    ContentFormat format = getContentFormat(observeRequest, requestedContentFormat);
-                    exchange.respond(ResponseCode.CONTENT, encoder.encode(content, format, path, model),
-                            format.getCode());
+                    exchange.respond(ResponseCode.CONTENT, encode(response.getContent(), format,
+                            observeRequest.getPath(), cacheEntry), format.getCode());
                     return;
                 } else {
                     exchange.respond(toCoapResponseCode(response.getCode()), response.getErrorMessage());
@@ -163,13 +182,17 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
             // Manage Read Request
             else {
                 ReadRequest readRequest = new ReadRequest(URI);
+                ContentFormat format = getContentFormat(readRequest, requestedContentFormat);
+                EncodedPayloadCache.Entry cacheEntry = getCacheEntry(identity, readRequest.getPath(), format);
+                byte[] payload = cacheEntry == null ? null : cacheEntry.get();
+                if (payload != null) {
+                    exchange.respond(ResponseCode.CONTENT, payload, format.getCode());
+                    return;
+                }
                 ReadResponse response = nodeEnabler.read(identity, readRequest);
                 if (response.getCode() == org.eclipse.leshan.core.ResponseCode.CONTENT) {
-                    LwM2mPath path = new LwM2mPath(URI);
-                    LwM2mNode content = response.getContent();
-                    LwM2mModel model = new StaticModel(nodeEnabler.getObjectModel());
-                    ContentFormat format = getContentFormat(readRequest, requestedContentFormat);
-                    exchange.respond(ResponseCode.CONTENT, encoder.encode(content, format, path, model),
+                    exchange.respond(ResponseCode.CONTENT,
+                            encode(response.getContent(), format, readRequest.getPath(), cacheEntry),
                             format.getCode());
                     return;
                 } else {
@@ -180,6 +203,24 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
         }
     }
 
+    protected EncodedPayloadCache.Entry getCacheEntry(ServerIdentity identity, LwM2mPath path, ContentFormat format) {
+        // only requests from LWM2M servers are answered from the cache
+        if (payloadCache == null || !identity.isLwm2mServer()) {
+            return null;
+        }
+        return payloadCache.entry(identity, path, format);
+    }
+
+    protected byte[] encode(LwM2mNode content, ContentFormat format, LwM2mPath path,
+            EncodedPayloadCache.Entry cacheEntry) {
+        LwM2mModel model = new StaticModel(nodeEnabler.getObjectModel());
+        byte[] payload = encoder.encode(content, format, path, model);
+        if (cacheEntry != null) {
+            cacheEntry.set(payload);
+        }
+        return payload;
+    }
+
     protected ContentFormat getContentFormat(DownlinkRequest<?> request, ContentFormat requestedContentFormat) {
         if (requestedContentFormat != null) {
             // we already check before this content format is supported.
@@ -389,6 +430,10 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
 
     @Override
     public void resourceChanged(LwM2mObjectEnabler object, int instanceId, int... resourceIds) {
+        // invalidate cached payloads before notifications are sent
+        if (payloadCache != null) {
+            payloadCache.resourceChanged(object, instanceId, resourceIds);
+        }
         // notify CoAP layer than resources changes, this will send observe notification if an observe relationship
         // exits.
         changed(new ResourceObserveFilter(object.getId() + ""));
@@ -400,9 +445,15 @@ public class ObjectResource extends LwM2mClientCoapResource implements ObjectLis
 
     @Override
     public void objectInstancesAdded(LwM2mObjectEnabler object, int... instanceIds) {
+        if (payloadCache != null) {
+            payloadCache.objectInstancesAdded(object, instanceIds);
+        }
     }
 
     @Override
     public void objectInstancesRemoved(LwM2mObjectEnabler object, int... instanceIds) {
+        if (payloadCache != null) {
+            payloadCache.objectInstancesRemoved(object, instanceIds);
+        }
     }
 }
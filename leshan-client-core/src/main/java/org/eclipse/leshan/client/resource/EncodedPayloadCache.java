@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.client.resource;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.leshan.client.resource.listener.ObjectListener;
+import org.eclipse.leshan.client.servers.ServerIdentity;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * A cache of encoded Read/Observe payloads, by server, path and content format.
+ * <p>
+ * Cached payloads of an object instance are invalidated each time a resource of this instance changes (see
+ * {@link BaseInstanceEnabler#fireResourcesChange(int...)}) and cached payloads of an object each time one of its
+ * instances changes, is added or is removed. This means that this cache must only be used if all the
+ * {@link LwM2mInstanceEnabler} of the client notify every change of their resources, which is not the case of
+ * instances computing a value on each read (e.g. the current time of the Device object). Note also that requests
+ * answered from the cache do not reach the {@link LwM2mObjectEnabler}.
+ * <p>
+ * Once the maximum number of payloads is reached, new payloads are not cached anymore until some are invalidated.
+ */
+public class EncodedPayloadCache implements ObjectListener {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    // payloads grouped by object path (for object payloads) or object instance path (for all other payloads), so
+    // invalidating a group removes all the payloads depending on it.
+    private final ConcurrentMap<LwM2mPath, ConcurrentMap<Key, byte[]>> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    public EncodedPayloadCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of payloads to cache.
+     */
+    public EncodedPayloadCache(int maxSize) {
+        Validate.isTrue(maxSize > 0, "maxSize must be positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the cache entry of the payload of a Read/Observe request.
+     * <p>
+     * The entry must be retrieved before reading the node to encode, so a change happening between the read and
+     * {@link Entry#set(byte[])} prevents the now outdated payload to be cached.
+     */
+    public Entry entry(ServerIdentity identity, LwM2mPath path, ContentFormat format) {
+        Validate.notNull(identity);
+        Validate.notNull(format);
+        Validate.isTrue(path.isObject() || path.getObjectInstanceId() != null, "invalid path %s", path);
+
+        LwM2mPath groupPath = path.isObject() ? path : new LwM2mPath(path.getObjectId(), path.getObjectInstanceId());
+        ConcurrentMap<Key, byte[]> group = groups.get(groupPath);
+        if (group == null) {
+            ConcurrentMap<Key, byte[]> newGroup = new ConcurrentHashMap<>();
+            group = groups.putIfAbsent(groupPath, newGroup);
+            if (group == null) {
+                group = newGroup;
+            }
+        }
+        return new Entry(groupPath, group, new Key(identity, path, format));
+    }
+
+    /**
+     * Remove all the payloads of the given object instance and of its object.
+     */
+    public void invalidate(int objectId, int instanceId) {
+        remove(new LwM2mPath(objectId));
+        remove(new LwM2mPath(objectId, instanceId));
+    }
+
+    /**
+     * Remove all the payloads of the given object and of its instances.
+     */
+    public void invalidate(int objectId) {
+        for (Iterator<LwM2mPath> it = groups.keySet().iterator(); it.hasNext();) {
+            LwM2mPath groupPath = it.next();
+            if (groupPath.getObjectId() == objectId) {
+                remove(groupPath);
+            }
+        }
+    }
+
+    public void clear() {
+        for (LwM2mPath groupPath : groups.keySet()) {
+            remove(groupPath);
+        }
+    }
+
+    /**
+     * @return the number of cached payloads.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void resourceChanged(LwM2mObjectEnabler object, int instanceId, int... resourceIds) {
+        invalidate(object.getId(), instanceId);
+    }
+
+    @Override
+    public void objectInstancesAdded(LwM2mObjectEnabler object, int... instanceIds) {
+        for (int instanceId : instanceIds) {
+            invalidate(object.getId(), instanceId);
+        }
+    }
+
+    @Override
+    public void objectInstancesRemoved(LwM2mObjectEnabler object, int... instanceIds) {
+        for (int instanceId : instanceIds) {
+            invalidate(object.getId(), instanceId);
+        }
+    }
+
+    private void remove(LwM2mPath groupPath) {
+        ConcurrentMap<Key, byte[]> group = groups.remove(groupPath);
+        if (group != null) {
+            size.addAndGet(-group.size());
+        }
+    }
+
+    /**
+     * The cached payload for a given server, path and content format.
+     */
+    public class Entry {
+
+        private final LwM2mPath groupPath;
+        private final ConcurrentMap<Key, byte[]> group;
+        private final Key key;
+
+        private Entry(LwM2mPath groupPath, ConcurrentMap<Key, byte[]> group, Key key) {
+            this.groupPath = groupPath;
+            this.group = group;
+            this.key = key;
+        }
+
+        /**
+         * @return a copy of the cached payload or <code>null</code> if there is no payload in cache.
+         */
+        public byte[] get() {
+            byte[] payload = group.get(key);
+            return payload == null ? null : payload.clone();
+        }
+
+        /**
+         * Cache the given payload, unless the maximum size is reached or the payload was invalidated since this
+         * entry was retrieved.
+         */
+        public void set(byte[] payload) {
+            Validate.notNull(payload);
+            if (size.get() >= maxSize) {
+                return;
+            }
+            if (group.put(key, payload.clone()) == null) {
+                size.incrementAndGet();
+            }
+            // the group was invalidated meanwhile: remove it again in case it was counted after the invalidation.
+            if (groups.get(groupPath) != group && group.remove(key) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Key {
+
+        private final ServerIdentity identity;
+        private final LwM2mPath path;
+        private final ContentFormat format;
+        private final int hashCode;
+
+        Key(ServerIdentity identity, LwM2mPath path, ContentFormat format) {
+            this.identity = identity;
+            this.path = path;
+            this.format = format;
+            int result = identity.hashCode();
+            result = 31 * result + path.hashCode();
+            result = 31 * result + format.getCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return format.getCode() == other.format.getCode() && path.equals(other.path)
+                    && identity.equals(other.identity);
+        }
+    }
+}
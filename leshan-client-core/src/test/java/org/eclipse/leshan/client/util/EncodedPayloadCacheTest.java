@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.client.util;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.leshan.client.resource.EncodedPayloadCache;
+import org.eclipse.leshan.client.resource.LwM2mObjectEnabler;
+import org.eclipse.leshan.client.resource.ObjectsInitializer;
+import org.eclipse.leshan.client.resource.SimpleInstanceEnabler;
+import org.eclipse.leshan.client.servers.ServerIdentity;
+import org.eclipse.leshan.core.LwM2mId;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.Identity;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EncodedPayloadCacheTest {
+
+    private static final ServerIdentity SERVER = new ServerIdentity(
+            Identity.unsecure(new InetSocketAddress("localhost", 5683)), 12345l);
+
+    private EncodedPayloadCache cache;
+
+    @Before
+    public void setup() {
+        cache = new EncodedPayloadCache(4);
+    }
+
+    @Test
+    public void get_a_copy_of_cached_payload() {
+        EncodedPayloadCache.Entry entry = cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TEXT);
+        assertNull(entry.get());
+
+        byte[] payload = new byte[] { 1, 2, 3 };
+        entry.set(payload);
+        payload[0] = 0;
+
+        byte[] cached = cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TEXT).get();
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cached);
+        cached[0] = 0;
+        assertArrayEquals(new byte[] { 1, 2, 3 }, entry.get());
+
+        // other format, other server
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TLV).get());
+        assertNull(cache.entry(ServerIdentity.SYSTEM, new LwM2mPath(3, 0, 1), ContentFormat.TEXT).get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void resource_change_invalidates_instance_and_object_payloads() {
+        cacheFor(new LwM2mPath(3));
+        cacheFor(new LwM2mPath(3, 0));
+        cacheFor(new LwM2mPath(3, 0, 1));
+        cacheFor(new LwM2mPath(3, 1, 1));
+        assertEquals(4, cache.size());
+
+        cache.invalidate(3, 0);
+
+        assertNull(cache.entry(SERVER, new LwM2mPath(3), ContentFormat.TLV).get());
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0), ContentFormat.TLV).get());
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TLV).get());
+        assertNotNull(cache.entry(SERVER, new LwM2mPath(3, 1, 1), ContentFormat.TLV).get());
+        assertEquals(1, cache.size());
+
+        cache.invalidate(3);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void fire_resources_change_invalidates_payloads() {
+        SimpleInstanceEnabler instance = new SimpleInstanceEnabler(0);
+        ObjectsInitializer initializer = new ObjectsInitializer();
+        initializer.setInstancesForObject(LwM2mId.DEVICE, instance);
+        LwM2mObjectEnabler enabler = initializer.create(LwM2mId.DEVICE);
+        enabler.addListener(cache);
+
+        cacheFor(new LwM2mPath(3, 0, 0));
+        instance.fireResourcesChange(0);
+
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0, 0), ContentFormat.TLV).get());
+    }
+
+    @Test
+    public void do_not_cache_payload_invalidated_during_the_read() {
+        EncodedPayloadCache.Entry entry = cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TLV);
+        cache.invalidate(3, 0);
+        entry.set(new byte[] { 1 });
+
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0, 1), ContentFormat.TLV).get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void stop_caching_when_max_size_is_reached() {
+        for (int i = 0; i < 6; i++) {
+            cacheFor(new LwM2mPath(3, 0, i));
+        }
+        assertEquals(4, cache.size());
+        assertNull(cache.entry(SERVER, new LwM2mPath(3, 0, 5), ContentFormat.TLV).get());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cacheFor(new LwM2mPath(3, 0, 5));
+        assertNotNull(cache.entry(SERVER, new LwM2mPath(3, 0, 5), ContentFormat.TLV).get());
+    }
+
+    private void cacheFor(LwM2mPath path) {
+        cache.entry(SERVER, path, ContentFormat.TLV).set(new byte[] { 1 });
+    }
+}
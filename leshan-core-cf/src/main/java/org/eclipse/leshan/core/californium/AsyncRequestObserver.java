@@ -12,9 +12,11 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - add optional callback executor
  *******************************************************************************/
 package org.eclipse.leshan.core.californium;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.californium.core.coap.Request;
@@ -50,7 +52,28 @@ public abstract class AsyncRequestObserver<T extends LwM2mResponse> extends Coap
      */
     public AsyncRequestObserver(Request coapRequest, final ResponseCallback<T> responseCallback,
             final ErrorCallback errorCallback, long timeoutInMs, ScheduledExecutorService executor) {
-        super(coapRequest, null, errorCallback, timeoutInMs, executor);
+        this(coapRequest, responseCallback, errorCallback, timeoutInMs, executor, null);
+    }
+
+    /**
+     * A Californium message observer for a CoAP request helping to get results asynchronously dedicated for LWM2M
+     * requests.
+     * <p>
+     * When a callback executor is given, the {@link LwM2mResponse} is also built by this executor.
+     * 
+     * @param coapRequest The CoAP request to observe.
+     * @param responseCallback This is called when a response is received. This MUST NOT be null.
+     * @param errorCallback This is called when an error happens. This MUST NOT be null.
+     * @param timeoutInMs A response timeout(in millisecond) which is raised if neither a response or error happens (see
+     *        https://github.com/eclipse/leshan/wiki/Request-Timeout).
+     * @param executor used to scheduled timeout tasks.
+     * @param callbackExecutor used to call the response and error callbacks, or <code>null</code> to call them from
+     *        the thread raising the event.
+     */
+    public AsyncRequestObserver(Request coapRequest, final ResponseCallback<T> responseCallback,
+            final ErrorCallback errorCallback, long timeoutInMs, ScheduledExecutorService executor,
+            Executor callbackExecutor) {
+        super(coapRequest, null, errorCallback, timeoutInMs, executor, callbackExecutor);
         this.responseCallback = new CoapResponseCallback() {
 
             @Override
@@ -15,9 +15,12 @@
  *     Achim Kraus (Bosch Software Innovations GmbH) - redirect onSendError
  *                                                     to error callback.
  *     Simon Bernard                                 - use specific exception for onSendError
+ *     Sierra Wireless                               - add optional callback executor
  *******************************************************************************/
 package org.eclipse.leshan.core.californium;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +46,9 @@ import org.slf4j.LoggerFactory;
  * Either a response or an error is raised. Results are available via callbacks.
  * <p>
  * This class also provides response timeout facility.
+ * <p>
+ * Callbacks are called from the thread raising the event (Californium protocol thread or timeout thread) unless a
+ * callback executor is given.
  * 
  * @see <a href="https://github.com/eclipse/leshan/wiki/Request-Timeout">Request Timeout Wiki page</a>
  */
@@ -56,6 +62,7 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
     private ScheduledFuture<?> cleaningTask;
     private boolean cancelled = false;
     private ScheduledExecutorService executor;
+    private final Executor callbackExecutor;
 
     // The Californium API does not ensure that message callback are exclusive
     // meaning that you can get a onReponse call and a onCancel one.
@@ -82,25 +89,48 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
      */
     public CoapAsyncRequestObserver(Request coapRequest, CoapResponseCallback responseCallback,
             ErrorCallback errorCallback, long timeoutInMs, ScheduledExecutorService executor) {
+        this(coapRequest, responseCallback, errorCallback, timeoutInMs, executor, null);
+    }
+
+    /**
+     * A Californium message observer for a CoAP request helping to get results asynchronously.
+     * 
+     * @param coapRequest The CoAP request to observe.
+     * @param responseCallback This is called when a response is received. This MUST NOT be null.
+     * @param errorCallback This is called when an error happens. This MUST NOT be null.
+     * @param timeoutInMs A response timeout(in millisecond) which is raised if neither a response or error happens (see
+     *        https://github.com/eclipse/leshan/wiki/Request-Timeout).
+     * @param executor used to scheduled timeout tasks.
+     * @param callbackExecutor used to call the response and error callbacks, or <code>null</code> to call them from
+     *        the thread raising the event.
+     */
+    public CoapAsyncRequestObserver(Request coapRequest, CoapResponseCallback responseCallback,
+            ErrorCallback errorCallback, long timeoutInMs, ScheduledExecutorService executor,
+            Executor callbackExecutor) {
         super(coapRequest);
         this.responseCallback = responseCallback;
         this.errorCallback = errorCallback;
         this.timeoutInMs = timeoutInMs;
         this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
     }
 
     @Override
-    public void onResponse(Response coapResponse) {
+    public void onResponse(final Response coapResponse) {
         LOG.debug("Received coap response: {} for {}", coapResponse, coapRequest);
         coapRequest.removeMessageObserver(this);
         if (eventRaised.compareAndSet(false, true)) {
-            cleaningTask.cancel(false);
-            try {
-                responseCallback.onResponse(coapResponse);
-            } catch (RuntimeException e) {
-                LOG.warn("Uncaught exception during onResponse callback");
-            }
-
+            cancelCleaningTask();
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        responseCallback.onResponse(coapResponse);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Uncaught exception during onResponse callback");
+                    }
+                }
+            });
         } else {
             LOG.debug("OnResponse callback ignored because an event was already raised for this request {}",
                     coapRequest);
@@ -116,8 +146,8 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
     public void onTimeout() {
         cancelCleaningTask();
         if (eventRaised.compareAndSet(false, true)) {
-            errorCallback.onError(new TimeoutException(Type.COAP_TIMEOUT,
-                    "Request %s timed out : CoAP or blockwise timeout", coapRequest.getURI()));
+            raiseError(new TimeoutException(Type.COAP_TIMEOUT, "Request %s timed out : CoAP or blockwise timeout",
+                    coapRequest.getURI()));
         } else {
             LOG.debug("OnTimeout callback ignored because an event was already raised for this request {}",
                     coapRequest);
@@ -129,10 +159,10 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
         cancelCleaningTask();
         if (eventRaised.compareAndSet(false, true)) {
             if (responseTimedOut.get()) {
-                errorCallback.onError(new TimeoutException(Type.RESPONSE_TIMEOUT,
-                        "Request %s timed out : no response received", coapRequest.getURI()));
+                raiseError(new TimeoutException(Type.RESPONSE_TIMEOUT, "Request %s timed out : no response received",
+                        coapRequest.getURI()));
             } else {
-                errorCallback.onError(new RequestCanceledException("Request %s cancelled", coapRequest.getURI()));
+                raiseError(new RequestCanceledException("Request %s cancelled", coapRequest.getURI()));
             }
         } else {
             LOG.debug(
@@ -145,7 +175,7 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
     public void onReject() {
         cancelCleaningTask();
         if (eventRaised.compareAndSet(false, true)) {
-            errorCallback.onError(new RequestRejectedException("Request %s rejected", coapRequest.getURI()));
+            raiseError(new RequestRejectedException("Request %s rejected", coapRequest.getURI()));
         } else {
             LOG.debug("OnReject callback ignored because an event was already raised for this request {}", coapRequest);
         }
@@ -156,15 +186,14 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
         cancelCleaningTask();
         if (eventRaised.compareAndSet(false, true)) {
             if (error instanceof DtlsHandshakeTimeoutException) {
-                errorCallback.onError(new TimeoutException(Type.DTLS_HANDSHAKE_TIMEOUT, error,
+                raiseError(new TimeoutException(Type.DTLS_HANDSHAKE_TIMEOUT, error,
                         "Request %s timeout : dtls handshake timeout", coapRequest.getURI()));
             } else if (error instanceof EndpointUnconnectedException) {
-                errorCallback.onError(new UnconnectedPeerException(error,
+                raiseError(new UnconnectedPeerException(error,
                         "Unable to send request %s : peer is not connected (no DTLS connection)",
                         coapRequest.getURI()));
             } else {
-                errorCallback
-                        .onError(new SendFailedException(error, "Unable to send request %s", coapRequest.getURI()));
+                raiseError(new SendFailedException(error, "Unable to send request %s", coapRequest.getURI()));
             }
         } else {
             LOG.debug("onSendError callback ignored because an event was already raised for this request {}",
@@ -172,6 +201,28 @@ public class CoapAsyncRequestObserver extends AbstractRequestObserver {
         }
     }
 
+    private void raiseError(final Exception error) {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                errorCallback.onError(error);
+            }
+        });
+    }
+
+    private void dispatch(Runnable callback) {
+        if (callbackExecutor != null) {
+            try {
+                callbackExecutor.execute(callback);
+                return;
+            } catch (RejectedExecutionException e) {
+                // executor is shut down or overloaded, callback is called anyway to not lose the event
+                LOG.debug("Callback executor rejected the event of request {}", coapRequest, e);
+            }
+        }
+        callback.run();
+    }
+
     private synchronized void scheduleCleaningTask() {
         if (!cancelled)
             if (cleaningTask == null) {
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.californium;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.leshan.core.request.exception.TimeoutException;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoapAsyncRequestObserverTest {
+
+    private ScheduledExecutorService timeoutExecutor;
+    private ExecutorService callbackExecutor;
+
+    @Before
+    public void setUp() {
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+        callbackExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        timeoutExecutor.shutdownNow();
+        callbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void response_callback_is_called_by_callback_executor() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        Request request = newRequest();
+        CoapAsyncRequestObserver observer = new CoapAsyncRequestObserver(request, new CoapResponseCallback() {
+            @Override
+            public void onResponse(Response response) {
+                callbackThread.set(Thread.currentThread());
+                latch.countDown();
+            }
+        }, failOnError(), 10000, timeoutExecutor, callbackExecutor);
+        request.addMessageObserver(observer);
+
+        request.setReadyToSend();
+        request.setResponse(new Response(ResponseCode.CONTENT));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertNotEquals(Thread.currentThread(), callbackThread.get());
+    }
+
+    @Test
+    public void timeout_is_raised_once_by_callback_executor() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Request request = newRequest();
+        CoapAsyncRequestObserver observer = new CoapAsyncRequestObserver(request, new CoapResponseCallback() {
+            @Override
+            public void onResponse(Response response) {
+                fail("unexpected response");
+            }
+        }, new ErrorCallback() {
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+                latch.countDown();
+            }
+        }, 50, timeoutExecutor, callbackExecutor);
+        request.addMessageObserver(observer);
+
+        request.setReadyToSend();
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof TimeoutException);
+        assertEquals(TimeoutException.Type.RESPONSE_TIMEOUT, ((TimeoutException) error.get()).getType());
+
+        // a late response is ignored
+        request.setResponse(new Response(ResponseCode.CONTENT));
+    }
+
+    @Test
+    public void callbacks_are_called_inline_if_callback_executor_is_shut_down() {
+        callbackExecutor.shutdown();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Request request = newRequest();
+        CoapAsyncRequestObserver observer = new CoapAsyncRequestObserver(request, null, new ErrorCallback() {
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+            }
+        }, 10000, timeoutExecutor, callbackExecutor);
+        request.addMessageObserver(observer);
+
+        request.setRejected(true);
+
+        assertNotNull(error.get());
+    }
+
+    private Request newRequest() {
+        Request request = Request.newGet();
+        request.setURI("coap://localhost:5683/3/0");
+        return request;
+    }
+
+    private ErrorCallback failOnError() {
+        return new ErrorCallback() {
+            @Override
+            public void onError(Exception e) {
+                fail("unexpected error " + e);
+            }
+        };
+    }
+}
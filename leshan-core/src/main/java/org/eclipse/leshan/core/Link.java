@@ -12,18 +12,20 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - parse links in one pass
  *******************************************************************************/
 package org.eclipse.leshan.core;
 
 import java.io.Serializable;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.eclipse.leshan.core.util.StringUtils;
 import org.eclipse.leshan.core.util.Validate;
 
 /**
@@ -74,6 +76,12 @@ public class Link implements Serializable {
         }
     }
 
+    // used by the parser which already built an unmodifiable map of attributes, so there is no need to copy it
+    private Link(Map<String, String> attributes, String url) {
+        this.url = url;
+        this.attributes = attributes;
+    }
+
     /**
      * Creates a new link and with its attributes.
      * 
@@ -173,37 +181,99 @@ public class Link implements Serializable {
         if (content == null) {
             return new Link[] {};
         }
-        String s = new String(content, StandardCharsets.UTF_8);
-        String[] links = s.split(",");
-        Link[] linksResult = new Link[links.length];
-        int index = 0;
-        for (String link : links) {
-            String[] linkParts = link.split(";");
+        if (content.length == 0) {
+            return new Link[] { new Link("") };
+        }
+
+        // like String.split(), ignore trailing empty links
+        int end = content.length;
+        while (end > 0 && content[end - 1] == ',') {
+            end--;
+        }
+        if (end == 0) {
+            return new Link[] {};
+        }
 
-            // clean URL
-            String url = StringUtils.trim(linkParts[0]);
-            url = StringUtils.removeStart(StringUtils.removeEnd(url, ">"), "<");
+        List<Link> links = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || content[i] == ',') {
+                links.add(parseLink(content, start, i));
+                start = i + 1;
+            }
+        }
+        return links.toArray(new Link[links.size()]);
+    }
 
-            // parse attributes
-            Map<String, String> attributes = new HashMap<>();
+    /**
+     * Parse a single link from bytes between <code>start</code> (inclusive) and <code>end</code> (exclusive), in one
+     * pass and without regular expression.
+     */
+    private static Link parseLink(byte[] content, int start, int end) {
+        // like String.split(), ignore trailing empty attributes
+        while (end > start && content[end - 1] == ';') {
+            end--;
+        }
+        int urlEnd = indexOf(content, start, end, ';');
 
-            if (linkParts.length > 1) {
-                for (int i = 1; i < linkParts.length; i++) {
-                    String[] attParts = linkParts[i].split("=");
-                    if (attParts.length > 0) {
-                        String key = attParts[0];
-                        String value = null;
-                        if (attParts.length > 1) {
-                            value = attParts[1];
-                        }
-                        attributes.put(key, value);
-                    }
-                }
+        // clean URL
+        int urlStart = start;
+        while (urlStart < urlEnd && (content[urlStart] & 0xFF) <= ' ') {
+            urlStart++;
+        }
+        while (urlEnd > urlStart && (content[urlEnd - 1] & 0xFF) <= ' ') {
+            urlEnd--;
+        }
+        if (urlEnd > urlStart && content[urlEnd - 1] == '>') {
+            urlEnd--;
+        }
+        if (urlEnd > urlStart && content[urlStart] == '<') {
+            urlStart++;
+        }
+        String url = new String(content, urlStart, urlEnd - urlStart, StandardCharsets.UTF_8);
+
+        // parse attributes
+        int attributeStart = indexOf(content, start, end, ';') + 1;
+        if (attributeStart > end) {
+            return new Link(Collections.<String, String> emptyMap(), url);
+        }
+        Map<String, String> attributes = new HashMap<>();
+        while (attributeStart <= end) {
+            int attributeEnd = indexOf(content, attributeStart, end, ';');
+            parseAttribute(content, attributeStart, attributeEnd, attributes);
+            attributeStart = attributeEnd + 1;
+        }
+        return new Link(Collections.unmodifiableMap(attributes), url);
+    }
+
+    private static void parseAttribute(byte[] content, int start, int end, Map<String, String> attributes) {
+        // like String.split(), ignore trailing empty parts
+        int partsEnd = end;
+        while (partsEnd > start && content[partsEnd - 1] == '=') {
+            partsEnd--;
+        }
+        if (partsEnd == start && end > start) {
+            // only '=' characters: no key
+            return;
+        }
+
+        int keyEnd = indexOf(content, start, partsEnd, '=');
+        String key = new String(content, start, keyEnd - start, StandardCharsets.UTF_8);
+        String value = null;
+        if (keyEnd < partsEnd) {
+            int valueEnd = indexOf(content, keyEnd + 1, partsEnd, '=');
+            value = new String(content, keyEnd + 1, valueEnd - keyEnd - 1, StandardCharsets.UTF_8);
+        }
+        attributes.put(key, value);
+    }
+
+    private static int indexOf(byte[] content, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (content[i] == c) {
+                return i;
             }
-            linksResult[index] = new Link(url, attributes);
-            index++;
         }
-        return linksResult;
+        return end;
     }
 
     private static final String TRAILER = ",";
@@ -12,14 +12,16 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - index models by object id and version
  *******************************************************************************/
 package org.eclipse.leshan.core.model;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import org.eclipse.leshan.core.util.Validate;
@@ -33,32 +35,42 @@ import org.slf4j.LoggerFactory;
 public class LwM2mModelRepository {
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mModelRepository.class);
 
-    // This map contains all the object models available. Different version could be used.
-    // This map is indexed by a string composed of objectid and version (objectid##version)
-    private final Map<String, ObjectModel> objects;
+    // All the object models available, indexed by object id then by version. Object ids are sorted to be searched by
+    // dichotomy and each id has generally only a few versions, so a lookup does not need to allocate any key.
+    private final int[] objectIds;
+    private final ObjectModel[][] versions;
 
     public LwM2mModelRepository(ObjectModel... objectModels) {
         this(Arrays.asList(objectModels));
     }
 
     public LwM2mModelRepository(Collection<ObjectModel> objectModels) {
-        if (objectModels == null) {
-            objects = new TreeMap<>();
-        } else {
-            Map<String, ObjectModel> map = new HashMap<>();
+        Map<Integer, List<ObjectModel>> map = new TreeMap<>();
+        if (objectModels != null) {
             for (ObjectModel model : objectModels) {
-                String key = getKey(model);
-                if (key == null) {
-                    throw new IllegalArgumentException(
-                            String.format("Model %s is invalid : object id is missing.", model));
+                List<ObjectModel> models = map.get(model.id);
+                if (models == null) {
+                    models = new ArrayList<>(1);
+                    map.put(model.id, models);
                 }
-                ObjectModel old = map.put(key, model);
-                if (old != null) {
+                int index = indexOf(models, model.getVersion());
+                if (index < 0) {
+                    models.add(model);
+                } else {
                     LOG.debug("Model already exists for object {} in version {}. Overriding it.", model.id,
                             model.getVersion());
+                    models.set(index, model);
                 }
             }
-            objects = Collections.unmodifiableMap(map);
+        }
+
+        objectIds = new int[map.size()];
+        versions = new ObjectModel[map.size()][];
+        int i = 0;
+        for (Entry<Integer, List<ObjectModel>> entry : map.entrySet()) {
+            objectIds[i] = entry.getKey();
+            versions[i] = entry.getValue().toArray(new ObjectModel[entry.getValue().size()]);
+            i++;
         }
     }
 
@@ -66,17 +78,33 @@ public class LwM2mModelRepository {
         Validate.notNull(objectId, "objectid must not be null");
         Validate.notNull(version, "version must not be null");
 
-        return objects.get(getKey(objectId, version));
+        return getObjectModel(objectId.intValue(), version);
     }
 
-    private String getKey(ObjectModel objectModel) {
-        return getKey(objectModel.id, objectModel.getVersion());
-    }
+    /**
+     * @return the model of the given object in the given version or <code>null</code> if there is no such model.
+     */
+    public ObjectModel getObjectModel(int objectId, String version) {
+        Validate.notNull(version, "version must not be null");
 
-    private String getKey(Integer objectId, String version) {
-        if (objectId == null) {
+        int index = Arrays.binarySearch(objectIds, objectId);
+        if (index < 0) {
             return null;
         }
-        return objectId + "##" + version;
+        for (ObjectModel model : versions[index]) {
+            if (version.equals(model.getVersion())) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(List<ObjectModel> models, String version) {
+        for (int i = 0; i < models.size(); i++) {
+            if (version.equals(models.get(i).getVersion())) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -12,19 +12,18 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - store resource instances in sorted arrays
  *******************************************************************************/
 package org.eclipse.leshan.core.node;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.Objects;
+import java.util.Set;
 
 import org.eclipse.leshan.core.model.ResourceModel.Type;
 
@@ -32,25 +31,97 @@ import org.eclipse.leshan.core.model.ResourceModel.Type;
  * A resource which contains several resource instances.
  * 
  * A resource instance is defined by a numeric identifier and a value. There are accessible via {@link #getValues()}
+ * <p>
+ * Resource instances are stored in arrays sorted by identifier. Values of {@link Type#INTEGER}, {@link Type#FLOAT} and
+ * {@link Type#BOOLEAN} resources are stored as primitives and can be accessed without boxing using
+ * {@link #getLongValue(int)}, {@link #getDoubleValue(int)} and {@link #getBooleanValue(int)}.
  */
 public class LwM2mMultipleResource implements LwM2mResource {
 
     private final int id;
 
-    private final Map<Integer, Object> values;
+    // sorted identifiers of resource instances
+    private final int[] instanceIds;
+
+    // values of resources which are not stored as primitive, null else
+    private final Object[] values;
+
+    // values of INTEGER, FLOAT (see Double#doubleToLongBits) and BOOLEAN (1 for true) resources, null else
+    private final long[] primitiveValues;
 
     private final Type type;
 
+    // read-only map view of the resource instances
+    private final Map<Integer, Object> valuesView = new ValuesView();
+
     protected LwM2mMultipleResource(int id, Map<Integer, ?> values, Type type) {
         LwM2mNodeUtil.validateNotNull(values, "values MUST NOT be null");
         LwM2mNodeUtil.validateResourceId(id);
 
+        int[] instanceIds = new int[values.size()];
+        int i = 0;
         for (Integer instanceId : values.keySet()) {
             LwM2mNodeUtil.validateResourceInstanceId(instanceId);
+            instanceIds[i++] = instanceId;
+        }
+        Arrays.sort(instanceIds);
+
+        this.id = id;
+        this.type = type;
+        this.instanceIds = instanceIds;
+        if (isPrimitive(type, values)) {
+            this.values = null;
+            this.primitiveValues = new long[instanceIds.length];
+            for (i = 0; i < instanceIds.length; i++) {
+                primitiveValues[i] = toPrimitive(values.get(instanceIds[i]));
+            }
+        } else {
+            this.values = new Object[instanceIds.length];
+            this.primitiveValues = null;
+            for (i = 0; i < instanceIds.length; i++) {
+                this.values[i] = values.get(instanceIds[i]);
+            }
+        }
+    }
+
+    /**
+     * @param instanceIds identifiers of resource instances, in any order.
+     * @param primitiveValues values in the same order than instance identifiers.
+     */
+    private LwM2mMultipleResource(int id, int[] instanceIds, long[] primitiveValues, Type type) {
+        LwM2mNodeUtil.validateResourceId(id);
+        if (instanceIds.length != primitiveValues.length) {
+            throw new LwM2mNodeException("Number of values (%d) does not match number of resource instances (%d)",
+                    primitiveValues.length, instanceIds.length);
+        }
+        for (int instanceId : instanceIds) {
+            LwM2mNodeUtil.validateResourceInstanceId(instanceId);
+        }
+
+        int[] sortedIds = instanceIds.clone();
+        long[] sortedValues = primitiveValues.clone();
+        // generally already sorted, so a simple insertion sort is enough
+        for (int i = 1; i < sortedIds.length; i++) {
+            int instanceId = sortedIds[i];
+            long value = sortedValues[i];
+            int j = i - 1;
+            while (j >= 0 && sortedIds[j] > instanceId) {
+                sortedIds[j + 1] = sortedIds[j];
+                sortedValues[j + 1] = sortedValues[j];
+                j--;
+            }
+            if (j >= 0 && sortedIds[j] == instanceId) {
+                throw new LwM2mNodeException("Duplicate resource instance id %d", instanceId);
+            }
+            sortedIds[j + 1] = instanceId;
+            sortedValues[j + 1] = value;
         }
+
         this.id = id;
-        this.values = Collections.unmodifiableMap(new HashMap<>(values));
         this.type = type;
+        this.instanceIds = sortedIds;
+        this.values = null;
+        this.primitiveValues = sortedValues;
     }
 
     public static LwM2mMultipleResource newResource(int id, Map<Integer, ?> values, Type type) {
@@ -118,6 +189,50 @@ public class LwM2mMultipleResource implements LwM2mResource {
         return new LwM2mMultipleResource(id, values, Type.OPAQUE);
     }
 
+    /**
+     * Creates an {@link Type#INTEGER} resource without boxing values.
+     * 
+     * @param instanceIds identifiers of resource instances, in any order.
+     * @param values values in the same order than instance identifiers.
+     */
+    public static LwM2mMultipleResource newIntegerResource(int id, int[] instanceIds, long[] values) {
+        LwM2mNodeUtil.validateNotNull(instanceIds, "instanceIds MUST NOT be null");
+        LwM2mNodeUtil.validateNotNull(values, "values MUST NOT be null");
+        return new LwM2mMultipleResource(id, instanceIds, values, Type.INTEGER);
+    }
+
+    /**
+     * Creates a {@link Type#FLOAT} resource without boxing values.
+     * 
+     * @param instanceIds identifiers of resource instances, in any order.
+     * @param values values in the same order than instance identifiers.
+     */
+    public static LwM2mMultipleResource newFloatResource(int id, int[] instanceIds, double[] values) {
+        LwM2mNodeUtil.validateNotNull(instanceIds, "instanceIds MUST NOT be null");
+        LwM2mNodeUtil.validateNotNull(values, "values MUST NOT be null");
+        long[] primitiveValues = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            primitiveValues[i] = Double.doubleToLongBits(values[i]);
+        }
+        return new LwM2mMultipleResource(id, instanceIds, primitiveValues, Type.FLOAT);
+    }
+
+    /**
+     * Creates a {@link Type#BOOLEAN} resource without boxing values.
+     * 
+     * @param instanceIds identifiers of resource instances, in any order.
+     * @param values values in the same order than instance identifiers.
+     */
+    public static LwM2mMultipleResource newBooleanResource(int id, int[] instanceIds, boolean[] values) {
+        LwM2mNodeUtil.validateNotNull(instanceIds, "instanceIds MUST NOT be null");
+        LwM2mNodeUtil.validateNotNull(values, "values MUST NOT be null");
+        long[] primitiveValues = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            primitiveValues[i] = values[i] ? 1 : 0;
+        }
+        return new LwM2mMultipleResource(id, instanceIds, primitiveValues, Type.BOOLEAN);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -144,10 +259,12 @@ public class LwM2mMultipleResource implements LwM2mResource {
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The returned map is a read-only view sorted by resource instance identifier.
      */
     @Override
     public Map<Integer, ?> getValues() {
-        return values;
+        return valuesView;
     }
 
     /**
@@ -155,7 +272,42 @@ public class LwM2mMultipleResource implements LwM2mResource {
      */
     @Override
     public Object getValue(int id) {
-        return values.get(id);
+        int index = Arrays.binarySearch(instanceIds, id);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * @return the value of a resource instance of an {@link Type#INTEGER} resource, without boxing.
+     * @exception IllegalStateException if this is not an {@link Type#INTEGER} resource.
+     * @exception NoSuchElementException if there is no resource instance with this identifier.
+     */
+    public long getLongValue(int id) {
+        return primitiveValue(id, Type.INTEGER);
+    }
+
+    /**
+     * @return the value of a resource instance of a {@link Type#FLOAT} resource, without boxing.
+     * @exception IllegalStateException if this is not a {@link Type#FLOAT} resource.
+     * @exception NoSuchElementException if there is no resource instance with this identifier.
+     */
+    public double getDoubleValue(int id) {
+        return Double.longBitsToDouble(primitiveValue(id, Type.FLOAT));
+    }
+
+    /**
+     * @return the value of a resource instance of a {@link Type#BOOLEAN} resource, without boxing.
+     * @exception IllegalStateException if this is not a {@link Type#BOOLEAN} resource.
+     * @exception NoSuchElementException if there is no resource instance with this identifier.
+     */
+    public boolean getBooleanValue(int id) {
+        return primitiveValue(id, Type.BOOLEAN) != 0;
+    }
+
+    /**
+     * @return the identifiers of all resource instances, sorted.
+     */
+    public int[] getInstanceIds() {
+        return instanceIds.clone();
     }
 
     /**
@@ -171,35 +323,87 @@ public class LwM2mMultipleResource implements LwM2mResource {
         visitor.visit(this);
     }
 
+    private long primitiveValue(int id, Type expectedType) {
+        if (type != expectedType || primitiveValues == null) {
+            throw new IllegalStateException(
+                    String.format("Resource %d of type %s has no %s values", this.id, type, expectedType));
+        }
+        int index = Arrays.binarySearch(instanceIds, id);
+        if (index < 0) {
+            throw new NoSuchElementException(String.format("No resource instance %d in resource %d", id, this.id));
+        }
+        return primitiveValues[index];
+    }
+
+    private Object valueAt(int index) {
+        if (primitiveValues == null) {
+            return values[index];
+        }
+        switch (type) {
+        case INTEGER:
+            return primitiveValues[index];
+        case FLOAT:
+            return Double.longBitsToDouble(primitiveValues[index]);
+        default:
+            return primitiveValues[index] != 0;
+        }
+    }
+
+    private int valueHashCode(int index) {
+        if (primitiveValues != null) {
+            // same hashcode as the boxed value
+            long value = primitiveValues[index];
+            return type == Type.BOOLEAN ? (value != 0 ? 1231 : 1237) : (int) (value ^ (value >>> 32));
+        }
+        // Custom hashcode to handle byte arrays
+        return type == Type.OPAQUE ? Arrays.hashCode((byte[]) values[index]) : values[index].hashCode();
+    }
+
+    private static boolean isPrimitive(Type type, Map<Integer, ?> values) {
+        Class<?> primitiveClass;
+        switch (type) {
+        case INTEGER:
+            primitiveClass = Long.class;
+            break;
+        case FLOAT:
+            primitiveClass = Double.class;
+            break;
+        case BOOLEAN:
+            primitiveClass = Boolean.class;
+            break;
+        default:
+            return false;
+        }
+        for (Object value : values.values()) {
+            if (!primitiveClass.isInstance(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long toPrimitive(Object value) {
+        if (value instanceof Double) {
+            return Double.doubleToLongBits((Double) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return (Long) value;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + id;
         result = prime * result + ((type == null) ? 0 : type.hashCode());
-        result = prime * result + ((values == null) ? 0 : internalHashCode(values));
-        return result;
-    }
-
-    /**
-     * This is a copy of {@link AbstractMap#hashCode()} with custom code to handle byte array equality
-     */
-    private int internalHashCode(Map<?, ?> m) {
+        // same hashcode as a map of boxed values, see AbstractMap#hashCode()
         int h = 0;
-        Iterator<?> i = m.entrySet().iterator();
-        if (type == Type.OPAQUE) {
-            // Custom hashcode to handle byte arrays
-            while (i.hasNext()) {
-                Entry<?, ?> e = (Entry<?, ?>) i.next();
-                h += Objects.hashCode(e.getKey()) ^ Arrays.hashCode((byte[]) e.getValue());
-            }
-        } else {
-            while (i.hasNext()) {
-                Entry<?, ?> e = (Entry<?, ?>) i.next();
-                h += Objects.hashCode(e.getKey()) ^ Objects.hashCode(e.getValue());
-            }
+        for (int i = 0; i < instanceIds.length; i++) {
+            h += instanceIds[i] ^ valueHashCode(i);
         }
-        return h;
+        result = prime * result + h;
+        return result;
     }
 
     @Override
@@ -215,46 +419,21 @@ public class LwM2mMultipleResource implements LwM2mResource {
             return false;
         if (type != other.type)
             return false;
-        if (values == null) {
-            if (other.values != null)
-                return false;
-            // Custom equals to handle byte arrays
-        } else if (!internalMapEquals(values, other.values))
+        if (!Arrays.equals(instanceIds, other.instanceIds))
             return false;
-        return true;
-    }
-
-    /**
-     * This is a copy of {@link AbstractMap#equals(Object)} with custom code to handle byte array equality
-     */
-    private boolean internalMapEquals(Map<?, ?> m1, Object o2) {
-        if (o2 == this)
-            return true;
-
-        if (!(o2 instanceof Map))
-            return false;
-        Map<?, ?> m2 = (Map<?, ?>) o2;
-        if (m2.size() != m1.size())
-            return false;
-
-        try {
-            for (Object o : m1.entrySet()) {
-                Entry<?, ?> e = (Entry<?, ?>) o;
-                Object key = e.getKey();
-                Object value = e.getValue();
-                if (value == null) {
-                    if (!(m2.get(key) == null && m2.containsKey(key)))
-                        return false;
-                } else {
-                    // Custom equals to handle byte arrays
-                    return type == Type.OPAQUE ? Arrays.equals((byte[]) value, (byte[]) m2.get(key))
-                            : value.equals(m2.get(key));
-                }
+        if (primitiveValues != null && other.primitiveValues != null)
+            return Arrays.equals(primitiveValues, other.primitiveValues);
+        for (int i = 0; i < instanceIds.length; i++) {
+            Object value = valueAt(i);
+            Object otherValue = other.valueAt(i);
+            // Custom equals to handle byte arrays
+            if (type == Type.OPAQUE && value instanceof byte[] && otherValue instanceof byte[]) {
+                if (!Arrays.equals((byte[]) value, (byte[]) otherValue))
+                    return false;
+            } else if (!value.equals(otherValue)) {
+                return false;
             }
-        } catch (ClassCastException | NullPointerException unused) {
-            return false;
         }
-
         return true;
     }
 
@@ -266,22 +445,78 @@ public class LwM2mMultipleResource implements LwM2mResource {
             // Not ideal but didn't find better way for now.
             StringBuilder sb = new StringBuilder();
             sb.append("{");
-            Iterator<Entry<Integer, Object>> iter = values.entrySet().iterator();
-            while (iter.hasNext()) {
-                Entry<Integer, Object> entry = iter.next();
-                sb.append(entry.getKey());
-                sb.append("=");
-                sb.append(((byte[]) entry.getValue()).length + "Bytes");
-                if (iter.hasNext()) {
+            for (int i = 0; i < instanceIds.length; i++) {
+                if (i > 0) {
                     sb.append(", ");
                 }
+                sb.append(instanceIds[i]);
+                sb.append("=");
+                sb.append(((byte[]) values[i]).length + "Bytes");
             }
             sb.append("}");
             printableValue = sb.toString();
         } else {
-            printableValue = values;
+            printableValue = valuesView;
         }
         return String.format("LwM2mMultipleResource [id=%s, values=%s, type=%s]", id, printableValue, type);
     }
 
+    /**
+     * A read-only map backed by the sorted arrays of the resource. Values are boxed on access.
+     */
+    private class ValuesView extends AbstractMap<Integer, Object> {
+
+        @Override
+        public int size() {
+            return instanceIds.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && Arrays.binarySearch(instanceIds, (Integer) key) >= 0;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof Integer ? getValue((Integer) key) : null;
+        }
+
+        @Override
+        public Set<Entry<Integer, Object>> entrySet() {
+            return new AbstractSet<Entry<Integer, Object>>() {
+                @Override
+                public int size() {
+                    return instanceIds.length;
+                }
+
+                @Override
+                public Iterator<Entry<Integer, Object>> iterator() {
+                    return new Iterator<Entry<Integer, Object>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < instanceIds.length;
+                        }
+
+                        @Override
+                        public Entry<Integer, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Integer, Object> entry = new SimpleImmutableEntry<>(instanceIds[index],
+                                    valueAt(index));
+                            index++;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException("Resource instances can not be modified");
+                        }
+                    };
+                }
+            };
+        }
+    }
 }
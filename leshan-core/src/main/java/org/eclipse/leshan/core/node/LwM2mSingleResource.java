@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - store INTEGER, FLOAT and BOOLEAN values as primitives
  *******************************************************************************/
 package org.eclipse.leshan.core.node;
 
@@ -24,13 +25,21 @@ import org.eclipse.leshan.core.model.ResourceModel.Type;
 
 /**
  * A resource with a single value.
+ * <p>
+ * Values of {@link Type#INTEGER}, {@link Type#FLOAT} and {@link Type#BOOLEAN} resources are stored as primitives and
+ * can be accessed without boxing using {@link #getLongValue()}, {@link #getDoubleValue()} and
+ * {@link #getBooleanValue()}.
  */
 public class LwM2mSingleResource implements LwM2mResource {
 
     private final int id;
 
+    // value of resources which are not stored as primitive, null else
     private final Object value;
 
+    // value of INTEGER, FLOAT (see Double#doubleToLongBits) and BOOLEAN (1 for true) resources
+    private final long primitiveValue;
+
     private final Type type;
 
     protected LwM2mSingleResource(int id, Object value, Type type) {
@@ -38,7 +47,28 @@ public class LwM2mSingleResource implements LwM2mResource {
         LwM2mNodeUtil.validateResourceId(id);
 
         this.id = id;
-        this.value = value;
+        this.type = type;
+        if (type == Type.INTEGER && value instanceof Long) {
+            this.value = null;
+            this.primitiveValue = (Long) value;
+        } else if (type == Type.FLOAT && value instanceof Double) {
+            this.value = null;
+            this.primitiveValue = Double.doubleToLongBits((Double) value);
+        } else if (type == Type.BOOLEAN && value instanceof Boolean) {
+            this.value = null;
+            this.primitiveValue = (Boolean) value ? 1 : 0;
+        } else {
+            this.value = value;
+            this.primitiveValue = 0;
+        }
+    }
+
+    private LwM2mSingleResource(int id, long primitiveValue, Type type) {
+        LwM2mNodeUtil.validateResourceId(id);
+
+        this.id = id;
+        this.value = null;
+        this.primitiveValue = primitiveValue;
         this.type = type;
     }
 
@@ -92,11 +122,11 @@ public class LwM2mSingleResource implements LwM2mResource {
     }
 
     public static LwM2mSingleResource newBooleanResource(int id, boolean value) {
-        return new LwM2mSingleResource(id, value, Type.BOOLEAN);
+        return new LwM2mSingleResource(id, value ? 1L : 0L, Type.BOOLEAN);
     }
 
     public static LwM2mSingleResource newFloatResource(int id, double value) {
-        return new LwM2mSingleResource(id, value, Type.FLOAT);
+        return new LwM2mSingleResource(id, Double.doubleToLongBits(value), Type.FLOAT);
     }
 
     public static LwM2mSingleResource newDateResource(int id, Date value) {
@@ -128,7 +158,51 @@ public class LwM2mSingleResource implements LwM2mResource {
      */
     @Override
     public Object getValue() {
-        return value;
+        if (value != null) {
+            return value;
+        }
+        switch (type) {
+        case INTEGER:
+            return primitiveValue;
+        case FLOAT:
+            return Double.longBitsToDouble(primitiveValue);
+        default:
+            return primitiveValue != 0;
+        }
+    }
+
+    /**
+     * @return the value of an {@link Type#INTEGER} resource, without boxing.
+     * @exception IllegalStateException if this is not an {@link Type#INTEGER} resource.
+     */
+    public long getLongValue() {
+        checkPrimitive(Type.INTEGER);
+        return primitiveValue;
+    }
+
+    /**
+     * @return the value of a {@link Type#FLOAT} resource, without boxing.
+     * @exception IllegalStateException if this is not a {@link Type#FLOAT} resource.
+     */
+    public double getDoubleValue() {
+        checkPrimitive(Type.FLOAT);
+        return Double.longBitsToDouble(primitiveValue);
+    }
+
+    /**
+     * @return the value of a {@link Type#BOOLEAN} resource, without boxing.
+     * @exception IllegalStateException if this is not a {@link Type#BOOLEAN} resource.
+     */
+    public boolean getBooleanValue() {
+        checkPrimitive(Type.BOOLEAN);
+        return primitiveValue != 0;
+    }
+
+    private void checkPrimitive(Type expectedType) {
+        if (type != expectedType || value != null) {
+            throw new IllegalStateException(
+                    String.format("Resource %d of type %s has no %s value", id, type, expectedType));
+        }
     }
 
     /**
@@ -166,11 +240,15 @@ public class LwM2mSingleResource implements LwM2mResource {
         int result = 1;
         result = prime * result + id;
         result = prime * result + ((type == null) ? 0 : type.hashCode());
-        if (type == Type.OPAQUE) {
+        if (value == null) {
+            // same hashcode as the boxed value
+            result = prime * result + (type == Type.BOOLEAN ? (primitiveValue != 0 ? 1231 : 1237)
+                    : (int) (primitiveValue ^ (primitiveValue >>> 32)));
+        } else if (type == Type.OPAQUE) {
             // Custom hashcode to handle byte arrays
-            result = prime * result + ((value == null) ? 0 : Arrays.hashCode((byte[]) value));
+            result = prime * result + Arrays.hashCode((byte[]) value);
         } else {
-            result = prime * result + ((value == null) ? 0 : value.hashCode());
+            result = prime * result + value.hashCode();
         }
         return result;
     }
@@ -191,12 +269,12 @@ public class LwM2mSingleResource implements LwM2mResource {
         if (value == null) {
             if (other.value != null)
                 return false;
+            return primitiveValue == other.primitiveValue;
         } else {
             // Custom equals to handle byte arrays
             return type == Type.OPAQUE ? Arrays.equals((byte[]) value, (byte[]) other.value)
                     : value.equals(other.value);
         }
-        return true;
     }
 
     @Override
@@ -204,7 +282,7 @@ public class LwM2mSingleResource implements LwM2mResource {
         // We don't print OPAQUE value as this could be credentials one.
         // Not ideal but didn't find better way for now.
         return String.format("LwM2mSingleResource [id=%s, value=%s, type=%s]", id,
-                type == Type.OPAQUE ? ((byte[]) value).length + "Bytes" : value, type);
+                type == Type.OPAQUE ? ((byte[]) value).length + "Bytes" : getValue(), type);
     }
 
 }
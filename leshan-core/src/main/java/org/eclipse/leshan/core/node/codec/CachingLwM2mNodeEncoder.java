@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * A {@link LwM2mNodeEncoder} able to reuse the payload of a node sent to many clients.
+ * <p>
+ * Payloads of nodes given to {@link #retain(LwM2mNode)} are cached until {@link #release(LwM2mNode)} is called, so a
+ * node written to many devices is encoded only once per content format, path and object model. Nodes are compared by
+ * identity, other nodes are directly encoded by the delegated encoder.
+ * <p>
+ * The cached payloads are shared between requests, so they must not be modified.
+ */
+public class CachingLwM2mNodeEncoder implements LwM2mNodeEncoder {
+
+    private final LwM2mNodeEncoder delegate;
+    private final Map<NodeKey, NodeEntry> retained = new ConcurrentHashMap<>();
+
+    public CachingLwM2mNodeEncoder(LwM2mNodeEncoder delegate) {
+        Validate.notNull(delegate);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Start caching the payloads of the given node. Each call must be followed by a call to
+     * {@link #release(LwM2mNode)}.
+     */
+    public synchronized void retain(LwM2mNode node) {
+        NodeKey key = new NodeKey(node);
+        NodeEntry entry = retained.get(key);
+        if (entry == null) {
+            entry = new NodeEntry();
+            retained.put(key, entry);
+        }
+        entry.count++;
+    }
+
+    /**
+     * Stop caching the payloads of the given node once it is released as many times as it was retained.
+     */
+    public synchronized void release(LwM2mNode node) {
+        NodeKey key = new NodeKey(node);
+        NodeEntry entry = retained.get(key);
+        if (entry != null && --entry.count == 0) {
+            retained.remove(key);
+        }
+    }
+
+    @Override
+    public byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model)
+            throws CodecException {
+        Map<PayloadKey, byte[]> payloads = payloads(node);
+        ObjectModel objectModel = payloads == null || model == null ? null : model.getObjectModel(path.getObjectId());
+        if (objectModel == null) {
+            return delegate.encode(node, format, path, model);
+        }
+
+        PayloadKey key = new PayloadKey(format, path, objectModel);
+        byte[] payload = payloads.get(key);
+        if (payload == null) {
+            // concurrent encodings of the same payload are harmless
+            payload = delegate.encode(node, format, path, model);
+            payloads.put(key, payload);
+        }
+        return payload;
+    }
+
+    @Override
+    public int encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model, ByteBuffer buffer)
+            throws CodecException {
+        if (payloads(node) == null) {
+            return delegate.encode(node, format, path, model, buffer);
+        }
+        byte[] payload = encode(node, format, path, model);
+        if (payload.length > buffer.remaining()) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(payload);
+        return payload.length;
+    }
+
+    @Override
+    public byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, ContentFormat format,
+            LwM2mPath path, LwM2mModel model) throws CodecException {
+        return delegate.encodeTimestampedData(timestampedNodes, format, path, model);
+    }
+
+    @Override
+    public boolean isSupported(ContentFormat format) {
+        return delegate.isSupported(format);
+    }
+
+    private Map<PayloadKey, byte[]> payloads(LwM2mNode node) {
+        if (node == null || retained.isEmpty()) {
+            return null;
+        }
+        NodeEntry entry = retained.get(new NodeKey(node));
+        return entry == null ? null : entry.payloads;
+    }
+
+    private static class NodeEntry {
+        private final Map<PayloadKey, byte[]> payloads = new ConcurrentHashMap<>();
+        // only modified while holding the encoder lock
+        private int count;
+    }
+
+    private static class NodeKey {
+        private final LwM2mNode node;
+
+        private NodeKey(LwM2mNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NodeKey && ((NodeKey) obj).node == node;
+        }
+    }
+
+    private static class PayloadKey {
+        private final ContentFormat format;
+        private final LwM2mPath path;
+        // object models are compared by identity as they may change between clients
+        private final ObjectModel objectModel;
+
+        private PayloadKey(ContentFormat format, LwM2mPath path, ObjectModel objectModel) {
+            this.format = format;
+            this.path = path;
+            this.objectModel = objectModel;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = format == null ? 0 : format.hashCode();
+            result = 31 * result + path.hashCode();
+            return 31 * result + System.identityHashCode(objectModel);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PayloadKey)) {
+                return false;
+            }
+            PayloadKey other = (PayloadKey) obj;
+            return (format == null ? other.format == null : format.equals(other.format)) && path.equals(other.path)
+                    && objectModel == other.objectModel;
+        }
+    }
+}
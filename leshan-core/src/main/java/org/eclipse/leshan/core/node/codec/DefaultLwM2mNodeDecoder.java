@@ -13,9 +13,12 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     Gemalto M2M GmbH
+ *     Sierra Wireless - add SenML JSON and CBOR decoding
+ *     Sierra Wireless - decode content from ByteBuffer
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -29,6 +32,8 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.json.LwM2mNodeJsonDecoder;
 import org.eclipse.leshan.core.node.codec.opaque.LwM2mNodeOpaqueDecoder;
+import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLCborDecoder;
+import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLJsonDecoder;
 import org.eclipse.leshan.core.node.codec.text.LwM2mNodeTextDecoder;
 import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvDecoder;
 import org.eclipse.leshan.core.request.ContentFormat;
@@ -43,12 +48,16 @@ import org.slf4j.LoggerFactory;
  * <li>{@link ContentFormat#JSON}</li>
  * <li>{@link ContentFormat#TEXT}</li>
  * <li>{@link ContentFormat#OPAQUE}</li>
+ * <li>{@link ContentFormat#SENML_JSON}</li>
+ * <li>{@link ContentFormat#SENML_CBOR}</li>
  * </ul>
  */
 public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultLwM2mNodeDecoder.class);
 
+    private static final byte[] EMPTY = new byte[0];
+
     protected final boolean supportDeprecatedContentFormat;
 
     /**
@@ -77,11 +86,65 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public <T extends LwM2mNode> T decode(byte[] content, ContentFormat format, LwM2mPath path, LwM2mModel model,
             Class<T> nodeClass) throws CodecException {
+        LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+        return content != null ? decode(content, 0, content.length, format, path, model, nodeClass)
+                : decode(EMPTY, 0, 0, format, path, model, nodeClass);
+    }
 
+    @Override
+    public List<TimestampedLwM2mNode> decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path,
+            LwM2mModel model) throws CodecException {
         LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+        return content != null ? decodeTimestampedData(content, 0, content.length, format, path, model)
+                : decodeTimestampedData(EMPTY, 0, 0, format, path, model);
+    }
+
+    @Override
+    public LwM2mNode decode(ByteBuffer content, ContentFormat format, LwM2mPath path, LwM2mModel model)
+            throws CodecException {
+        return decode(content, format, path, model, nodeClassFromPath(path));
+    }
+
+    @Override
+    public <T extends LwM2mNode> T decode(ByteBuffer content, ContentFormat format, LwM2mPath path, LwM2mModel model,
+            Class<T> nodeClass) throws CodecException {
+        LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+        T node;
+        if (content.hasArray()) {
+            node = decode(content.array(), content.arrayOffset() + content.position(), content.remaining(), format,
+                    path, model, nodeClass);
+        } else {
+            byte[] bytes = toArray(content);
+            node = decode(bytes, 0, bytes.length, format, path, model, nodeClass);
+        }
+        content.position(content.limit());
+        return node;
+    }
+
+    @Override
+    public List<TimestampedLwM2mNode> decodeTimestampedData(ByteBuffer content, ContentFormat format, LwM2mPath path,
+            LwM2mModel model) throws CodecException {
+        LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+        List<TimestampedLwM2mNode> nodes;
+        if (content.hasArray()) {
+            nodes = decodeTimestampedData(content.array(), content.arrayOffset() + content.position(),
+                    content.remaining(), format, path, model);
+        } else {
+            byte[] bytes = toArray(content);
+            nodes = decodeTimestampedData(bytes, 0, bytes.length, format, path, model);
+        }
+        content.position(content.limit());
+        return nodes;
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends LwM2mNode> T decode(byte[] content, int offset, int length, ContentFormat format,
+            LwM2mPath path, LwM2mModel model, Class<T> nodeClass) throws CodecException {
         Validate.notNull(path);
 
         if (format == null) {
@@ -95,24 +158,29 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         // Decode content.
         switch (format.getCode()) {
         case ContentFormat.TEXT_CODE:
-            return (T) LwM2mNodeTextDecoder.decode(content, path, model);
+            return (T) LwM2mNodeTextDecoder.decode(content, offset, length, path, model);
         case ContentFormat.TLV_CODE:
         case ContentFormat.OLD_TLV_CODE:
-            return LwM2mNodeTlvDecoder.decode(content, path, model, nodeClass);
+            return LwM2mNodeTlvDecoder.decode(content, offset, length, path, model, nodeClass);
         case ContentFormat.OPAQUE_CODE:
-            return (T) LwM2mNodeOpaqueDecoder.decode(content, path, model);
+            return (T) LwM2mNodeOpaqueDecoder.decode(content, offset, length, path, model);
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
-            return LwM2mNodeJsonDecoder.decode(content, path, model, nodeClass);
+            return LwM2mNodeJsonDecoder.decode(content, offset, length, path, model, nodeClass);
+        case ContentFormat.SENML_JSON_CODE:
+            return LwM2mNodeSenMLJsonDecoder.decode(content, offset, length, path, model, nodeClass);
+        case ContentFormat.SENML_CBOR_CODE:
+            return LwM2mNodeSenMLCborDecoder.decode(content, offset, length, path, model, nodeClass);
         default:
             throw new CodecException("Content format %s is not supported [%s]", format, path);
         }
     }
 
-    @Override
-    public List<TimestampedLwM2mNode> decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path,
-            LwM2mModel model) throws CodecException {
-        LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    protected List<TimestampedLwM2mNode> decodeTimestampedData(byte[] content, int offset, int length,
+            ContentFormat format, LwM2mPath path, LwM2mModel model) throws CodecException {
         Validate.notNull(path);
 
         if (format == null) {
@@ -124,22 +192,33 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         }
 
         // Decode content.
+        Class<? extends LwM2mNode> nodeClass = nodeClassFromPath(path);
         switch (format.getCode()) {
         case ContentFormat.TEXT_CODE:
-            return toTimestampedNodes(LwM2mNodeTextDecoder.decode(content, path, model));
+            return toTimestampedNodes(LwM2mNodeTextDecoder.decode(content, offset, length, path, model));
         case ContentFormat.TLV_CODE:
         case ContentFormat.OLD_TLV_CODE:
-            return toTimestampedNodes(LwM2mNodeTlvDecoder.decode(content, path, model, nodeClassFromPath(path)));
+            return toTimestampedNodes(LwM2mNodeTlvDecoder.decode(content, offset, length, path, model, nodeClass));
         case ContentFormat.OPAQUE_CODE:
-            return toTimestampedNodes(LwM2mNodeOpaqueDecoder.decode(content, path, model));
+            return toTimestampedNodes(LwM2mNodeOpaqueDecoder.decode(content, offset, length, path, model));
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
-            return LwM2mNodeJsonDecoder.decodeTimestamped(content, path, model, nodeClassFromPath(path));
+            return LwM2mNodeJsonDecoder.decodeTimestamped(content, offset, length, path, model, nodeClass);
+        case ContentFormat.SENML_JSON_CODE:
+            return LwM2mNodeSenMLJsonDecoder.decodeTimestamped(content, offset, length, path, model, nodeClass);
+        case ContentFormat.SENML_CBOR_CODE:
+            return LwM2mNodeSenMLCborDecoder.decodeTimestamped(content, offset, length, path, model, nodeClass);
         default:
             throw new CodecException("Content format %s is not supported [%s]", format, path);
         }
     }
 
+    private static byte[] toArray(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
     private static List<TimestampedLwM2mNode> toTimestampedNodes(LwM2mNode node) {
         if (node == null)
             return Collections.emptyList();
@@ -167,6 +246,8 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         case ContentFormat.TLV_CODE:
         case ContentFormat.OPAQUE_CODE:
         case ContentFormat.JSON_CODE:
+        case ContentFormat.SENML_JSON_CODE:
+        case ContentFormat.SENML_CBOR_CODE:
             return true;
         case ContentFormat.OLD_TLV_CODE:
         case ContentFormat.OLD_JSON_CODE:
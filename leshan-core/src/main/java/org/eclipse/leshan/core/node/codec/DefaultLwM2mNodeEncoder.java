@@ -13,9 +13,12 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     Gemalto M2M GmbH
+ *     Sierra Wireless - encode into a caller provided buffer, add SenML CBOR
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.eclipse.leshan.core.model.LwM2mModel;
@@ -24,6 +27,7 @@ import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.json.LwM2mNodeJsonEncoder;
 import org.eclipse.leshan.core.node.codec.opaque.LwM2mNodeOpaqueEncoder;
+import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLCborEncoder;
 import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLJsonEncoder;
 import org.eclipse.leshan.core.node.codec.text.LwM2mNodeTextEncoder;
 import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvEncoder;
@@ -39,6 +43,8 @@ import org.slf4j.LoggerFactory;
  * <li>{@link ContentFormat#JSON}</li>
  * <li>{@link ContentFormat#TEXT}</li>
  * <li>{@link ContentFormat#OPAQUE}</li>
+ * <li>{@link ContentFormat#SENML_JSON}</li>
+ * <li>{@link ContentFormat#SENML_CBOR}</li>
  * </ul>
  */
 public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
@@ -108,6 +114,9 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         case ContentFormat.SENML_JSON_CODE:
             encoded = LwM2mNodeSenMLJsonEncoder.encode(node, path, model, converter);
             break;
+        case ContentFormat.SENML_CBOR_CODE:
+            encoded = LwM2mNodeSenMLCborEncoder.encode(node, path, model, converter);
+            break;
         default:
             throw new CodecException("Content format %s is not supported [%s]", format, path);
         }
@@ -115,6 +124,27 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         return encoded;
     }
 
+    @Override
+    public int encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model, ByteBuffer buffer)
+            throws CodecException {
+        Validate.notNull(buffer);
+
+        if (format != null && (format.getCode() == ContentFormat.TLV_CODE
+                || format.getCode() == ContentFormat.OLD_TLV_CODE && supportDeprecatedContentFormat)) {
+            Validate.notNull(node);
+            LOG.trace("Encoding node {} for path {} and format {}", node, path, format);
+            return LwM2mNodeTlvEncoder.encode(node, path, model, converter, buffer);
+        }
+
+        // other encoders do not support writing in a buffer
+        byte[] encoded = encode(node, format, path, model);
+        if (buffer.remaining() < encoded.length) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(encoded);
+        return encoded.length;
+    }
+
     @Override
     public byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, ContentFormat format,
             LwM2mPath path, LwM2mModel model) throws CodecException {
@@ -150,6 +180,7 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         case ContentFormat.OPAQUE_CODE:
         case ContentFormat.JSON_CODE:
         case ContentFormat.SENML_JSON_CODE:
+        case ContentFormat.SENML_CBOR_CODE:
             return true;
         case ContentFormat.OLD_TLV_CODE:
         case ContentFormat.OLD_JSON_CODE:
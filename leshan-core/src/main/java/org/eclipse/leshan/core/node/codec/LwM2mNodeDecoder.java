@@ -12,9 +12,11 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode content from ByteBuffer
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.eclipse.leshan.core.model.LwM2mModel;
@@ -66,6 +68,55 @@ public interface LwM2mNodeDecoder {
     List<TimestampedLwM2mNode> decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path,
             LwM2mModel model) throws CodecException;
 
+    /**
+     * Deserializes the remaining bytes of a buffer into a {@link LwM2mNode}.
+     * <p>
+     * See {@link #decode(ByteBuffer, ContentFormat, LwM2mPath, LwM2mModel, Class)}.
+     *
+     * @param content the buffer containing the content, between its position and its limit
+     * @param format the content format
+     * @param path the path of the node to build
+     * @param model the collection of supported object models
+     * @return the resulting node
+     * @throws CodecException if there payload is malformed.
+     */
+    LwM2mNode decode(ByteBuffer content, ContentFormat format, LwM2mPath path, LwM2mModel model)
+            throws CodecException;
+
+    /**
+     * Deserializes the remaining bytes of a buffer into a {@link LwM2mNode} of the expected type.
+     * <p>
+     * If the buffer is backed by an accessible array, the content is decoded directly from this array without
+     * copying it, so the buffer must not be modified until decoding is done. On success, the position of the buffer is
+     * moved to its limit.
+     *
+     * @param content the buffer containing the content, between its position and its limit
+     * @param format the content format
+     * @param path the path of the node to build
+     * @param model the collection of supported object models
+     * @param nodeClass the class of the {@link LwM2mNode} to decode
+     * @return the resulting node
+     * @throws CodecException if there payload is malformed.
+     */
+    <T extends LwM2mNode> T decode(ByteBuffer content, ContentFormat format, LwM2mPath path, LwM2mModel model,
+            Class<T> nodeClass) throws CodecException;
+
+    /**
+     * Deserializes the remaining bytes of a buffer into a list of time-stamped {@link LwM2mNode} ordering by
+     * time-stamp.
+     * <p>
+     * See {@link #decode(ByteBuffer, ContentFormat, LwM2mPath, LwM2mModel, Class)}.
+     *
+     * @param content the buffer containing the content, between its position and its limit
+     * @param format the content format
+     * @param path the path of the node to build
+     * @param model the collection of supported object models
+     * @return the resulting list of time-stamped {@link LwM2mNode} ordering by time-stamp
+     * @exception CodecException if there payload is malformed.
+     */
+    List<TimestampedLwM2mNode> decodeTimestampedData(ByteBuffer content, ContentFormat format, LwM2mPath path,
+            LwM2mModel model) throws CodecException;
+
     /**
      * return true is the given {@link ContentFormat} is supported
      */
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.eclipse.leshan.core.model.LwM2mModel;
@@ -38,6 +39,24 @@ public interface LwM2mNodeEncoder {
     byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model)
             throws CodecException;
 
+    /**
+     * Serializes a {@link LwM2mNode} with the given content format into the given buffer, starting at its current
+     * position.
+     * <p>
+     * This allows to reuse the same buffer to encode several nodes.
+     *
+     * @param node the object/instance/resource to serialize
+     * @param format the content format
+     * @param path the path of the node to serialize
+     * @param model the collection of supported object models
+     * @param buffer the buffer to write in
+     * @return the number of bytes written
+     * @throws CodecException if there payload is malformed.
+     * @throws java.nio.BufferOverflowException if the buffer is too small, nothing is written in this case.
+     */
+    int encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model, ByteBuffer buffer)
+            throws CodecException;
+
     /**
      * Serializes a list of time-stamped {@link LwM2mNode} with the given content format.
      *
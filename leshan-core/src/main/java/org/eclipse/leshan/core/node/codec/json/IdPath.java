@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.json;
+
+import org.eclipse.leshan.core.json.LwM2mJsonException;
+import org.eclipse.leshan.core.node.LwM2mPath;
+
+/**
+ * A mutable LWM2M path built character by character, used to concatenate base name and name of JSON entries without
+ * creating any String.
+ * <p>
+ * Like a string concatenation, an identifier can be continued by the next appended characters: base name "3/0/1"
+ * followed by name "1/0" gives the path 3/0/11/0.
+ */
+class IdPath {
+
+    private final int[] ids = new int[4];
+    private int size;
+    // true if the last identifier can be continued by the next digit
+    private boolean open;
+
+    void reset() {
+        size = 0;
+        open = false;
+    }
+
+    void set(IdPath path) {
+        System.arraycopy(path.ids, 0, ids, 0, path.size);
+        size = path.size;
+        open = path.open;
+    }
+
+    void append(char c) throws LwM2mJsonException {
+        if (c >= '0' && c <= '9') {
+            if (!open) {
+                if (size == ids.length) {
+                    throw new LwM2mJsonException("Invalid path [%s...]: too many identifiers", this);
+                }
+                ids[size++] = 0;
+                open = true;
+            }
+            int id = ids[size - 1] * 10 + (c - '0');
+            if (id > 0xFFFF) {
+                throw new LwM2mJsonException("Invalid path [%s...]: identifier too large", this);
+            }
+            ids[size - 1] = id;
+        } else if (c == '/') {
+            // leading and trailing slashes are allowed but not empty identifiers
+            if (!open && size > 0) {
+                throw new LwM2mJsonException("Invalid path [%s/]: empty identifier", this);
+            }
+            open = false;
+        } else {
+            throw new LwM2mJsonException("Invalid path [%s...]: unexpected character '%c'", this, c);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int index) {
+        return ids[index];
+    }
+
+    LwM2mPath toLwM2mPath() {
+        switch (size) {
+        case 1:
+            return new LwM2mPath(ids[0]);
+        case 2:
+            return new LwM2mPath(ids[0], ids[1]);
+        case 3:
+            return new LwM2mPath(ids[0], ids[1], ids[2]);
+        case 4:
+            return new LwM2mPath(ids[0], ids[1], ids[2], ids[3]);
+        default:
+            return new LwM2mPath("/");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            b.append('/').append(ids[i]);
+        }
+        return b.toString();
+    }
+}
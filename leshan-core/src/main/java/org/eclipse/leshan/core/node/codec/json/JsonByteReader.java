@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.json;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.eclipse.leshan.core.json.LwM2mJsonException;
+
+/**
+ * A pull parser reading JSON tokens directly from UTF-8 encoded bytes.
+ * <p>
+ * Member names are matched against expected names without creating any String, numbers are parsed without
+ * intermediate String when possible and paths can be read as numeric identifiers (see {@link IdPath}).
+ */
+class JsonByteReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    enum Token {
+        BEGIN_OBJECT, BEGIN_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+
+    private final byte[] content;
+    private final int offset;
+    private final int limit;
+    private int position;
+
+    // stack of opened objects and arrays
+    private byte[] closers = new byte[8];
+    private boolean[] empty = new boolean[8];
+    private int depth;
+
+    JsonByteReader(byte[] content) {
+        this(content, 0, content.length);
+    }
+
+    /**
+     * Create a reader on the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    JsonByteReader(byte[] content, int offset, int length) {
+        this.content = content;
+        this.offset = offset;
+        this.limit = offset + length;
+        this.position = offset;
+    }
+
+    int position() {
+        return position;
+    }
+
+    /**
+     * Move to the given position, which must be the start of a value inside the current object or array.
+     */
+    void seek(int position) {
+        this.position = position;
+    }
+
+    Token peek() throws LwM2mJsonException {
+        switch (current()) {
+        case '{':
+            return Token.BEGIN_OBJECT;
+        case '[':
+            return Token.BEGIN_ARRAY;
+        case '"':
+            return Token.STRING;
+        case 't':
+        case 'f':
+            return Token.BOOLEAN;
+        case 'n':
+            return Token.NULL;
+        case '}':
+        case ']':
+            return Token.END;
+        case '-':
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+        case '7':
+        case '8':
+        case '9':
+            return Token.NUMBER;
+        default:
+            throw error("Unexpected character");
+        }
+    }
+
+    void beginObject() throws LwM2mJsonException {
+        consume('{');
+        push((byte) '}');
+    }
+
+    void beginArray() throws LwM2mJsonException {
+        consume('[');
+        push((byte) ']');
+    }
+
+    /**
+     * @return <code>true</code> if the current object or array has another member or element. If not, the end of the
+     *         object or array is consumed.
+     */
+    boolean hasNext() throws LwM2mJsonException {
+        if (depth == 0) {
+            throw new IllegalStateException("No object or array opened");
+        }
+        byte c = current();
+        if (c == closers[depth - 1]) {
+            position++;
+            depth--;
+            return false;
+        }
+        if (empty[depth - 1]) {
+            empty[depth - 1] = false;
+        } else {
+            consume(',');
+        }
+        return true;
+    }
+
+    /**
+     * Read the name of the next member of the current object.
+     *
+     * @return the index of the name in the given array, or -1 if it is not one of them.
+     */
+    int nextName(String[] names) throws LwM2mJsonException {
+        consume('"');
+        int start = position;
+        boolean escaped = skipString();
+        int end = position - 1;
+
+        int index = -1;
+        if (escaped) {
+            index = Arrays.asList(names).indexOf(decodeString(start, end));
+        } else {
+            for (int i = 0; i < names.length && index == -1; i++) {
+                if (matches(names[i], start, end)) {
+                    index = i;
+                }
+            }
+        }
+        consume(':');
+        return index;
+    }
+
+    String nextString() throws LwM2mJsonException {
+        consume('"');
+        int start = position;
+        boolean escaped = skipString();
+        int end = position - 1;
+        return escaped ? decodeString(start, end) : new String(content, start, end - start, UTF_8);
+    }
+
+    /**
+     * Read a string containing a path, appending its identifiers to the given path.
+     */
+    void nextPath(IdPath path) throws LwM2mJsonException {
+        consume('"');
+        int start = position;
+        boolean escaped = skipString();
+        int end = position - 1;
+        if (escaped) {
+            String value = decodeString(start, end);
+            for (int i = 0; i < value.length(); i++) {
+                path.append(value.charAt(i));
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                path.append((char) (content[i] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * @return a {@link Long} if the number is an integer which fits in a long, a {@link Double} else.
+     */
+    Number nextNumber() throws LwM2mJsonException {
+        skipWhitespaces();
+        int start = position;
+
+        boolean negative = false;
+        if (position < limit && content[position] == '-') {
+            negative = true;
+            position++;
+        }
+
+        long mantissa = 0;
+        boolean overflow = false;
+        int digits = readDigits();
+        int integerEnd = position;
+        if (digits == 0) {
+            throw error("Invalid number");
+        }
+        for (int i = integerEnd - digits; i < integerEnd && !overflow; i++) {
+            overflow = !accumulate(mantissa, content[i]);
+            mantissa = mantissa * 10 + (content[i] - '0');
+        }
+
+        int fractionDigits = 0;
+        if (position < limit && content[position] == '.') {
+            position++;
+            fractionDigits = readDigits();
+            if (fractionDigits == 0) {
+                throw error("Invalid number");
+            }
+            for (int i = position - fractionDigits; i < position && !overflow; i++) {
+                overflow = !accumulate(mantissa, content[i]);
+                mantissa = mantissa * 10 + (content[i] - '0');
+            }
+        }
+
+        boolean exponent = false;
+        if (position < limit && (content[position] == 'e' || content[position] == 'E')) {
+            exponent = true;
+            position++;
+            if (position < limit && (content[position] == '+' || content[position] == '-')) {
+                position++;
+            }
+            if (readDigits() == 0) {
+                throw error("Invalid number");
+            }
+        }
+
+        if (!overflow && !exponent) {
+            if (fractionDigits == 0) {
+                return negative ? -mantissa : mantissa;
+            }
+            if (mantissa <= MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+                // both operands are exact, so the result is correctly rounded
+                double value = mantissa / POWERS_OF_TEN[fractionDigits];
+                return negative ? -value : value;
+            }
+        }
+        return Double.parseDouble(new String(content, start, position - start, UTF_8));
+    }
+
+    boolean nextBoolean() throws LwM2mJsonException {
+        if (current() == 't') {
+            consumeLiteral("true");
+            return true;
+        } else {
+            consumeLiteral("false");
+            return false;
+        }
+    }
+
+    void nextNull() throws LwM2mJsonException {
+        consumeLiteral("null");
+    }
+
+    void skipValue() throws LwM2mJsonException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+            beginObject();
+            while (hasNext()) {
+                consume('"');
+                skipString();
+                consume(':');
+                skipValue();
+            }
+            break;
+        case BEGIN_ARRAY:
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            break;
+        case STRING:
+            consume('"');
+            skipString();
+            break;
+        case NUMBER:
+            nextNumber();
+            break;
+        case BOOLEAN:
+            nextBoolean();
+            break;
+        case NULL:
+            nextNull();
+            break;
+        default:
+            throw error("Unexpected character");
+        }
+    }
+
+    /**
+     * Check there is nothing else than whitespaces after the root value.
+     */
+    void end() throws LwM2mJsonException {
+        skipWhitespaces();
+        if (position < limit) {
+            throw error("Unexpected character after the end of the content");
+        }
+    }
+
+    /* ***************** Internals ***************** */
+
+    private void push(byte closer) {
+        if (depth == closers.length) {
+            closers = Arrays.copyOf(closers, depth * 2);
+            empty = Arrays.copyOf(empty, depth * 2);
+        }
+        closers[depth] = closer;
+        empty[depth] = true;
+        depth++;
+    }
+
+    private byte current() throws LwM2mJsonException {
+        skipWhitespaces();
+        if (position >= limit) {
+            throw error("Unexpected end of content");
+        }
+        return content[position];
+    }
+
+    private void consume(char expected) throws LwM2mJsonException {
+        if (current() != expected) {
+            throw error("'" + expected + "' expected");
+        }
+        position++;
+    }
+
+    private void consumeLiteral(String literal) throws LwM2mJsonException {
+        skipWhitespaces();
+        if (!matches(literal, position, Math.min(position + literal.length(), limit))) {
+            throw error("'" + literal + "' expected");
+        }
+        position += literal.length();
+    }
+
+    private void skipWhitespaces() {
+        while (position < limit) {
+            byte c = content[position];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private int readDigits() {
+        int start = position;
+        while (position < limit && content[position] >= '0' && content[position] <= '9') {
+            position++;
+        }
+        return position - start;
+    }
+
+    private static boolean accumulate(long mantissa, byte digit) {
+        return mantissa < Long.MAX_VALUE / 10
+                || mantissa == Long.MAX_VALUE / 10 && digit - '0' <= Long.MAX_VALUE % 10;
+    }
+
+    /**
+     * Move after the closing quote of the current string.
+     *
+     * @return <code>true</code> if the string contains escaped characters.
+     */
+    private boolean skipString() throws LwM2mJsonException {
+        boolean escaped = false;
+        while (position < limit) {
+            byte c = content[position];
+            if (c == '"') {
+                position++;
+                return escaped;
+            } else if (c == '\\') {
+                escaped = true;
+                position += 2;
+            } else if (c >= 0 && c < 0x20) {
+                throw error("Control character in string");
+            } else {
+                position++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private String decodeString(int start, int end) throws LwM2mJsonException {
+        StringBuilder b = new StringBuilder(end - start);
+        int run = start;
+        int i = start;
+        while (i < end) {
+            if (content[i] != '\\') {
+                i++;
+                continue;
+            }
+            b.append(new String(content, run, i - run, UTF_8));
+            char escape = (char) content[i + 1];
+            i += 2;
+            switch (escape) {
+            case '"':
+            case '\\':
+            case '/':
+                b.append(escape);
+                break;
+            case 'b':
+                b.append('\b');
+                break;
+            case 'f':
+                b.append('\f');
+                break;
+            case 'n':
+                b.append('\n');
+                break;
+            case 'r':
+                b.append('\r');
+                break;
+            case 't':
+                b.append('\t');
+                break;
+            case 'u':
+                if (i + 4 > end) {
+                    throw error("Invalid unicode escape sequence");
+                }
+                b.append((char) hex(i, 4));
+                i += 4;
+                break;
+            default:
+                throw error("Invalid escape sequence");
+            }
+            run = i;
+        }
+        b.append(new String(content, run, end - run, UTF_8));
+        return b.toString();
+    }
+
+    private int hex(int start, int length) throws LwM2mJsonException {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = Character.digit(content[i], 16);
+            if (digit < 0) {
+                throw error("Invalid unicode escape sequence");
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    // only for ASCII strings
+    private boolean matches(String expected, int start, int end) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (content[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LwM2mJsonException error(String message) {
+        return new LwM2mJsonException("Unable to parse JSON: %s at offset %d", message, position - offset);
+    }
+}
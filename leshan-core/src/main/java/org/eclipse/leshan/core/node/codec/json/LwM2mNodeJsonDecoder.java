@@ -12,15 +12,18 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode content with a streaming parser
+ *     Sierra Wireless - decode part of an array
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.json;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,8 +31,6 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.eclipse.leshan.core.json.JsonArrayEntry;
-import org.eclipse.leshan.core.json.JsonRootObject;
-import org.eclipse.leshan.core.json.LwM2mJson;
 import org.eclipse.leshan.core.json.LwM2mJsonException;
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ResourceModel;
@@ -44,21 +45,59 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.json.JsonByteReader.Token;
 import org.eclipse.leshan.core.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Decodes LWM2M JSON content.
+ * <p>
+ * The content is read token by token from the byte array: entries are grouped by time-stamp and instance as they are
+ * read and their paths are parsed as numeric identifiers, without any intermediate JSON tree.
+ */
 public class LwM2mNodeJsonDecoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeJsonDecoder.class);
 
-    @SuppressWarnings("unchecked")
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] ROOT_FIELDS = { "bn", "bt", "e" };
+    private static final int BASE_NAME = 0;
+    private static final int BASE_TIME = 1;
+    private static final int ENTRIES = 2;
+
+    private static final String[] ENTRY_FIELDS = { "n", "t", "v", "bv", "sv", "ov" };
+    private static final int NAME = 0;
+    private static final int TIME = 1;
+    private static final int FLOAT_VALUE = 2;
+    private static final int BOOLEAN_VALUE = 3;
+    private static final int STRING_VALUE = 4;
+    private static final int OBJLNK_VALUE = 5;
+
+    // comparator which
+    // - supports null (time null means 0 if there is a base time)
+    // - reverses natural order (most recent value in first)
+    private static final Comparator<Long> MOST_RECENT_FIRST = new Comparator<Long>() {
+        @Override
+        public int compare(Long o1, Long o2) {
+            return Long.compare(o2 == null ? 0 : o2, o1 == null ? 0 : o1);
+        }
+    };
+
     public static <T extends LwM2mNode> T decode(byte[] content, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
             throws CodecException {
+        return decode(content, 0, content != null ? content.length : 0, path, model, nodeClass);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends LwM2mNode> T decode(byte[] content, int offset, int length, LwM2mPath path,
+            LwM2mModel model, Class<T> nodeClass) throws CodecException {
         try {
-            String jsonStrValue = content != null ? new String(content) : "";
-            JsonRootObject json = LwM2mJson.fromJsonLwM2m(jsonStrValue);
-            List<TimestampedLwM2mNode> timestampedNodes = parseJSON(json, path, model, nodeClass);
+            List<TimestampedLwM2mNode> timestampedNodes = parseJSON(content, offset, length, path, model, nodeClass);
             if (timestampedNodes.size() == 0) {
                 return null;
             } else {
@@ -72,304 +111,350 @@ public class LwM2mNodeJsonDecoder {
 
     public static List<TimestampedLwM2mNode> decodeTimestamped(byte[] content, LwM2mPath path, LwM2mModel model,
             Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        return decodeTimestamped(content, 0, content != null ? content.length : 0, path, model, nodeClass);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    public static List<TimestampedLwM2mNode> decodeTimestamped(byte[] content, int offset, int length,
+            LwM2mPath path, LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws CodecException {
         try {
-            String jsonStrValue = new String(content);
-            JsonRootObject json = LwM2mJson.fromJsonLwM2m(jsonStrValue);
-            return parseJSON(json, path, model, nodeClass);
-        } catch (LwM2mJsonException e) {
+            return parseJSON(content, offset, length, path, model, nodeClass);
+        } catch (LwM2mJsonException | LwM2mNodeException e) {
             throw new CodecException(e, "Unable to deserialize json [path:%s]", path);
         }
     }
 
-    private static List<TimestampedLwM2mNode> parseJSON(JsonRootObject jsonObject, LwM2mPath requestPath,
-            LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws CodecException {
-
-        LOG.trace("Parsing JSON content for path {}: {}", requestPath, jsonObject);
-
-        // Group JSON entry by time-stamp
-        Map<Long, Collection<JsonArrayEntry>> jsonEntryByTimestamp = groupJsonEntryByTimestamp(jsonObject);
-
-        // Extract baseName
-        String baseName = jsonObject.getBaseName() == null ? "" : jsonObject.getBaseName();
+    private static List<TimestampedLwM2mNode> parseJSON(byte[] content, int offset, int length, LwM2mPath requestPath,
+            LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws LwM2mJsonException, CodecException {
+        if (length == 0) {
+            throw new LwM2mJsonException("Unable to parse JSON: empty content");
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Parsing JSON content for path {}: {}", requestPath, new String(content, offset, length, UTF_8));
+        }
 
-        // fill time-stamped nodes collection
-        List<TimestampedLwM2mNode> timestampedNodes = new ArrayList<>();
-        for (Entry<Long, Collection<JsonArrayEntry>> entryByTimestamp : jsonEntryByTimestamp.entrySet()) {
-
-            // Group JSON entry by instance
-            Map<Integer, Collection<JsonArrayEntry>> jsonEntryByInstanceId = groupJsonEntryByInstanceId(
-                    entryByTimestamp.getValue(), baseName, requestPath);
-
-            // Create lwm2m node
-            LwM2mNode node;
-            if (nodeClass == LwM2mObject.class) {
-                Collection<LwM2mObjectInstance> instances = new ArrayList<>();
-                for (Entry<Integer, Collection<JsonArrayEntry>> entryByInstanceId : jsonEntryByInstanceId.entrySet()) {
-                    Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(entryByInstanceId.getValue(),
-                            baseName, model, requestPath);
-
-                    instances.add(new LwM2mObjectInstance(entryByInstanceId.getKey(), resourcesMap.values()));
+        JsonByteReader reader = new JsonByteReader(content, offset, length);
+        IdPath basePath = null;
+        Long baseTime = null;
+        SortedMap<Long, Group> entryByTimestamp = null;
+        int entriesPosition = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(ROOT_FIELDS)) {
+            case BASE_NAME:
+                if (reader.peek() == Token.STRING) {
+                    basePath = new IdPath();
+                    reader.nextPath(basePath);
+                } else {
+                    reader.skipValue();
+                }
+                break;
+            case BASE_TIME:
+                if (reader.peek() == Token.NUMBER) {
+                    baseTime = reader.nextNumber().longValue();
+                } else {
+                    reader.skipValue();
                 }
+                break;
+            case ENTRIES:
+                if (reader.peek() != Token.BEGIN_ARRAY) {
+                    throw new LwM2mJsonException("'e' field must be an array");
+                }
+                if (basePath != null) {
+                    entryByTimestamp = parseEntries(reader, basePath, requestPath, model);
+                } else {
+                    // base name may come after, entries will be parsed at the end
+                    entriesPosition = reader.position();
+                    reader.skipValue();
+                }
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.end();
 
-                node = new LwM2mObject(requestPath.getObjectId(), instances);
-            } else if (nodeClass == LwM2mObjectInstance.class) {
-                // validate we have resources for only 1 instance
-                if (jsonEntryByInstanceId.size() != 1)
-                    throw new CodecException("One instance expected in the payload [path:%s]", requestPath);
-
-                // Extract resources
-                Entry<Integer, Collection<JsonArrayEntry>> instanceEntry = jsonEntryByInstanceId.entrySet().iterator()
-                        .next();
-                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(instanceEntry.getValue(), baseName,
-                        model, requestPath);
-
-                // Create instance
-                node = new LwM2mObjectInstance(instanceEntry.getKey(), resourcesMap.values());
-            } else if (nodeClass == LwM2mResource.class) {
-                // validate we have resources for only 1 instance
-                if (jsonEntryByInstanceId.size() > 1)
-                    throw new CodecException("Only one instance expected in the payload [path:%s]", requestPath);
-
-                // Extract resources
-                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(
-                        jsonEntryByInstanceId.values().iterator().next(), baseName, model, requestPath);
-
-                // validate there is only 1 resource
-                if (resourcesMap.size() != 1)
-                    throw new CodecException("One resource should be present in the payload [path:%s]", requestPath);
-
-                node = resourcesMap.values().iterator().next();
-            } else {
-                throw new IllegalArgumentException("invalid node class: " + nodeClass);
+        if (entryByTimestamp == null) {
+            if (entriesPosition == -1) {
+                throw new LwM2mJsonException("'e' field is missing");
             }
+            reader.seek(entriesPosition);
+            entryByTimestamp = parseEntries(reader, basePath, requestPath, model);
+        }
+
+        // fill time-stamped nodes collection
+        List<TimestampedLwM2mNode> timestampedNodes = new ArrayList<>(entryByTimestamp.size());
+        for (Entry<Long, Group> entry : entryByTimestamp.entrySet()) {
+            LwM2mNode node = createNode(entry.getValue(), basePath, requestPath, model, nodeClass);
 
             // compute time-stamp
-            Long timestamp = computeTimestamp(jsonObject.getBaseTime(), entryByTimestamp.getKey());
+            Long timestamp = computeTimestamp(baseTime, entry.getKey());
 
             // add time-stamped node
             timestampedNodes.add(new TimestampedLwM2mNode(timestamp, node));
         }
-
         return timestampedNodes;
-
     }
 
-    private static Long computeTimestamp(Long baseTime, Long time) {
-        Long timestamp;
-        if (baseTime != null) {
-            if (time != null) {
-                timestamp = baseTime + time;
+    /**
+     * Read all the entries of the "e" array, grouping them by time-stamp and instance.
+     *
+     * @return a map (relativeTimestamp => entries)
+     */
+    private static SortedMap<Long, Group> parseEntries(JsonByteReader reader, IdPath basePath, LwM2mPath requestPath,
+            LwM2mModel model) throws LwM2mJsonException, CodecException {
+        SortedMap<Long, Group> result = new TreeMap<>(MOST_RECENT_FIRST);
+        IdPath path = new IdPath();
+        // entries of a same time-stamp are generally consecutive
+        Group group = null;
+        Long groupTime = null;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (basePath != null) {
+                path.set(basePath);
             } else {
-                timestamp = baseTime;
+                path.reset();
             }
-        } else {
-            if (time != null) {
-                timestamp = time;
-            } else {
-                timestamp = null;
+            Long time = null;
+            Number floatValue = null;
+            Boolean booleanValue = null;
+            String stringValue = null;
+            String objlnkValue = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int field = reader.nextName(ENTRY_FIELDS);
+                Token token = reader.peek();
+                if (field == NAME && token == Token.STRING) {
+                    reader.nextPath(path);
+                } else if (field == TIME && token == Token.NUMBER) {
+                    time = reader.nextNumber().longValue();
+                } else if (field == FLOAT_VALUE && token == Token.NUMBER) {
+                    floatValue = reader.nextNumber();
+                } else if (field == BOOLEAN_VALUE && token == Token.BOOLEAN) {
+                    booleanValue = reader.nextBoolean();
+                } else if (field == STRING_VALUE && token == Token.STRING) {
+                    stringValue = reader.nextString();
+                } else if (field == OBJLNK_VALUE && token == Token.STRING) {
+                    objlnkValue = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
             }
-        }
-        return timestamp;
-    }
 
-    /**
-     * Group all JsonArrayEntry by time-stamp
-     * 
-     * @return a map (relativeTimestamp => collection of JsonArrayEntry)
-     */
-    private static SortedMap<Long, Collection<JsonArrayEntry>> groupJsonEntryByTimestamp(JsonRootObject jsonObject) {
-        SortedMap<Long, Collection<JsonArrayEntry>> result = new TreeMap<>(new Comparator<Long>() {
-            @Override
-            public int compare(Long o1, Long o2) {
-                // comparator which
-                // - supports null (time null means 0 if there is a base time)
-                // - reverses natural order (most recent value in first)
-                return Long.compare(o2 == null ? 0 : o2, o1 == null ? 0 : o1);
+            // same priority as JsonArrayEntry
+            Object value;
+            Type type;
+            if (booleanValue != null) {
+                value = booleanValue;
+                type = Type.BOOLEAN;
+            } else if (floatValue != null) {
+                value = floatValue;
+                type = Type.FLOAT;
+            } else if (objlnkValue != null) {
+                value = objlnkValue;
+                type = Type.OBJLNK;
+            } else if (stringValue != null) {
+                value = stringValue;
+                type = Type.STRING;
+            } else {
+                throw new LwM2mJsonException("Missing value(v,bv,ov,sv) field for entry %s", path);
             }
-        });
 
-        for (JsonArrayEntry e : jsonObject.getResourceList()) {
-            // Get time for this entry
-            Long time = e.getTime();
-
-            // Get jsonArray for this time-stamp
-            Collection<JsonArrayEntry> jsonArray = result.get(time);
-            if (jsonArray == null) {
-                jsonArray = new ArrayList<>();
-                result.put(time, jsonArray);
+            // Get entries for this time-stamp
+            if (group == null || MOST_RECENT_FIRST.compare(groupTime, time) != 0) {
+                group = result.get(time);
+                if (group == null) {
+                    group = new Group();
+                    result.put(time, group);
+                }
+                groupTime = time;
             }
-
-            // Add it to the list
-            jsonArray.add(e);
+            addEntry(group, path, value, type, requestPath, model);
         }
 
         // Ensure there is at least one entry for null timestamp
         if (result.isEmpty()) {
-            result.put((Long) null, new ArrayList<JsonArrayEntry>());
+            result.put((Long) null, new Group());
         }
-
         return result;
     }
 
-    /**
-     * Group all JsonArrayEntry by instanceId
-     * 
-     * @param jsonEntries
-     * @param baseName
-     *
-     * @return a map (instanceId => collection of JsonArrayEntry)
-     */
-    private static Map<Integer, Collection<JsonArrayEntry>> groupJsonEntryByInstanceId(
-            Collection<JsonArrayEntry> jsonEntries, String baseName, LwM2mPath requestPath) throws CodecException {
-        Map<Integer, Collection<JsonArrayEntry>> result = new HashMap<>();
-
-        for (JsonArrayEntry e : jsonEntries) {
-            // Build resource path
-            LwM2mPath nodePath = extractAndValidatePath(baseName, e.getName() == null ? "" : e.getName(), requestPath);
-
-            // Validate path
-            if (!nodePath.isResourceInstance() && !nodePath.isResource()) {
-                throw new CodecException(
-                        "Invalid path [%s] for resource, it should be a resource or a resource instance path",
-                        nodePath);
-            }
+    private static void addEntry(Group group, IdPath path, Object value, Type entryType, LwM2mPath requestPath,
+            LwM2mModel model) throws CodecException {
+        // Validate path
+        if (path.size() != 3 && path.size() != 4) {
+            throw new CodecException(
+                    "Invalid path [%s] for resource, it should be a resource or a resource instance path", path);
+        }
+        validatePath(path, requestPath);
+
+        // Get entries for this instance
+        int instanceId = path.get(1);
+        InstanceEntries instance = group.instances.get(instanceId);
+        if (instance == null) {
+            instance = new InstanceEntries();
+            group.instances.put(instanceId, instance);
+        }
 
-            // Get jsonArray for this instance
-            Collection<JsonArrayEntry> jsonArray = result.get(nodePath.getObjectInstanceId());
-            if (jsonArray == null) {
-                jsonArray = new ArrayList<>();
-                result.put(nodePath.getObjectInstanceId(), jsonArray);
+        int resourceId = path.get(2);
+        if (path.size() == 3) {
+            // Single resource
+            Type expectedType = getResourceType(path.get(0), resourceId, model, entryType, path);
+            LwM2mResource res = LwM2mSingleResource.newResource(resourceId,
+                    parseJsonValue(value, expectedType, path), expectedType);
+            LwM2mResource previousRes = instance.resources.put(resourceId, res);
+            if (previousRes != null) {
+                throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
+                        previousRes, res, resourceId, path);
+            }
+        } else {
+            // Multi-instance resource: the type of the first instance is used for all of them
+            MultiResourceEntries multiResource = instance.multiResources.get(resourceId);
+            if (multiResource == null) {
+                multiResource = new MultiResourceEntries(
+                        getResourceType(path.get(0), resourceId, model, entryType, path));
+                instance.multiResources.put(resourceId, multiResource);
+            }
+            Object parsedValue = parseJsonValue(value, multiResource.type, path);
+            Object previousValue = multiResource.values.put(path.get(3), parsedValue);
+            if (previousValue != null) {
+                throw new CodecException("2 RESOURCE_INSTANCE nodes (%s,%s) with the same identifier %d for path %s",
+                        previousValue, parsedValue, path.get(3), path);
             }
-
-            // Add it to the list
-            jsonArray.add(e);
         }
+    }
+
+    private static LwM2mNode createNode(Group group, IdPath basePath, LwM2mPath requestPath, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        Map<Integer, InstanceEntries> entryByInstanceId = group.instances;
 
         // Create an entry for an empty instance if possible
-        if (result.isEmpty()) {
-            if (baseName.isEmpty()) {
+        if (entryByInstanceId.isEmpty()) {
+            Integer instanceId;
+            if (basePath == null || basePath.size() == 0) {
                 // search object instance id in request path
-                if (requestPath.getObjectInstanceId() != null) {
-                    result.put(requestPath.getObjectInstanceId(), new ArrayList<JsonArrayEntry>());
-                }
+                instanceId = requestPath.getObjectInstanceId();
             } else {
                 // search object instance id in basename
-                LwM2mPath basePath = extractAndValidatePath(baseName, "", requestPath);
-                if (basePath.getObjectInstanceId() != null)
-                    result.put(basePath.getObjectInstanceId(), new ArrayList<JsonArrayEntry>());
+                validatePath(basePath, requestPath);
+                instanceId = basePath.size() > 1 ? basePath.get(1) : null;
+            }
+            if (instanceId != null) {
+                entryByInstanceId.put(instanceId, new InstanceEntries());
             }
         }
-        return result;
+
+        if (nodeClass == LwM2mObject.class) {
+            Collection<LwM2mObjectInstance> instances = new ArrayList<>(entryByInstanceId.size());
+            for (Entry<Integer, InstanceEntries> entry : entryByInstanceId.entrySet()) {
+                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(entry.getValue(), basePath, model,
+                        requestPath);
+                instances.add(new LwM2mObjectInstance(entry.getKey(), resourcesMap.values()));
+            }
+            return new LwM2mObject(requestPath.getObjectId(), instances);
+        } else if (nodeClass == LwM2mObjectInstance.class) {
+            // validate we have resources for only 1 instance
+            if (entryByInstanceId.size() != 1)
+                throw new CodecException("One instance expected in the payload [path:%s]", requestPath);
+
+            // Extract resources
+            Entry<Integer, InstanceEntries> instanceEntry = entryByInstanceId.entrySet().iterator().next();
+            Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(instanceEntry.getValue(), basePath,
+                    model, requestPath);
+
+            // Create instance
+            return new LwM2mObjectInstance(instanceEntry.getKey(), resourcesMap.values());
+        } else if (nodeClass == LwM2mResource.class) {
+            // validate we have resources for only 1 instance
+            if (entryByInstanceId.size() > 1)
+                throw new CodecException("Only one instance expected in the payload [path:%s]", requestPath);
+            if (entryByInstanceId.isEmpty())
+                throw new CodecException("One resource should be present in the payload [path:%s]", requestPath);
+
+            // Extract resources
+            Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(
+                    entryByInstanceId.values().iterator().next(), basePath, model, requestPath);
+
+            // validate there is only 1 resource
+            if (resourcesMap.size() != 1)
+                throw new CodecException("One resource should be present in the payload [path:%s]", requestPath);
+
+            return resourcesMap.values().iterator().next();
+        } else {
+            throw new IllegalArgumentException("invalid node class: " + nodeClass);
+        }
     }
 
-    private static LwM2mPath extractAndValidatePath(String baseName, String name, LwM2mPath requestPath)
-            throws CodecException {
-        LwM2mPath path = new LwM2mPath(baseName + name);
+    private static Long computeTimestamp(Long baseTime, Long time) {
+        Long timestamp;
+        if (baseTime != null) {
+            if (time != null) {
+                timestamp = baseTime + time;
+            } else {
+                timestamp = baseTime;
+            }
+        } else {
+            if (time != null) {
+                timestamp = time;
+            } else {
+                timestamp = null;
+            }
+        }
+        return timestamp;
+    }
 
-        // check returned path is under requested path
-        if (requestPath.getObjectId() != null && path.getObjectId() != null) {
-            if (!path.getObjectId().equals(requestPath.getObjectId())) {
+    /**
+     * Check the given path is under the requested path.
+     */
+    private static void validatePath(IdPath path, LwM2mPath requestPath) throws CodecException {
+        if (requestPath.getObjectId() != null && path.size() > 0) {
+            if (path.get(0) != requestPath.getObjectId()) {
                 throw new CodecException("resource path [%s] does not match requested path [%s].", path, requestPath);
             }
-            if (requestPath.getObjectInstanceId() != null && path.getObjectInstanceId() != null) {
-                if (!path.getObjectInstanceId().equals(requestPath.getObjectInstanceId())) {
+            if (requestPath.getObjectInstanceId() != null && path.size() > 1) {
+                if (path.get(1) != requestPath.getObjectInstanceId()) {
                     throw new CodecException("Basename path [%s] does not match requested path [%s].", path,
                             requestPath);
                 }
-                if (requestPath.getResourceId() != null && path.getResourceId() != null) {
-                    if (!path.getResourceId().equals(requestPath.getResourceId())) {
+                if (requestPath.getResourceId() != null && path.size() > 2) {
+                    if (path.get(2) != requestPath.getResourceId()) {
                         throw new CodecException("Basename path [%s] does not match requested path [%s].", path,
                                 requestPath);
                     }
                 }
             }
         }
-        return path;
     }
 
-    private static Map<Integer, LwM2mResource> extractLwM2mResources(Collection<JsonArrayEntry> jsonArrayEntries,
-            String baseName, LwM2mModel model, LwM2mPath requestPath) throws CodecException {
-        if (jsonArrayEntries == null)
-            return Collections.emptyMap();
-
-        // Extract LWM2M resources from JSON resource list
-        Map<Integer, LwM2mResource> lwM2mResourceMap = new HashMap<>();
-        Map<LwM2mPath, Map<Integer, JsonArrayEntry>> multiResourceMap = new HashMap<>();
-        for (JsonArrayEntry resourceElt : jsonArrayEntries) {
-
-            // Build resource path (path validation was already done in groupJsonEntryByInstanceId
-            LwM2mPath nodePath;
-            if (resourceElt.getName() == null) {
-                nodePath = new LwM2mPath(baseName);
-            } else {
-                nodePath = new LwM2mPath(baseName + resourceElt.getName());
-            }
-
-            // handle LWM2M resources
-            if (nodePath.isResourceInstance()) {
-                // Multi-instance resource
-                // Store multi-instance resource values in a map
-                // we will deal with it later
-                LwM2mPath resourcePath = new LwM2mPath(nodePath.getObjectId(), nodePath.getObjectInstanceId(),
-                        nodePath.getResourceId());
-                Map<Integer, JsonArrayEntry> multiResource = multiResourceMap.get(resourcePath);
-                if (multiResource == null) {
-                    multiResource = new HashMap<>();
-                    multiResourceMap.put(resourcePath, multiResource);
-                }
-                JsonArrayEntry previousResInstance = multiResource.put(nodePath.getResourceInstanceId(), resourceElt);
-                if (previousResInstance != null) {
-                    throw new CodecException(
-                            "2 RESOURCE_INSTANCE nodes (%s,%s) with the same identifier %d for path %s",
-                            previousResInstance, resourceElt, nodePath.getResourceInstanceId(), nodePath);
-                }
-            } else if (nodePath.isResource()) {
-                // Single resource
-                Type expectedType = getResourceType(nodePath, model, resourceElt);
-                LwM2mResource res = LwM2mSingleResource.newResource(nodePath.getResourceId(),
-                        parseJsonValue(resourceElt.getResourceValue(), expectedType, nodePath), expectedType);
-                LwM2mResource previousRes = lwM2mResourceMap.put(nodePath.getResourceId(), res);
-                if (previousRes != null) {
-                    throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
-                            previousRes, res, res.getId(), nodePath);
-                }
-            } else {
-                throw new CodecException(
-                        "Invalid path [%s] for resource, it should be a resource or a resource instance path",
-                        nodePath);
-            }
-        }
+    private static Map<Integer, LwM2mResource> extractLwM2mResources(InstanceEntries instance, IdPath basePath,
+            LwM2mModel model, LwM2mPath requestPath) throws CodecException {
+        Map<Integer, LwM2mResource> lwM2mResourceMap = instance.resources;
 
         // Handle multi-instance resource.
-        for (Map.Entry<LwM2mPath, Map<Integer, JsonArrayEntry>> entry : multiResourceMap.entrySet()) {
-            LwM2mPath resourcePath = entry.getKey();
-            Map<Integer, JsonArrayEntry> jsonEntries = entry.getValue();
-
-            if (jsonEntries != null && !jsonEntries.isEmpty()) {
-                Type expectedType = getResourceType(resourcePath, model, jsonEntries.values().iterator().next());
-                Map<Integer, Object> values = new HashMap<>();
-                for (Entry<Integer, JsonArrayEntry> e : jsonEntries.entrySet()) {
-                    Integer resourceInstanceId = e.getKey();
-                    values.put(resourceInstanceId,
-                            parseJsonValue(e.getValue().getResourceValue(), expectedType, resourcePath));
-                }
-                LwM2mResource resource = LwM2mMultipleResource.newResource(resourcePath.getResourceId(), values,
-                        expectedType);
-                LwM2mResource previousRes = lwM2mResourceMap.put(resourcePath.getResourceId(), resource);
-                if (previousRes != null) {
-                    throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
-                            previousRes, resource, resource.getId(), resourcePath);
-                }
+        for (Entry<Integer, MultiResourceEntries> entry : instance.multiResources.entrySet()) {
+            MultiResourceEntries multiResource = entry.getValue();
+            LwM2mResource resource = LwM2mMultipleResource.newResource(entry.getKey(), multiResource.values,
+                    multiResource.type);
+            LwM2mResource previousRes = lwM2mResourceMap.put(entry.getKey(), resource);
+            if (previousRes != null) {
+                throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for instance %s",
+                        previousRes, resource, resource.getId(), requestPath);
             }
         }
 
         // If we found nothing, we try to create an empty multi-instance resource
         if (lwM2mResourceMap.isEmpty()) {
             LwM2mPath path;
-            if (baseName.isEmpty()) {
+            if (basePath == null || basePath.size() == 0) {
                 path = requestPath;
             } else {
-                path = extractAndValidatePath(baseName, "", requestPath);
+                validatePath(basePath, requestPath);
+                path = basePath.toLwM2mPath();
             }
             if (path.getObjectId() != null && path.getResourceId() != null) {
                 ResourceModel resourceModel = model.getResourceModel(path.getObjectId(), path.getResourceId());
@@ -385,7 +470,7 @@ public class LwM2mNodeJsonDecoder {
         return lwM2mResourceMap;
     }
 
-    private static Object parseJsonValue(Object value, Type expectedType, LwM2mPath path) throws CodecException {
+    private static Object parseJsonValue(Object value, Type expectedType, Object path) throws CodecException {
 
         LOG.trace("JSON value for path {} and expected type {}: {}", path, expectedType, value);
 
@@ -416,20 +501,41 @@ public class LwM2mNodeJsonDecoder {
     }
 
     public static Type getResourceType(LwM2mPath rscPath, LwM2mModel model, JsonArrayEntry resourceElt) {
+        return getResourceType(rscPath.getObjectId(), rscPath.getResourceId(), model,
+                resourceElt == null ? null : resourceElt.getType(), rscPath);
+    }
+
+    private static Type getResourceType(int objectId, int resourceId, LwM2mModel model, Type entryType,
+            Object rscPath) {
         // Use model type in priority
-        ResourceModel rscDesc = model.getResourceModel(rscPath.getObjectId(), rscPath.getResourceId());
+        ResourceModel rscDesc = model.getResourceModel(objectId, resourceId);
         if (rscDesc != null && rscDesc.type != null)
             return rscDesc.type;
 
         // Then json type
-        if (resourceElt != null) {
-            Type type = resourceElt.getType();
-            if (type != null)
-                return type;
-        }
+        if (entryType != null)
+            return entryType;
 
         // Else use String as default
         LOG.trace("unknown type for resource use string as default: {}", rscPath);
         return Type.STRING;
     }
-}
\ No newline at end of file
+
+    private static class Group {
+        final Map<Integer, InstanceEntries> instances = new LinkedHashMap<>();
+    }
+
+    private static class InstanceEntries {
+        final Map<Integer, LwM2mResource> resources = new HashMap<>();
+        final Map<Integer, MultiResourceEntries> multiResources = new HashMap<>();
+    }
+
+    private static class MultiResourceEntries {
+        final Type type;
+        final Map<Integer, Object> values = new HashMap<>();
+
+        MultiResourceEntries(Type type) {
+            this.type = type;
+        }
+    }
+}
@@ -12,9 +12,12 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode content from ByteBuffer
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.opaque;
 
+import java.util.Arrays;
+
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ResourceModel;
 import org.eclipse.leshan.core.model.ResourceModel.Type;
@@ -26,6 +29,17 @@ import org.eclipse.leshan.core.node.codec.CodecException;
 public class LwM2mNodeOpaqueDecoder {
 
     public static LwM2mNode decode(byte[] content, LwM2mPath path, LwM2mModel model) throws CodecException {
+        return content != null ? decode(content, 0, content.length, path, model)
+                : decode(new byte[0], 0, 0, path, model);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     * <p>
+     * If the whole array is decoded, it is used as value of the resource without copy.
+     */
+    public static LwM2mNode decode(byte[] content, int offset, int length, LwM2mPath path, LwM2mModel model)
+            throws CodecException {
         if (!path.isResource())
             throw new CodecException("Invalid path %s : OpaqueDecoder decodes resource only", path);
 
@@ -35,7 +49,9 @@ public class LwM2mNodeOpaqueDecoder {
                     "Invalid content format [%s] for path [%s], OPAQUE can only be used for single OPAQUE resource",
                     desc.type, path);
         }
-        return LwM2mSingleResource.newBinaryResource(path.getResourceId(), content != null ? content : new byte[0]);
+        byte[] value = offset == 0 && length == content.length ? content
+                : Arrays.copyOfRange(content, offset, offset + length);
+        return LwM2mSingleResource.newBinaryResource(path.getResourceId(), value);
     }
 
 }
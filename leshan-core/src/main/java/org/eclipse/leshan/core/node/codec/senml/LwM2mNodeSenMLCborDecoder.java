@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+import java.util.List;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.senml.SenMLCbor;
+import org.eclipse.leshan.senml.SenMLCborException;
+import org.eclipse.leshan.senml.SenMLPack;
+
+/**
+ * SenML CBOR decoder for {@link LwM2mNode}.
+ */
+public class LwM2mNodeSenMLCborDecoder {
+
+    public static <T extends LwM2mNode> T decode(byte[] content, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
+            throws CodecException {
+        return decode(content, 0, content != null ? content.length : 0, path, model, nodeClass);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    public static <T extends LwM2mNode> T decode(byte[] content, int offset, int length, LwM2mPath path,
+            LwM2mModel model, Class<T> nodeClass) throws CodecException {
+        return LwM2mNodeSenMLDecoder.decode(parse(content, offset, length, path), path, model, nodeClass);
+    }
+
+    public static List<TimestampedLwM2mNode> decodeTimestamped(byte[] content, LwM2mPath path, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        return decodeTimestamped(content, 0, content != null ? content.length : 0, path, model, nodeClass);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    public static List<TimestampedLwM2mNode> decodeTimestamped(byte[] content, int offset, int length,
+            LwM2mPath path, LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        return LwM2mNodeSenMLDecoder.decodeTimestamped(parse(content, offset, length, path), path, model, nodeClass);
+    }
+
+    private static SenMLPack parse(byte[] content, int offset, int length, LwM2mPath path) throws CodecException {
+        if (length == 0) {
+            return new SenMLPack();
+        }
+        try {
+            return SenMLCbor.fromSenMLCbor(content, offset, length);
+        } catch (SenMLCborException e) {
+            throw new CodecException(e, "Unable to deserialize SenML CBOR [path:%s]", path);
+        }
+    }
+}
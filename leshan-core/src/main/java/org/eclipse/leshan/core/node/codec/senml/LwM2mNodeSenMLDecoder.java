@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.util.Base64;
+import org.eclipse.leshan.senml.SenMLPack;
+import org.eclipse.leshan.senml.SenMLRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes a {@link SenMLPack} into {@link LwM2mNode}s, whatever the SenML format it was deserialized from.
+ * <p>
+ * The base name and base time of a record apply to all the following records until a new one is defined.
+ */
+public class LwM2mNodeSenMLDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeSenMLDecoder.class);
+
+    @SuppressWarnings("unchecked")
+    public static <T extends LwM2mNode> T decode(SenMLPack pack, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
+            throws CodecException {
+        List<TimestampedLwM2mNode> timestampedNodes = decodeTimestamped(pack, path, model, nodeClass);
+        if (timestampedNodes.isEmpty()) {
+            return null;
+        } else {
+            // return the most recent value
+            return (T) timestampedNodes.get(0).getNode();
+        }
+    }
+
+    public static List<TimestampedLwM2mNode> decodeTimestamped(SenMLPack pack, LwM2mPath requestPath,
+            LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        LOG.trace("Parsing SenML content for path {}: {}", requestPath, pack);
+
+        // fill time-stamped nodes collection, most recent first
+        List<TimestampedLwM2mNode> timestampedNodes = new ArrayList<>();
+        for (Entry<Long, Collection<ResolvedRecord>> recordsByTimestamp : groupRecordsByTimestamp(pack, requestPath)
+                .entrySet()) {
+
+            // Group records by instance
+            Map<Integer, Collection<ResolvedRecord>> recordsByInstanceId = groupRecordsByInstanceId(
+                    recordsByTimestamp.getValue(), requestPath);
+
+            // Create lwm2m node
+            LwM2mNode node;
+            if (nodeClass == LwM2mObject.class) {
+                Collection<LwM2mObjectInstance> instances = new ArrayList<>();
+                for (Entry<Integer, Collection<ResolvedRecord>> entry : recordsByInstanceId.entrySet()) {
+                    instances.add(new LwM2mObjectInstance(entry.getKey(),
+                            extractLwM2mResources(entry.getValue(), model, requestPath).values()));
+                }
+                node = new LwM2mObject(requestPath.getObjectId(), instances);
+            } else if (nodeClass == LwM2mObjectInstance.class) {
+                // validate we have resources for only 1 instance
+                if (recordsByInstanceId.size() != 1)
+                    throw new CodecException("One instance expected in the payload [path:%s]", requestPath);
+
+                Entry<Integer, Collection<ResolvedRecord>> entry = recordsByInstanceId.entrySet().iterator().next();
+                node = new LwM2mObjectInstance(entry.getKey(),
+                        extractLwM2mResources(entry.getValue(), model, requestPath).values());
+            } else if (nodeClass == LwM2mResource.class) {
+                // validate we have resources for only 1 instance
+                if (recordsByInstanceId.size() != 1)
+                    throw new CodecException("One instance expected in the payload [path:%s]", requestPath);
+
+                Map<Integer, LwM2mResource> resources = extractLwM2mResources(
+                        recordsByInstanceId.values().iterator().next(), model, requestPath);
+
+                // validate there is only 1 resource
+                if (resources.size() != 1)
+                    throw new CodecException("One resource should be present in the payload [path:%s]", requestPath);
+
+                node = resources.values().iterator().next();
+            } else {
+                throw new IllegalArgumentException("invalid node class: " + nodeClass);
+            }
+
+            timestampedNodes.add(new TimestampedLwM2mNode(recordsByTimestamp.getKey(), node));
+        }
+        return timestampedNodes;
+    }
+
+    /**
+     * Resolves path and time of each record, then groups records by time-stamp, most recent first.
+     */
+    private static SortedMap<Long, Collection<ResolvedRecord>> groupRecordsByTimestamp(SenMLPack pack,
+            LwM2mPath requestPath) throws CodecException {
+        SortedMap<Long, Collection<ResolvedRecord>> result = new TreeMap<>(new Comparator<Long>() {
+            @Override
+            public int compare(Long o1, Long o2) {
+                // comparator which
+                // - supports null (no time)
+                // - reverses natural order (most recent value in first)
+                return Long.compare(o2 == null ? 0 : o2, o1 == null ? 0 : o1);
+            }
+        });
+
+        String baseName = "";
+        Long baseTime = null;
+        for (SenMLRecord record : pack.getRecords()) {
+            if (record.getBaseName() != null) {
+                baseName = record.getBaseName();
+            }
+            if (record.getBaseTime() != null) {
+                baseTime = record.getBaseTime();
+            }
+
+            LwM2mPath path = extractAndValidatePath(baseName + (record.getName() == null ? "" : record.getName()),
+                    requestPath);
+            Long timestamp = computeTimestamp(baseTime, record.getTime());
+
+            Collection<ResolvedRecord> records = result.get(timestamp);
+            if (records == null) {
+                records = new ArrayList<>();
+                result.put(timestamp, records);
+            }
+            records.add(new ResolvedRecord(path, record));
+        }
+
+        // Ensure there is at least one entry for null timestamp
+        if (result.isEmpty()) {
+            result.put((Long) null, new ArrayList<ResolvedRecord>());
+        }
+        return result;
+    }
+
+    private static Long computeTimestamp(Long baseTime, Long time) {
+        if (baseTime == null) {
+            return time;
+        }
+        return time == null ? baseTime : baseTime + time;
+    }
+
+    /**
+     * Groups records by instance id, keeping their order.
+     */
+    private static Map<Integer, Collection<ResolvedRecord>> groupRecordsByInstanceId(
+            Collection<ResolvedRecord> records, LwM2mPath requestPath) throws CodecException {
+        Map<Integer, Collection<ResolvedRecord>> result = new LinkedHashMap<>();
+        for (ResolvedRecord record : records) {
+            if (!record.path.isResourceInstance() && !record.path.isResource()) {
+                throw new CodecException(
+                        "Invalid path [%s] for resource, it should be a resource or a resource instance path",
+                        record.path);
+            }
+
+            Collection<ResolvedRecord> instanceRecords = result.get(record.path.getObjectInstanceId());
+            if (instanceRecords == null) {
+                instanceRecords = new ArrayList<>();
+                result.put(record.path.getObjectInstanceId(), instanceRecords);
+            }
+            instanceRecords.add(record);
+        }
+
+        // Create an entry for an empty instance if possible
+        if (result.isEmpty() && requestPath.getObjectInstanceId() != null) {
+            result.put(requestPath.getObjectInstanceId(), new ArrayList<ResolvedRecord>());
+        }
+        return result;
+    }
+
+    private static LwM2mPath extractAndValidatePath(String name, LwM2mPath requestPath) throws CodecException {
+        LwM2mPath path;
+        try {
+            path = new LwM2mPath(name);
+        } catch (IllegalArgumentException e) {
+            throw new CodecException(e, "Invalid record name [%s] for request path [%s]", name, requestPath);
+        }
+
+        // check record path is under requested path
+        if (!matches(requestPath.getObjectId(), path.getObjectId())
+                || !matches(requestPath.getObjectInstanceId(), path.getObjectInstanceId())
+                || !matches(requestPath.getResourceId(), path.getResourceId())) {
+            throw new CodecException("Record path [%s] does not match requested path [%s].", path, requestPath);
+        }
+        return path;
+    }
+
+    private static boolean matches(Integer requestedId, Integer id) {
+        return requestedId == null || requestedId.equals(id);
+    }
+
+    private static Map<Integer, LwM2mResource> extractLwM2mResources(Collection<ResolvedRecord> records,
+            LwM2mModel model, LwM2mPath requestPath) throws CodecException {
+        Map<Integer, LwM2mResource> resources = new LinkedHashMap<>();
+        Map<Integer, Map<Integer, ResolvedRecord>> multiResources = new LinkedHashMap<>();
+        for (ResolvedRecord record : records) {
+            LwM2mPath path = record.path;
+            if (path.isResourceInstance()) {
+                // Store multi-instance resource values, we will deal with it later
+                Map<Integer, ResolvedRecord> instances = multiResources.get(path.getResourceId());
+                if (instances == null) {
+                    instances = new LinkedHashMap<>();
+                    multiResources.put(path.getResourceId(), instances);
+                }
+                ResolvedRecord previous = instances.put(path.getResourceInstanceId(), record);
+                if (previous != null) {
+                    throw new CodecException("2 RESOURCE_INSTANCE nodes with the same identifier %d for path %s",
+                            path.getResourceInstanceId(), path);
+                }
+            } else {
+                // Single resource
+                Type expectedType = getResourceType(path, model, record.record);
+                LwM2mResource resource = LwM2mSingleResource.newResource(path.getResourceId(),
+                        parseValue(record.record, expectedType, path), expectedType);
+                LwM2mResource previous = resources.put(path.getResourceId(), resource);
+                if (previous != null) {
+                    throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
+                            previous, resource, resource.getId(), path);
+                }
+            }
+        }
+
+        // Handle multi-instance resources
+        for (Entry<Integer, Map<Integer, ResolvedRecord>> entry : multiResources.entrySet()) {
+            ResolvedRecord first = entry.getValue().values().iterator().next();
+            Type expectedType = getResourceType(first.path, model, first.record);
+            Map<Integer, Object> values = new HashMap<>();
+            for (Entry<Integer, ResolvedRecord> instance : entry.getValue().entrySet()) {
+                values.put(instance.getKey(), parseValue(instance.getValue().record, expectedType,
+                        instance.getValue().path));
+            }
+            LwM2mResource resource = LwM2mMultipleResource.newResource(entry.getKey(), values, expectedType);
+            LwM2mResource previous = resources.put(entry.getKey(), resource);
+            if (previous != null) {
+                throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
+                        previous, resource, resource.getId(), first.path);
+            }
+        }
+
+        // If we found nothing, we try to create an empty multi-instance resource
+        if (resources.isEmpty() && requestPath.isResource()) {
+            ResourceModel resourceModel = model.getResourceModel(requestPath.getObjectId(),
+                    requestPath.getResourceId());
+            // We create it only if this respect the model
+            if (resourceModel == null || resourceModel.multiple) {
+                resources.put(requestPath.getResourceId(), LwM2mMultipleResource.newResource(
+                        requestPath.getResourceId(), new HashMap<Integer, Object>(),
+                        getResourceType(requestPath, model, null)));
+            }
+        }
+        return resources;
+    }
+
+    private static Object parseValue(SenMLRecord record, Type expectedType, LwM2mPath path) throws CodecException {
+        LOG.trace("SenML record for path {} and expected type {}: {}", path, expectedType, record);
+
+        Object value;
+        switch (expectedType) {
+        case INTEGER:
+        case FLOAT:
+        case TIME:
+            value = record.getFloatValue();
+            break;
+        case BOOLEAN:
+            value = record.getBooleanValue();
+            break;
+        case STRING:
+            value = record.getStringValue();
+            break;
+        case OPAQUE:
+            // tolerate base64 encoded string value
+            value = record.getOpaqueValue() != null ? record.getOpaqueValue() : record.getStringValue();
+            break;
+        case OBJLNK:
+            value = record.getObjectLinkValue();
+            break;
+        default:
+            throw new CodecException("Unsupported type %s for path %s", expectedType, path);
+        }
+        if (value == null) {
+            throw new CodecException("No value of type %s for path %s in record %s", expectedType, path, record);
+        }
+
+        try {
+            switch (expectedType) {
+            case INTEGER:
+                return ((Number) value).longValue();
+            case FLOAT:
+                return ((Number) value).doubleValue();
+            case TIME:
+                return new Date(((Number) value).longValue() * 1000L);
+            case OPAQUE:
+                return value instanceof String ? Base64.decodeBase64((String) value) : value;
+            case OBJLNK:
+                String[] ids = ((String) value).split(":");
+                return new ObjectLink(Integer.parseInt(ids[0]), Integer.parseInt(ids[1]));
+            default:
+                return value;
+            }
+        } catch (RuntimeException e) {
+            throw new CodecException(e, "Invalid content [%s] for type %s for path %s", value, expectedType, path);
+        }
+    }
+
+    private static Type getResourceType(LwM2mPath rscPath, LwM2mModel model, SenMLRecord record) {
+        // Use model type in priority
+        ResourceModel rscDesc = model.getResourceModel(rscPath.getObjectId(), rscPath.getResourceId());
+        if (rscDesc != null && rscDesc.type != null)
+            return rscDesc.type;
+
+        // Then SenML type
+        if (record != null) {
+            Type type = record.getType();
+            if (type != null)
+                return type;
+        }
+
+        // Else use String as default
+        LOG.trace("unknown type for resource use string as default: {}", rscPath);
+        return Type.STRING;
+    }
+
+    private static class ResolvedRecord {
+        final LwM2mPath path;
+        final SenMLRecord record;
+
+        ResolvedRecord(LwM2mPath path, SenMLRecord record) {
+            this.path = path;
+            this.record = record;
+        }
+    }
+}
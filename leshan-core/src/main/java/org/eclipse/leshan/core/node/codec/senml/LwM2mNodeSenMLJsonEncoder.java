@@ -10,6 +10,7 @@
  * 
  * Contributors:
  *     Boya Zhang - initial API and implementation
+ *     Sierra Wireless - share SenML pack creation with CBOR encoder
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.senml;
 
@@ -26,9 +27,9 @@ import org.eclipse.leshan.core.node.LwM2mObject;
 import org.eclipse.leshan.core.node.LwM2mObjectInstance;
 import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.ObjectLink;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
-import org.eclipse.leshan.core.util.Base64;
 import org.eclipse.leshan.core.util.Validate;
 import org.eclipse.leshan.senml.SenMLJson;
 import org.eclipse.leshan.senml.SenMLPack;
@@ -40,6 +41,13 @@ public class LwM2mNodeSenMLJsonEncoder {
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeSenMLJsonEncoder.class);
 
     public static byte[] encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter) {
+        return SenMLJson.toSenMLJson(toSenMLPack(node, path, model, converter)).getBytes();
+    }
+
+    /**
+     * Creates the {@link SenMLPack} representing the given node, whatever the SenML format it will be serialized to.
+     */
+    static SenMLPack toSenMLPack(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter) {
         Validate.notNull(node);
         Validate.notNull(path);
         Validate.notNull(model);
@@ -53,7 +61,7 @@ public class LwM2mNodeSenMLJsonEncoder {
 
         SenMLPack pack = new SenMLPack();
         pack.setRecords(internalEncoder.records);
-        return SenMLJson.toSenMLJson(pack).getBytes();
+        return pack;
     }
 
     private static class InternalEncoder implements LwM2mNodeVisitor {
@@ -177,10 +185,12 @@ public class LwM2mNodeSenMLJsonEncoder {
                 record.setFloatValue((((Date) value).getTime() / 1000L));
                 break;
             case OPAQUE:
-                record.setStringValue(Base64.encodeBase64String((byte[]) value));
+                record.setOpaqueValue((byte[]) value);
                 break;
             case OBJLNK:
-                record.setStringValue(value.toString());
+                ObjectLink objectLink = (ObjectLink) value;
+                record.setObjectLinkValue(objectLink.getObjectId() + ":" + objectLink.getObjectInstanceId());
+                break;
             default:
                 throw new CodecException("Invalid value type %s for %s", type, resourcePath);
             }
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode content from ByteBuffer
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.text;
 
@@ -35,12 +36,20 @@ public class LwM2mNodeTextDecoder {
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeTextDecoder.class);
 
     public static LwM2mNode decode(byte[] content, LwM2mPath path, LwM2mModel model) throws CodecException {
+        return decode(content, 0, content != null ? content.length : 0, path, model);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    public static LwM2mNode decode(byte[] content, int offset, int length, LwM2mPath path, LwM2mModel model)
+            throws CodecException {
         if (!path.isResource())
             throw new CodecException("Invalid path %s : TextDecoder decodes resource only", path);
 
         ResourceModel rDesc = model.getResourceModel(path.getObjectId(), path.getResourceId());
 
-        String strValue = content != null ? new String(content, StandardCharsets.UTF_8) : "";
+        String strValue = length > 0 ? new String(content, offset, length, StandardCharsets.UTF_8) : "";
         if (rDesc != null && rDesc.type != null) {
             return LwM2mSingleResource.newResource(path.getResourceId(), parseTextValue(strValue, rDesc.type, path),
                     rDesc.type);
@@ -12,10 +12,12 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode in one pass using TlvReader
+ *     Sierra Wireless - decode INTEGER, FLOAT and BOOLEAN values without boxing
+ *     Sierra Wireless - decode part of an array
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.tlv;
 
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,22 +35,38 @@ import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.codec.CodecException;
-import org.eclipse.leshan.core.tlv.Tlv;
-import org.eclipse.leshan.core.tlv.TlvDecoder;
-import org.eclipse.leshan.core.tlv.TlvException;
 import org.eclipse.leshan.core.tlv.Tlv.TlvType;
+import org.eclipse.leshan.core.tlv.TlvException;
+import org.eclipse.leshan.core.tlv.TlvReader;
 import org.eclipse.leshan.core.util.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Decodes TLV content into {@link LwM2mNode}s.
+ * <p>
+ * Content is decoded in one pass using a {@link TlvReader}: no intermediate TLV tree is created and values are decoded
+ * directly from the content.
+ */
 public class LwM2mNodeTlvDecoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeTlvDecoder.class);
 
+    private static final byte[] EMPTY = new byte[0];
+
     public static <T extends LwM2mNode> T decode(byte[] content, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
             throws CodecException {
+        return content != null ? decode(content, 0, content.length, path, model, nodeClass)
+                : decode(EMPTY, 0, 0, path, model, nodeClass);
+    }
+
+    /**
+     * Decode the <code>length</code> bytes of <code>content</code> starting at <code>offset</code>.
+     */
+    public static <T extends LwM2mNode> T decode(byte[] content, int offset, int length, LwM2mPath path,
+            LwM2mModel model, Class<T> nodeClass) throws CodecException {
         try {
-            Tlv[] tlvs = TlvDecoder.decode(ByteBuffer.wrap(content != null ? content : new byte[0]));
+            TlvReader tlvs = new TlvReader(content, offset, length);
             return parseTlv(tlvs, path, model, nodeClass);
         } catch (TlvException | LwM2mNodeException e) {
             throw new CodecException(String.format("Unable to decode tlv for path [%s]", path), e);
@@ -56,17 +74,17 @@ public class LwM2mNodeTlvDecoder {
     }
 
     @SuppressWarnings("unchecked")
-    private static <T extends LwM2mNode> T parseTlv(Tlv[] tlvs, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
-            throws CodecException {
-        LOG.trace("Parsing TLV content for path {}: {}", path, tlvs);
+    private static <T extends LwM2mNode> T parseTlv(TlvReader tlvs, LwM2mPath path, LwM2mModel model,
+            Class<T> nodeClass) throws CodecException, TlvException {
+        LOG.trace("Parsing TLV content for path {}", path);
 
         // Object
         if (nodeClass == LwM2mObject.class) {
-            Map<Integer, LwM2mObjectInstance> instances = new HashMap<>(tlvs.length);
+            Map<Integer, LwM2mObjectInstance> instances = new HashMap<>();
 
             // is it an array of TLV resources?
-            if (tlvs.length > 0 && //
-                    (tlvs[0].getType() == TlvType.MULTIPLE_RESOURCE || tlvs[0].getType() == TlvType.RESOURCE_VALUE)) {
+            if (tlvs.hasNext() && //
+                    (tlvs.peekType() == TlvType.MULTIPLE_RESOURCE || tlvs.peekType() == TlvType.RESOURCE_VALUE)) {
 
                 ObjectModel oModel = model.getObjectModel(path.getObjectId());
                 if (oModel == null) {
@@ -78,16 +96,17 @@ public class LwM2mNodeTlvDecoder {
                 } else {
                     // this is strange "create without instance ID" case ...
                     instances.put(LwM2mObjectInstance.UNDEFINED,
-                            parseObjectInstanceTlvWithoutId(tlvs, path.getObjectId(), model));
+                            parseObjectInstanceTlv(tlvs, path.getObjectId(), null, model));
                 }
             } else {
-                for (Tlv tlv : tlvs) {
-                    if (tlv.getType() != TlvType.OBJECT_INSTANCE)
+                while (tlvs.hasNext()) {
+                    TlvType type = tlvs.next();
+                    if (type != TlvType.OBJECT_INSTANCE)
                         throw new CodecException("Expected TLV of type OBJECT_INSTANCE but was %s  [path:%s]",
-                                tlv.getType().name(), path);
+                                type.name(), path);
 
-                    LwM2mObjectInstance objectInstance = parseObjectInstanceTlv(tlv.getChildren(), path.getObjectId(),
-                            tlv.getIdentifier(), model);
+                    LwM2mObjectInstance objectInstance = parseObjectInstanceTlv(tlvs.children(), path.getObjectId(),
+                            tlvs.getIdentifier(), model);
                     LwM2mObjectInstance previousObjectInstance = instances.put(objectInstance.getId(), objectInstance);
                     if (previousObjectInstance != null) {
                         throw new CodecException(
@@ -102,14 +121,14 @@ public class LwM2mNodeTlvDecoder {
         // Object instance
         else if (nodeClass == LwM2mObjectInstance.class) {
 
-            if (tlvs.length == 1 && tlvs[0].getType() == TlvType.OBJECT_INSTANCE) {
-                if (path.isObjectInstance() && tlvs[0].getIdentifier() != path.getObjectInstanceId()) {
+            if (tlvs.hasNext() && tlvs.peekType() == TlvType.OBJECT_INSTANCE && tlvs.count() == 1) {
+                tlvs.next();
+                if (path.isObjectInstance() && tlvs.getIdentifier() != path.getObjectInstanceId()) {
                     throw new CodecException("Id conflict between path [%s] and instance TLV [object instance id=%d]",
-                            path, tlvs[0].getIdentifier());
+                            path, tlvs.getIdentifier());
                 }
                 // object instance TLV
-                return (T) parseObjectInstanceTlv(tlvs[0].getChildren(), path.getObjectId(), tlvs[0].getIdentifier(),
-                        model);
+                return (T) parseObjectInstanceTlv(tlvs.children(), path.getObjectId(), tlvs.getIdentifier(), model);
             } else {
                 // array of TLV resources
                 // try to retrieve the instanceId from the path or the model
@@ -132,35 +151,35 @@ public class LwM2mNodeTlvDecoder {
         // Resource
         else if (nodeClass == LwM2mResource.class) {
             // The object instance level should not be here, but if it is provided and consistent we tolerate it
-            if (tlvs.length == 1 && tlvs[0].getType() == TlvType.OBJECT_INSTANCE) {
-                if (tlvs[0].getIdentifier() != path.getObjectInstanceId()) {
+            if (tlvs.hasNext() && tlvs.peekType() == TlvType.OBJECT_INSTANCE && tlvs.count() == 1) {
+                tlvs.next();
+                if (tlvs.getIdentifier() != path.getObjectInstanceId()) {
                     throw new CodecException("Id conflict between path [%s] and instance TLV [object instance id=%d]",
-                            path, tlvs[0].getIdentifier());
+                            path, tlvs.getIdentifier());
                 }
-                tlvs = tlvs[0].getChildren();
+                tlvs = tlvs.children();
             }
 
             ResourceModel resourceModel = model.getResourceModel(path.getObjectId(), path.getResourceId());
-            if (tlvs.length == 0 && resourceModel != null && !resourceModel.multiple) {
+            if (!tlvs.hasNext() && resourceModel != null && !resourceModel.multiple) {
                 // If there is no TlV value and we know that this resource is a single resource we raise an exception
                 // else we consider this is a multi-instance resource
                 throw new CodecException("TLV payload is mandatory for single resource %s", path);
-            } else if (tlvs.length == 1 && tlvs[0].getType() != TlvType.RESOURCE_INSTANCE) {
-                Tlv tlv = tlvs[0];
-                if (tlv.getType() != TlvType.RESOURCE_VALUE && tlv.getType() != TlvType.MULTIPLE_RESOURCE) {
+            } else if (tlvs.hasNext() && tlvs.peekType() != TlvType.RESOURCE_INSTANCE && tlvs.count() == 1) {
+                TlvType type = tlvs.next();
+                if (type != TlvType.RESOURCE_VALUE && type != TlvType.MULTIPLE_RESOURCE) {
                     throw new CodecException(
                             "Expected TLV of type RESOURCE_VALUE or MUlTIPLE_RESOURCE but was %s [path:%s]",
-                            tlv.getType().name(), path);
+                            type.name(), path);
                 }
-                if (path.isResource() && path.getResourceId() != tlv.getIdentifier()) {
+                if (path.isResource() && path.getResourceId() != tlvs.getIdentifier()) {
                     throw new CodecException("Id conflict between path [%s] and resource TLV [resource id=%s]", path,
-                            tlv.getIdentifier());
+                            tlvs.getIdentifier());
                 }
-                return (T) parseResourceTlv(tlv, path, model);
+                return (T) parseResourceTlv(tlvs, path.getObjectId(), path.getObjectInstanceId(), model);
             } else {
                 Type expectedRscType = getResourceType(path, model);
-                return (T) LwM2mMultipleResource.newResource(path.getResourceId(),
-                        parseTlvValues(tlvs, expectedRscType, path), expectedRscType);
+                return (T) parseMultipleResource(tlvs, path.getResourceId(), expectedRscType, path);
             }
         } else {
             throw new IllegalArgumentException("invalid node class: " + nodeClass);
@@ -168,96 +187,177 @@ public class LwM2mNodeTlvDecoder {
 
     }
 
-    private static LwM2mObjectInstance parseObjectInstanceTlv(Tlv[] rscTlvs, int objectId, int instanceId,
-            LwM2mModel model) throws CodecException {
-        Map<Integer, LwM2mResource> resources = new HashMap<>(rscTlvs.length);
-        for (Tlv rscTlv : rscTlvs) {
-            LwM2mPath resourcePath = new LwM2mPath(objectId, instanceId, rscTlv.getIdentifier());
-            LwM2mResource resource = parseResourceTlv(rscTlv, resourcePath, model);
+    /**
+     * Parse all the resources of an object instance. A <code>null</code> instanceId is used for "create without
+     * instance ID" case.
+     */
+    private static LwM2mObjectInstance parseObjectInstanceTlv(TlvReader rscTlvs, int objectId, Integer instanceId,
+            LwM2mModel model) throws CodecException, TlvException {
+        Map<Integer, LwM2mResource> resources = new HashMap<>();
+        while (rscTlvs.hasNext()) {
+            rscTlvs.next();
+            LwM2mResource resource = parseResourceTlv(rscTlvs, objectId, instanceId, model);
             LwM2mResource previousResource = resources.put(resource.getId(), resource);
             if (previousResource != null) {
                 throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
-                        previousResource, resource, resource.getId(), resourcePath);
+                        previousResource, resource, resource.getId(),
+                        resourcePath(objectId, instanceId, resource.getId()));
             }
         }
+        if (instanceId == null) {
+            return new LwM2mObjectInstance(resources.values());
+        }
         return new LwM2mObjectInstance(instanceId, resources.values());
+    }
 
+    /**
+     * Parse the current entry of the reader as a resource.
+     */
+    private static LwM2mResource parseResourceTlv(TlvReader tlv, int objectId, Integer instanceId, LwM2mModel model)
+            throws CodecException, TlvException {
+        int resourceId = tlv.getIdentifier();
+        ResourceModel rscDesc = model.getResourceModel(objectId, resourceId);
+        Type expectedType = rscDesc == null || rscDesc.type == null ? Type.OPAQUE : rscDesc.type;
+        switch (tlv.getType()) {
+        case MULTIPLE_RESOURCE:
+            return parseMultipleResource(tlv.children(), resourceId, expectedType,
+                    resourcePath(objectId, instanceId, resourceId));
+        case RESOURCE_VALUE:
+            return parseSingleResource(tlv, expectedType, objectId, instanceId);
+        default:
+            throw new CodecException("Invalid TLV type %s for resource %s", tlv.getType(),
+                    resourcePath(objectId, instanceId, resourceId));
+        }
     }
 
-    private static LwM2mObjectInstance parseObjectInstanceTlvWithoutId(Tlv[] rscTlvs, int objectId, LwM2mModel model)
-            throws CodecException {
-        Map<Integer, LwM2mResource> resources = new HashMap<>(rscTlvs.length);
-        for (Tlv rscTlv : rscTlvs) {
-            LwM2mPath resourcePath = new LwM2mIncompletePath(objectId, rscTlv.getIdentifier());
-            LwM2mResource resource = parseResourceTlv(rscTlv, resourcePath, model);
-            LwM2mResource previousResource = resources.put(resource.getId(), resource);
-            if (previousResource != null) {
-                throw new CodecException("2 RESOURCE nodes (%s,%s) with the same identifier %d for path %s",
-                        previousResource, resource, resource.getId(), resourcePath);
+    /**
+     * Parse the current entry of the reader as a single resource. INTEGER, FLOAT and BOOLEAN values are not boxed.
+     */
+    private static LwM2mSingleResource parseSingleResource(TlvReader tlv, Type expectedType, int objectId,
+            Integer instanceId) throws CodecException {
+        int resourceId = tlv.getIdentifier();
+        try {
+            switch (expectedType) {
+            case INTEGER:
+                return LwM2mSingleResource.newIntegerResource(resourceId, tlv.readInteger());
+            case FLOAT:
+                return LwM2mSingleResource.newFloatResource(resourceId, tlv.readFloat());
+            case BOOLEAN:
+                return LwM2mSingleResource.newBooleanResource(resourceId, tlv.readBoolean());
+            default:
+                return LwM2mSingleResource.newResource(resourceId, readValue(tlv, expectedType), expectedType);
             }
+        } catch (TlvException e) {
+            throw invalidContent(e, tlv, expectedType, resourcePath(objectId, instanceId, resourceId));
         }
-        return new LwM2mObjectInstance(resources.values());
     }
 
-    private static LwM2mResource parseResourceTlv(Tlv tlv, LwM2mPath resourcePath, LwM2mModel model)
-            throws CodecException {
-        Type expectedType = getResourceType(resourcePath, model);
-        Integer resourceId = tlv.getIdentifier();
-        switch (tlv.getType()) {
-        case MULTIPLE_RESOURCE:
-            return LwM2mMultipleResource.newResource(resourceId,
-                    parseTlvValues(tlv.getChildren(), expectedType, resourcePath), expectedType);
-        case RESOURCE_VALUE:
-            return LwM2mSingleResource.newResource(resourceId,
-                    parseTlvValue(tlv.getValue(), expectedType, resourcePath), expectedType);
-        default:
-            throw new CodecException("Invalid TLV type %s for resource %s", tlv.getType(), resourcePath);
+    /**
+     * Parse resource instance entries as a multiple resource. INTEGER, FLOAT and BOOLEAN values are not boxed.
+     */
+    private static LwM2mMultipleResource parseMultipleResource(TlvReader tlvs, int resourceId, Type expectedType,
+            LwM2mPath path) throws CodecException, TlvException {
+        if (expectedType != Type.INTEGER && expectedType != Type.FLOAT && expectedType != Type.BOOLEAN) {
+            return LwM2mMultipleResource.newResource(resourceId, parseTlvValues(tlvs, expectedType, path),
+                    expectedType);
+        }
+
+        int count = tlvs.count();
+        int[] instanceIds = new int[count];
+        long[] longValues = expectedType == Type.INTEGER ? new long[count] : null;
+        double[] doubleValues = expectedType == Type.FLOAT ? new double[count] : null;
+        boolean[] booleanValues = expectedType == Type.BOOLEAN ? new boolean[count] : null;
+        for (int i = 0; i < count; i++) {
+            TlvType type = tlvs.next();
+            if (type != TlvType.RESOURCE_INSTANCE)
+                throw new CodecException("Expected TLV of type RESOURCE_INSTANCE but was %s for path %s", type.name(),
+                        path);
+
+            instanceIds[i] = tlvs.getIdentifier();
+            try {
+                if (longValues != null) {
+                    longValues[i] = tlvs.readInteger();
+                } else if (doubleValues != null) {
+                    doubleValues[i] = tlvs.readFloat();
+                } else {
+                    booleanValues[i] = tlvs.readBoolean();
+                }
+            } catch (TlvException e) {
+                throw invalidContent(e, tlvs, expectedType, path);
+            }
+        }
+
+        // duplicate resource instances are detected on resource creation
+        if (longValues != null) {
+            return LwM2mMultipleResource.newIntegerResource(resourceId, instanceIds, longValues);
+        } else if (doubleValues != null) {
+            return LwM2mMultipleResource.newFloatResource(resourceId, instanceIds, doubleValues);
+        } else {
+            return LwM2mMultipleResource.newBooleanResource(resourceId, instanceIds, booleanValues);
         }
     }
 
-    private static Map<Integer, Object> parseTlvValues(Tlv[] tlvs, Type expectedType, LwM2mPath path)
-            throws CodecException {
+    private static Map<Integer, Object> parseTlvValues(TlvReader tlvs, Type expectedType, LwM2mPath path)
+            throws CodecException, TlvException {
         Map<Integer, Object> values = new HashMap<>();
-        for (Tlv tlvChild : tlvs) {
-            if (tlvChild.getType() != TlvType.RESOURCE_INSTANCE)
-                throw new CodecException("Expected TLV of type RESOURCE_INSTANCE but was %s for path %s",
-                        tlvChild.getType().name(), path);
+        while (tlvs.hasNext()) {
+            TlvType type = tlvs.next();
+            if (type != TlvType.RESOURCE_INSTANCE)
+                throw new CodecException("Expected TLV of type RESOURCE_INSTANCE but was %s for path %s", type.name(),
+                        path);
 
-            Object resourceInstance = parseTlvValue(tlvChild.getValue(), expectedType, path);
-            Object previousResourceInstance = values.put(tlvChild.getIdentifier(), resourceInstance);
+            Object resourceInstance = parseTlvValue(tlvs, expectedType, path);
+            Object previousResourceInstance = values.put(tlvs.getIdentifier(), resourceInstance);
             if (previousResourceInstance != null) {
                 throw new CodecException("2 RESOURCE_INSTANCE nodes (%s,%s) with the same identifier %d for path %s",
-                        previousResourceInstance, resourceInstance, tlvChild.getIdentifier(), path);
+                        previousResourceInstance, resourceInstance, tlvs.getIdentifier(), path);
             }
         }
         return values;
     }
 
-    private static Object parseTlvValue(byte[] value, Type expectedType, LwM2mPath path) throws CodecException {
+    private static Object parseTlvValue(TlvReader tlv, Type expectedType, LwM2mPath path) throws CodecException {
         try {
-            LOG.trace("TLV value for path {} and expected type {}: {}", path, expectedType, value);
-            switch (expectedType) {
-            case STRING:
-                return TlvDecoder.decodeString(value);
-            case INTEGER:
-                return TlvDecoder.decodeInteger(value).longValue();
-            case FLOAT:
-                return TlvDecoder.decodeFloat(value).doubleValue();
-            case BOOLEAN:
-                return TlvDecoder.decodeBoolean(value);
-            case TIME:
-                return TlvDecoder.decodeDate(value);
-            case OPAQUE:
-                return value;
-            case OBJLNK:
-                return TlvDecoder.decodeObjlnk(value);
-            default:
-                throw new CodecException("Unsupported type %s for path %s", expectedType, path);
-            }
+            return readValue(tlv, expectedType);
         } catch (TlvException e) {
-            throw new CodecException(e, "Invalid content [%s] for type %s for path %s", Hex.encodeHexString(value),
-                    expectedType, path);
+            throw invalidContent(e, tlv, expectedType, path);
+        }
+    }
+
+    /**
+     * Read the value of the current entry of the reader.
+     */
+    private static Object readValue(TlvReader tlv, Type expectedType) throws TlvException {
+        switch (expectedType) {
+        case STRING:
+            return tlv.readString();
+        case INTEGER:
+            return tlv.readInteger();
+        case FLOAT:
+            return tlv.readFloat();
+        case BOOLEAN:
+            return tlv.readBoolean();
+        case TIME:
+            return tlv.readDate();
+        case OPAQUE:
+            return tlv.readOpaque();
+        case OBJLNK:
+            return tlv.readObjlnk();
+        default:
+            throw new TlvException("Unsupported type " + expectedType);
+        }
+    }
+
+    private static CodecException invalidContent(TlvException e, TlvReader tlv, Type expectedType, LwM2mPath path) {
+        return new CodecException(e, "Invalid content [%s] for type %s for path %s",
+                Hex.encodeHexString(tlv.readOpaque()), expectedType, path);
+    }
+
+    private static LwM2mPath resourcePath(int objectId, Integer instanceId, int resourceId) {
+        if (instanceId == null) {
+            return new LwM2mIncompletePath(objectId, resourceId);
         }
+        return new LwM2mPath(objectId, instanceId, resourceId);
     }
 
     public static Type getResourceType(LwM2mPath rscPath, LwM2mModel model) throws CodecException {
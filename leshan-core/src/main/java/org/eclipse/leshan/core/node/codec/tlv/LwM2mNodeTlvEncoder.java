@@ -12,29 +12,35 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - encode directly into an exact-size buffer
+ *     Sierra Wireless - encode INTEGER, FLOAT and BOOLEAN values without boxing
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.tlv;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ResourceModel;
 import org.eclipse.leshan.core.model.ResourceModel.Type;
 import org.eclipse.leshan.core.node.LwM2mIncompletePath;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
 import org.eclipse.leshan.core.node.LwM2mNode;
 import org.eclipse.leshan.core.node.LwM2mNodeVisitor;
 import org.eclipse.leshan.core.node.LwM2mObject;
 import org.eclipse.leshan.core.node.LwM2mObjectInstance;
 import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.ObjectLink;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
-import org.eclipse.leshan.core.tlv.Tlv;
 import org.eclipse.leshan.core.tlv.Tlv.TlvType;
 import org.eclipse.leshan.core.tlv.TlvEncoder;
 import org.eclipse.leshan.core.util.Validate;
@@ -43,6 +49,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * TLV encoder for {@link LwM2mNode}.
+ * <p>
+ * The node is encoded in 2 passes: the first one converts the values and computes the exact size of each TLV entry,
+ * the second one writes the entries directly in the destination buffer.
  */
 public class LwM2mNodeTlvEncoder {
 
@@ -50,6 +59,32 @@ public class LwM2mNodeTlvEncoder {
 
     public static byte[] encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter)
             throws CodecException {
+        InternalEncoder internalEncoder = prepare(node, path, model, converter);
+        ByteBuffer out = ByteBuffer.wrap(new byte[internalEncoder.size]);
+        internalEncoder.write(node, out);
+        return out.array();
+    }
+
+    /**
+     * Encodes a node in the given buffer, starting at its current position.
+     *
+     * @return the number of bytes written.
+     * @throws BufferOverflowException if there is not enough remaining bytes in the buffer, in this case nothing is
+     *         written.
+     */
+    public static int encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter,
+            ByteBuffer buffer) throws CodecException {
+        Validate.notNull(buffer);
+        InternalEncoder internalEncoder = prepare(node, path, model, converter);
+        if (buffer.remaining() < internalEncoder.size) {
+            throw new BufferOverflowException();
+        }
+        internalEncoder.write(node, buffer);
+        return internalEncoder.size;
+    }
+
+    private static InternalEncoder prepare(LwM2mNode node, LwM2mPath path, LwM2mModel model,
+            LwM2mValueConverter converter) {
         Validate.notNull(node);
         Validate.notNull(path);
         Validate.notNull(model);
@@ -59,7 +94,7 @@ public class LwM2mNodeTlvEncoder {
         internalEncoder.model = model;
         internalEncoder.converter = converter;
         node.accept(internalEncoder);
-        return internalEncoder.out.toByteArray();
+        return internalEncoder;
     }
 
     private static class InternalEncoder implements LwM2mNodeVisitor {
@@ -70,28 +105,35 @@ public class LwM2mNodeTlvEncoder {
         private LwM2mValueConverter converter;
 
         // visitor output
-        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int size;
+
+        // the value length of each TLV entry and the converted values of resources, in encoding order
+        private int[] lengths = new int[16];
+        private int lengthCount;
+        private final List<Object> values = new ArrayList<>();
+        private final List<Type> types = new ArrayList<>();
+        // INTEGER, FLOAT and BOOLEAN values which do not need conversion are not boxed: their value is null and they
+        // are stored here at the same index (see Double#doubleToLongBits for FLOAT and 1 for true)
+        private long[] primitiveValues = new long[16];
+
+        // write state, null during the sizing pass
+        private ByteBuffer out;
+        private int nextLength;
+        private int nextValue;
+
+        public void write(LwM2mNode node, ByteBuffer buffer) {
+            out = buffer;
+            node.accept(this);
+        }
 
         @Override
         public void visit(LwM2mObject object) {
             LOG.trace("Encoding object {} into TLV", object);
 
-            Tlv[] tlvs;
-
             // encoded as an array of instances
-            tlvs = new Tlv[object.getInstances().size()];
-            int i = 0;
             for (Entry<Integer, LwM2mObjectInstance> instance : object.getInstances().entrySet()) {
-                Tlv[] resources = encodeResources(instance.getValue().getResources().values(),
-                        new LwM2mPath(object.getId(), instance.getKey()));
-                tlvs[i] = new Tlv(TlvType.OBJECT_INSTANCE, resources, null, instance.getKey());
-                i++;
-            }
-
-            try {
-                out.write(TlvEncoder.encode(tlvs).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                size += encodeInstance(instance.getValue().getResources().values(),
+                        new LwM2mPath(object.getId(), instance.getKey()), instance.getKey());
             }
         }
 
@@ -99,23 +141,16 @@ public class LwM2mNodeTlvEncoder {
         public void visit(LwM2mObjectInstance instance) {
             LOG.trace("Encoding object instance {} into TLV", instance);
 
-            Tlv[] tlvs;
             if (path.isObjectInstance() || instance.getId() == LwM2mObjectInstance.UNDEFINED) {
                 // the instanceId is part of the request path or is undefined
                 // so the instance TLV layer is not needed.
                 // encoded as an array of resource TLVs
-                tlvs = encodeResources(instance.getResources().values(), new LwM2mIncompletePath(path.getObjectId()));
+                size += encodeResources(instance.getResources().values(),
+                        new LwM2mIncompletePath(path.getObjectId()));
             } else {
                 // encoded as an instance TLV
-                Tlv[] resources = encodeResources(instance.getResources().values(),
-                        new LwM2mPath(path.getObjectId(), instance.getId()));
-                tlvs = new Tlv[] { new Tlv(TlvType.OBJECT_INSTANCE, resources, null, instance.getId()) };
-            }
-
-            try {
-                out.write(TlvEncoder.encode(tlvs).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                size += encodeInstance(instance.getResources().values(),
+                        new LwM2mPath(path.getObjectId(), instance.getId()), instance.getId());
             }
         }
 
@@ -123,80 +158,253 @@ public class LwM2mNodeTlvEncoder {
         public void visit(LwM2mResource resource) {
             LOG.trace("Encoding resource {} into TLV", resource);
 
-            Tlv rTlv = encodeResource(resource, path);
+            size += encodeResource(resource, path);
+        }
 
-            try {
-                out.write(TlvEncoder.encode(new Tlv[] { rTlv }).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        /**
+         * @return the size of the encoded instance TLV.
+         */
+        private int encodeInstance(Collection<LwM2mResource> resources, LwM2mPath instancePath, int id) {
+            if (out == null) {
+                int index = reserveLength();
+                int length = encodeResources(resources, instancePath);
+                lengths[index] = length;
+                return TlvEncoder.entrySize(id, length);
+            } else {
+                TlvEncoder.writeHeader(out, TlvType.OBJECT_INSTANCE, id, lengths[nextLength++]);
+                encodeResources(resources, instancePath);
+                return 0;
             }
         }
 
-        private Tlv[] encodeResources(Collection<LwM2mResource> resources, LwM2mPath instancePath) {
-            Tlv[] rTlvs = new Tlv[resources.size()];
-            int i = 0;
+        /**
+         * @return the size of the encoded resource TLVs.
+         */
+        private int encodeResources(Collection<LwM2mResource> resources, LwM2mPath instancePath) {
+            int length = 0;
             for (LwM2mResource resource : resources) {
-                rTlvs[i] = encodeResource(resource, instancePath.append(resource.getId()));
-                i++;
+                length += encodeResource(resource, out == null ? instancePath.append(resource.getId()) : null);
             }
-            return rTlvs;
+            return length;
         }
 
-        private Tlv encodeResource(LwM2mResource resource, LwM2mPath resourcePath) {
-            ResourceModel rSpec = model.getResourceModel(path.getObjectId(), resource.getId());
-            Type expectedType = rSpec != null ? rSpec.type : resource.getType();
-
-            Tlv rTlv;
+        /**
+         * @param resourcePath the path of the resource, only needed during the sizing pass.
+         * @return the size of the encoded resource TLV.
+         */
+        private int encodeResource(LwM2mResource resource, LwM2mPath resourcePath) {
             if (resource.isMultiInstances()) {
-                Tlv[] instances = new Tlv[resource.getValues().size()];
-                int i = 0;
-                for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
-                    LwM2mPath resourceInstancePath = resourcePath.append(entry.getKey());
-                    Object convertedValue = converter.convertValue(entry.getValue(), resource.getType(), expectedType,
-                            resourceInstancePath);
-                    instances[i] = new Tlv(TlvType.RESOURCE_INSTANCE, null,
-                            this.encodeTlvValue(convertedValue, expectedType, resourceInstancePath), entry.getKey());
-                    i++;
+                if (out == null) {
+                    int index = reserveLength();
+                    int length = 0;
+                    if (resource instanceof LwM2mMultipleResource && isPrimitive(resource)) {
+                        LwM2mMultipleResource multipleResource = (LwM2mMultipleResource) resource;
+                        for (int instanceId : multipleResource.getInstanceIds()) {
+                            length += preparePrimitiveValue(instanceId, primitiveValue(multipleResource, instanceId),
+                                    resource.getType());
+                        }
+                    } else {
+                        for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
+                            length += prepareValue(entry.getKey(), entry.getValue(), resource,
+                                    resourcePath.append(entry.getKey()));
+                        }
+                    }
+                    lengths[index] = length;
+                    return TlvEncoder.entrySize(resource.getId(), length);
+                } else {
+                    TlvEncoder.writeHeader(out, TlvType.MULTIPLE_RESOURCE, resource.getId(), lengths[nextLength++]);
+                    for (Integer instanceId : resource.getValues().keySet()) {
+                        writeValue(TlvType.RESOURCE_INSTANCE, instanceId);
+                    }
+                    return 0;
                 }
-                rTlv = new Tlv(TlvType.MULTIPLE_RESOURCE, instances, null, resource.getId());
             } else {
-                Object convertedValue = converter.convertValue(resource.getValue(), resource.getType(), expectedType,
-                        resourcePath);
-                rTlv = new Tlv(TlvType.RESOURCE_VALUE, null,
-                        this.encodeTlvValue(convertedValue, expectedType, resourcePath), resource.getId());
+                if (out == null) {
+                    if (resource instanceof LwM2mSingleResource && isPrimitive(resource)) {
+                        return preparePrimitiveValue(resource.getId(),
+                                primitiveValue((LwM2mSingleResource) resource), resource.getType());
+                    }
+                    return prepareValue(resource.getId(), resource.getValue(), resource, resourcePath);
+                } else {
+                    writeValue(TlvType.RESOURCE_VALUE, resource.getId());
+                    return 0;
+                }
             }
-            return rTlv;
         }
 
-        private byte[] encodeTlvValue(Object value, Type type, LwM2mPath path) {
+        /**
+         * Converts the value and computes the size of its TLV.
+         */
+        private int prepareValue(int id, Object value, LwM2mResource resource, LwM2mPath valuePath) {
+            ResourceModel rSpec = model.getResourceModel(path.getObjectId(), resource.getId());
+            Type expectedType = rSpec != null ? rSpec.type : resource.getType();
+
+            Object convertedValue = converter.convertValue(value, resource.getType(), expectedType, valuePath);
+            int length = tlvValueLength(convertedValue, expectedType, valuePath);
+            values.add(convertedValue);
+            types.add(expectedType);
+            int index = reserveLength();
+            lengths[index] = length;
+            return TlvEncoder.entrySize(id, length);
+        }
+
+        /**
+         * @return <code>true</code> if the resource value(s) can be encoded without boxing nor conversion.
+         */
+        private boolean isPrimitive(LwM2mResource resource) {
+            Type type = resource.getType();
+            if (type != Type.INTEGER && type != Type.FLOAT && type != Type.BOOLEAN) {
+                return false;
+            }
+            ResourceModel rSpec = model.getResourceModel(path.getObjectId(), resource.getId());
+            return rSpec == null || rSpec.type == type;
+        }
+
+        private long primitiveValue(LwM2mSingleResource resource) {
+            switch (resource.getType()) {
+            case INTEGER:
+                return resource.getLongValue();
+            case FLOAT:
+                return Double.doubleToLongBits(resource.getDoubleValue());
+            default:
+                return resource.getBooleanValue() ? 1 : 0;
+            }
+        }
+
+        private long primitiveValue(LwM2mMultipleResource resource, int instanceId) {
+            switch (resource.getType()) {
+            case INTEGER:
+                return resource.getLongValue(instanceId);
+            case FLOAT:
+                return Double.doubleToLongBits(resource.getDoubleValue(instanceId));
+            default:
+                return resource.getBooleanValue(instanceId) ? 1 : 0;
+            }
+        }
+
+        /**
+         * Computes the size of the TLV of a value which does not need conversion.
+         */
+        private int preparePrimitiveValue(int id, long value, Type type) {
+            int valueIndex = values.size();
+            if (valueIndex >= primitiveValues.length) {
+                primitiveValues = Arrays.copyOf(primitiveValues, Math.max(valueIndex + 1, primitiveValues.length * 2));
+            }
+            primitiveValues[valueIndex] = value;
+            values.add(null);
+            types.add(type);
+
+            int length;
+            switch (type) {
+            case INTEGER:
+                length = TlvEncoder.integerLength(value);
+                break;
+            case FLOAT:
+                length = 8;
+                break;
+            default:
+                length = 1;
+                break;
+            }
+            int index = reserveLength();
+            lengths[index] = length;
+            return TlvEncoder.entrySize(id, length);
+        }
+
+        private void writeValue(TlvType tlvType, int id) {
+            TlvEncoder.writeHeader(out, tlvType, id, lengths[nextLength++]);
+            Object value = values.get(nextValue);
+            Type type = types.get(nextValue);
+            long primitiveValue = primitiveValues.length > nextValue ? primitiveValues[nextValue] : 0;
+            nextValue++;
+
+            if (value == null) {
+                writePrimitiveValue(primitiveValue, type);
+                return;
+            }
+
             LOG.trace("Encoding value {} in TLV", value);
+            switch (type) {
+            case STRING:
+                TlvEncoder.writeString(out, (String) value);
+                break;
+            case INTEGER:
+                TlvEncoder.writeInteger(out, ((Number) value).longValue());
+                break;
+            case FLOAT:
+                TlvEncoder.writeFloat(out, (Number) value);
+                break;
+            case BOOLEAN:
+                TlvEncoder.writeBoolean(out, (Boolean) value);
+                break;
+            case TIME:
+                TlvEncoder.writeDate(out, (Date) value);
+                break;
+            case OPAQUE:
+                out.put((byte[]) value);
+                break;
+            case OBJLNK:
+                TlvEncoder.writeObjlnk(out, (ObjectLink) value);
+                break;
+            default:
+                // already checked during sizing
+                throw new IllegalStateException("Unexpected type " + type);
+            }
+        }
+
+        private void writePrimitiveValue(long value, Type type) {
+            switch (type) {
+            case INTEGER:
+                TlvEncoder.writeInteger(out, value);
+                break;
+            case FLOAT:
+                TlvEncoder.writeFloat(out, Double.longBitsToDouble(value));
+                break;
+            default:
+                TlvEncoder.writeBoolean(out, value != 0);
+                break;
+            }
+        }
+
+        private int tlvValueLength(Object value, Type type, LwM2mPath valuePath) {
             if (type == null) {
                 throw new CodecException(
-                        "Unable to encode value for resource {} without type(probably a executable one)", path);
+                        "Unable to encode value for resource {} without type(probably a executable one)", valuePath);
             }
 
             try {
                 switch (type) {
                 case STRING:
-                    return TlvEncoder.encodeString((String) value);
+                    return TlvEncoder.stringLength((String) value);
                 case INTEGER:
-                    return TlvEncoder.encodeInteger((Number) value);
+                    return TlvEncoder.integerLength(((Number) value).longValue());
                 case FLOAT:
-                    return TlvEncoder.encodeFloat((Number) value);
+                    return TlvEncoder.floatLength((Number) value);
+                // casts fail on invalid values before anything is written
                 case BOOLEAN:
-                    return TlvEncoder.encodeBoolean((Boolean) value);
+                    ((Boolean) value).booleanValue();
+                    return 1;
                 case TIME:
-                    return TlvEncoder.encodeDate((Date) value);
-                case OPAQUE:
-                    return (byte[]) value;
+                    ((Date) value).getTime();
+                    return 4;
                 case OBJLNK:
-                    return TlvEncoder.encodeObjlnk((ObjectLink) value);
+                    ((ObjectLink) value).getObjectId();
+                    return 4;
+                case OPAQUE:
+                    return ((byte[]) value).length;
                 default:
-                    throw new CodecException("Invalid value %s for type %s of %s", value, type, path);
+                    throw new CodecException("Invalid value %s for type %s of %s", value, type, valuePath);
                 }
             } catch (IllegalArgumentException e) {
-                throw new CodecException(e, "Invalid value %s for type %s of %s", value, type, path);
+                throw new CodecException(e, "Invalid value %s for type %s of %s", value, type, valuePath);
+            }
+        }
+
+        private int reserveLength() {
+            if (lengthCount == lengths.length) {
+                lengths = Arrays.copyOf(lengths, lengthCount * 2);
             }
+            return lengthCount++;
         }
     }
-}
\ No newline at end of file
+}
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - add SenML CBOR
  *******************************************************************************/
 package org.eclipse.leshan.core.request;
 
@@ -30,6 +31,7 @@ public class ContentFormat {
     public static final int OLD_TLV_CODE = 1542;
 
     public static final int SENML_JSON_CODE = 110;
+    public static final int SENML_CBOR_CODE = 112;
 
     public static final ContentFormat TLV = new ContentFormat("TLV", "application/vnd.oma.lwm2m+tlv", TLV_CODE);
     public static final ContentFormat JSON = new ContentFormat("JSON", "application/vnd.oma.lwm2m+json", JSON_CODE);
@@ -38,10 +40,13 @@ public class ContentFormat {
     public static final ContentFormat LINK = new ContentFormat("LINK", "application/link-format", LINK_CODE);
     public static final ContentFormat SENML_JSON = new ContentFormat("SENML_JSON", "application/senml+json",
             SENML_JSON_CODE);
+    public static final ContentFormat SENML_CBOR = new ContentFormat("SENML_CBOR", "application/senml+cbor",
+            SENML_CBOR_CODE);
 
     public static final ContentFormat DEFAULT = TLV;
 
-    private static final ContentFormat knownContentFormat[] = new ContentFormat[] { TLV, JSON, TEXT, OPAQUE, LINK };
+    private static final ContentFormat knownContentFormat[] = new ContentFormat[] { TLV, JSON, TEXT, OPAQUE, LINK,
+            SENML_JSON, SENML_CBOR };
 
     private final String name;
     private final String mediaType;
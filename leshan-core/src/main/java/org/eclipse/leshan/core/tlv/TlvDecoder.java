@@ -12,10 +12,10 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - decode values without BigInteger and intermediate copies
  *******************************************************************************/
 package org.eclipse.leshan.core.tlv;
 
-import java.math.BigInteger;
 import java.nio.Buffer;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
@@ -158,78 +158,136 @@ public class TlvDecoder {
      * Decodes a byte array into string value.
      */
     public static String decodeString(byte[] value) {
-        return new String(value, StandardCharsets.UTF_8);
+        return decodeString(value, 0, value.length);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into a string value.
+     */
+    public static String decodeString(byte[] buffer, int offset, int length) {
+        return new String(buffer, offset, length, StandardCharsets.UTF_8);
     }
 
     /**
      * Decodes a byte array into a boolean value.
      */
     public static boolean decodeBoolean(byte[] value) throws TlvException {
-        if (value.length == 1) {
-            if (value[0] == 0) {
+        return decodeBoolean(value, 0, value.length);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into a boolean value.
+     */
+    public static boolean decodeBoolean(byte[] buffer, int offset, int length) throws TlvException {
+        if (length == 1) {
+            if (buffer[offset] == 0) {
                 return false;
-            } else if (value[0] == 1) {
+            } else if (buffer[offset] == 1) {
                 return true;
             } else {
-                LOG.warn("Boolean value should be encoded as integer with value 0 or 1, not {}", value[0]);
+                LOG.warn("Boolean value should be encoded as integer with value 0 or 1, not {}", buffer[offset]);
                 return false;
             }
         }
-        throw new TlvException("Invalid length for a boolean value: " + value.length);
+        throw new TlvException("Invalid length for a boolean value: " + length);
     }
 
     /**
      * Decodes a byte array into a date value.
      */
     public static Date decodeDate(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
-        if (value.length <= 8) {
-            return new Date(bi.longValue() * 1000L);
-        } else {
-            throw new TlvException("Invalid length for a time value: " + value.length);
+        return decodeDate(value, 0, value.length);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into a date value.
+     */
+    public static Date decodeDate(byte[] buffer, int offset, int length) throws TlvException {
+        if (length == 0 || length > 8) {
+            throw new TlvException("Invalid length for a time value: " + length);
         }
+        return new Date(decodeSigned(buffer, offset, length) * 1000L);
     }
 
     /**
      * Decodes a byte array into a objlnk value.
      */
     public static ObjectLink decodeObjlnk(byte[] value) throws TlvException {
-        ByteBuffer bff = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
-        bff.put(value);
-        int val1 = bff.getShort(0) & 0xFFFF;
-        int val2 = bff.getShort(2) & 0xFFFF;
-        return new ObjectLink(val1, val2);
+        return decodeObjlnk(value, 0, value.length);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into a objlnk value.
+     * <p>
+     * Missing bytes are considered as 0.
+     */
+    public static ObjectLink decodeObjlnk(byte[] buffer, int offset, int length) throws TlvException {
+        if (length > 4) {
+            throw new TlvException("Invalid length for an objlnk value: " + length);
+        }
+        int val = 0;
+        for (int i = 0; i < 4; i++) {
+            val = val << 8 | (i < length ? buffer[offset + i] & 0xFF : 0);
+        }
+        return new ObjectLink(val >>> 16, val & 0xFFFF);
     }
 
     /**
      * Decodes a byte array into an integer value.
      */
     public static Number decodeInteger(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
+        long val = decodeLong(value, 0, value.length);
         if (value.length == 1) {
-            return bi.byteValue();
+            return (byte) val;
         } else if (value.length <= 2) {
-            return bi.shortValue();
+            return (short) val;
         } else if (value.length <= 4) {
-            return bi.intValue();
-        } else if (value.length <= 8) {
-            return bi.longValue();
+            return (int) val;
         } else {
-            throw new TlvException("Invalid length for an integer value: " + value.length);
+            return val;
         }
     }
 
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into an integer value.
+     */
+    public static long decodeLong(byte[] buffer, int offset, int length) throws TlvException {
+        if (length == 0 || length > 8) {
+            throw new TlvException("Invalid length for an integer value: " + length);
+        }
+        return decodeSigned(buffer, offset, length);
+    }
+
     /**
      * Decodes a byte array into a float value.
      */
     public static Number decodeFloat(byte[] value) throws TlvException {
-        ByteBuffer floatBb = ByteBuffer.wrap(value);
-        if (value.length == 4) {
-            return floatBb.getFloat();
-        } else if (value.length == 8) {
-            return floatBb.getDouble();
+        double val = decodeDouble(value, 0, value.length);
+        return value.length == 4 ? (Number) (float) val : (Number) val;
+    }
+
+    /**
+     * Decodes <code>length</code> bytes of an array starting at <code>offset</code> into a float value.
+     */
+    public static double decodeDouble(byte[] buffer, int offset, int length) throws TlvException {
+        if (length == 4) {
+            return Float.intBitsToFloat((int) decodeSigned(buffer, offset, 4));
+        } else if (length == 8) {
+            return Double.longBitsToDouble(decodeSigned(buffer, offset, 8));
         } else {
-            throw new TlvException("Invalid length for a float value: " + value.length);
+            throw new TlvException("Invalid length for a float value: " + length);
+        }
+    }
+
+    /**
+     * Decodes a big endian two's complement integer of 1 to 8 bytes.
+     */
+    private static long decodeSigned(byte[] buffer, int offset, int length) {
+        // first byte is sign extended
+        long val = buffer[offset];
+        for (int i = 1; i < length; i++) {
+            val = val << 8 | buffer[offset + i] & 0xFF;
         }
+        return val;
     }
 }
@@ -12,19 +12,27 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - encode values without intermediate buffers, write into caller buffers
  *******************************************************************************/
 package org.eclipse.leshan.core.tlv;
 
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.tlv.Tlv.TlvType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Encodes TLV.
+ * <p>
+ * Besides encoding {@link Tlv} arrays and values into byte arrays, it provides methods to compute the exact size of an
+ * encoded TLV entry and to write it directly into a {@link ByteBuffer}. Those methods do not depend on the byte order
+ * of the buffer.
+ */
 public class TlvEncoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(TlvEncoder.class);
@@ -43,7 +51,7 @@ public class TlvEncoder {
         for (Tlv tlv : tlvs) {
 
             int length = tlvEncodedLength(tlv);
-            size += tlvEncodedSize(tlv, length);
+            size += entrySize(tlv.getIdentifier(), length);
             LOG.trace("tlv size : {}", size);
         }
         LOG.trace("done, size : {}", size);
@@ -62,36 +70,21 @@ public class TlvEncoder {
      * Encodes an integer value.
      */
     public static byte[] encodeInteger(Number number) {
-        ByteBuffer iBuf;
         long lValue = number.longValue();
-        if (lValue >= Byte.MIN_VALUE && lValue <= Byte.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(1);
-            iBuf.put((byte) lValue);
-        } else if (lValue >= Short.MIN_VALUE && lValue <= Short.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(2);
-            iBuf.putShort((short) lValue);
-        } else if (lValue >= Integer.MIN_VALUE && lValue <= Integer.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(4);
-            iBuf.putInt((int) lValue);
-        } else {
-            iBuf = ByteBuffer.allocate(8);
-            iBuf.putLong(lValue);
+        byte[] value = new byte[integerLength(lValue)];
+        for (int i = value.length - 1; i >= 0; i--) {
+            value[i] = (byte) lValue;
+            lValue >>= 8;
         }
-        return iBuf.array();
+        return value;
     }
 
     /**
      * Encodes a floating point value.
      */
     public static byte[] encodeFloat(Number number) {
-        ByteBuffer fBuf;
-        if (number instanceof Float) {
-            fBuf = ByteBuffer.allocate(4);
-            fBuf.putFloat(number.floatValue());
-        } else {
-            fBuf = ByteBuffer.allocate(8);
-            fBuf.putDouble(number.doubleValue());
-        }
+        ByteBuffer fBuf = ByteBuffer.wrap(new byte[floatLength(number)]);
+        writeFloat(fBuf, number);
         return fBuf.array();
     }
 
@@ -106,15 +99,17 @@ public class TlvEncoder {
      * Encodes a string value.
      */
     public static byte[] encodeString(String value) {
-        return value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer sBuf = ByteBuffer.wrap(new byte[stringLength(value)]);
+        writeString(sBuf, value);
+        return sBuf.array();
     }
 
     /**
      * Encodes a date value.
      */
     public static byte[] encodeDate(Date value) {
-        ByteBuffer tBuf = ByteBuffer.allocate(4);
-        tBuf.putInt((int) (value.getTime() / 1000L));
+        ByteBuffer tBuf = ByteBuffer.wrap(new byte[4]);
+        writeDate(tBuf, value);
         return tBuf.array();
     }
 
@@ -122,15 +117,19 @@ public class TlvEncoder {
      * Encodes a Objlnk value.
      */
     public static byte[] encodeObjlnk(ObjectLink value) {
-        ByteBuffer objlnkBuffer = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
-        objlnkBuffer.putShort(0, (short) value.getObjectId());
-        objlnkBuffer.putShort(2, (short) value.getObjectInstanceId());
+        ByteBuffer objlnkBuffer = ByteBuffer.wrap(new byte[4]);
+        writeObjlnk(objlnkBuffer, value);
         return objlnkBuffer.array();
     }
 
-    private static int tlvEncodedSize(Tlv tlv, int length) {
+    /* ***************** Exact size encoding ***************** */
+
+    /**
+     * @return the size of an encoded TLV entry (header and value) with the given identifier and value length.
+     */
+    public static int entrySize(int identifier, int length) {
         int size = 1 /* HEADER */;
-        size += (tlv.getIdentifier() < MAX_LENGTH_8BIT) ? 1 : 2; /* 8 bits or 16 bits identifiers */
+        size += (identifier < MAX_LENGTH_8BIT) ? 1 : 2; /* 8 bits or 16 bits identifiers */
 
         if (length < 8) {
             size += 0;
@@ -148,30 +147,59 @@ public class TlvEncoder {
         return size;
     }
 
-    private static int tlvEncodedLength(Tlv tlv) {
-        int length;
-        switch (tlv.getType()) {
-        case RESOURCE_VALUE:
-        case RESOURCE_INSTANCE:
-            length = tlv.getValue().length;
-            break;
-        default:
-            length = 0;
-            for (Tlv child : tlv.getChildren()) {
-                int subLength = tlvEncodedLength(child);
-                length += tlvEncodedSize(child, subLength);
-            }
+    /**
+     * @return the length of an encoded integer value.
+     */
+    public static int integerLength(long value) {
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return 1;
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return 2;
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return 4;
+        } else {
+            return 8;
         }
+    }
 
+    /**
+     * @return the length of an encoded floating point value: 4 for a {@link Float}, else 8.
+     */
+    public static int floatLength(Number value) {
+        return value instanceof Float ? 4 : 8;
+    }
+
+    /**
+     * @return the length of an encoded (UTF-8) string value.
+     */
+    public static int stringLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // malformed, replaced by '?' as String.getBytes does
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
         return length;
     }
 
-    private static void encode(Tlv tlv, ByteBuffer b) {
-        int length;
-        length = tlvEncodedLength(tlv);
+    /**
+     * Writes the header of a TLV entry, it must be followed by <code>length</code> bytes of value.
+     */
+    public static void writeHeader(ByteBuffer b, TlvType type, int identifier, int length) {
         int typeByte;
-
-        switch (tlv.getType()) {
+        switch (type) {
         case OBJECT_INSTANCE:
             typeByte = 0b00_000000;
             break;
@@ -182,15 +210,14 @@ public class TlvEncoder {
             typeByte = 0b10_000000;
             break;
         case RESOURCE_VALUE:
-            // encode the value
             typeByte = 0b11_000000;
             break;
         default:
-            throw new IllegalArgumentException("unknown TLV type : '" + tlv.getType() + "'");
+            throw new IllegalArgumentException("unknown TLV type : '" + type + "'");
         }
 
         // encode identifier length
-        typeByte |= (tlv.getIdentifier() < MAX_LENGTH_8BIT) ? 0b00_0000 : 0b10_0000;
+        typeByte |= (identifier < MAX_LENGTH_8BIT) ? 0b00_0000 : 0b10_0000;
 
         // type of length
         if (length < 8) {
@@ -205,26 +232,131 @@ public class TlvEncoder {
 
         // fill the buffer
         b.put((byte) typeByte);
-        if (tlv.getIdentifier() < MAX_LENGTH_8BIT) {
-            b.put((byte) tlv.getIdentifier());
+        if (identifier < MAX_LENGTH_8BIT) {
+            b.put((byte) identifier);
         } else {
-            b.putShort((short) tlv.getIdentifier());
+            b.put((byte) (identifier >> 8));
+            b.put((byte) identifier);
         }
 
         // write length
-
         if (length >= 8) {
             if (length < MAX_LENGTH_8BIT) {
                 b.put((byte) length);
             } else if (length < MAX_LENGTH_16BIT) {
-                b.putShort((short) length);
+                b.put((byte) (length >> 8));
+                b.put((byte) length);
             } else {
-                int msb = (length & 0xFF_00_00) >> 16;
-                b.put((byte) msb);
-                b.putShort((short) (length & 0xFF_FF));
-                typeByte |= 0b0001_1000;
+                b.put((byte) (length >> 16));
+                b.put((byte) (length >> 8));
+                b.put((byte) length);
             }
         }
+    }
+
+    /**
+     * Writes an integer value of {@link #integerLength(long)} bytes.
+     */
+    public static void writeInteger(ByteBuffer b, long value) {
+        for (int shift = (integerLength(value) - 1) * 8; shift >= 0; shift -= 8) {
+            b.put((byte) (value >> shift));
+        }
+    }
+
+    /**
+     * Writes a floating point value of {@link #floatLength(Number)} bytes.
+     */
+    public static void writeFloat(ByteBuffer b, Number value) {
+        if (value instanceof Float) {
+            writeBits(b, Float.floatToIntBits(value.floatValue()), 4);
+        } else {
+            writeBits(b, Double.doubleToLongBits(value.doubleValue()), 8);
+        }
+    }
+
+    /**
+     * Writes a double value of 8 bytes, without boxing.
+     */
+    public static void writeFloat(ByteBuffer b, double value) {
+        writeBits(b, Double.doubleToLongBits(value), 8);
+    }
+
+    /**
+     * Writes a boolean value of 1 byte.
+     */
+    public static void writeBoolean(ByteBuffer b, boolean value) {
+        b.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes a string value of {@link #stringLength(String)} bytes.
+     */
+    public static void writeString(ByteBuffer b, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b.put((byte) c);
+            } else if (c < 0x800) {
+                b.put((byte) (0xC0 | c >> 6));
+                b.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b.put((byte) (0xF0 | codePoint >> 18));
+                b.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                b.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                b.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b.put((byte) '?');
+            } else {
+                b.put((byte) (0xE0 | c >> 12));
+                b.put((byte) (0x80 | c >> 6 & 0x3F));
+                b.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes a date value of 4 bytes.
+     */
+    public static void writeDate(ByteBuffer b, Date value) {
+        writeBits(b, (int) (value.getTime() / 1000L), 4);
+    }
+
+    /**
+     * Writes an objlnk value of 4 bytes.
+     */
+    public static void writeObjlnk(ByteBuffer b, ObjectLink value) {
+        writeBits(b, value.getObjectId(), 2);
+        writeBits(b, value.getObjectInstanceId(), 2);
+    }
+
+    private static void writeBits(ByteBuffer b, long bits, int length) {
+        for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+            b.put((byte) (bits >> shift));
+        }
+    }
+
+    private static int tlvEncodedLength(Tlv tlv) {
+        int length;
+        switch (tlv.getType()) {
+        case RESOURCE_VALUE:
+        case RESOURCE_INSTANCE:
+            length = tlv.getValue().length;
+            break;
+        default:
+            length = 0;
+            for (Tlv child : tlv.getChildren()) {
+                int subLength = tlvEncodedLength(child);
+                length += entrySize(child.getIdentifier(), subLength);
+            }
+        }
+
+        return length;
+    }
+
+    private static void encode(Tlv tlv, ByteBuffer b) {
+        writeHeader(b, tlv.getType(), tlv.getIdentifier(), tlvEncodedLength(tlv));
 
         switch (tlv.getType()) {
         case RESOURCE_VALUE:
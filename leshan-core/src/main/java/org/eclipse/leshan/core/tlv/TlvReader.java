@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.tlv;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.tlv.Tlv.TlvType;
+
+/**
+ * A cursor over the TLV entries of a byte array.
+ * <p>
+ * Unlike {@link TlvDecoder#decode(java.nio.ByteBuffer)}, no intermediate {@link Tlv} tree is created: entries are read
+ * one by one, values are decoded directly from the array and children of an entry are read using a new cursor on the
+ * same array.
+ *
+ * <pre>
+ * TlvReader reader = new TlvReader(content);
+ * while (reader.hasNext()) {
+ *     reader.next();
+ *     if (reader.getType() == TlvType.RESOURCE_VALUE) {
+ *         long value = reader.readInteger();
+ *     }
+ * }
+ * </pre>
+ */
+public class TlvReader {
+
+    private final byte[] buffer;
+    private final int start;
+    private final int end;
+    private int position;
+
+    // current entry
+    private TlvType type;
+    private int identifier;
+    private int valueOffset;
+    private int length;
+
+    public TlvReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Create a cursor on the TLV entries contained in <code>length</code> bytes of the given array, starting at
+     * <code>offset</code>.
+     */
+    public TlvReader(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid offset %d and length %d for a buffer of %d bytes", offset, length,
+                            buffer.length));
+        }
+        this.buffer = buffer;
+        this.start = offset;
+        this.end = offset + length;
+        this.position = offset;
+    }
+
+    /**
+     * @return <code>true</code> if there is another entry to read.
+     */
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * @return the type of the next entry, without reading it.
+     */
+    public TlvType peekType() {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more TLV entry");
+        }
+        return typeOf(buffer[position]);
+    }
+
+    /**
+     * Read the header of the next entry, which becomes the current one.
+     *
+     * @return the type of the entry.
+     */
+    public TlvType next() throws TlvException {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more TLV entry");
+        }
+        int typeByte = buffer[position] & 0xFF;
+        int pos = position + 1;
+
+        // decode identifier
+        if ((typeByte & 0b0010_0000) == 0) {
+            checkAvailable(pos, 1, "identifier");
+            identifier = buffer[pos] & 0xFF;
+            pos += 1;
+        } else {
+            checkAvailable(pos, 2, "identifier");
+            identifier = (buffer[pos] & 0xFF) << 8 | buffer[pos + 1] & 0xFF;
+            pos += 2;
+        }
+
+        // decode length
+        switch (typeByte & 0b0001_1000) {
+        case 0b0000_0000:
+            // 3 bit length
+            length = typeByte & 0b0000_0111;
+            break;
+        case 0b0000_1000:
+            // 8 bit length
+            checkAvailable(pos, 1, "length");
+            length = buffer[pos] & 0xFF;
+            pos += 1;
+            break;
+        case 0b0001_0000:
+            // 16 bit length
+            checkAvailable(pos, 2, "length");
+            length = (buffer[pos] & 0xFF) << 8 | buffer[pos + 1] & 0xFF;
+            pos += 2;
+            break;
+        default:
+            // 24 bit length
+            checkAvailable(pos, 3, "length");
+            length = (buffer[pos] & 0xFF) << 16 | (buffer[pos + 1] & 0xFF) << 8 | buffer[pos + 2] & 0xFF;
+            pos += 3;
+            break;
+        }
+
+        checkAvailable(pos, length, "value");
+        type = typeOf((byte) typeByte);
+        valueOffset = pos;
+        position = pos + length;
+        return type;
+    }
+
+    /**
+     * @return the number of entries, including the ones already read.
+     */
+    public int count() throws TlvException {
+        TlvReader counter = new TlvReader(buffer, start, end - start);
+        int count = 0;
+        while (counter.hasNext()) {
+            counter.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Go back to the first entry.
+     */
+    public void reset() {
+        position = start;
+        type = null;
+    }
+
+    public TlvType getType() {
+        return type;
+    }
+
+    public int getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return the length of the value of the current entry.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return a cursor on the entries contained by the current OBJECT_INSTANCE or MULTIPLE_RESOURCE entry.
+     */
+    public TlvReader children() {
+        if (type != TlvType.OBJECT_INSTANCE && type != TlvType.MULTIPLE_RESOURCE) {
+            throw new IllegalStateException("Entry of type " + type + " has no children");
+        }
+        return new TlvReader(buffer, valueOffset, length);
+    }
+
+    /* ***************** Value of current entry ***************** */
+
+    public String readString() {
+        return TlvDecoder.decodeString(buffer, valueOffset, length);
+    }
+
+    public long readInteger() throws TlvException {
+        return TlvDecoder.decodeLong(buffer, valueOffset, length);
+    }
+
+    public double readFloat() throws TlvException {
+        return TlvDecoder.decodeDouble(buffer, valueOffset, length);
+    }
+
+    public boolean readBoolean() throws TlvException {
+        return TlvDecoder.decodeBoolean(buffer, valueOffset, length);
+    }
+
+    public Date readDate() throws TlvException {
+        return TlvDecoder.decodeDate(buffer, valueOffset, length);
+    }
+
+    public ObjectLink readObjlnk() throws TlvException {
+        return TlvDecoder.decodeObjlnk(buffer, valueOffset, length);
+    }
+
+    /**
+     * @return a copy of the value of the current entry.
+     */
+    public byte[] readOpaque() {
+        return Arrays.copyOfRange(buffer, valueOffset, valueOffset + length);
+    }
+
+    private void checkAvailable(int pos, int size, String field) throws TlvException {
+        if (pos + size > end) {
+            throw new TlvException(String.format("Invalid '%s' length: %d bytes needed at offset %d but only %d left",
+                    field, size, pos - start, end - pos));
+        }
+    }
+
+    private static TlvType typeOf(byte typeByte) {
+        switch (typeByte & 0b1100_0000) {
+        case 0b0000_0000:
+            return TlvType.OBJECT_INSTANCE;
+        case 0b0100_0000:
+            return TlvType.RESOURCE_INSTANCE;
+        case 0b1000_0000:
+            return TlvType.MULTIPLE_RESOURCE;
+        default:
+            return TlvType.RESOURCE_VALUE;
+        }
+    }
+}
@@ -10,6 +10,7 @@
  * 
  * Contributors:
  *     Boya Zhang - initial API and implementation
+ *     Sierra Wireless - add SenML CBOR decoding
  *******************************************************************************/
 
 package org.eclipse.leshan.senml;
@@ -23,4 +24,12 @@ public class SenMLCbor {
     public static byte[] toSenMLCbor(SenMLPack pack) throws SenMLCborException {
         return serDes.serializeToCbor(pack);
     }
+
+    public static SenMLPack fromSenMLCbor(byte[] content) throws SenMLCborException {
+        return serDes.deserializeFromCbor(content);
+    }
+
+    public static SenMLPack fromSenMLCbor(byte[] content, int offset, int length) throws SenMLCborException {
+        return serDes.deserializeFromCbor(content, offset, length);
+    }
 }
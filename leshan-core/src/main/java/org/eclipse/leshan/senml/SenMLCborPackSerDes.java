@@ -10,6 +10,7 @@
  * 
  * Contributors:
  *     Boya Zhang - initial API and implementation
+ *     Sierra Wireless - add deserialization, keep float precision
  *******************************************************************************/
 
 package org.eclipse.leshan.senml;
@@ -18,13 +19,17 @@ import java.io.ByteArrayOutputStream;
 
 import org.eclipse.leshan.core.model.ResourceModel.Type;
 
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORParser;
 
 public class SenMLCborPackSerDes {
 
+    // factories are thread-safe and costly to create
+    private final CBORFactory factory = new CBORFactory();
+
     public byte[] serializeToCbor(SenMLPack pack) throws SenMLCborException {
-        CBORFactory factory = new CBORFactory();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         try {
@@ -85,7 +90,7 @@ public class SenMLCborPackSerDes {
                     switch (record.getType()) {
                     case FLOAT:
                         generator.writeFieldId(2);
-                        generator.writeNumber(record.getFloatValue().intValue());
+                        writeNumber(generator, record.getFloatValue());
                         break;
                     case BOOLEAN:
                         generator.writeFieldId(4);
@@ -97,6 +102,7 @@ public class SenMLCborPackSerDes {
                     case OPAQUE:
                         generator.writeFieldId(8);
                         generator.writeBinary(record.getOpaqueValue());
+                        break;
                     case STRING:
                         generator.writeFieldId(3);
                         generator.writeString(record.getStringValue());
@@ -116,4 +122,96 @@ public class SenMLCborPackSerDes {
 
         return out.toByteArray();
     }
+
+    public SenMLPack deserializeFromCbor(byte[] content) throws SenMLCborException {
+        return deserializeFromCbor(content, 0, content.length);
+    }
+
+    public SenMLPack deserializeFromCbor(byte[] content, int offset, int length) throws SenMLCborException {
+        try (CBORParser parser = factory.createParser(content, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new SenMLCborException("Invalid SenML CBOR: a pack must be an array");
+            }
+
+            SenMLPack pack = new SenMLPack();
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                pack.addRecord(deserializeRecord(parser));
+            }
+            if (token != JsonToken.END_ARRAY || parser.nextToken() != null) {
+                throw new SenMLCborException("Invalid SenML CBOR: a pack must only contain records");
+            }
+            return pack;
+        } catch (SenMLCborException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SenMLCborException("Impossible to decode SenML CBOR content", e);
+        }
+    }
+
+    private SenMLRecord deserializeRecord(CBORParser parser) throws Exception {
+        SenMLRecord record = new SenMLRecord();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // integer labels are given as string by the parser
+            String label = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (label) {
+            case "-2":
+                record.setBaseName(parser.getText());
+                break;
+            case "-3":
+                record.setBaseTime(parser.getLongValue());
+                break;
+            case "0":
+                record.setName(parser.getText());
+                break;
+            case "6":
+                record.setTime(parser.getLongValue());
+                break;
+            case "2":
+                record.setFloatValue(parser.getNumberValue());
+                break;
+            case "3":
+                record.setStringValue(parser.getText());
+                break;
+            case "4":
+                record.setBooleanValue(parser.getBooleanValue());
+                break;
+            case "8":
+                record.setOpaqueValue(parser.getBinaryValue());
+                break;
+            case "vlo":
+                record.setObjectLinkValue(parser.getText());
+                break;
+            default:
+                // unsupported label, ignored
+                if (value.isStructStart()) {
+                    parser.skipChildren();
+                }
+                break;
+            }
+        }
+        return record;
+    }
+
+    private void writeNumber(CBORGenerator generator, Number value) throws Exception {
+        if (value instanceof Float || value instanceof Double) {
+            double d = value.doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE) {
+                // integral values are encoded as integers which is more compact
+                generator.writeNumber((int) d);
+            } else if (value instanceof Float) {
+                generator.writeNumber(value.floatValue());
+            } else {
+                generator.writeNumber(d);
+            }
+        } else {
+            long l = value.longValue();
+            if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                generator.writeNumber((int) l);
+            } else {
+                generator.writeNumber(l);
+            }
+        }
+    }
 }
@@ -10,6 +10,7 @@
  * 
  * Contributors:
  *     Boya Zhang - initial API and implementation
+ *     Sierra Wireless - keep precision of decoded numbers
  *******************************************************************************/
 
 package org.eclipse.leshan.senml;
@@ -59,6 +60,7 @@ public class SenMLJsonPackSerDes {
                     break;
                 case OPAQUE:
                     jsonObj.add("vd", Base64.encodeBase64String(record.getOpaqueValue()));
+                    break;
                 case STRING:
                     jsonObj.add("vs", record.getStringValue());
                     break;
@@ -103,7 +105,7 @@ public class SenMLJsonPackSerDes {
 
             JsonValue v = o.get("v");
             if (v != null && v.isNumber())
-                record.setFloatValue(v.asFloat());
+                record.setFloatValue(asNumber(v));
 
             JsonValue vb = o.get("vb");
             if (vb != null && vb.isBoolean())
@@ -126,4 +128,13 @@ public class SenMLJsonPackSerDes {
 
         return pack;
     }
+
+    private static Number asNumber(JsonValue value) {
+        // keep integers as long, as a float is not precise enough for timestamps
+        try {
+            return value.asLong();
+        } catch (NumberFormatException e) {
+            return value.asDouble();
+        }
+    }
 }
@@ -17,6 +17,7 @@ package org.eclipse.leshan.core;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -68,6 +69,38 @@ public class LinkObjectTest {
         Assert.assertEquals(attResult, parse[0].getAttributes());
     }
 
+    @Test
+    public void parse_with_empty_parts() {
+        Link[] parse = Link.parse("</1>;;a=;b==c;=d,,</2>; e ,,".getBytes());
+        Assert.assertEquals(3, parse.length);
+
+        Map<String, String> attResult = new HashMap<>();
+        attResult.put("", "d");
+        attResult.put("a", null);
+        attResult.put("b", "");
+        Assert.assertEquals("/1", parse[0].getUrl());
+        Assert.assertEquals(attResult, parse[0].getAttributes());
+
+        Assert.assertEquals("", parse[1].getUrl());
+        Assert.assertEquals(Collections.EMPTY_MAP, parse[1].getAttributes());
+
+        Assert.assertEquals("/2", parse[2].getUrl());
+        Assert.assertEquals(Collections.singletonMap(" e ", null), parse[2].getAttributes());
+    }
+
+    @Test
+    public void parse_empty_content() {
+        Assert.assertEquals(0, Link.parse(null).length);
+        Assert.assertEquals(0, Link.parse(",".getBytes()).length);
+        Assert.assertArrayEquals(new Link[] { new Link("") }, Link.parse(new byte[0]));
+    }
+
+    @Test
+    public void parse_non_ascii_attributes() {
+        Link[] parse = Link.parse("</1>;title=\"caf\u00e9\"".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("\"caf\u00e9\"", parse[0].getAttributes().get("title"));
+    }
+
     @Test
     public void serialyse_without_attribute() {
         Link obj1 = new Link("/1/0/1");
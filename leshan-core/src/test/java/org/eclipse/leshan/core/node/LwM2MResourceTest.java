@@ -118,6 +118,86 @@ public class LwM2MResourceTest {
                 LwM2mMultipleResource.newBinaryResource(10, values2));
     }
 
+    @Test
+    public void primitive_and_boxed_resources_are_equal() {
+        assertEquals(LwM2mSingleResource.newResource(10, 42L, Type.INTEGER),
+                LwM2mSingleResource.newIntegerResource(10, 42));
+        assertEquals(LwM2mSingleResource.newResource(10, 4.2d, Type.FLOAT),
+                LwM2mSingleResource.newFloatResource(10, 4.2d));
+        assertEquals(LwM2mSingleResource.newResource(10, true, Type.BOOLEAN),
+                LwM2mSingleResource.newBooleanResource(10, true));
+        assertEquals(LwM2mSingleResource.newResource(10, 42L, Type.INTEGER).hashCode(),
+                LwM2mSingleResource.newIntegerResource(10, 42).hashCode());
+        assertNotEquals(LwM2mSingleResource.newFloatResource(10, 0.0d),
+                LwM2mSingleResource.newFloatResource(10, -0.0d));
+    }
+
+    @Test
+    public void primitive_values_are_available_boxed() {
+        LwM2mSingleResource resource = LwM2mSingleResource.newFloatResource(10, 4.2d);
+        assertEquals(4.2d, resource.getValue());
+        assertEquals(4.2d, resource.getDoubleValue(), 0);
+        assertEquals(Long.MIN_VALUE, LwM2mSingleResource.newIntegerResource(1, Long.MIN_VALUE).getValue());
+        assertEquals(false, LwM2mSingleResource.newBooleanResource(1, false).getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void no_primitive_value_for_other_type() {
+        LwM2mSingleResource.newStringResource(10, "hello").getLongValue();
+    }
+
+    @Test
+    public void multiple_resource_from_arrays() {
+        LwM2mMultipleResource resource = LwM2mMultipleResource.newIntegerResource(10, new int[] { 5, 1, 3 },
+                new long[] { 50L, 10L, 30L });
+
+        Map<Integer, Long> values = new HashMap<>();
+        values.put(1, 10L);
+        values.put(3, 30L);
+        values.put(5, 50L);
+        assertEquals(LwM2mMultipleResource.newIntegerResource(10, values), resource);
+        assertEquals(LwM2mMultipleResource.newIntegerResource(10, values).hashCode(), resource.hashCode());
+        assertEquals(values, resource.getValues());
+        assertEquals(values.hashCode(), resource.getValues().hashCode());
+
+        assertArrayEquals(new int[] { 1, 3, 5 }, resource.getInstanceIds());
+        assertEquals(30L, resource.getLongValue(3));
+        assertEquals(30L, resource.getValue(3));
+        assertNull(resource.getValue(2));
+        assertEquals("{1=10, 3=30, 5=50}", resource.getValues().toString());
+    }
+
+    @Test
+    public void multiple_resources_with_different_values_are_not_equal() {
+        assertNotEquals(
+                LwM2mMultipleResource.newFloatResource(10, new int[] { 0, 1 }, new double[] { 1.0d, 2.0d }),
+                LwM2mMultipleResource.newFloatResource(10, new int[] { 0, 1 }, new double[] { 1.0d, 3.0d }));
+
+        Map<Integer, String> values1 = new HashMap<>();
+        values1.put(0, "hello");
+        values1.put(1, "world");
+        Map<Integer, String> values2 = new HashMap<>();
+        values2.put(0, "hello");
+        values2.put(1, "leshan");
+        assertNotEquals(LwM2mMultipleResource.newStringResource(10, values1),
+                LwM2mMultipleResource.newStringResource(10, values2));
+    }
+
+    @Test(expected = LwM2mNodeException.class)
+    public void multiple_resource_with_duplicate_instance_id() {
+        LwM2mMultipleResource.newBooleanResource(10, new int[] { 1, 2, 1 }, new boolean[] { true, false, true });
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void multiple_resource_values_are_read_only() {
+        Map<Integer, Long> values = new HashMap<>();
+        values.put(1, 10L);
+        @SuppressWarnings("unchecked")
+        Map<Integer, Object> resourceValues = (Map<Integer, Object>) LwM2mMultipleResource
+                .newIntegerResource(10, values).getValues();
+        resourceValues.put(2, 20L);
+    }
+
     @Test(expected = LwM2mNodeException.class)
     public void string_resource_with_null_value() {
         LwM2mSingleResource.newStringResource(1, null);
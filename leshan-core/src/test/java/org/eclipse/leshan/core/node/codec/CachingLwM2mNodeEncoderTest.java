@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.StaticModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CachingLwM2mNodeEncoder}
+ */
+public class CachingLwM2mNodeEncoderTest {
+
+    private LwM2mModel model;
+    private CountingEncoder delegate;
+    private CachingLwM2mNodeEncoder encoder;
+
+    @Before
+    public void setUp() {
+        model = new StaticModel(ObjectLoader.loadDefault());
+        delegate = new CountingEncoder();
+        encoder = new CachingLwM2mNodeEncoder(delegate);
+    }
+
+    @Test
+    public void retained_node_is_encoded_once() {
+        LwM2mSingleResource node = LwM2mSingleResource.newStringResource(14, "+02");
+        LwM2mPath path = new LwM2mPath(3, 0, 14);
+        encoder.retain(node);
+
+        byte[] first = encoder.encode(node, ContentFormat.TLV, path, model);
+        byte[] second = encoder.encode(node, ContentFormat.TLV, path, model);
+        assertSame(first, second);
+        assertEquals(1, delegate.count);
+
+        // other format and other model are encoded again
+        encoder.encode(node, ContentFormat.TEXT, path, model);
+        encoder.encode(node, ContentFormat.TLV, path, new StaticModel(ObjectLoader.loadDefault()));
+        assertEquals(3, delegate.count);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        assertEquals(first.length, encoder.encode(node, ContentFormat.TLV, path, model, buffer));
+        assertEquals(3, delegate.count);
+    }
+
+    @Test
+    public void node_is_cached_until_released_as_many_times_as_retained() {
+        LwM2mSingleResource node = LwM2mSingleResource.newStringResource(14, "+02");
+        LwM2mPath path = new LwM2mPath(3, 0, 14);
+        encoder.retain(node);
+        encoder.retain(node);
+
+        encoder.release(node);
+        encoder.encode(node, ContentFormat.TLV, path, model);
+        encoder.encode(node, ContentFormat.TLV, path, model);
+        assertEquals(1, delegate.count);
+
+        encoder.release(node);
+        encoder.encode(node, ContentFormat.TLV, path, model);
+        assertEquals(2, delegate.count);
+    }
+
+    @Test
+    public void nodes_are_compared_by_identity() {
+        LwM2mPath path = new LwM2mPath(3, 0, 14);
+        encoder.retain(LwM2mSingleResource.newStringResource(14, "+02"));
+
+        encoder.encode(LwM2mSingleResource.newStringResource(14, "+02"), ContentFormat.TLV, path, model);
+        encoder.encode(LwM2mSingleResource.newStringResource(14, "+02"), ContentFormat.TLV, path, model);
+        assertEquals(2, delegate.count);
+    }
+
+    private static class CountingEncoder extends DefaultLwM2mNodeEncoder {
+        private int count;
+
+        @Override
+        public byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model)
+                throws CodecException {
+            count++;
+            return super.encode(node, format, path, model);
+        }
+    }
+}
@@ -13,13 +13,16 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     Gemalto M2M GmbH
+ *     Sierra Wireless - decode content from ByteBuffer
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -358,6 +361,22 @@ public class LwM2mNodeDecoderTest {
         assertEquals(5L, resource.getValue(1));
     }
 
+    @Test
+    public void tlv_primitive_resources() throws CodecException {
+        // battery level (9) and power source voltages (7)
+        byte[] content = new byte[] { -63, 9, 100, -120, 7, 8, 66, 0, 14, -40, 66, 1, 19, -120 };
+
+        LwM2mObjectInstance instance = (LwM2mObjectInstance) decoder.decode(content, ContentFormat.TLV,
+                new LwM2mPath(3, 0), model);
+
+        assertEquals(100L, ((LwM2mSingleResource) instance.getResource(9)).getLongValue());
+        LwM2mMultipleResource voltages = (LwM2mMultipleResource) instance.getResource(7);
+        assertEquals(3800L, voltages.getLongValue(0));
+        assertEquals(5000L, voltages.getLongValue(1));
+        assertEquals(LwM2mMultipleResource.newIntegerResource(7, new int[] { 0, 1 }, new long[] { 3800L, 5000L }),
+                voltages);
+    }
+
     @Test
     public void tlv_instance_without_id_tlv() throws CodecException {
         // this is "special" case where instance ID is not defined ...
@@ -808,4 +827,250 @@ public class LwM2mNodeDecoderTest {
         assertEquals(11, resource.getId());
         assertTrue(resource.getValues().size() == 2);
     }
+
+    @Test
+    public void json_basename_after_entries() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"e\":[");
+        b.append("{\"n\":\"0\",\"sv\":\"Open Mobile Alliance\"},");
+        b.append("{\"n\":\"9\",\"v\":95}],");
+        b.append("\"bn\":\"/3/0/\"}");
+
+        LwM2mObjectInstance oInstance = (LwM2mObjectInstance) decoder.decode(b.toString().getBytes(),
+                ContentFormat.JSON, new LwM2mPath(3, 0), model);
+
+        assertEquals("Open Mobile Alliance", oInstance.getResource(0).getValue());
+        assertEquals(95L, oInstance.getResource(9).getValue());
+    }
+
+    @Test
+    public void json_escaped_and_non_ascii_strings() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"\\/3\\/0\\/\",\"e\":[");
+        b.append("{\"n\":\"0\",\"sv\":\"Caf\u00e9 \\\"\\u00e9\\\"\\n\"},");
+        b.append("{\"n\":\"1\",\"sv\":\"\u6f22\u5b57\"}");
+        b.append("]}");
+
+        LwM2mObjectInstance oInstance = (LwM2mObjectInstance) decoder.decode(
+                b.toString().getBytes(StandardCharsets.UTF_8), ContentFormat.JSON, new LwM2mPath(3, 0), model);
+
+        assertEquals("Caf\u00e9 \"\u00e9\"\n", oInstance.getResource(0).getValue());
+        assertEquals("\u6f22\u5b57", oInstance.getResource(1).getValue());
+    }
+
+    @Test
+    public void json_integer_values_keep_their_precision() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/3/0/\",\"e\":[");
+        b.append("{\"n\":\"9\",\"v\":9007199254740993},");
+        b.append("{\"n\":\"13\",\"v\":1.3674912E9}");
+        b.append("]}");
+
+        LwM2mObjectInstance oInstance = (LwM2mObjectInstance) decoder.decode(b.toString().getBytes(),
+                ContentFormat.JSON, new LwM2mPath(3, 0), model);
+
+        assertEquals(9007199254740993L, oInstance.getResource(9).getValue());
+        assertEquals(new Date(1367491200000L), oInstance.getResource(13).getValue());
+    }
+
+    @Test
+    public void json_many_timestamped_values() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/1024/0/\",\"bt\":25462634,\"e\":[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                b.append(",");
+            }
+            b.append("{\"n\":\"1\",\"v\":").append(i).append(".5,\"t\":-").append(i).append("},");
+            b.append("{\"n\":\"2\",\"bv\":").append(i % 2 == 0).append(",\"t\":-").append(i).append("}");
+        }
+        b.append("]}");
+
+        List<TimestampedLwM2mNode> timestampedNodes = decoder.decodeTimestampedData(b.toString().getBytes(),
+                ContentFormat.JSON, new LwM2mPath(1024, 0), model);
+
+        assertEquals(500, timestampedNodes.size());
+        for (int i = 0; i < 500; i++) {
+            TimestampedLwM2mNode timestampedNode = timestampedNodes.get(i);
+            assertEquals(Long.valueOf(25462634L - i), timestampedNode.getTimestamp());
+            LwM2mObjectInstance instance = (LwM2mObjectInstance) timestampedNode.getNode();
+            assertEquals(i + 0.5d, instance.getResource(1).getValue());
+            assertEquals(i % 2 == 0, instance.getResource(2).getValue());
+        }
+    }
+
+    @Test
+    public void json_invalid_path() {
+        String[] names = { "1/a", "1//2", "1/2/3" };
+        for (String name : names) {
+            StringBuilder b = new StringBuilder();
+            b.append("{\"bn\":\"/3/0/\",\"e\":[");
+            b.append("{\"n\":\"").append(name).append("\",\"v\":0}");
+            b.append("]}");
+            try {
+                decoder.decode(b.toString().getBytes(), ContentFormat.JSON, new LwM2mPath(3, 0), model);
+                fail("path " + name + " should be invalid");
+            } catch (CodecException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void senml_json_device_object_instance0() throws CodecException {
+        StringBuilder b = new StringBuilder();
+        b.append("[{\"bn\":\"/3/0/\",\"n\":\"0\",\"vs\":\"Open Mobile Alliance\"},");
+        b.append("{\"n\":\"1\",\"vs\":\"Lightweight M2M Client\"},");
+        b.append("{\"n\":\"2\",\"vs\":\"345000123\"},");
+        b.append("{\"n\":\"3\",\"vs\":\"1.0\"},");
+        b.append("{\"n\":\"6/0\",\"v\":1},{\"n\":\"6/1\",\"v\":5},");
+        b.append("{\"n\":\"7/0\",\"v\":3800},{\"n\":\"7/1\",\"v\":5000},");
+        b.append("{\"n\":\"8/0\",\"v\":125},{\"n\":\"8/1\",\"v\":900},");
+        b.append("{\"n\":\"9\",\"v\":100},");
+        b.append("{\"n\":\"10\",\"v\":15},");
+        b.append("{\"n\":\"11/0\",\"v\":0},");
+        b.append("{\"n\":\"13\",\"v\":1367491215},");
+        b.append("{\"n\":\"14\",\"vs\":\"+02:00\"},");
+        b.append("{\"n\":\"16\",\"vs\":\"U\"}]");
+
+        LwM2mObjectInstance oInstance = (LwM2mObjectInstance) decoder.decode(b.toString().getBytes(),
+                ContentFormat.SENML_JSON, new LwM2mPath(3, 0), model);
+
+        assertDeviceInstance(oInstance);
+    }
+
+    @Test
+    public void senml_cbor_device_object_instance0() throws CodecException {
+        // the /3/0 content encoded by the SenML CBOR serializer
+        byte[] content = Hex.decodeHex(("90a321652f332f302f00613003744f70656e204d6f62696c6520416c6c69616e6365"
+                + "a200613103764c69676874776569676874204d324d20436c69656e74a20061320369333435303030313233"
+                + "a20061330363312e30a20063362f300201a20063362f310205a20063372f3002190ed8a20063372f3102191388"
+                + "a20063382f3002187da20063382f3102190384a2006139021864a200623130020fa2006431312f300200"
+                + "a200623133021a5182428fa20062313403662b30323a3030a200623136036155").toCharArray());
+
+        LwM2mObjectInstance oInstance = decoder.decode(content, ContentFormat.SENML_CBOR, new LwM2mPath(3, 0), model,
+                LwM2mObjectInstance.class);
+
+        assertDeviceInstance(oInstance);
+    }
+
+    @Test
+    public void senml_cbor_round_trip_of_all_types() throws CodecException {
+        // an object with a resource of each type
+        List<ResourceModel> resources = new ArrayList<>();
+        Type[] types = { Type.STRING, Type.INTEGER, Type.FLOAT, Type.BOOLEAN, Type.TIME, Type.OPAQUE, Type.OBJLNK };
+        for (int i = 0; i < types.length; i++) {
+            resources.add(new ResourceModel(i + 1, "res" + i, Operations.R, false, false, types[i], null, null, null));
+        }
+        LwM2mModel model = new StaticModel(
+                new ObjectModel(1025, "all types", "", ObjectModel.DEFAULT_VERSION, false, false, resources));
+
+        LwM2mObjectInstance instance = new LwM2mObjectInstance(0, LwM2mSingleResource.newStringResource(1, "string"),
+                LwM2mSingleResource.newIntegerResource(2, 3), LwM2mSingleResource.newFloatResource(3, 1.5),
+                LwM2mSingleResource.newBooleanResource(4, true), LwM2mSingleResource.newDateResource(5, new Date(1000)),
+                LwM2mSingleResource.newBinaryResource(6, new byte[] { 1, 2, 3 }),
+                LwM2mSingleResource.newObjectLinkResource(7, new ObjectLink(3, 0)));
+        LwM2mNodeEncoder encoder = new DefaultLwM2mNodeEncoder();
+
+        for (ContentFormat format : new ContentFormat[] { ContentFormat.SENML_CBOR, ContentFormat.SENML_JSON }) {
+            byte[] content = encoder.encode(instance, format, new LwM2mPath(1025, 0), model);
+            LwM2mObjectInstance decoded = decoder.decode(content, format, new LwM2mPath(1025, 0), model,
+                    LwM2mObjectInstance.class);
+
+            assertEquals("string", decoded.getResource(1).getValue());
+            assertEquals(3L, decoded.getResource(2).getValue());
+            assertEquals(1.5d, decoded.getResource(3).getValue());
+            assertEquals(true, decoded.getResource(4).getValue());
+            assertEquals(new Date(1000), decoded.getResource(5).getValue());
+            assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) decoded.getResource(6).getValue());
+            assertEquals(new ObjectLink(3, 0), decoded.getResource(7).getValue());
+        }
+    }
+
+    @Test
+    public void senml_json_timestamped_resources() throws CodecException {
+        StringBuilder b = new StringBuilder();
+        b.append("[{\"bn\":\"/1024/0/1\",\"bt\":25462634,\"v\":22.9,\"t\":-30},");
+        b.append("{\"v\":22.4,\"t\":-5},");
+        b.append("{\"v\":24.1,\"t\":-50}]");
+
+        List<TimestampedLwM2mNode> timestampedResources = decoder.decodeTimestampedData(b.toString().getBytes(),
+                ContentFormat.SENML_JSON, new LwM2mPath(1024, 0, 1), model);
+
+        assertEquals(3, timestampedResources.size());
+        assertEquals(Long.valueOf(25462634L - 5), timestampedResources.get(0).getTimestamp());
+        assertEquals(22.4d, ((LwM2mResource) timestampedResources.get(0).getNode()).getValue());
+        assertEquals(Long.valueOf(25462634L - 30), timestampedResources.get(1).getTimestamp());
+        assertEquals(22.9d, ((LwM2mResource) timestampedResources.get(1).getNode()).getValue());
+        assertEquals(Long.valueOf(25462634 - 50), timestampedResources.get(2).getTimestamp());
+        assertEquals(24.1d, ((LwM2mResource) timestampedResources.get(2).getNode()).getValue());
+    }
+
+    @Test(expected = CodecException.class)
+    public void senml_json_record_outside_of_requested_path() throws CodecException {
+        byte[] content = "[{\"bn\":\"/3/1/\",\"n\":\"0\",\"vs\":\"Open Mobile Alliance\"}]".getBytes();
+        decoder.decode(content, ContentFormat.SENML_JSON, new LwM2mPath(3, 0), model);
+    }
+
+    @Test(expected = CodecException.class)
+    public void senml_cbor_invalid_content() throws CodecException {
+        decoder.decode(new byte[] { (byte) 0xa1, 0x00 }, ContentFormat.SENML_CBOR, new LwM2mPath(3, 0), model);
+    }
+
+    @Test
+    public void decode_part_of_a_buffer() throws CodecException {
+        ByteBuffer buffer = inBiggerArray(ENCODED_DEVICE_WITHOUT_INSTANCE);
+        LwM2mObjectInstance oInstance = decoder.decode(buffer, ContentFormat.TLV, new LwM2mPath(3, 0), model,
+                LwM2mObjectInstance.class);
+        assertDeviceInstance(oInstance);
+        assertFalse(buffer.hasRemaining());
+
+        buffer = inBiggerArray("{\"bn\":\"/3/0/0\",\"e\":[{\"sv\":\"Open Mobile Alliance\"}]}".getBytes());
+        LwM2mResource resource = (LwM2mResource) decoder.decode(buffer, ContentFormat.JSON, new LwM2mPath(3, 0, 0),
+                model);
+        assertEquals("Open Mobile Alliance", resource.getValue());
+
+        buffer = inBiggerArray("[{\"bn\":\"/3/0/0\",\"vs\":\"Open Mobile Alliance\"}]".getBytes());
+        resource = (LwM2mResource) decoder.decode(buffer, ContentFormat.SENML_JSON, new LwM2mPath(3, 0, 0), model);
+        assertEquals("Open Mobile Alliance", resource.getValue());
+
+        buffer = inBiggerArray("100".getBytes()).slice();
+        resource = (LwM2mResource) decoder.decode(buffer, ContentFormat.TEXT, new LwM2mPath(3, 0, 9), model);
+        assertEquals(100L, resource.getValue());
+
+        buffer = inBiggerArray(new byte[] { 1, 2, 3 });
+        resource = (LwM2mResource) decoder.decode(buffer, ContentFormat.OPAQUE, new LwM2mPath(5, 0, 0), model);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) resource.getValue());
+    }
+
+    @Test
+    public void decode_timestamped_data_from_direct_buffer() throws CodecException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ENCODED_DEVICE_WITH_INSTANCE.length);
+        buffer.put(ENCODED_DEVICE_WITH_INSTANCE).flip();
+
+        List<TimestampedLwM2mNode> nodes = decoder.decodeTimestampedData(buffer, ContentFormat.TLV,
+                new LwM2mPath(3, 0), model);
+
+        assertEquals(1, nodes.size());
+        assertDeviceInstance((LwM2mObjectInstance) nodes.get(0).getNode());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void json_error_offset_is_relative_to_the_content() {
+        try {
+            decoder.decode(inBiggerArray("{\"e\":[}".getBytes()), ContentFormat.JSON, new LwM2mPath(3, 0, 0), model);
+            fail();
+        } catch (CodecException e) {
+            assertTrue(e.getCause().getMessage().endsWith("at offset 6"));
+        }
+    }
+
+    // put content in the middle of a bigger array, surrounded by invalid bytes
+    private static ByteBuffer inBiggerArray(byte[] content) {
+        byte[] array = new byte[content.length + 6];
+        Arrays.fill(array, (byte) 0xFF);
+        System.arraycopy(content, 0, array, 3, content.length);
+        return ByteBuffer.wrap(array, 3, content.length);
+    }
 }
@@ -16,7 +16,10 @@
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -173,6 +176,43 @@ public class LwM2mNodeEncoderTest {
         Assert.assertArrayEquals(ENCODED_DEVICE_WITH_INSTANCE, encoded);
     }
 
+    @Test
+    public void tlv_encode_device_object_in_buffer() {
+        LwM2mObject object = new LwM2mObject(3, new LwM2mObjectInstance(0, getDeviceResources()));
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put((byte) 0xFF);
+
+        int length = encoder.encode(object, ContentFormat.TLV, new LwM2mPath("/3"), model, buffer);
+
+        Assert.assertEquals(ENCODED_DEVICE_WITH_INSTANCE.length, length);
+        Assert.assertEquals(1 + length, buffer.position());
+        Assert.assertArrayEquals(ENCODED_DEVICE_WITH_INSTANCE, Arrays.copyOfRange(buffer.array(), 1, 1 + length));
+    }
+
+    @Test
+    public void tlv_encode_in_too_small_buffer() {
+        LwM2mObjectInstance oInstance = new LwM2mObjectInstance(0, getDeviceResources());
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_DEVICE_WITHOUT_INSTANCE.length - 1);
+
+        try {
+            encoder.encode(oInstance, ContentFormat.TLV, new LwM2mPath("/3/0"), model, buffer);
+            Assert.fail();
+        } catch (BufferOverflowException e) {
+            // nothing should be written
+            Assert.assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void text_encode_in_buffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        int length = encoder.encode(LwM2mSingleResource.newStringResource(15, "Europe/Paris"), ContentFormat.TEXT,
+                new LwM2mPath("/3/0/15"), model, buffer);
+
+        Assert.assertEquals(12, length);
+        Assert.assertEquals("Europe/Paris", new String(buffer.array(), 0, length, StandardCharsets.UTF_8));
+    }
+
     @Test
     public void json_encode_device_object_instance() {
 
@@ -19,6 +19,8 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 import org.eclipse.leshan.core.tlv.Tlv;
@@ -90,4 +92,32 @@ public class TlvEncoderTest {
 
         assertArrayEquals(expectedTlv, decodedTlv);
     }
+
+    @Test
+    public void encode_utf8_string() {
+        // 1, 2, 3 and 4 bytes characters
+        String value = "a\u00e9\u20ac\ud83d\ude00";
+        byte[] encoded = TlvEncoder.encodeString(value);
+
+        assertEquals(10, TlvEncoder.stringLength(value));
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), encoded);
+    }
+
+    @Test
+    public void encode_malformed_utf16_string() {
+        String value = "a\ud83d";
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), TlvEncoder.encodeString(value));
+    }
+
+    @Test
+    public void write_header_whatever_buffer_order() throws TlvException {
+        ByteBuffer buffer = ByteBuffer.allocate(TlvEncoder.entrySize(1000, 300)).order(ByteOrder.LITTLE_ENDIAN);
+        TlvEncoder.writeHeader(buffer, TlvType.RESOURCE_VALUE, 1000, 300);
+        buffer.put(new byte[300]);
+
+        Tlv[] decodedTlv = TlvDecoder.decode(ByteBuffer.wrap(buffer.array()));
+        assertEquals(1, decodedTlv.length);
+        assertEquals(1000, decodedTlv[0].getIdentifier());
+        assertEquals(300, decodedTlv[0].getValue().length);
+    }
 }
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.tlv;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Random;
+
+import org.eclipse.leshan.core.tlv.Tlv.TlvType;
+import org.eclipse.leshan.core.util.Hex;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TlvReader}
+ */
+public class TlvReaderTest {
+
+    @Test
+    public void read_device_object() throws TlvException {
+        // the /3// from liwblwm2m
+        String dataStr = "C800144F70656E204D6F62696C6520416C6C69616E6365C801164C69676874776569676874204D324D20436C69656E74C80209333435303030313233C303312E30860641000141010588070842000ED842011388870841007D42010384C10964C10A0F830B410000C40D5182428FC60E2B30323A3030C10F55";
+        TlvReader reader = new TlvReader(Hex.decodeHex(dataStr.toCharArray()));
+
+        assertEquals(13, reader.count());
+        assertEquals(TlvType.RESOURCE_VALUE, reader.peekType());
+
+        assertEquals(TlvType.RESOURCE_VALUE, reader.next());
+        assertEquals(0, reader.getIdentifier());
+        assertEquals("Open Mobile Alliance", reader.readString());
+
+        // skip to multiple resource /6
+        reader.next();
+        reader.next();
+        reader.next();
+        assertEquals(TlvType.MULTIPLE_RESOURCE, reader.next());
+        assertEquals(6, reader.getIdentifier());
+        TlvReader instances = reader.children();
+        assertEquals(TlvType.RESOURCE_INSTANCE, instances.next());
+        assertEquals(0, instances.getIdentifier());
+        assertEquals(1, instances.readInteger());
+        assertEquals(TlvType.RESOURCE_INSTANCE, instances.next());
+        assertEquals(1, instances.getIdentifier());
+        assertEquals(5, instances.readInteger());
+        assertFalse(instances.hasNext());
+
+        // reading children does not move the parent cursor
+        assertEquals(TlvType.MULTIPLE_RESOURCE, reader.next());
+        assertEquals(7, reader.getIdentifier());
+
+        // skip to time resource /13
+        reader.next();
+        reader.next();
+        reader.next();
+        reader.next();
+        reader.next();
+        assertEquals(13, reader.getIdentifier());
+        assertEquals(new Date(0x5182428FL * 1000), reader.readDate());
+
+        reader.reset();
+        assertEquals(TlvType.RESOURCE_VALUE, reader.next());
+        assertEquals(0, reader.getIdentifier());
+    }
+
+    @Test
+    public void read_object_instance_with_16bits_identifier_and_length() throws TlvException {
+        byte[] value = new byte[300];
+        new Random(1).nextBytes(value);
+        byte[] content = TlvEncoder.encode(new Tlv[] { new Tlv(TlvType.OBJECT_INSTANCE,
+                new Tlv[] { new Tlv(TlvType.RESOURCE_VALUE, null, value, 1000) }, null, 60000) }).array();
+
+        TlvReader reader = new TlvReader(content);
+        assertEquals(TlvType.OBJECT_INSTANCE, reader.next());
+        assertEquals(60000, reader.getIdentifier());
+        TlvReader resources = reader.children();
+        assertEquals(TlvType.RESOURCE_VALUE, resources.next());
+        assertEquals(1000, resources.getIdentifier());
+        assertEquals(300, resources.getLength());
+        assertArrayEquals(value, resources.readOpaque());
+        assertFalse(resources.hasNext());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void read_integers_as_big_integer_does() throws TlvException {
+        Random random = new Random(42);
+        for (int length = 1; length <= 8; length++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] value = new byte[length];
+                random.nextBytes(value);
+                assertEquals(new BigInteger(value).longValue(), TlvDecoder.decodeLong(value, 0, length));
+                assertEquals(new BigInteger(value).longValue(), TlvDecoder.decodeInteger(value).longValue());
+            }
+        }
+    }
+
+    @Test
+    public void read_floats() throws TlvException {
+        assertEquals(-12.5f, TlvDecoder.decodeFloat(TlvEncoder.encodeFloat(-12.5f)));
+        assertEquals(Math.PI, TlvDecoder.decodeFloat(TlvEncoder.encodeFloat(Math.PI)));
+        assertEquals(Math.PI, TlvDecoder.decodeDouble(TlvEncoder.encodeFloat(Math.PI), 0, 8), 0);
+    }
+
+    @Test
+    public void read_value_at_offset() throws TlvException {
+        byte[] buffer = new byte[] { 0x00, (byte) 0xFF, (byte) 0xFE, 0x00 };
+        assertEquals(-2, TlvDecoder.decodeLong(buffer, 1, 2));
+    }
+
+    @Test(expected = TlvException.class)
+    public void read_empty_integer() throws TlvException {
+        TlvDecoder.decodeLong(new byte[0], 0, 0);
+    }
+
+    @Test(expected = TlvException.class)
+    public void read_too_long_integer() throws TlvException {
+        TlvDecoder.decodeLong(new byte[9], 0, 9);
+    }
+
+    @Test
+    public void read_truncated_header() {
+        try {
+            // 16 bits identifier, only 1 byte
+            new TlvReader(new byte[] { (byte) 0b1110_0000, 0x01 }).next();
+            fail();
+        } catch (TlvException e) {
+            assertTrue(e.getMessage().startsWith("Invalid 'identifier' length"));
+        }
+    }
+
+    @Test
+    public void read_truncated_value() {
+        try {
+            // 8 bits length of 5, only 3 bytes
+            new TlvReader(Hex.decodeHex("C80105010203".toCharArray())).next();
+            fail();
+        } catch (TlvException e) {
+            assertTrue(e.getMessage().startsWith("Invalid 'value' length"));
+        }
+    }
+
+    @Test
+    public void read_part_of_array() throws TlvException {
+        byte[] tlv = Hex.decodeHex("C10964C10A0F".toCharArray());
+        byte[] buffer = new byte[tlv.length + 4];
+        System.arraycopy(tlv, 0, buffer, 2, tlv.length);
+
+        TlvReader reader = new TlvReader(buffer, 2, tlv.length);
+        assertEquals(2, reader.count());
+        reader.next();
+        assertEquals(100, reader.readInteger());
+        reader.next();
+        assertEquals(15, reader.readInteger());
+        assertFalse(reader.hasNext());
+    }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.senml;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SenMLCborDeserializerTest extends AbstractSenMLTest {
+
+    @Test
+    public void deserialize_device_object() throws SenMLCborException {
+        byte[] cbor = SenMLCbor.toSenMLCbor(givenDeviceObjectInstance());
+        SenMLPack pack = SenMLCbor.fromSenMLCbor(cbor);
+
+        Assert.assertEquals(16, pack.getRecords().size());
+        Assert.assertEquals("/3/0/", pack.getRecords().get(0).getBaseName());
+        Assert.assertEquals("Open Mobile Alliance", pack.getRecords().get(0).getStringValue());
+        Assert.assertEquals(1367491215L, pack.getRecords().get(13).getFloatValue().longValue());
+        Assert.assertArrayEquals(cbor, SenMLCbor.toSenMLCbor(pack));
+    }
+
+    @Test
+    public void deserialize_float_value() throws SenMLCborException {
+        SenMLPack pack = new SenMLPack();
+        givenResourceWithFloatValue(pack, "1", 22.4d);
+        givenResourceWithFloatValue(pack, "2", 1367491215000L);
+
+        SenMLPack decoded = SenMLCbor.fromSenMLCbor(SenMLCbor.toSenMLCbor(pack));
+        Assert.assertEquals(22.4d, decoded.getRecords().get(0).getFloatValue().doubleValue(), 0);
+        Assert.assertEquals(1367491215000L, decoded.getRecords().get(1).getFloatValue().longValue());
+    }
+
+    @Test(expected = SenMLCborException.class)
+    public void deserialize_invalid_content() throws SenMLCborException {
+        // a map instead of an array
+        SenMLCbor.fromSenMLCbor(new byte[] { (byte) 0xa0 });
+    }
+}
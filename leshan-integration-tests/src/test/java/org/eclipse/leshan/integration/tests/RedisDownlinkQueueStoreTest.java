@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.server.queue.QueuedRequest;
+import org.eclipse.leshan.server.queue.QueuedRequestRemovalListener;
+import org.eclipse.leshan.server.redis.RedisDownlinkQueueStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Tests the Lua scripts and the removal events of {@link RedisDownlinkQueueStore} against a running redis-server
+ * (REDIS_URI environment variable).
+ */
+public class RedisDownlinkQueueStoreTest {
+
+    private static final String IDS_KEY = "DLQ:IDS:";
+    private static final String REQUESTS_KEY = "DLQ:REQS:";
+    private static final String COALESCING_KEYS_KEY = "DLQ:KEYS:";
+    private static final String OWNER_KEY = "DLQ:OWNER:";
+    private static final String EVENTS_CHANNEL = "DLQ:EVENTS";
+
+    private Pool<Jedis> pool;
+    private String endpoint;
+    private RedisDownlinkQueueStore store;
+    // another server of the cluster
+    private RedisDownlinkQueueStore otherStore;
+
+    @Before
+    public void setUp() {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        endpoint = "urn:redis-queue:" + UUID.randomUUID();
+        store = new RedisDownlinkQueueStore(pool, 3);
+        otherStore = new RedisDownlinkQueueStore(pool, 3);
+    }
+
+    @After
+    public void tearDown() {
+        store.removeAll(endpoint);
+        store.destroy();
+        otherStore.destroy();
+        pool.close();
+    }
+
+    @Test
+    public void requests_are_kept_in_order() {
+        long expirationTime = System.currentTimeMillis() + 60000;
+        store.add(new QueuedRequest("1", endpoint, new ExecuteRequest("/3/0/4"), 1000, expirationTime));
+        store.add(new QueuedRequest("2", endpoint, new ExecuteRequest("/3/0/5"), 2000, expirationTime));
+        store.add(new QueuedRequest("3", endpoint, new WriteRequest(3, 0, 14, "+01"), 3000, expirationTime));
+        assertEquals(3, store.size(endpoint));
+
+        QueuedRequest first = store.peek(endpoint);
+        assertEquals("1", first.getId());
+        assertEquals(endpoint, first.getEndpoint());
+        assertEquals("/3/0/4", first.getRequest().getPath().toString());
+        assertEquals(1000, first.getTimeout());
+        assertEquals(expirationTime, first.getExpirationTime());
+        assertTrue(store.remove(endpoint, "1"));
+
+        assertEquals("2", store.peek(endpoint).getId());
+        assertTrue(store.remove(endpoint, "2"));
+
+        QueuedRequest last = store.peek(endpoint);
+        assertEquals("3", last.getId());
+        assertEquals("+01", ((LwM2mSingleResource) ((WriteRequest) last.getRequest()).getNode()).getValue());
+        assertTrue(store.remove(endpoint, "3"));
+
+        assertNull(store.peek(endpoint));
+        assertFalse(store.remove(endpoint, "3"));
+    }
+
+    @Test
+    public void write_to_the_same_path_is_coalesced() {
+        add("1", new WriteRequest(3, 0, 14, "+01"));
+        add("2", new ExecuteRequest("/3/0/4"));
+        add("3", new WriteRequest(3, 0, 15, "Europe/Paris"));
+        List<QueuedRequest> removed = add("4", new WriteRequest(3, 0, 14, "+02"));
+
+        assertEquals(1, removed.size());
+        assertEquals("1", removed.get(0).getId());
+        assertEquals(Arrays.asList("2", "3", "4"), ids());
+        try (Jedis j = pool.getResource()) {
+            assertFalse(j.hexists(REQUESTS_KEY + endpoint, "1"));
+            assertFalse(j.hexists(COALESCING_KEYS_KEY + endpoint, "1"));
+            assertEquals("WRITE /3/0/14", j.hget(COALESCING_KEYS_KEY + endpoint, "4"));
+        }
+    }
+
+    @Test
+    public void oldest_request_is_removed_when_queue_is_full() {
+        add("1", new ExecuteRequest("/3/0/4"));
+        add("2", new ExecuteRequest("/3/0/4"));
+        assertTrue(add("3", new WriteRequest(3, 0, 14, "+01")).isEmpty());
+        List<QueuedRequest> removed = add("4", new ExecuteRequest("/3/0/5"));
+
+        assertEquals(1, removed.size());
+        assertEquals("1", removed.get(0).getId());
+        assertEquals(Arrays.asList("2", "3", "4"), ids());
+
+        // a coalesced request makes room for the new one
+        removed = add("5", new WriteRequest(3, 0, 14, "+02"));
+        assertEquals(1, removed.size());
+        assertEquals("3", removed.get(0).getId());
+        assertEquals(Arrays.asList("2", "4", "5"), ids());
+    }
+
+    @Test
+    public void keys_expire_with_the_last_request() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        store.add(new QueuedRequest("1", endpoint, new WriteRequest(3, 0, 14, "+01"), 1000, now + 5000));
+        assertTtlBetween(4000, 5000);
+
+        // an earlier expiration does not shorten the life of the queue
+        store.add(new QueuedRequest("2", endpoint, new ExecuteRequest("/3/0/4"), 1000, now + 500));
+        assertTtlBetween(4000, 5000);
+
+        // a later one extends it
+        store.add(new QueuedRequest("3", endpoint, new ExecuteRequest("/3/0/4"), 1000, now + 10000));
+        assertTtlBetween(9000, 10000);
+
+        store.removeAll(endpoint);
+        now = System.currentTimeMillis();
+        store.add(new QueuedRequest("4", endpoint, new WriteRequest(3, 0, 14, "+02"), 1000, now + 200));
+        assertEquals(1, store.size(endpoint));
+        Thread.sleep(500);
+
+        assertEquals(0, store.size(endpoint));
+        try (Jedis j = pool.getResource()) {
+            assertFalse(j.exists(IDS_KEY + endpoint));
+            assertFalse(j.exists(REQUESTS_KEY + endpoint));
+            assertFalse(j.exists(COALESCING_KEYS_KEY + endpoint));
+        }
+    }
+
+    @Test
+    public void queue_is_flushed_by_one_store_at_a_time() {
+        add("1", new ExecuteRequest("/3/0/4"));
+
+        assertEquals("1", store.peek(endpoint).getId());
+        assertNull(otherStore.peek(endpoint));
+        // the owner of the lease can peek again
+        assertEquals("1", store.peek(endpoint).getId());
+
+        store.endFlush(endpoint);
+        assertEquals("1", otherStore.peek(endpoint).getId());
+        assertNull(store.peek(endpoint));
+    }
+
+    @Test
+    public void lease_is_renewed_until_the_end_of_the_flush() throws InterruptedException {
+        store.destroy();
+        store = new RedisDownlinkQueueStore(pool, 3, 300);
+        add("1", new ExecuteRequest("/3/0/4"));
+
+        assertEquals("1", store.peek(endpoint).getId());
+        Thread.sleep(1000);
+        assertNull(otherStore.peek(endpoint));
+
+        store.endFlush(endpoint);
+        try (Jedis j = pool.getResource()) {
+            assertFalse(j.exists(OWNER_KEY + endpoint));
+        }
+        assertEquals("1", otherStore.peek(endpoint).getId());
+    }
+
+    @Test
+    public void lease_expires_when_the_flushing_store_stops() throws InterruptedException {
+        store.destroy();
+        store = new RedisDownlinkQueueStore(pool, 3, 300);
+        add("1", new ExecuteRequest("/3/0/4"));
+
+        assertEquals("1", store.peek(endpoint).getId());
+        // lease is not renewed anymore
+        store.destroy();
+        Thread.sleep(600);
+
+        assertEquals("1", otherStore.peek(endpoint).getId());
+    }
+
+    @Test
+    public void lease_is_released_when_the_queue_is_empty() {
+        add("1", new ExecuteRequest("/3/0/4"));
+        assertEquals("1", store.peek(endpoint).getId());
+        assertTrue(store.remove(endpoint, "1"));
+
+        // the queue is sent
+        assertNull(store.peek(endpoint));
+        add("2", new ExecuteRequest("/3/0/4"));
+        assertEquals("2", otherStore.peek(endpoint).getId());
+    }
+
+    @Test
+    public void removals_are_notified_to_the_store_which_queued_the_request() throws InterruptedException {
+        Removals removals = new Removals();
+        store.addListener(removals);
+        awaitSubscribers(EVENTS_CHANNEL, 1);
+        add("1", new ExecuteRequest("/3/0/4"));
+        add("2", new ExecuteRequest("/3/0/5"));
+        add("3", new WriteRequest(3, 0, 14, "+01"));
+
+        assertTrue(otherStore.remove(endpoint, "1", "response\nCHANGED"));
+        assertEquals("1 response CHANGED", removals.next());
+
+        otherStore.add(new QueuedRequest("4", endpoint, new WriteRequest(3, 0, 14, "+02"), 1000,
+                System.currentTimeMillis() + 60000));
+        assertEquals("3 superseded by a newer request", removals.next());
+
+        otherStore.add(new QueuedRequest("5", endpoint, new ExecuteRequest("/3/0/4"), 1000,
+                System.currentTimeMillis() + 60000));
+        otherStore.add(new QueuedRequest("6", endpoint, new ExecuteRequest("/3/0/4"), 1000,
+                System.currentTimeMillis() + 60000));
+        assertEquals("2 removed as the queue is full", removals.next());
+
+        assertEquals(3, otherStore.removeAll(endpoint).size());
+        assertEquals("4 removed", removals.next());
+        assertEquals("5 removed", removals.next());
+        assertEquals("6 removed", removals.next());
+
+        // removals done by the store itself are already handled locally
+        add("7", new ExecuteRequest("/3/0/4"));
+        assertTrue(store.remove(endpoint, "7"));
+        assertNull(removals.removals.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private List<QueuedRequest> add(String id, DownlinkRequest<?> request) {
+        return store.add(new QueuedRequest(id, endpoint, request, 1000, System.currentTimeMillis() + 60000));
+    }
+
+    private List<String> ids() {
+        try (Jedis j = pool.getResource()) {
+            return j.lrange(IDS_KEY + endpoint, 0, -1);
+        }
+    }
+
+    private void awaitSubscribers(String channel, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            try (Jedis j = pool.getResource()) {
+                if (Integer.parseInt(j.pubsubNumSub(channel).get(channel)) >= count) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("no subscriber to " + channel);
+    }
+
+    private void assertTtlBetween(long min, long max) {
+        try (Jedis j = pool.getResource()) {
+            for (String key : Arrays.asList(IDS_KEY, REQUESTS_KEY, COALESCING_KEYS_KEY)) {
+                long ttl = j.pttl(key + endpoint);
+                assertTrue(key + " expires in " + ttl + "ms", ttl > min && ttl <= max);
+            }
+        }
+    }
+
+    private class Removals implements QueuedRequestRemovalListener {
+        private final BlockingQueue<String> removals = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onRemoved(String endpoint, String id, String result) {
+            if (endpoint.equals(RedisDownlinkQueueStoreTest.this.endpoint)) {
+                removals.add(id + " " + result);
+            }
+        }
+
+        private String next() throws InterruptedException {
+            return removals.poll(2, TimeUnit.SECONDS);
+        }
+    }
+}
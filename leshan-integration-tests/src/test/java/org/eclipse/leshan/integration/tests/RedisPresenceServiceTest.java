@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import static org.junit.Assert.*;
+
+import java.net.Inet4Address;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.queue.StaticClientAwakeTimeProvider;
+import org.eclipse.leshan.server.redis.RedisPresenceService;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * Tests the Lua scripts and the presence events of {@link RedisPresenceService} with 2 services sharing a running
+ * redis-server (REDIS_URI environment variable), as 2 servers of a cluster would.
+ */
+public class RedisPresenceServiceTest {
+
+    private static final String AWAKE_KEY = "PRES:EP:";
+    private static final String LAST_AWAKE_KEY = "PRES:LAST:";
+    private static final String EVENTS_CHANNEL = "PRES:EVENTS";
+
+    private Pool<Jedis> pool;
+    private Registration registration;
+    private RedisPresenceService presenceService;
+    private RedisPresenceService otherPresenceService;
+
+    private SynchronousPresenceListener listener = new SynchronousPresenceListener();
+    private PresenceCounter counter = new PresenceCounter();
+    private SynchronousPresenceListener otherListener = new SynchronousPresenceListener();
+    private PresenceCounter otherCounter = new PresenceCounter();
+
+    @Before
+    public void setUp() {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        String endpoint = "urn:redis-presence:" + UUID.randomUUID();
+        registration = new Registration.Builder("ID-" + endpoint, endpoint,
+                Identity.unsecure(Inet4Address.getLoopbackAddress(), 12354)).bindingMode(BindingMode.UQ).build();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (presenceService != null) {
+            presenceService.stopPresenceTracking(registration);
+            presenceService.destroy();
+        }
+        if (otherPresenceService != null) {
+            otherPresenceService.destroy();
+        }
+        awaitSubscribers(0);
+        pool.close();
+    }
+
+    @Test
+    public void presence_is_shared_between_servers() throws InterruptedException, TimeoutException {
+        givenPresenceServices(0);
+
+        presenceService.setAwake(registration);
+        otherListener.waitForAwake(2, TimeUnit.SECONDS);
+        assertTrue(otherPresenceService.isClientAwake(registration));
+
+        otherPresenceService.setSleeping(registration);
+        listener.waitForSleep(2, TimeUnit.SECONDS);
+        assertFalse(presenceService.isClientAwake(registration));
+        assertFalse(otherPresenceService.isClientAwake(registration));
+
+        assertEquals(1, otherCounter.getNbAwake());
+        assertEquals(1, counter.getNbSleeping());
+    }
+
+    @Test
+    public void client_already_awake_is_not_notified_again() throws InterruptedException, TimeoutException {
+        givenPresenceServices(0);
+
+        presenceService.setAwake(registration);
+        otherListener.waitForAwake(2, TimeUnit.SECONDS);
+        presenceService.setAwake(registration);
+        otherPresenceService.setAwake(registration);
+        Thread.sleep(200);
+
+        assertEquals(1, counter.getNbAwake());
+        assertEquals(1, otherCounter.getNbAwake());
+        try (Jedis j = pool.getResource()) {
+            // no awake window
+            assertEquals(-1, j.pttl(AWAKE_KEY + registration.getEndpoint()).longValue());
+            assertFalse(j.exists(LAST_AWAKE_KEY + registration.getEndpoint()));
+        }
+    }
+
+    @Test
+    public void awake_window_expires_for_all_servers() throws InterruptedException, TimeoutException {
+        givenPresenceServices(300);
+
+        presenceService.setAwake(registration);
+        otherListener.waitForAwake(2, TimeUnit.SECONDS);
+        assertTrue(otherPresenceService.isClientAwake(registration));
+
+        listener.waitForSleep(2, TimeUnit.SECONDS);
+        otherListener.waitForSleep(2, TimeUnit.SECONDS);
+        assertFalse(presenceService.isClientAwake(registration));
+        assertFalse(otherPresenceService.isClientAwake(registration));
+        try (Jedis j = pool.getResource()) {
+            assertFalse(j.exists(AWAKE_KEY + registration.getEndpoint()));
+            assertFalse(j.exists(LAST_AWAKE_KEY + registration.getEndpoint()));
+        }
+    }
+
+    @Test
+    public void awake_window_is_checked_by_the_last_server() throws InterruptedException, TimeoutException {
+        givenPresenceServices(1000);
+
+        presenceService.setAwake(registration);
+        otherListener.waitForAwake(2, TimeUnit.SECONDS);
+        Thread.sleep(500);
+        // the awake window is extended by the other server
+        otherPresenceService.setAwake(registration);
+
+        Thread.sleep(700);
+        // the first window is over but the client is still awake
+        assertEquals(0, counter.getNbSleeping());
+        assertTrue(presenceService.isClientAwake(registration));
+
+        listener.waitForSleep(3, TimeUnit.SECONDS);
+        otherListener.waitForSleep(3, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        assertEquals(1, counter.getNbSleeping());
+        assertEquals(1, otherCounter.getNbSleeping());
+    }
+
+    @Test
+    public void stop_presence_tracking_removes_awake_state() throws InterruptedException, TimeoutException {
+        givenPresenceServices(60000);
+
+        presenceService.setAwake(registration);
+        otherListener.waitForAwake(2, TimeUnit.SECONDS);
+        presenceService.stopPresenceTracking(registration);
+
+        try (Jedis j = pool.getResource()) {
+            assertFalse(j.exists(AWAKE_KEY + registration.getEndpoint()));
+            assertFalse(j.exists(LAST_AWAKE_KEY + registration.getEndpoint()));
+        }
+        assertFalse(presenceService.isClientAwake(registration));
+    }
+
+    private void givenPresenceServices(int clientAwakeTime) throws InterruptedException {
+        presenceService = new RedisPresenceService(pool, new StaticClientAwakeTimeProvider(clientAwakeTime));
+        presenceService.addListener(listener);
+        presenceService.addListener(counter);
+        otherPresenceService = new RedisPresenceService(pool, new StaticClientAwakeTimeProvider(clientAwakeTime));
+        otherPresenceService.addListener(otherListener);
+        otherPresenceService.addListener(otherCounter);
+        // events published before the subscription would be missed
+        awaitSubscribers(2);
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            try (Jedis j = pool.getResource()) {
+                if (Integer.parseInt(j.pubsubNumSub(EVENTS_CHANNEL).get(EVENTS_CHANNEL)) == count) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("expected " + count + " subscribers to " + EVENTS_CHANNEL);
+    }
+}
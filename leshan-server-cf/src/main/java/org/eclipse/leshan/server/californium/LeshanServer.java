@@ -13,11 +13,21 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     RISE SICS AB - added Queue Mode operation
+ *     Sierra Wireless - handle notifications using cached observation descriptors
+ *     Sierra Wireless - add optional notification dispatcher
+ *     Sierra Wireless - add optional queue of requests for sleeping clients
+ *     Sierra Wireless - add optional custom presence service
+ *     Sierra Wireless - add optional request timeout and callback executors
+ *     Sierra Wireless - add fan-out of requests to many clients
+ *     Sierra Wireless - make cache of observation descriptors optional
  *******************************************************************************/
 package org.eclipse.leshan.server.californium;
 
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.CoapServer;
@@ -29,6 +39,7 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.leshan.core.californium.CoapResponseCallback;
+import org.eclipse.leshan.core.node.codec.CachingLwM2mNodeEncoder;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
 import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
@@ -47,8 +58,10 @@ import org.eclipse.leshan.core.util.Validate;
 import org.eclipse.leshan.server.Destroyable;
 import org.eclipse.leshan.server.Startable;
 import org.eclipse.leshan.server.Stoppable;
+import org.eclipse.leshan.server.californium.observation.NotificationDispatcher;
 import org.eclipse.leshan.server.californium.observation.ObservationServiceImpl;
 import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
+import org.eclipse.leshan.server.californium.registration.InMemoryRegistrationStore;
 import org.eclipse.leshan.server.californium.registration.RegisterResource;
 import org.eclipse.leshan.server.californium.request.CaliforniumLwM2mRequestSender;
 import org.eclipse.leshan.server.californium.request.CaliforniumQueueModeRequestSender;
@@ -56,10 +69,13 @@ import org.eclipse.leshan.server.californium.request.CoapRequestSender;
 import org.eclipse.leshan.server.model.LwM2mModelProvider;
 import org.eclipse.leshan.server.observation.ObservationService;
 import org.eclipse.leshan.server.queue.ClientAwakeTimeProvider;
+import org.eclipse.leshan.server.queue.DownlinkQueueStore;
+import org.eclipse.leshan.server.queue.MutablePresenceService;
 import org.eclipse.leshan.server.queue.PresenceListener;
 import org.eclipse.leshan.server.queue.PresenceService;
 import org.eclipse.leshan.server.queue.PresenceServiceImpl;
 import org.eclipse.leshan.server.queue.PresenceStateListener;
+import org.eclipse.leshan.server.queue.QueueModeLwM2mRequestSender;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationHandler;
 import org.eclipse.leshan.server.registration.RegistrationIdProvider;
@@ -68,6 +84,9 @@ import org.eclipse.leshan.server.registration.RegistrationService;
 import org.eclipse.leshan.server.registration.RegistrationServiceImpl;
 import org.eclipse.leshan.server.registration.RegistrationStore;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.request.FanOut;
+import org.eclipse.leshan.server.request.FanOutListener;
+import org.eclipse.leshan.server.request.FanOutRequestSender;
 import org.eclipse.leshan.server.request.LwM2mRequestSender;
 import org.eclipse.leshan.server.security.Authorizer;
 import org.eclipse.leshan.server.security.EditableSecurityStore;
@@ -108,8 +127,15 @@ public class LeshanServer {
     protected final ObservationServiceImpl observationService;
     private final SecurityStore securityStore;
     private final LwM2mModelProvider modelProvider;
-    private final PresenceServiceImpl presenceService;
+    private final MutablePresenceService presenceService;
     private final LwM2mRequestSender requestSender;
+    private final FanOutRequestSender fanOutRequestSender;
+    private final NotificationDispatcher notificationDispatcher;
+    protected final DownlinkQueueStore downlinkQueueStore;
+    protected final long queuedRequestTtl;
+    protected final MutablePresenceService customPresenceService;
+    protected final ScheduledExecutorService requestTimeoutExecutor;
+    protected final Executor requestCallbackExecutor;
 
     // Configuration
     /** since 1.1 */
@@ -170,6 +196,215 @@ public class LeshanServer {
             LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
             NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
             RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification) {
+        this(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer, modelProvider, encoder,
+                decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
+                updateRegistrationOnNotification, null);
+    }
+
+    /**
+     * Initialize a server which will bind to the specified address and port.
+     * <p>
+     * {@link LeshanServerBuilder} is the priviledged way to create a {@link LeshanServer}.
+     *
+     * @param unsecuredEndpoint CoAP endpoint used for <code>coap://</code> communication.
+     * @param securedEndpoint CoAP endpoint used for <code>coaps://</code> communication.
+     * @param registrationStore the {@link Registration} store.
+     * @param securityStore the {@link SecurityInfo} store.
+     * @param authorizer define which devices is allow to register on this server.
+     * @param modelProvider provides the objects description for each client.
+     * @param decoder decoder used to decode response payload.
+     * @param encoder encode used to encode request payload.
+     * @param coapConfig the CoAP {@link NetworkConfig}.
+     * @param noQueueMode true to disable presenceService.
+     * @param awakeTimeProvider to set the client awake time if queue mode is used.
+     * @param registrationIdProvider to provide registrationId using for location-path option values on response of
+     *        Register operation.
+     * @param updateRegistrationOnNotification will activate registration update on observe notification.
+     * @param notificationDispatcher used to decode notifications and notify observation listeners, or
+     *        <code>null</code> to do it in the thread receiving the notification. It is destroyed with the server.
+     */
+    public LeshanServer(CoapEndpoint unsecuredEndpoint, CoapEndpoint securedEndpoint,
+            CaliforniumRegistrationStore registrationStore, SecurityStore securityStore, Authorizer authorizer,
+            LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
+            NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
+            RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification,
+            NotificationDispatcher notificationDispatcher) {
+        this(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer, modelProvider, encoder,
+                decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
+                updateRegistrationOnNotification, notificationDispatcher, null,
+                QueueModeLwM2mRequestSender.DEFAULT_QUEUED_REQUEST_TTL);
+    }
+
+    /**
+     * Initialize a server which will bind to the specified address and port.
+     * <p>
+     * {@link LeshanServerBuilder} is the priviledged way to create a {@link LeshanServer}.
+     *
+     * @param unsecuredEndpoint CoAP endpoint used for <code>coap://</code> communication.
+     * @param securedEndpoint CoAP endpoint used for <code>coaps://</code> communication.
+     * @param registrationStore the {@link Registration} store.
+     * @param securityStore the {@link SecurityInfo} store.
+     * @param authorizer define which devices is allow to register on this server.
+     * @param modelProvider provides the objects description for each client.
+     * @param decoder decoder used to decode response payload.
+     * @param encoder encode used to encode request payload.
+     * @param coapConfig the CoAP {@link NetworkConfig}.
+     * @param noQueueMode true to disable presenceService.
+     * @param awakeTimeProvider to set the client awake time if queue mode is used.
+     * @param registrationIdProvider to provide registrationId using for location-path option values on response of
+     *        Register operation.
+     * @param updateRegistrationOnNotification will activate registration update on observe notification.
+     * @param notificationDispatcher used to decode notifications and notify observation listeners, or
+     *        <code>null</code> to do it in the thread receiving the notification. It is destroyed with the server.
+     * @param downlinkQueueStore the store of requests waiting for sleeping clients, or <code>null</code> to reject
+     *        requests sent to sleeping clients.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     */
+    public LeshanServer(CoapEndpoint unsecuredEndpoint, CoapEndpoint securedEndpoint,
+            CaliforniumRegistrationStore registrationStore, SecurityStore securityStore, Authorizer authorizer,
+            LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
+            NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
+            RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification,
+            NotificationDispatcher notificationDispatcher, DownlinkQueueStore downlinkQueueStore,
+            long queuedRequestTtl) {
+        this(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer, modelProvider, encoder,
+                decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
+                updateRegistrationOnNotification, notificationDispatcher, downlinkQueueStore, queuedRequestTtl, null);
+    }
+
+    /**
+     * Initialize a server which will bind to the specified address and port.
+     * <p>
+     * {@link LeshanServerBuilder} is the priviledged way to create a {@link LeshanServer}.
+     *
+     * @param unsecuredEndpoint CoAP endpoint used for <code>coap://</code> communication.
+     * @param securedEndpoint CoAP endpoint used for <code>coaps://</code> communication.
+     * @param registrationStore the {@link Registration} store.
+     * @param securityStore the {@link SecurityInfo} store.
+     * @param authorizer define which devices is allow to register on this server.
+     * @param modelProvider provides the objects description for each client.
+     * @param decoder decoder used to decode response payload.
+     * @param encoder encode used to encode request payload.
+     * @param coapConfig the CoAP {@link NetworkConfig}.
+     * @param noQueueMode true to disable presenceService.
+     * @param awakeTimeProvider to set the client awake time if queue mode is used.
+     * @param registrationIdProvider to provide registrationId using for location-path option values on response of
+     *        Register operation.
+     * @param updateRegistrationOnNotification will activate registration update on observe notification.
+     * @param notificationDispatcher used to decode notifications and notify observation listeners, or
+     *        <code>null</code> to do it in the thread receiving the notification. It is destroyed with the server.
+     * @param downlinkQueueStore the store of requests waiting for sleeping clients, or <code>null</code> to reject
+     *        requests sent to sleeping clients.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     * @param presenceService the service tracking the presence of clients, or <code>null</code> to use a
+     *        {@link PresenceServiceImpl} created with <code>awakeTimeProvider</code>. It is destroyed with the server
+     *        if it is {@link Destroyable}.
+     */
+    public LeshanServer(CoapEndpoint unsecuredEndpoint, CoapEndpoint securedEndpoint,
+            CaliforniumRegistrationStore registrationStore, SecurityStore securityStore, Authorizer authorizer,
+            LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
+            NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
+            RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification,
+            NotificationDispatcher notificationDispatcher, DownlinkQueueStore downlinkQueueStore,
+            long queuedRequestTtl, MutablePresenceService presenceService) {
+        this(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer, modelProvider, encoder,
+                decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
+                updateRegistrationOnNotification, notificationDispatcher, downlinkQueueStore, queuedRequestTtl,
+                presenceService, null, null);
+    }
+
+    /**
+     * Initialize a server which will bind to the specified address and port.
+     * <p>
+     * {@link LeshanServerBuilder} is the priviledged way to create a {@link LeshanServer}.
+     *
+     * @param unsecuredEndpoint CoAP endpoint used for <code>coap://</code> communication.
+     * @param securedEndpoint CoAP endpoint used for <code>coaps://</code> communication.
+     * @param registrationStore the {@link Registration} store.
+     * @param securityStore the {@link SecurityInfo} store.
+     * @param authorizer define which devices is allow to register on this server.
+     * @param modelProvider provides the objects description for each client.
+     * @param decoder decoder used to decode response payload.
+     * @param encoder encode used to encode request payload.
+     * @param coapConfig the CoAP {@link NetworkConfig}.
+     * @param noQueueMode true to disable presenceService.
+     * @param awakeTimeProvider to set the client awake time if queue mode is used.
+     * @param registrationIdProvider to provide registrationId using for location-path option values on response of
+     *        Register operation.
+     * @param updateRegistrationOnNotification will activate registration update on observe notification.
+     * @param notificationDispatcher used to decode notifications and notify observation listeners, or
+     *        <code>null</code> to do it in the thread receiving the notification. It is destroyed with the server.
+     * @param downlinkQueueStore the store of requests waiting for sleeping clients, or <code>null</code> to reject
+     *        requests sent to sleeping clients. It is destroyed with the server if it is {@link Destroyable}.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     * @param presenceService the service tracking the presence of clients, or <code>null</code> to use a
+     *        {@link PresenceServiceImpl} created with <code>awakeTimeProvider</code>. It is destroyed with the server
+     *        if it is {@link Destroyable}.
+     * @param requestTimeoutExecutor used to schedule response timeouts of asynchronous requests, or <code>null</code>
+     *        to use a single thread. It is shut down with the server.
+     * @param requestCallbackExecutor used to build responses and call callbacks of asynchronous requests, or
+     *        <code>null</code> to call them from the CoAP or timeout thread. It is shut down with the server.
+     */
+    public LeshanServer(CoapEndpoint unsecuredEndpoint, CoapEndpoint securedEndpoint,
+            CaliforniumRegistrationStore registrationStore, SecurityStore securityStore, Authorizer authorizer,
+            LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
+            NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
+            RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification,
+            NotificationDispatcher notificationDispatcher, DownlinkQueueStore downlinkQueueStore,
+            long queuedRequestTtl, MutablePresenceService presenceService,
+            ScheduledExecutorService requestTimeoutExecutor, Executor requestCallbackExecutor) {
+        this(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer, modelProvider, encoder,
+                decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
+                updateRegistrationOnNotification, notificationDispatcher, downlinkQueueStore, queuedRequestTtl,
+                presenceService, requestTimeoutExecutor, requestCallbackExecutor,
+                registrationStore instanceof InMemoryRegistrationStore);
+    }
+
+    /**
+     * Initialize a server which will bind to the specified address and port.
+     * <p>
+     * {@link LeshanServerBuilder} is the priviledged way to create a {@link LeshanServer}.
+     *
+     * @param unsecuredEndpoint CoAP endpoint used for <code>coap://</code> communication.
+     * @param securedEndpoint CoAP endpoint used for <code>coaps://</code> communication.
+     * @param registrationStore the {@link Registration} store.
+     * @param securityStore the {@link SecurityInfo} store.
+     * @param authorizer define which devices is allow to register on this server.
+     * @param modelProvider provides the objects description for each client.
+     * @param decoder decoder used to decode response payload.
+     * @param encoder encode used to encode request payload.
+     * @param coapConfig the CoAP {@link NetworkConfig}.
+     * @param noQueueMode true to disable presenceService.
+     * @param awakeTimeProvider to set the client awake time if queue mode is used.
+     * @param registrationIdProvider to provide registrationId using for location-path option values on response of
+     *        Register operation.
+     * @param updateRegistrationOnNotification will activate registration update on observe notification.
+     * @param notificationDispatcher used to decode notifications and notify observation listeners, or
+     *        <code>null</code> to do it in the thread receiving the notification. It is destroyed with the server.
+     * @param downlinkQueueStore the store of requests waiting for sleeping clients, or <code>null</code> to reject
+     *        requests sent to sleeping clients. It is destroyed with the server if it is {@link Destroyable}.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     * @param presenceService the service tracking the presence of clients, or <code>null</code> to use a
+     *        {@link PresenceServiceImpl} created with <code>awakeTimeProvider</code>. It is destroyed with the server
+     *        if it is {@link Destroyable}.
+     * @param requestTimeoutExecutor used to schedule response timeouts of asynchronous requests, or <code>null</code>
+     *        to use a single thread. It is shut down with the server.
+     * @param requestCallbackExecutor used to build responses and call callbacks of asynchronous requests, or
+     *        <code>null</code> to call them from the CoAP or timeout thread. It is shut down with the server.
+     * @param cacheObservationDescriptors true to handle notifications using the observations, registrations and
+     *        models cached from the registration events of this server, instead of reading the store. It MUST NOT be
+     *        used with a store shared by several servers, as registrations modified by another server would not be
+     *        seen.
+     */
+    public LeshanServer(CoapEndpoint unsecuredEndpoint, CoapEndpoint securedEndpoint,
+            CaliforniumRegistrationStore registrationStore, SecurityStore securityStore, Authorizer authorizer,
+            LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
+            NetworkConfig coapConfig, boolean noQueueMode, ClientAwakeTimeProvider awakeTimeProvider,
+            RegistrationIdProvider registrationIdProvider, boolean updateRegistrationOnNotification,
+            NotificationDispatcher notificationDispatcher, DownlinkQueueStore downlinkQueueStore,
+            long queuedRequestTtl, MutablePresenceService presenceService,
+            ScheduledExecutorService requestTimeoutExecutor, Executor requestCallbackExecutor,
+            boolean cacheObservationDescriptors) {
 
         Validate.notNull(registrationStore, "registration store cannot be null");
         Validate.notNull(authorizer, "authorizer cannot be null");
@@ -202,18 +437,31 @@ public class LeshanServer {
         this.updateRegistrationOnNotification = updateRegistrationOnNotification;
         observationService = createObservationService(registrationStore, modelProvider, decoder, unsecuredEndpoint,
                 securedEndpoint);
+        if (cacheObservationDescriptors) {
+            observationService.setRegistrationService(registrationService);
+        }
+        this.notificationDispatcher = notificationDispatcher;
+        observationService.setNotificationDispatcher(notificationDispatcher);
+        this.customPresenceService = presenceService;
         if (noQueueMode) {
-            presenceService = null;
+            this.presenceService = null;
         } else {
-            presenceService = createPresenceService(registrationService, awakeTimeProvider);
+            this.presenceService = createPresenceService(registrationService, awakeTimeProvider);
         }
 
         // define /rd resource
         coapServer.add(createRegisterResource(registrationService, authorizer, registrationIdProvider));
 
         // create request sender
+        this.downlinkQueueStore = downlinkQueueStore;
+        this.queuedRequestTtl = queuedRequestTtl;
+        this.requestTimeoutExecutor = requestTimeoutExecutor;
+        this.requestCallbackExecutor = requestCallbackExecutor;
+        // payloads of requests sent to many clients are encoded once
+        CachingLwM2mNodeEncoder cachingEncoder = new CachingLwM2mNodeEncoder(encoder);
         requestSender = createRequestSender(securedEndpoint, unsecuredEndpoint, registrationService, observationService,
-                this.modelProvider, encoder, decoder, presenceService);
+                this.modelProvider, cachingEncoder, decoder, this.presenceService);
+        fanOutRequestSender = createFanOutRequestSender(requestSender, cachingEncoder);
 
         // connection cleaner
         createConnectionCleaner(securityStore, securedEndpoint);
@@ -253,9 +501,10 @@ public class LeshanServer {
         return observationService;
     }
 
-    protected PresenceServiceImpl createPresenceService(RegistrationService registrationService,
+    protected MutablePresenceService createPresenceService(RegistrationService registrationService,
             ClientAwakeTimeProvider awakeTimeProvider) {
-        PresenceServiceImpl presenceService = new PresenceServiceImpl(awakeTimeProvider);
+        MutablePresenceService presenceService = customPresenceService != null ? customPresenceService
+                : new PresenceServiceImpl(awakeTimeProvider);
         PresenceStateListener presenceStateListener = new PresenceStateListener(presenceService);
         registrationService.addListener(new PresenceStateListener(presenceService));
         if (updateRegistrationOnNotification) {
@@ -272,16 +521,18 @@ public class LeshanServer {
     protected LwM2mRequestSender createRequestSender(Endpoint securedEndpoint, Endpoint unsecuredEndpoint,
             RegistrationServiceImpl registrationService, ObservationServiceImpl observationService,
             LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder,
-            PresenceServiceImpl presenceService) {
+            MutablePresenceService presenceService) {
 
         // if no queue mode, create a "simple" sender
         final LwM2mRequestSender requestSender;
         if (presenceService == null)
             requestSender = new CaliforniumLwM2mRequestSender(securedEndpoint, unsecuredEndpoint, observationService,
-                    modelProvider, encoder, decoder);
+                    modelProvider, encoder, decoder, requestTimeoutExecutor, requestCallbackExecutor);
         else
-            requestSender = new CaliforniumQueueModeRequestSender(presenceService, new CaliforniumLwM2mRequestSender(
-                    securedEndpoint, unsecuredEndpoint, observationService, modelProvider, encoder, decoder));
+            requestSender = new CaliforniumQueueModeRequestSender(presenceService,
+                    new CaliforniumLwM2mRequestSender(securedEndpoint, unsecuredEndpoint, observationService,
+                            modelProvider, encoder, decoder, requestTimeoutExecutor, requestCallbackExecutor),
+                    downlinkQueueStore, queuedRequestTtl, QueueModeLwM2mRequestSender.DEFAULT_MAX_CONCURRENT_FLUSHES);
 
         // Cancel observations on client unregistering
         registrationService.addListener(new RegistrationListener() {
@@ -309,6 +560,11 @@ public class LeshanServer {
         return requestSender;
     }
 
+    protected FanOutRequestSender createFanOutRequestSender(LwM2mRequestSender requestSender,
+            CachingLwM2mNodeEncoder encoder) {
+        return new FanOutRequestSender(requestSender, encoder);
+    }
+
     protected void createConnectionCleaner(SecurityStore securityStore, CoapEndpoint securedEndpoint) {
         if (securedEndpoint != null && securedEndpoint.getConnector() instanceof DTLSConnector
                 && securityStore instanceof EditableSecurityStore) {
@@ -402,7 +658,19 @@ public class LeshanServer {
             ((Stoppable) requestSender).stop();
         }
 
-        presenceService.destroy();
+        fanOutRequestSender.destroy();
+
+        if (downlinkQueueStore instanceof Destroyable) {
+            ((Destroyable) downlinkQueueStore).destroy();
+        }
+
+        if (notificationDispatcher != null) {
+            notificationDispatcher.destroy();
+        }
+
+        if (presenceService instanceof Destroyable) {
+            ((Destroyable) presenceService).destroy();
+        }
 
         LOG.info("LWM2M server destroyed.");
     }
@@ -568,6 +836,45 @@ public class LeshanServer {
         requestSender.send(destination, request, timeoutInMs, responseCallback, errorCallback);
     }
 
+    /**
+     * Send a Lightweight M2M {@link DownlinkRequest} asynchronously to many LWM2M clients using a default 2min timeout
+     * for each client.
+     * <p>
+     * See {@link #send(Iterator, DownlinkRequest, long, int, int, FanOutListener)}.
+     */
+    public <T extends LwM2mResponse> FanOut send(Iterator<Registration> destinations, DownlinkRequest<T> request,
+            int maxInFlight, int maxRequestsPerSecond, FanOutListener<T> listener) {
+        return fanOutRequestSender.send(destinations, request, DEFAULT_TIMEOUT, maxInFlight, maxRequestsPerSecond,
+                listener);
+    }
+
+    /**
+     * Send a Lightweight M2M {@link DownlinkRequest} asynchronously to many LWM2M clients.
+     * <p>
+     * Destinations are pulled lazily, e.g. from {@link RegistrationService#getAllRegistrations()} or a filtering
+     * iterator on top of it, and the same request instance is sent to each of them. The payload of a
+     * {@link org.eclipse.leshan.core.request.WriteRequest} is encoded once for all clients sharing the same object
+     * model.
+     * <p>
+     * This method returns immediately. The returned {@link FanOut} gives the progress of the campaign and allows to
+     * cancel it, results are streamed to the listener.
+     * 
+     * @param destinations The {@link Registration}s of the clients to send the request to.
+     * @param request The request to send to the clients.
+     * @param timeoutInMs The global timeout to wait in milliseconds for each client (see
+     *        https://github.com/eclipse/leshan/wiki/Request-Timeout)
+     * @param maxInFlight The maximum number of requests waiting for a response.
+     * @param maxRequestsPerSecond The maximum number of requests sent by second, or 0 for no limit.
+     * @param listener a listener called for each response or error and once all clients are done. This listener MUST
+     *        NOT be null.
+     * @return the progress of the fan-out.
+     */
+    public <T extends LwM2mResponse> FanOut send(Iterator<Registration> destinations, DownlinkRequest<T> request,
+            long timeoutInMs, int maxInFlight, int maxRequestsPerSecond, FanOutListener<T> listener) {
+        return fanOutRequestSender.send(destinations, request, timeoutInMs, maxInFlight, maxRequestsPerSecond,
+                listener);
+    }
+
     /**
      * @return the {@link InetSocketAddress} used for <code>coap://</code>
      */
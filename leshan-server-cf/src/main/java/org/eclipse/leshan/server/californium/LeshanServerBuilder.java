@@ -15,6 +15,11 @@
  *     Achim Kraus (Bosch Software Innovations GmbH) - use Lwm2mEndpointContextMatcher
  *                                                     for secure endpoint.
  *     Achim Kraus (Bosch Software Innovations GmbH) - use CoapEndpointBuilder
+ *     Sierra Wireless - add optional notification dispatcher
+ *     Sierra Wireless - add optional queue of requests for sleeping clients
+ *     Sierra Wireless - add optional custom presence service
+ *     Sierra Wireless - add optional request timeout and callback executors
+ *     Sierra Wireless - make cache of observation descriptors optional
  *******************************************************************************/
 package org.eclipse.leshan.server.californium;
 
@@ -24,6 +29,8 @@ import java.security.PublicKey;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
@@ -44,11 +51,15 @@ import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
 import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.exception.ClientSleepingException;
+import org.eclipse.leshan.server.californium.observation.NotificationDispatcher;
 import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.californium.registration.InMemoryRegistrationStore;
 import org.eclipse.leshan.server.model.LwM2mModelProvider;
 import org.eclipse.leshan.server.model.StandardModelProvider;
 import org.eclipse.leshan.server.queue.ClientAwakeTimeProvider;
+import org.eclipse.leshan.server.queue.DownlinkQueueStore;
+import org.eclipse.leshan.server.queue.MutablePresenceService;
+import org.eclipse.leshan.server.queue.QueueModeLwM2mRequestSender;
 import org.eclipse.leshan.server.queue.StaticClientAwakeTimeProvider;
 import org.eclipse.leshan.server.registration.RandomStringRegistrationIdProvider;
 import org.eclipse.leshan.server.registration.Registration;
@@ -99,6 +110,13 @@ public class LeshanServerBuilder {
     private boolean noQueueMode = false;
     /** @since 1.1 */
     protected boolean updateRegistrationOnNotification;
+    protected NotificationDispatcher notificationDispatcher;
+    protected DownlinkQueueStore downlinkQueueStore;
+    protected long queuedRequestTtl = QueueModeLwM2mRequestSender.DEFAULT_QUEUED_REQUEST_TTL;
+    protected MutablePresenceService presenceService;
+    protected ScheduledExecutorService requestTimeoutExecutor;
+    protected Executor requestCallbackExecutor;
+    protected Boolean cacheObservationDescriptors;
 
     /**
      * <p>
@@ -384,6 +402,87 @@ public class LeshanServerBuilder {
         return this;
     }
 
+    /**
+     * Handle notifications using the observations, registrations and models cached from the registration events of
+     * this server, instead of reading them from the registration store.
+     * <p>
+     * This MUST NOT be enabled when the registration store is shared by several servers: registrations updated or
+     * removed by another server would not be seen, so notifications could be handled with a stale registration.
+     * <p>
+     * By default, it is enabled only with an {@link InMemoryRegistrationStore}, which can not be shared.
+     */
+    public LeshanServerBuilder setCacheObservationDescriptors(boolean cacheObservationDescriptors) {
+        this.cacheObservationDescriptors = cacheObservationDescriptors;
+        return this;
+    }
+
+    /**
+     * Set the {@link NotificationDispatcher} used to decode notifications and notify observation listeners using a
+     * pool of worker threads instead of the CoAP thread which received them.
+     * <p>
+     * By default, there is no dispatcher.
+     */
+    public LeshanServerBuilder setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+        this.notificationDispatcher = notificationDispatcher;
+        return this;
+    }
+
+    /**
+     * Set the {@link DownlinkQueueStore} used to keep the requests sent to sleeping Queue Mode clients until they wake
+     * up, instead of rejecting them with a <code>ClientSleepingException</code>.
+     * <p>
+     * Only asynchronous requests are queued. By default, there is no queue.
+     */
+    public LeshanServerBuilder setDownlinkQueueStore(DownlinkQueueStore downlinkQueueStore) {
+        this.downlinkQueueStore = downlinkQueueStore;
+        return this;
+    }
+
+    /**
+     * Set the time in milliseconds a request can wait in the {@link DownlinkQueueStore} for a sleeping client.
+     * <p>
+     * By default, a queued request expires after {@link QueueModeLwM2mRequestSender#DEFAULT_QUEUED_REQUEST_TTL}.
+     */
+    public LeshanServerBuilder setQueuedRequestTtl(long queuedRequestTtl) {
+        this.queuedRequestTtl = queuedRequestTtl;
+        return this;
+    }
+
+    /**
+     * Set the {@link MutablePresenceService} tracking whether Queue Mode clients are awake or sleeping, e.g. a service
+     * sharing this state between several servers.
+     * <p>
+     * By default, a <code>PresenceServiceImpl</code> using the {@link ClientAwakeTimeProvider} is created. The service
+     * is ignored if queue mode is disabled.
+     */
+    public LeshanServerBuilder setPresenceService(MutablePresenceService presenceService) {
+        this.presenceService = presenceService;
+        return this;
+    }
+
+    /**
+     * Set the {@link ScheduledExecutorService} used to schedule the response timeout of asynchronous requests. When a
+     * large number of requests is sent at once, a pool of several threads can be used.
+     * <p>
+     * By default, a single thread is used. The executor is shut down when the server is destroyed.
+     */
+    public LeshanServerBuilder setRequestTimeoutExecutor(ScheduledExecutorService requestTimeoutExecutor) {
+        this.requestTimeoutExecutor = requestTimeoutExecutor;
+        return this;
+    }
+
+    /**
+     * Set the {@link Executor} used to build LWM2M responses and call the response and error callbacks of
+     * asynchronous requests, instead of the CoAP thread which received the response or the timeout thread.
+     * <p>
+     * By default, there is no executor. If it is an <code>ExecutorService</code>, it is shut down when the server is
+     * destroyed.
+     */
+    public LeshanServerBuilder setRequestCallbackExecutor(Executor requestCallbackExecutor) {
+        this.requestCallbackExecutor = requestCallbackExecutor;
+        return this;
+    }
+
     /**
      * The default Californium/CoAP {@link NetworkConfig} used by the builder.
      */
@@ -598,6 +697,9 @@ public class LeshanServerBuilder {
             RegistrationIdProvider registrationIdProvider) {
         return new LeshanServer(unsecuredEndpoint, securedEndpoint, registrationStore, securityStore, authorizer,
                 modelProvider, encoder, decoder, coapConfig, noQueueMode, awakeTimeProvider, registrationIdProvider,
-                updateRegistrationOnNotification);
+                updateRegistrationOnNotification, notificationDispatcher, downlinkQueueStore, queuedRequestTtl,
+                presenceService, requestTimeoutExecutor, requestCallbackExecutor,
+                cacheObservationDescriptors != null ? cacheObservationDescriptors
+                        : registrationStore instanceof InMemoryRegistrationStore);
     }
 }
@@ -12,9 +12,13 @@
  * 
  * Contributors:
  *     Zebra Technologies - initial API and implementation
+ *     Sierra Wireless - add configurable timeout and callback executors
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.bootstrap;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.node.LwM2mNode;
@@ -56,8 +60,27 @@ public class CaliforniumLwM2mBootstrapRequestSender implements LwM2mBootstrapReq
      */
     public CaliforniumLwM2mBootstrapRequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint, LwM2mModel model,
             LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder) {
+        this(secureEndpoint, nonSecureEndpoint, model, encoder, decoder, null, null);
+    }
+
+    /**
+     * @param secureEndpoint The endpoint used to send coaps request.
+     * @param nonSecureEndpoint The endpoint used to send coap request.
+     * @param model the {@link LwM2mModel} used to encode/decode {@link LwM2mNode}.
+     * @param encoder The {@link LwM2mNodeEncoder} used to encode {@link LwM2mNode}.
+     * @param decoder The {@link LwM2mNodeDecoder} used to encode {@link LwM2mNode}.
+     * @param timeoutExecutor used to schedule response timeouts of asynchronous requests, or <code>null</code> to use
+     *        a single thread. It is shut down when the sender is destroyed.
+     * @param callbackExecutor used to build responses and call callbacks of asynchronous requests, or
+     *        <code>null</code> to call them from the Californium protocol thread or the timeout thread. It is shut
+     *        down when the sender is destroyed.
+     */
+    public CaliforniumLwM2mBootstrapRequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint, LwM2mModel model,
+            LwM2mNodeEncoder encoder, LwM2mNodeDecoder decoder, ScheduledExecutorService timeoutExecutor,
+            Executor callbackExecutor) {
         this.model = model;
-        this.sender = new RequestSender(secureEndpoint, nonSecureEndpoint, encoder, decoder);
+        this.sender = new RequestSender(secureEndpoint, nonSecureEndpoint, encoder, decoder, timeoutExecutor,
+                callbackExecutor);
     }
 
     /**
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.observation;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.leshan.core.util.NamedThreadFactory;
+import org.eclipse.leshan.core.util.Validate;
+import org.eclipse.leshan.server.Destroyable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes notifications and notifies {@link org.eclipse.leshan.server.observation.ObservationListener}s using a pool
+ * of worker threads, so slow listeners do not stall CoAP processing.
+ * <p>
+ * All the notifications of a registration are handled by the same worker, in the order they were received. Each
+ * worker has a bounded queue, the {@link OverflowPolicy} defines what happens when it is full.
+ */
+public class NotificationDispatcher implements Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    /**
+     * What to do with a new notification when the queue of its worker is full.
+     */
+    public enum OverflowPolicy {
+        /** Drop the oldest queued notification. */
+        DROP_OLDEST,
+        /** Block the receiving thread until there is room in the queue. */
+        BLOCK,
+        /**
+         * Replace the last queued notification of the same observation by the new one, so only its latest value is
+         * dispatched. If there is none, drop the oldest queued notification. Notifications are not coalesced while
+         * the queue is not full.
+         */
+        COALESCE
+    }
+
+    private final OverflowPolicy overflowPolicy;
+    private final int queueCapacity;
+    private final Worker[] workers;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong(); // in ns
+    private final AtomicLong maxLatency = new AtomicLong(); // in ns
+
+    /**
+     * @param threads the number of worker threads.
+     * @param queueCapacity the maximum number of queued notifications per worker.
+     * @param overflowPolicy what to do when the queue of a worker is full.
+     */
+    public NotificationDispatcher(int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        Validate.isTrue(threads > 0, "threads must be positive");
+        Validate.isTrue(queueCapacity > 0, "queueCapacity must be positive");
+        Validate.notNull(overflowPolicy);
+        this.overflowPolicy = overflowPolicy;
+        this.queueCapacity = queueCapacity;
+        this.workers = new Worker[threads];
+        ThreadFactory threadFactory = new NamedThreadFactory("Leshan Notification Dispatcher %d");
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+            Thread thread = threadFactory.newThread(workers[i]);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a notification handling task.
+     *
+     * @param registrationId the registration which sent the notification, tasks of a same registration are executed in
+     *        order.
+     * @param observationId the observation the notification belongs to, used to coalesce notifications.
+     * @param task the task handling the notification.
+     */
+    public void dispatch(String registrationId, byte[] observationId, Runnable task) {
+        workers[(registrationId.hashCode() & 0x7fffffff) % workers.length].add(new Token(observationId), task);
+    }
+
+    /**
+     * @return the number of notifications waiting to be dispatched.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of notifications dispatched to listeners.
+     */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * @return the number of notifications dropped because a queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of notifications replaced by a newer one of the same observation.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the average time between the reception of a notification and the end of its dispatch, in microseconds.
+     */
+    public long getAverageDispatchLatency() {
+        long count = dispatched.get();
+        return count == 0 ? 0 : totalLatency.get() / count / 1000;
+    }
+
+    /**
+     * @return the maximum time between the reception of a notification and the end of its dispatch, in microseconds.
+     */
+    public long getMaxDispatchLatency() {
+        return maxLatency.get() / 1000;
+    }
+
+    /**
+     * Stop the worker threads, queued notifications are not dispatched.
+     */
+    @Override
+    public void destroy() {
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+    }
+
+    private void onDispatched(long enqueueTime) {
+        long latency = System.nanoTime() - enqueueTime;
+        dispatched.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max;
+        do {
+            max = maxLatency.get();
+        } while (latency > max && !maxLatency.compareAndSet(max, latency));
+    }
+
+    private static class Entry {
+        final Token observationId;
+        // both replaced when coalesced
+        long enqueueTime;
+        Runnable task;
+
+        Entry(Token observationId, long enqueueTime, Runnable task) {
+            this.observationId = observationId;
+            this.enqueueTime = enqueueTime;
+            this.task = task;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        // guarded by lock
+        private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        private final Map<Token, Entry> pendingByObservation = new HashMap<>();
+        private boolean stopped;
+
+        public void add(Token observationId, Runnable task) {
+            long now = System.nanoTime();
+            lock.lock();
+            try {
+                if (stopped) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.COALESCE && queue.size() >= queueCapacity) {
+                    Entry pending = pendingByObservation.get(observationId);
+                    if (pending != null) {
+                        // keep its place in the queue to preserve ordering
+                        pending.task = task;
+                        pending.enqueueTime = now;
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                }
+                while (queue.size() >= queueCapacity) {
+                    if (overflowPolicy == OverflowPolicy.BLOCK) {
+                        notFull.awaitUninterruptibly();
+                        if (stopped) {
+                            dropped.incrementAndGet();
+                            return;
+                        }
+                    } else {
+                        remove(queue.poll());
+                        dropped.incrementAndGet();
+                    }
+                }
+                Entry entry = new Entry(observationId, now, task);
+                queue.add(entry);
+                if (overflowPolicy == OverflowPolicy.COALESCE) {
+                    // only the last notification of an observation can be replaced
+                    pendingByObservation.put(observationId, entry);
+                }
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int size() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                queue.clear();
+                pendingByObservation.clear();
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                long enqueueTime;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && !stopped) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    Entry entry = queue.poll();
+                    remove(entry);
+                    // read under lock as they can be replaced while queued
+                    task = entry.task;
+                    enqueueTime = entry.enqueueTime;
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Unexpected error while dispatching notification", e);
+                }
+                onDispatched(enqueueTime);
+            }
+        }
+
+        // must be called under lock
+        private void remove(Entry entry) {
+            if (overflowPolicy == OverflowPolicy.COALESCE && pendingByObservation.get(entry.observationId) == entry) {
+                pendingByObservation.remove(entry.observationId);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.observation;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands over the notifications of a registration in the order they were received, even if they are resolved by an
+ * asynchronous store whose callbacks complete out of order.
+ * <p>
+ * A {@link Slot} is reserved when the notification is received, and completed once it is resolved. The task of a slot
+ * is executed when all the slots reserved before it for the same registration are completed, by the thread which
+ * completed the last of them.
+ */
+class NotificationSequencer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationSequencer.class);
+
+    private final ConcurrentMap<String /* registration id */, Sequence> sequences = new ConcurrentHashMap<>();
+
+    /**
+     * Reserve the next slot of the given registration. It MUST be completed, even if the notification is dropped.
+     */
+    Slot reserve(String registrationId) {
+        Slot slot = new Slot();
+        while (true) {
+            Sequence sequence = sequences.get(registrationId);
+            if (sequence == null) {
+                Sequence newSequence = new Sequence(registrationId);
+                sequence = sequences.putIfAbsent(registrationId, newSequence);
+                if (sequence == null) {
+                    sequence = newSequence;
+                }
+            }
+            synchronized (sequence) {
+                if (!sequence.removed) {
+                    slot.sequence = sequence;
+                    sequence.slots.add(slot);
+                    return slot;
+                }
+            }
+            // the sequence was emptied concurrently, retry with a new one
+        }
+    }
+
+    /**
+     * @return the number of registrations with notifications waiting for a previous one.
+     */
+    int size() {
+        return sequences.size();
+    }
+
+    class Slot {
+        private Sequence sequence;
+        // guarded by sequence
+        private boolean completed;
+        private Runnable task;
+
+        /**
+         * @param task the task handing over the notification, or <code>null</code> if it was dropped.
+         */
+        void complete(Runnable task) {
+            synchronized (sequence) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+                this.task = task;
+                if (sequence.draining) {
+                    // the thread draining the sequence will execute it
+                    return;
+                }
+                sequence.draining = true;
+            }
+            drain(sequence);
+        }
+    }
+
+    private void drain(Sequence sequence) {
+        while (true) {
+            Runnable task;
+            synchronized (sequence) {
+                Slot head = sequence.slots.peek();
+                if (head == null || !head.completed) {
+                    sequence.draining = false;
+                    if (head == null) {
+                        sequence.removed = true;
+                        sequences.remove(sequence.registrationId, sequence);
+                    }
+                    return;
+                }
+                sequence.slots.poll();
+                task = head.task;
+                head.task = null;
+            }
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to hand over notification of registration {}", sequence.registrationId, e);
+                }
+            }
+        }
+    }
+
+    private static class Sequence {
+        private final String registrationId;
+        // guarded by this
+        private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+        private boolean draining;
+        private boolean removed;
+
+        private Sequence(String registrationId) {
+            this.registrationId = registrationId;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.observation;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Everything needed to handle a notification of an observation: the observation itself (registration id, path, ...),
+ * the registration it belongs to and the model used to decode the notification payload.
+ */
+class ObservationDescriptor {
+
+    private final Observation observation;
+    private final Registration registration;
+    private final LwM2mModel model;
+
+    public ObservationDescriptor(Observation observation, Registration registration, LwM2mModel model) {
+        this.observation = observation;
+        this.registration = registration;
+        this.model = model;
+    }
+
+    public Observation getObservation() {
+        return observation;
+    }
+
+    public Registration getRegistration() {
+        return registration;
+    }
+
+    public LwM2mModel getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.observation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * A local cache of {@link ObservationDescriptor} by token, used to handle notifications without accessing the
+ * registration store.
+ * <p>
+ * Reads are lock free, modifications are serialized.
+ */
+class ObservationDescriptorCache {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Token, ObservationDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    // all fields below are guarded by "this"
+    private final Map<String /* reg-id */, Set<Token>> tokensByRegId = new HashMap<>();
+    // incremented on each invalidation, used to not cache values read before an invalidation
+    private long generation;
+
+    /**
+     * @param maxSize the maximum number of descriptors, new descriptors are not cached when it is reached.
+     */
+    public ObservationDescriptorCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public ObservationDescriptor get(Token token) {
+        return descriptors.get(token);
+    }
+
+    /**
+     * @return the current generation, to give to {@link #put(long, ObservationDescriptor)} after reading the
+     *         descriptor content from the store.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a descriptor, unless an invalidation happened since the given generation.
+     */
+    public synchronized void put(long readGeneration, ObservationDescriptor descriptor) {
+        if (readGeneration != generation || descriptors.size() >= maxSize) {
+            return;
+        }
+        Token token = new Token(descriptor.getObservation().getId());
+        ObservationDescriptor previous = descriptors.put(token, descriptor);
+        if (previous != null) {
+            removeToken(previous.getRegistration().getId(), token);
+        }
+        String registrationId = descriptor.getRegistration().getId();
+        Set<Token> tokens = tokensByRegId.get(registrationId);
+        if (tokens == null) {
+            tokens = new HashSet<>();
+            tokensByRegId.put(registrationId, tokens);
+        }
+        tokens.add(token);
+    }
+
+    public synchronized void remove(Token token) {
+        generation++;
+        ObservationDescriptor removed = descriptors.remove(token);
+        if (removed != null) {
+            removeToken(removed.getRegistration().getId(), token);
+        }
+    }
+
+    /**
+     * Remove all descriptors of the given registration.
+     */
+    public synchronized void removeAll(String registrationId) {
+        generation++;
+        Set<Token> tokens = tokensByRegId.remove(registrationId);
+        if (tokens != null) {
+            for (Token token : tokens) {
+                descriptors.remove(token);
+            }
+        }
+    }
+
+    /**
+     * Replace the registration and the model of all descriptors of this registration.
+     */
+    public synchronized void update(Registration registration, LwM2mModel model) {
+        generation++;
+        Set<Token> tokens = tokensByRegId.get(registration.getId());
+        if (tokens != null) {
+            for (Token token : tokens) {
+                ObservationDescriptor previous = descriptors.get(token);
+                descriptors.put(token, new ObservationDescriptor(previous.getObservation(), registration, model));
+            }
+        }
+    }
+
+    public int size() {
+        return descriptors.size();
+    }
+
+    private void removeToken(String registrationId, Token token) {
+        Set<Token> tokens = tokensByRegId.get(registrationId);
+        if (tokens != null) {
+            tokens.remove(token);
+            if (tokens.isEmpty()) {
+                tokensByRegId.remove(registrationId);
+            }
+        }
+    }
+}
@@ -12,6 +12,10 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - access registration store asynchronously on notification
+ *     Sierra Wireless - handle notifications using cached observation descriptors
+ *     Sierra Wireless - add optional notification dispatcher
+ *     Sierra Wireless - keep notifications ordered with an asynchronous store
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.observation;
 
@@ -41,14 +45,20 @@ import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.ContentFormat;
 import org.eclipse.leshan.core.request.Identity;
 import org.eclipse.leshan.core.request.exception.InvalidResponseException;
+import org.eclipse.leshan.core.response.ErrorCallback;
 import org.eclipse.leshan.core.response.ObserveResponse;
 import org.eclipse.leshan.core.util.Hex;
 import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.model.LwM2mModelProvider;
 import org.eclipse.leshan.server.observation.ObservationListener;
 import org.eclipse.leshan.server.observation.ObservationService;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStore;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStoreAdapter;
 import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationListener;
+import org.eclipse.leshan.server.registration.RegistrationService;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.ResultCallback;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,17 +68,37 @@ import org.slf4j.LoggerFactory;
  * {@link CaliforniumRegistrationStore}.
  * 
  * When a new observation is added or changed or canceled, the registered listeners are notified.
+ * <p>
+ * If the store is an {@link AsyncRegistrationStore}, it is accessed asynchronously when a notification is received, so
+ * listeners may be notified from a store thread instead of the Californium one. Notifications of a registration are
+ * still handed over in the order they were received.
+ * <p>
+ * When a {@link RegistrationService} is set, the observation, its registration and its model are cached by token, so
+ * notifications are handled without accessing the store. This cache is kept up to date using the events of the
+ * registration service.
+ * <p>
+ * When a {@link NotificationDispatcher} is set, notifications are decoded and listeners are notified by its worker
+ * threads.
  */
 public class ObservationServiceImpl implements ObservationService, NotificationListener {
 
     private final Logger LOG = LoggerFactory.getLogger(ObservationServiceImpl.class);
 
+    /** Maximum number of observation descriptors cached to handle notifications */
+    public static final int MAX_CACHED_OBSERVATIONS = 1_000_000;
+
     private final CaliforniumRegistrationStore registrationStore;
+    private final AsyncRegistrationStore asyncRegistrationStore;
+    // keeps notifications ordered when store callbacks may complete out of order, else null
+    private final NotificationSequencer sequencer;
     private final LwM2mModelProvider modelProvider;
     private final LwM2mNodeDecoder decoder;
     private Endpoint secureEndpoint;
     private Endpoint nonSecureEndpoint;
     private boolean updateRegistrationOnNotification;
+    private final ObservationDescriptorCache descriptors = new ObservationDescriptorCache(MAX_CACHED_OBSERVATIONS);
+    private volatile boolean descriptorCacheEnabled;
+    private volatile NotificationDispatcher notificationDispatcher;
 
     private final List<ObservationListener> listeners = new CopyOnWriteArrayList<>();;
 
@@ -97,15 +127,22 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
     public ObservationServiceImpl(CaliforniumRegistrationStore store, LwM2mModelProvider modelProvider,
             LwM2mNodeDecoder decoder, boolean updateRegistrationOnNotification) {
         this.registrationStore = store;
+        this.asyncRegistrationStore = AsyncRegistrationStoreAdapter.adapt(store);
+        this.sequencer = store instanceof AsyncRegistrationStore ? new NotificationSequencer() : null;
         this.modelProvider = modelProvider;
         this.decoder = decoder;
         this.updateRegistrationOnNotification = updateRegistrationOnNotification;
     }
 
     public void addObservation(Registration registration, Observation observation) {
+        long generation = descriptors.getGeneration();
         for (Observation existing : registrationStore.addObservation(registration.getId(), observation)) {
             cancel(existing);
         }
+        if (descriptorCacheEnabled) {
+            descriptors.put(generation, new ObservationDescriptor(observation, registration,
+                    modelProvider.getObjectModel(registration)));
+        }
 
         for (ObservationListener listener : listeners) {
             listener.newObservation(observation, registration);
@@ -120,6 +157,45 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
         secureEndpoint = endpoint;
     }
 
+    /**
+     * Use the given dispatcher to decode notifications and notify listeners, instead of the thread which received the
+     * notification.
+     */
+    public void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    /**
+     * Listen to the events of the given registration service to keep cached observation descriptors up to date, and
+     * so enable handling of notifications without accessing the store.
+     * <p>
+     * Only events of this server are received: in a cluster, a registration modified by another server could be used
+     * until it is modified on this server or its observations are cancelled.
+     */
+    public void setRegistrationService(RegistrationService registrationService) {
+        registrationService.addListener(new RegistrationListener() {
+            @Override
+            public void registered(Registration registration, Registration previousReg,
+                    Collection<Observation> previousObservations) {
+                if (previousReg != null) {
+                    descriptors.removeAll(previousReg.getId());
+                }
+            }
+
+            @Override
+            public void updated(RegistrationUpdate update, Registration updatedReg, Registration previousReg) {
+                descriptors.update(updatedReg, modelProvider.getObjectModel(updatedReg));
+            }
+
+            @Override
+            public void unregistered(Registration registration, Collection<Observation> observations,
+                    boolean expired, Registration newReg) {
+                descriptors.removeAll(registration.getId());
+            }
+        });
+        descriptorCacheEnabled = true;
+    }
+
     @Override
     public int cancelObservations(Registration registration) {
         // check registration id
@@ -161,6 +237,7 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
 
     private void cancel(Observation observation) {
         Token token = new Token(observation.getId());
+        descriptors.remove(token);
         if (secureEndpoint != null)
             secureEndpoint.cancelObservation(token);
         if (nonSecureEndpoint != null)
@@ -217,49 +294,175 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
     // ********** NotificationListener interface **********//
 
     @Override
-    public void onNotification(Request coapRequest, Response coapResponse) {
+    public void onNotification(Request coapRequest, final Response coapResponse) {
         LOG.trace("notification received for request {}: {}", coapRequest, coapResponse);
 
         if (listeners.isEmpty())
             return;
 
         // get registration Id
-        String regid = coapRequest.getUserContext().get(ObserveUtil.CTX_REGID);
+        final String regid = coapRequest.getUserContext().get(ObserveUtil.CTX_REGID);
 
-        // get observation for this request
-        Observation observation = registrationStore.getObservation(regid, coapResponse.getToken().getBytes());
-        if (observation == null) {
-            LOG.error("Unexpected error: Unable to find observation with token {} for registration {}",
-                    coapResponse.getToken(), regid);
-            return;
+        // reserve the place of this notification before resolving it, as store callbacks may complete out of order
+        final NotificationSequencer.Slot slot = sequencer == null || regid == null ? null : sequencer.reserve(regid);
+        try {
+            resolveNotification(regid, coapResponse, slot);
+        } catch (RuntimeException e) {
+            // do not block next notifications of this registration
+            drop(slot);
+            throw e;
         }
+    }
 
-        // get registration
-        Registration registration;
-        if (updateRegistrationOnNotification) {
-            Identity obsIdentity = EndpointContextUtil.extractIdentity(coapResponse.getSourceContext());
-            RegistrationUpdate regUpdate = new RegistrationUpdate(observation.getRegistrationId(), obsIdentity, null,
-                    null, null, null, null);
-            UpdatedRegistration updatedRegistration = registrationStore.updateRegistration(regUpdate);
-            if (updatedRegistration == null || updatedRegistration.getUpdatedRegistration() == null) {
-                LOG.error("Unexpected error: There is no registration with id {} for this observation {}",
-                        observation.getRegistrationId(), observation);
+    private void resolveNotification(final String regid, final Response coapResponse,
+            final NotificationSequencer.Slot slot) {
+        // fast path: observation already known
+        final long generation = descriptors.getGeneration();
+        if (descriptorCacheEnabled) {
+            ObservationDescriptor descriptor = descriptors.get(coapResponse.getToken());
+            if (descriptor != null) {
+                if (updateRegistrationOnNotification) {
+                    updateRegistration(descriptor.getObservation(), descriptor.getModel(), coapResponse, generation,
+                            slot);
+                } else {
+                    handOver(descriptor.getObservation(), descriptor.getRegistration(), descriptor.getModel(),
+                            coapResponse, slot);
+                }
                 return;
             }
-            registration = updatedRegistration.getUpdatedRegistration();
+        }
+
+        // get observation for this request
+        asyncRegistrationStore.getObservation(regid, coapResponse.getToken().getBytes(),
+                new ResultCallback<Observation>() {
+                    @Override
+                    public void onResult(Observation observation) {
+                        if (observation == null) {
+                            LOG.error("Unexpected error: Unable to find observation with token {} for registration {}",
+                                    coapResponse.getToken(), regid);
+                            drop(slot);
+                            return;
+                        }
+                        onNotification(observation, coapResponse, generation, slot);
+                    }
+                }, new ErrorCallback() {
+                    @Override
+                    public void onError(Exception e) {
+                        LOG.error("Unable to get observation with token {} for registration {}",
+                                coapResponse.getToken(), regid, e);
+                        drop(slot);
+                    }
+                });
+    }
+
+    private void onNotification(final Observation observation, final Response coapResponse, final long generation,
+            final NotificationSequencer.Slot slot) {
+        // get registration
+        if (updateRegistrationOnNotification) {
+            updateRegistration(observation, null, coapResponse, generation, slot);
         } else {
-            registration = registrationStore.getRegistration(observation.getRegistrationId());
-            if (registration == null) {
-                LOG.error("Unexpected error: There is no registration with id {} for this observation {}",
-                        observation.getRegistrationId(), observation);
-                return;
+            asyncRegistrationStore.getRegistration(observation.getRegistrationId(), new ResultCallback<Registration>() {
+                @Override
+                public void onResult(Registration registration) {
+                    if (registration == null) {
+                        LOG.error("Unexpected error: There is no registration with id {} for this observation {}",
+                                observation.getRegistrationId(), observation);
+                        drop(slot);
+                        return;
+                    }
+                    handOver(observation, registration, resolveModel(observation, registration, generation),
+                            coapResponse, slot);
+                }
+            }, registrationError(observation, slot));
+        }
+    }
+
+    private void updateRegistration(final Observation observation, final LwM2mModel model,
+            final Response coapResponse, final long generation, final NotificationSequencer.Slot slot) {
+        Identity obsIdentity = EndpointContextUtil.extractIdentity(coapResponse.getSourceContext());
+        RegistrationUpdate regUpdate = new RegistrationUpdate(observation.getRegistrationId(), obsIdentity, null, null,
+                null, null, null);
+        asyncRegistrationStore.updateRegistration(regUpdate, new ResultCallback<UpdatedRegistration>() {
+            @Override
+            public void onResult(UpdatedRegistration updatedRegistration) {
+                if (updatedRegistration == null || updatedRegistration.getUpdatedRegistration() == null) {
+                    LOG.error("Unexpected error: There is no registration with id {} for this observation {}",
+                            observation.getRegistrationId(), observation);
+                    drop(slot);
+                    return;
+                }
+                Registration registration = updatedRegistration.getUpdatedRegistration();
+                // objects of the registration are not modified by this update, so a cached model is still valid
+                handOver(observation, registration,
+                        model != null ? model : resolveModel(observation, registration, generation), coapResponse,
+                        slot);
+            }
+        }, registrationError(observation, slot));
+    }
+
+    private ErrorCallback registrationError(final Observation observation, final NotificationSequencer.Slot slot) {
+        return new ErrorCallback() {
+            @Override
+            public void onError(Exception e) {
+                LOG.error("Unable to get registration with id {} for this observation {}",
+                        observation.getRegistrationId(), observation, e);
+                drop(slot);
             }
+        };
+    }
+
+    /**
+     * Hand over the resolved notification once all the previous notifications of its registration are.
+     */
+    private void handOver(final Observation observation, final Registration registration, final LwM2mModel model,
+            final Response coapResponse, NotificationSequencer.Slot slot) {
+        if (slot == null) {
+            onNotification(observation, registration, model, coapResponse);
+        } else {
+            slot.complete(new Runnable() {
+                @Override
+                public void run() {
+                    onNotification(observation, registration, model, coapResponse);
+                }
+            });
         }
+    }
 
-        try {
-            // get model for this registration
-            LwM2mModel model = modelProvider.getObjectModel(registration);
+    private void drop(NotificationSequencer.Slot slot) {
+        if (slot != null) {
+            slot.complete(null);
+        }
+    }
 
+    /**
+     * Get the model for this registration and cache the observation descriptor for next notifications.
+     */
+    private LwM2mModel resolveModel(Observation observation, Registration registration, long generation) {
+        LwM2mModel model = modelProvider.getObjectModel(registration);
+        if (descriptorCacheEnabled) {
+            descriptors.put(generation, new ObservationDescriptor(observation, registration, model));
+        }
+        return model;
+    }
+
+    private void onNotification(final Observation observation, final Registration registration,
+            final LwM2mModel model, final Response coapResponse) {
+        NotificationDispatcher dispatcher = notificationDispatcher;
+        if (dispatcher == null) {
+            dispatchNotification(observation, registration, model, coapResponse);
+        } else {
+            dispatcher.dispatch(registration.getId(), observation.getId(), new Runnable() {
+                @Override
+                public void run() {
+                    dispatchNotification(observation, registration, model, coapResponse);
+                }
+            });
+        }
+    }
+
+    private void dispatchNotification(Observation observation, Registration registration, LwM2mModel model,
+            Response coapResponse) {
+        try {
             // create response
             ObserveResponse response = createObserveResponse(observation, model, coapResponse);
 
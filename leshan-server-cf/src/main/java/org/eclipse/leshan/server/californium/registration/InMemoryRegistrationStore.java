@@ -21,6 +21,11 @@
  *                                                     EndpointContext
  *     Achim Kraus (Bosch Software Innovations GmbH) - update to modified 
  *                                                     ObservationStore API
+ *     Sierra Wireless - replace global read/write lock by concurrent maps and
+ *                       per-endpoint lock striping
+ *     Sierra Wireless - use an expiration index instead of scanning all
+ *                       registrations in Cleaner
+ *     Sierra Wireless - check lock of registration id once acquired
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.registration;
 
@@ -28,19 +33,20 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.californium.core.coap.Token;
 import org.eclipse.californium.core.observe.ObservationStoreException;
@@ -62,18 +68,25 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An in memory store for registration and observation.
+ * <p>
+ * Lookups are lock-free. Modifications are serialized per endpoint using a fixed set of striped locks, so registrations
+ * and observations of different devices can be modified concurrently.
  */
 public class InMemoryRegistrationStore implements CaliforniumRegistrationStore, Startable, Stoppable, Destroyable {
     private final Logger LOG = LoggerFactory.getLogger(InMemoryRegistrationStore.class);
 
     // Data structure
-    private final Map<String /* end-point */, Registration> regsByEp = new HashMap<>();
-    private final Map<InetSocketAddress, Registration> regsByAddr = new HashMap<>();
-    private final Map<String /* reg-id */, Registration> regsByRegId = new HashMap<>();
-    private Map<Token, org.eclipse.californium.core.observe.Observation> obsByToken = new HashMap<>();
-    private Map<String, Set<Token>> tokensByRegId = new HashMap<>();
-
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<String /* end-point */, Registration> regsByEp = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, Registration> regsByAddr = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String /* reg-id */, Registration> regsByRegId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Token, org.eclipse.californium.core.observe.Observation> obsByToken =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Token>> tokensByRegId = new ConcurrentHashMap<>();
+    private final RegistrationExpirationIndex expirationIndex = new RegistrationExpirationIndex();
+
+    // Locks guarding modifications, a registration and its observations are always guarded by the lock of its endpoint.
+    // Adding a registration also holds the lock of its id, see lockRegistration().
+    private final Lock[] locks;
 
     // Listener use to notify when a registration expires
     private ExpirationListener expirationListener;
@@ -94,42 +107,70 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     }
 
     public InMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec) {
+        this(schedExecutor, cleanPeriodInSec, defaultLockStripes());
+    }
+
+    /**
+     * @param schedExecutor the executor used to clean expired registrations.
+     * @param cleanPeriodInSec the period between 2 cleanings of expired registrations.
+     * @param lockStripes the number of locks used to guard modifications. It is rounded up to a power of two.
+     */
+    public InMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec, int lockStripes) {
+        if (lockStripes <= 0)
+            throw new IllegalArgumentException("lock stripes number must be a positive integer");
+
         this.schedExecutor = schedExecutor;
         this.cleanPeriod = cleanPeriodInSec;
+        int size = 1;
+        while (size < lockStripes) {
+            size <<= 1;
+        }
+        this.locks = new Lock[size];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
     }
 
     /* *************** Leshan Registration API **************** */
 
     @Override
     public Deregistration addRegistration(Registration registration) {
+        // the new id must also be guarded, as its mapping to the endpoint lock is created here
+        int endpointStripe = stripe(registration.getEndpoint());
+        int idStripe = stripe(registration.getId());
+        lockInOrder(endpointStripe, idStripe);
         try {
-            lock.writeLock().lock();
 
             Registration registrationRemoved = regsByEp.put(registration.getEndpoint(), registration);
             regsByRegId.put(registration.getId(), registration);
             // If a registration is already associated to this address we don't care as we only want to keep the most
             // recent binding.
             regsByAddr.put(registration.getSocketAddress(), registration);
+            expirationIndex.add(registration);
             if (registrationRemoved != null) {
                 Collection<Observation> observationsRemoved = unsafeRemoveAllObservations(registrationRemoved.getId());
                 if (!registrationRemoved.getSocketAddress().equals(registration.getSocketAddress())) {
-                    removeFromMap(regsByAddr, registrationRemoved.getSocketAddress(), registrationRemoved);
+                    regsByAddr.remove(registrationRemoved.getSocketAddress(), registrationRemoved);
                 }
                 if (!registrationRemoved.getId().equals(registration.getId())) {
-                    removeFromMap(regsByRegId, registrationRemoved.getId(), registrationRemoved);
+                    regsByRegId.remove(registrationRemoved.getId(), registrationRemoved);
+                    expirationIndex.remove(registrationRemoved.getId());
                 }
                 return new Deregistration(registrationRemoved, observationsRemoved);
             }
         } finally {
-            lock.writeLock().unlock();
+            if (idStripe != endpointStripe) {
+                locks[idStripe].unlock();
+            }
+            locks[endpointStripe].unlock();
         }
         return null;
     }
 
     @Override
     public UpdatedRegistration updateRegistration(RegistrationUpdate update) {
+        Lock lock = lockRegistration(update.getRegistrationId());
         try {
-            lock.writeLock().lock();
 
             Registration registration = getRegistration(update.getRegistrationId());
             if (registration == null) {
@@ -141,74 +182,78 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
                 // recent binding.
                 regsByAddr.put(updatedRegistration.getSocketAddress(), updatedRegistration);
                 if (!registration.getSocketAddress().equals(updatedRegistration.getSocketAddress())) {
-                    removeFromMap(regsByAddr, registration.getSocketAddress(), registration);
+                    regsByAddr.remove(registration.getSocketAddress(), registration);
                 }
 
                 regsByRegId.put(updatedRegistration.getId(), updatedRegistration);
+                expirationIndex.add(updatedRegistration);
 
                 return new UpdatedRegistration(registration, updatedRegistration);
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     @Override
     public Registration getRegistration(String registrationId) {
-        try {
-            lock.readLock().lock();
-            return regsByRegId.get(registrationId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return regsByRegId.get(registrationId);
     }
 
     @Override
     public Registration getRegistrationByEndpoint(String endpoint) {
-        try {
-            lock.readLock().lock();
-            return regsByEp.get(endpoint);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return regsByEp.get(endpoint);
     }
 
     @Override
     public Registration getRegistrationByAdress(InetSocketAddress address) {
-        try {
-            lock.readLock().lock();
-            return regsByAddr.get(address);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return regsByAddr.get(address);
     }
 
     @Override
     public Iterator<Registration> getAllRegistrations() {
-        try {
-            lock.readLock().lock();
-            return new ArrayList<>(regsByEp.values()).iterator();
-        } finally {
-            lock.readLock().unlock();
-        }
+        // weakly consistent iterator : it never throws ConcurrentModificationException and does not need a copy
+        return Collections.unmodifiableCollection(regsByEp.values()).iterator();
     }
 
     @Override
     public Deregistration removeRegistration(String registrationId) {
+        Lock lock = lockRegistration(registrationId);
         try {
-            lock.writeLock().lock();
 
             Registration registration = getRegistration(registrationId);
             if (registration != null) {
                 Collection<Observation> observationsRemoved = unsafeRemoveAllObservations(registration.getId());
-                regsByEp.remove(registration.getEndpoint());
-                removeFromMap(regsByAddr, registration.getSocketAddress(), registration);
-                removeFromMap(regsByRegId, registration.getId(), registration);
+                regsByEp.remove(registration.getEndpoint(), registration);
+                regsByAddr.remove(registration.getSocketAddress(), registration);
+                regsByRegId.remove(registration.getId(), registration);
+                expirationIndex.remove(registration.getId());
                 return new Deregistration(registration, observationsRemoved);
             }
             return null;
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the registration with the given id only if it is still expired. The registration could have been updated
+     * or removed since it was detected as expired.
+     */
+    private Deregistration removeExpiredRegistration(String registrationId) {
+        Lock lock = lockRegistration(registrationId);
+        try {
+
+            Registration registration = getRegistration(registrationId);
+            if (registration == null) {
+                // should not happen, but ensure we do not keep a stale entry in the index.
+                expirationIndex.remove(registrationId);
+            } else if (!registration.isAlive()) {
+                return removeRegistration(registrationId);
+            }
+            return null;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -223,8 +268,8 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
         List<Observation> removed = new ArrayList<>();
 
+        Lock lock = lockRegistration(registrationId);
         try {
-            lock.writeLock().lock();
             // cancel existing observations for the same path and registration id.
             for (Observation obs : unsafeGetObservations(registrationId)) {
                 if (observation.getPath().equals(obs.getPath()) && !Arrays.equals(observation.getId(), obs.getId())) {
@@ -233,7 +278,7 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
                 }
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
 
         return removed;
@@ -241,8 +286,8 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
     @Override
     public Observation removeObservation(String registrationId, byte[] observationId) {
+        Lock lock = lockRegistration(registrationId);
         try {
-            lock.writeLock().lock();
             Token token = new Token(observationId);
             Observation observation = build(unsafeGetObservation(token));
             if (observation != null && registrationId.equals(observation.getRegistrationId())) {
@@ -251,41 +296,31 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
             }
             return null;
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
     @Override
     public Observation getObservation(String registrationId, byte[] observationId) {
-        try {
-            lock.readLock().lock();
-            Observation observation = build(unsafeGetObservation(new Token(observationId)));
-            if (observation != null && registrationId.equals(observation.getRegistrationId())) {
-                return observation;
-            }
-            return null;
-        } finally {
-            lock.readLock().unlock();
+        Observation observation = build(unsafeGetObservation(new Token(observationId)));
+        if (observation != null && registrationId.equals(observation.getRegistrationId())) {
+            return observation;
         }
+        return null;
     }
 
     @Override
     public Collection<Observation> getObservations(String registrationId) {
-        try {
-            lock.readLock().lock();
-            return unsafeGetObservations(registrationId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return unsafeGetObservations(registrationId);
     }
 
     @Override
     public Collection<Observation> removeObservations(String registrationId) {
+        Lock lock = lockRegistration(registrationId);
         try {
-            lock.writeLock().lock();
             return unsafeRemoveAllObservations(registrationId);
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -307,24 +342,30 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
             org.eclipse.californium.core.observe.Observation obs, boolean ifAbsent) throws ObservationStoreException {
         org.eclipse.californium.core.observe.Observation previousObservation = null;
         if (obs != null) {
+            validateObservation(obs);
+
+            String registrationId = ObserveUtil.extractRegistrationId(obs);
+            Lock lock = lockRegistration(registrationId);
             try {
-                lock.writeLock().lock();
 
-                validateObservation(obs);
+                // registration could have been removed since validation
+                if (getRegistration(registrationId) == null) {
+                    throw new ObservationStoreException("no registration for this Id");
+                }
 
-                String registrationId = ObserveUtil.extractRegistrationId(obs);
                 if (ifAbsent) {
-                    if (!obsByToken.containsKey(token))
-                        previousObservation = obsByToken.put(token, obs);
-                    else
-                        return obsByToken.get(token);
+                    previousObservation = obsByToken.putIfAbsent(token, obs);
+                    if (previousObservation != null)
+                        return previousObservation;
                 } else {
                     previousObservation = obsByToken.put(token, obs);
                 }
-                if (!tokensByRegId.containsKey(registrationId)) {
-                    tokensByRegId.put(registrationId, new HashSet<Token>());
+                Set<Token> tokens = tokensByRegId.get(registrationId);
+                if (tokens == null) {
+                    tokens = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+                    tokensByRegId.put(registrationId, tokens);
                 }
-                tokensByRegId.get(registrationId).add(token);
+                tokens.add(token);
 
                 // log any collisions
                 if (previousObservation != null) {
@@ -333,7 +374,7 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
                             previousObservation.getRequest(), obs.getRequest());
                 }
             } finally {
-                lock.writeLock().unlock();
+                lock.unlock();
             }
         }
         return previousObservation;
@@ -341,34 +382,29 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
     @Override
     public org.eclipse.californium.core.observe.Observation get(Token token) {
-        try {
-            lock.readLock().lock();
-            return unsafeGetObservation(token);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return unsafeGetObservation(token);
     }
 
     @Override
     public void setContext(Token token, EndpointContext ctx) {
-        try {
-            lock.writeLock().lock();
-            org.eclipse.californium.core.observe.Observation obs = obsByToken.get(token);
-            if (obs != null) {
-                obsByToken.put(token, new org.eclipse.californium.core.observe.Observation(obs.getRequest(), ctx));
-            }
-        } finally {
-            lock.writeLock().unlock();
+        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(token);
+        if (obs != null) {
+            // only replace the observation if it was not removed or modified meanwhile
+            obsByToken.replace(token, obs,
+                    new org.eclipse.californium.core.observe.Observation(obs.getRequest(), ctx));
         }
     }
 
     @Override
     public void remove(Token token) {
-        try {
-            lock.writeLock().lock();
-            unsafeRemoveObservation(token);
-        } finally {
-            lock.writeLock().unlock();
+        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(token);
+        if (obs != null) {
+            Lock lock = lockRegistration(ObserveUtil.extractRegistrationId(obs));
+            try {
+                unsafeRemoveObservation(token);
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
@@ -385,16 +421,18 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         if (removed != null) {
             String registrationId = ObserveUtil.extractRegistrationId(removed);
             Set<Token> tokens = tokensByRegId.get(registrationId);
-            tokens.remove(observationId);
-            if (tokens.isEmpty()) {
-                tokensByRegId.remove(registrationId);
+            if (tokens != null) {
+                tokens.remove(observationId);
+                if (tokens.isEmpty()) {
+                    tokensByRegId.remove(registrationId, tokens);
+                }
             }
         }
     }
 
     private Collection<Observation> unsafeRemoveAllObservations(String registrationId) {
         Collection<Observation> removed = new ArrayList<>();
-        Set<Token> tokens = tokensByRegId.get(registrationId);
+        Set<Token> tokens = tokensByRegId.remove(registrationId);
         if (tokens != null) {
             for (Token token : tokens) {
                 Observation observationRemoved = build(obsByToken.remove(token));
@@ -403,7 +441,6 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
                 }
             }
         }
-        tokensByRegId.remove(registrationId);
         return removed;
     }
 
@@ -438,6 +475,62 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         return endpoint;
     }
 
+    /* *************** Lock striping **************** */
+
+    private Lock getLock(String key) {
+        return locks[stripe(key)];
+    }
+
+    private int stripe(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (locks.length - 1);
+    }
+
+    /**
+     * Get the lock guarding the registration with the given id: the lock of its endpoint, or the lock of the id itself
+     * if there is no registration for this id.
+     */
+    private Lock getLockForRegistrationId(String registrationId) {
+        Registration registration = regsByRegId.get(registrationId);
+        return getLock(registration != null ? registration.getEndpoint() : registrationId);
+    }
+
+    /**
+     * Acquire the lock guarding the registration with the given id.
+     * <p>
+     * The lock is selected before being acquired, so the registration could be added or removed meanwhile. The
+     * selection is checked again once locked and we retry with the new lock if it changed. Once checked, it is stable:
+     * removing a registration needs the lock of its endpoint and adding one needs both the lock of its endpoint and
+     * the lock of its id.
+     */
+    private Lock lockRegistration(String registrationId) {
+        Lock lock = getLockForRegistrationId(registrationId);
+        while (true) {
+            lock.lock();
+            Lock current = getLockForRegistrationId(registrationId);
+            if (current == lock) {
+                return lock;
+            }
+            lock.unlock();
+            lock = current;
+        }
+    }
+
+    /**
+     * Acquire the locks of both stripes, always in the same order to avoid deadlocks.
+     */
+    private void lockInOrder(int stripe1, int stripe2) {
+        locks[Math.min(stripe1, stripe2)].lock();
+        if (stripe1 != stripe2) {
+            locks[Math.max(stripe1, stripe2)].lock();
+        }
+    }
+
+    private static int defaultLockStripes() {
+        return Runtime.getRuntime().availableProcessors() * 16;
+    }
+
     /* *************** Expiration handling **************** */
 
     @Override
@@ -445,6 +538,26 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         this.expirationListener = listener;
     }
 
+    /**
+     * @return the number of registrations tracked by the expiration index, this should be the number of registrations
+     *         in this store.
+     */
+    public int getExpirationIndexSize() {
+        return expirationIndex.size();
+    }
+
+    /**
+     * Count the registrations which are expired but not yet removed by the cleaner.
+     * <p>
+     * This walks all due entries of the expiration index (O(n) in the number of due registrations), so it should not
+     * be polled at a high rate. Prefer {@link #getExpirationIndexSize()} which is cheap.
+     * 
+     * @return the number of registrations which are expired but not yet removed by the cleaner.
+     */
+    public int getDueRegistrationsCount() {
+        return expirationIndex.getDueCount(System.currentTimeMillis());
+    }
+
     /**
      * start the registration store, will start regular cleanup of dead registrations.
      */
@@ -489,18 +602,10 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         @Override
         public void run() {
             try {
-                Collection<Registration> allRegs = new ArrayList<>();
-                try {
-                    lock.readLock().lock();
-                    allRegs.addAll(regsByEp.values());
-                } finally {
-                    lock.readLock().unlock();
-                }
-
-                for (Registration reg : allRegs) {
-                    if (!reg.isAlive()) {
-                        // force de-registration
-                        Deregistration removedRegistration = removeRegistration(reg.getId());
+                for (String registrationId : expirationIndex.getDue(System.currentTimeMillis())) {
+                    // force de-registration
+                    Deregistration removedRegistration = removeExpiredRegistration(registrationId);
+                    if (removedRegistration != null) {
                         expirationListener.registrationExpired(removedRegistration.getRegistration(),
                                 removedRegistration.getObservations());
                     }
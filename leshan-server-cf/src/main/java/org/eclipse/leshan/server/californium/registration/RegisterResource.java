@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - handle requests asynchronously
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.registration;
 
@@ -34,11 +35,13 @@ import org.eclipse.leshan.core.request.Identity;
 import org.eclipse.leshan.core.request.RegisterRequest;
 import org.eclipse.leshan.core.request.UpdateRequest;
 import org.eclipse.leshan.core.response.DeregisterResponse;
+import org.eclipse.leshan.core.response.LwM2mResponse;
 import org.eclipse.leshan.core.response.RegisterResponse;
 import org.eclipse.leshan.core.response.SendableResponse;
 import org.eclipse.leshan.core.response.UpdateResponse;
 import org.eclipse.leshan.server.registration.RegistrationHandler;
 import org.eclipse.leshan.server.registration.RegistrationService;
+import org.eclipse.leshan.server.registration.ResultCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +51,10 @@ import org.slf4j.LoggerFactory;
  * This resource is the entry point of the Resource Directory ("/rd"). Each new client is added to the
  * {@link RegistrationService}.
  * </p>
+ * <p>
+ * Requests are handled asynchronously : the response is sent once the registration store operation is done, without
+ * blocking the Californium thread meanwhile (see {@link RegistrationHandler}).
+ * </p>
  */
 public class RegisterResource extends LwM2mCoapResource {
 
@@ -116,7 +123,7 @@ public class RegisterResource extends LwM2mCoapResource {
         }
     }
 
-    protected void handleRegister(CoapExchange exchange, Request request) {
+    protected void handleRegister(final CoapExchange exchange, Request request) {
         // Get identity
         // --------------------------------
         Identity sender = extractIdentity(request.getSourceContext());
@@ -161,22 +168,26 @@ public class RegisterResource extends LwM2mCoapResource {
 
         // Handle request
         // -------------------------------
-        final SendableResponse<RegisterResponse> sendableResponse = registrationHandler.register(sender,
-                registerRequest);
-        RegisterResponse response = sendableResponse.getResponse();
-
-        // Create CoAP Response from LwM2m request
-        // -------------------------------
-        if (response.getCode() == org.eclipse.leshan.core.ResponseCode.CREATED) {
-            exchange.setLocationPath(RESOURCE_NAME + "/" + response.getRegistrationID());
-            exchange.respond(ResponseCode.CREATED);
-        } else {
-            exchange.respond(toCoapResponseCode(response.getCode()), response.getErrorMessage());
-        }
-        sendableResponse.sent();
+        registrationHandler.register(sender, registerRequest,
+                new ResultCallback<SendableResponse<RegisterResponse>>() {
+                    @Override
+                    public void onResult(SendableResponse<RegisterResponse> sendableResponse) {
+                        RegisterResponse response = sendableResponse.getResponse();
+
+                        // Create CoAP Response from LwM2m request
+                        // -------------------------------
+                        if (response.getCode() == org.eclipse.leshan.core.ResponseCode.CREATED) {
+                            exchange.setLocationPath(RESOURCE_NAME + "/" + response.getRegistrationID());
+                            exchange.respond(ResponseCode.CREATED);
+                        } else {
+                            exchange.respond(toCoapResponseCode(response.getCode()), response.getErrorMessage());
+                        }
+                        sendableResponse.sent();
+                    }
+                });
     }
 
-    protected void handleUpdate(CoapExchange exchange, Request request, String registrationId) {
+    protected void handleUpdate(final CoapExchange exchange, Request request, String registrationId) {
         // Get identity
         Identity sender = extractIdentity(request.getSourceContext());
 
@@ -208,19 +219,15 @@ public class RegisterResource extends LwM2mCoapResource {
                 additionalParams);
 
         // Handle request
-        final SendableResponse<UpdateResponse> sendableResponse = registrationHandler.update(sender, updateRequest);
-        UpdateResponse updateResponse = sendableResponse.getResponse();
-
-        // Create CoAP Response from LwM2m request
-        if (updateResponse.getCode().isError()) {
-            exchange.respond(toCoapResponseCode(updateResponse.getCode()), updateResponse.getErrorMessage());
-        } else {
-            exchange.respond(toCoapResponseCode(updateResponse.getCode()));
-        }
-        sendableResponse.sent();
+        registrationHandler.update(sender, updateRequest, new ResultCallback<SendableResponse<UpdateResponse>>() {
+            @Override
+            public void onResult(SendableResponse<UpdateResponse> sendableResponse) {
+                respond(exchange, sendableResponse);
+            }
+        });
     }
 
-    protected void handleDeregister(CoapExchange exchange, String registrationId) {
+    protected void handleDeregister(final CoapExchange exchange, String registrationId) {
         // Get identity
         Identity sender = extractIdentity(exchange.advanced().getRequest().getSourceContext());
 
@@ -228,15 +235,23 @@ public class RegisterResource extends LwM2mCoapResource {
         DeregisterRequest deregisterRequest = new DeregisterRequest(registrationId);
 
         // Handle request
-        final SendableResponse<DeregisterResponse> sendableResponse = registrationHandler.deregister(sender,
-                deregisterRequest);
-        DeregisterResponse deregisterResponse = sendableResponse.getResponse();
+        registrationHandler.deregister(sender, deregisterRequest,
+                new ResultCallback<SendableResponse<DeregisterResponse>>() {
+                    @Override
+                    public void onResult(SendableResponse<DeregisterResponse> sendableResponse) {
+                        respond(exchange, sendableResponse);
+                    }
+                });
+    }
+
+    private void respond(CoapExchange exchange, SendableResponse<? extends LwM2mResponse> sendableResponse) {
+        LwM2mResponse response = sendableResponse.getResponse();
 
         // Create CoAP Response from LwM2m request
-        if (deregisterResponse.getCode().isError()) {
-            exchange.respond(toCoapResponseCode(deregisterResponse.getCode()), deregisterResponse.getErrorMessage());
+        if (response.getCode().isError()) {
+            exchange.respond(toCoapResponseCode(response.getCode()), response.getErrorMessage());
         } else {
-            exchange.respond(toCoapResponseCode(deregisterResponse.getCode()));
+            exchange.respond(toCoapResponseCode(response.getCode()));
         }
         sendableResponse.sent();
     }
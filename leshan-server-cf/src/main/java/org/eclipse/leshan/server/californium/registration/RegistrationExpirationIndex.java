@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.registration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * An index of registration ids ordered by expiration time stamp.
+ * <p>
+ * It allows to find expired registrations without scanning all of them. Modifications for a given registration id must
+ * not be done concurrently, this is the responsibility of the caller.
+ */
+class RegistrationExpirationIndex {
+
+    private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String /* reg-id */, Entry> entriesByRegId = new ConcurrentHashMap<>();
+
+    /**
+     * Add the given registration to the index or move it if it is already indexed.
+     */
+    public void add(Registration registration) {
+        Entry entry = new Entry(registration.getExpirationTimeStamp(), registration.getId());
+        Entry previous = entriesByRegId.put(entry.registrationId, entry);
+        if (previous != null) {
+            if (previous.expirationTimestamp == entry.expirationTimestamp)
+                return;
+            entries.remove(previous);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Remove the registration with the given id from the index.
+     */
+    public void remove(String registrationId) {
+        Entry previous = entriesByRegId.remove(registrationId);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+    }
+
+    /**
+     * @return the ids of all registrations which expire before or at the given time, ordered by expiration time.
+     */
+    public List<String> getDue(long now) {
+        List<String> due = new ArrayList<>();
+        for (Entry entry : dueEntries(now)) {
+            due.add(entry.registrationId);
+        }
+        return due;
+    }
+
+    /**
+     * Count the registrations which expire before or at the given time.
+     * <p>
+     * Sizes of skip list views are not maintained: this walks all the due entries, so its cost grows with the number
+     * of expired registrations not yet removed.
+     * 
+     * @return the number of registrations which expire before or at the given time.
+     */
+    public int getDueCount(long now) {
+        return dueEntries(now).size();
+    }
+
+    /**
+     * @return the number of indexed registrations.
+     */
+    public int size() {
+        return entriesByRegId.size();
+    }
+
+    private NavigableSet<Entry> dueEntries(long now) {
+        // "" is the smallest id, so this bound excludes all entries expiring after now.
+        return entries.headSet(new Entry(now + 1, ""), false);
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final long expirationTimestamp;
+        private final String registrationId;
+
+        public Entry(long expirationTimestamp, String registrationId) {
+            this.expirationTimestamp = expirationTimestamp;
+            this.registrationId = registrationId;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (expirationTimestamp != o.expirationTimestamp)
+                return expirationTimestamp < o.expirationTimestamp ? -1 : 1;
+            return registrationId.compareTo(o.registrationId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Entry))
+                return false;
+            Entry other = (Entry) obj;
+            return expirationTimestamp == other.expirationTimestamp && registrationId.equals(other.registrationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (expirationTimestamp ^ (expirationTimestamp >>> 32)) + registrationId.hashCode();
+        }
+    }
+}
@@ -13,9 +13,13 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     Achim Kraus (Bosch Software Innovations GmbH) - use Identity as destination
+ *     Sierra Wireless - add configurable timeout and callback executors
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.request;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Endpoint;
@@ -64,11 +68,32 @@ public class CaliforniumLwM2mRequestSender implements LwM2mRequestSender, CoapRe
     public CaliforniumLwM2mRequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint,
             ObservationServiceImpl observationService, LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder,
             LwM2mNodeDecoder decoder) {
+        this(secureEndpoint, nonSecureEndpoint, observationService, modelProvider, encoder, decoder, null, null);
+    }
+
+    /**
+     * @param secureEndpoint The endpoint used to send coaps request.
+     * @param nonSecureEndpoint The endpoint used to send coap request.
+     * @param observationService The service used to store observation.
+     * @param modelProvider the {@link LwM2mModelProvider} used retrieve the {@link LwM2mModel} used to encode/decode
+     *        {@link LwM2mNode}.
+     * @param encoder The {@link LwM2mNodeEncoder} used to encode {@link LwM2mNode}.
+     * @param decoder The {@link LwM2mNodeDecoder} used to encode {@link LwM2mNode}.
+     * @param timeoutExecutor used to schedule response timeouts of asynchronous requests, or <code>null</code> to use
+     *        a single thread. It is shut down when the sender is destroyed.
+     * @param callbackExecutor used to build responses and call callbacks of asynchronous requests, or
+     *        <code>null</code> to call them from the Californium protocol thread or the timeout thread. It is shut
+     *        down when the sender is destroyed.
+     */
+    public CaliforniumLwM2mRequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint,
+            ObservationServiceImpl observationService, LwM2mModelProvider modelProvider, LwM2mNodeEncoder encoder,
+            LwM2mNodeDecoder decoder, ScheduledExecutorService timeoutExecutor, Executor callbackExecutor) {
         Validate.notNull(observationService);
         Validate.notNull(modelProvider);
         this.observationService = observationService;
         this.modelProvider = modelProvider;
-        this.sender = new RequestSender(secureEndpoint, nonSecureEndpoint, encoder, decoder);
+        this.sender = new RequestSender(secureEndpoint, nonSecureEndpoint, encoder, decoder, timeoutExecutor,
+                callbackExecutor);
     }
 
     /**
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - queue requests for sleeping clients
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.request;
 
@@ -21,7 +22,8 @@ import org.eclipse.leshan.core.californium.CoapResponseCallback;
 import org.eclipse.leshan.core.request.exception.ClientSleepingException;
 import org.eclipse.leshan.core.request.exception.TimeoutException;
 import org.eclipse.leshan.core.response.ErrorCallback;
-import org.eclipse.leshan.server.Destroyable;
+import org.eclipse.leshan.server.queue.DownlinkQueueStore;
+import org.eclipse.leshan.server.queue.MutablePresenceService;
 import org.eclipse.leshan.server.queue.PresenceServiceImpl;
 import org.eclipse.leshan.server.queue.QueueModeLwM2mRequestSender;
 import org.eclipse.leshan.server.registration.Registration;
@@ -30,18 +32,50 @@ import org.eclipse.leshan.server.request.LwM2mRequestSender;
 /**
  * A {@link LwM2mRequestSender} and {@link CoapRequestSender} which supports LWM2M Queue Mode.
  */
-public class CaliforniumQueueModeRequestSender extends QueueModeLwM2mRequestSender
-        implements CoapRequestSender, Destroyable {
+public class CaliforniumQueueModeRequestSender extends QueueModeLwM2mRequestSender implements CoapRequestSender {
 
     /**
      * @param presenceService the presence service object for setting the client into sleeping state when request
      *        Timeout expires and into awake state when a response arrives.
      * @param delegatedSender internal sender that it is used for sending the requests, using delegation.
      */
+    public CaliforniumQueueModeRequestSender(MutablePresenceService presenceService,
+            LwM2mRequestSender delegatedSender) {
+        super(presenceService, delegatedSender);
+    }
+
+    /**
+     * @param presenceService the presence service object for setting the client into sleeping state when request
+     *        Timeout expires and into awake state when a response arrives.
+     * @param delegatedSender internal sender that it is used for sending the requests, using delegation.
+     * @param queueStore the store of requests waiting for sleeping clients or <code>null</code> to reject requests
+     *        sent to sleeping clients. CoAP requests are never queued.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     * @param maxConcurrentFlushes the maximum number of clients whose queued requests are sent at the same time.
+     */
+    public CaliforniumQueueModeRequestSender(MutablePresenceService presenceService, LwM2mRequestSender delegatedSender,
+            DownlinkQueueStore queueStore, long queuedRequestTtl, int maxConcurrentFlushes) {
+        super(presenceService, delegatedSender, queueStore, queuedRequestTtl, maxConcurrentFlushes);
+    }
+
+    /**
+     * Same as {@link #CaliforniumQueueModeRequestSender(MutablePresenceService, LwM2mRequestSender)}, kept for binary
+     * compatibility.
+     */
     public CaliforniumQueueModeRequestSender(PresenceServiceImpl presenceService, LwM2mRequestSender delegatedSender) {
         super(presenceService, delegatedSender);
     }
 
+    /**
+     * Same as
+     * {@link #CaliforniumQueueModeRequestSender(MutablePresenceService, LwM2mRequestSender, DownlinkQueueStore,
+     * long, int)}, kept for binary compatibility.
+     */
+    public CaliforniumQueueModeRequestSender(PresenceServiceImpl presenceService, LwM2mRequestSender delegatedSender,
+            DownlinkQueueStore queueStore, long queuedRequestTtl, int maxConcurrentFlushes) {
+        super(presenceService, delegatedSender, queueStore, queuedRequestTtl, maxConcurrentFlushes);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -129,11 +163,4 @@ public class CaliforniumQueueModeRequestSender extends QueueModeLwM2mRequestSend
             }
         });
     }
-
-    @Override
-    public void destroy() {
-        if (delegatedSender instanceof Destroyable) {
-            ((Destroyable) delegatedSender).destroy();
-        }
-    }
-}
\ No newline at end of file
+}
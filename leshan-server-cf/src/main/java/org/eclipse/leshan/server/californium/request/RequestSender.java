@@ -12,12 +12,15 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - add configurable timeout and callback executors
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.request;
 
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -61,13 +64,17 @@ import org.slf4j.LoggerFactory;
  * This sender is able to send LWM2M or CoAP request in a synchronous or asynchronous way.
  * <p>
  * It can also link requests to a kind of "session" and cancel all ongoing requests associated to a given "session".
+ * <p>
+ * Response timeouts of asynchronous requests are scheduled on a {@link ScheduledExecutorService}, by default a single
+ * thread. Sending a large number of requests at once can need more threads, and a callback executor so callbacks do
+ * not delay the timeouts nor the Californium protocol threads.
  */
 public class RequestSender implements Destroyable {
 
     static final Logger LOG = LoggerFactory.getLogger(RequestSender.class);
 
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1,
-            new NamedThreadFactory("Leshan Async Request timeout"));
+    private final ScheduledExecutorService executor;
+    private final Executor callbackExecutor;
 
     private final Endpoint nonSecureEndpoint;
     private final Endpoint secureEndpoint;
@@ -86,10 +93,30 @@ public class RequestSender implements Destroyable {
      */
     public RequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint, LwM2mNodeEncoder encoder,
             LwM2mNodeDecoder decoder) {
+        this(secureEndpoint, nonSecureEndpoint, encoder, decoder, null, null);
+    }
+
+    /**
+     * The executors are shut down when the sender is destroyed.
+     * 
+     * @param secureEndpoint The endpoint used to send coaps request.
+     * @param nonSecureEndpoint The endpoint used to send coap request.
+     * @param encoder The {@link LwM2mNodeEncoder} used to encode {@link LwM2mNode}.
+     * @param decoder The {@link LwM2mNodeDecoder} used to encode {@link LwM2mNode}.
+     * @param timeoutExecutor used to schedule response timeouts of asynchronous requests, or <code>null</code> to use
+     *        a single thread.
+     * @param callbackExecutor used to build responses and call callbacks of asynchronous requests, or
+     *        <code>null</code> to call them from the Californium protocol thread or the timeout thread.
+     */
+    public RequestSender(Endpoint secureEndpoint, Endpoint nonSecureEndpoint, LwM2mNodeEncoder encoder,
+            LwM2mNodeDecoder decoder, ScheduledExecutorService timeoutExecutor, Executor callbackExecutor) {
         this.secureEndpoint = secureEndpoint;
         this.nonSecureEndpoint = nonSecureEndpoint;
         this.encoder = encoder;
         this.decoder = decoder;
+        this.executor = timeoutExecutor != null ? timeoutExecutor
+                : Executors.newScheduledThreadPool(1, new NamedThreadFactory("Leshan Async Request timeout"));
+        this.callbackExecutor = callbackExecutor;
     }
 
     /**
@@ -207,7 +234,7 @@ public class RequestSender implements Destroyable {
 
         // Add CoAP request callback
         MessageObserver obs = new AsyncRequestObserver<T>(coapRequest, responseCallback, errorCallback, timeoutInMs,
-                executor) {
+                executor, callbackExecutor) {
             @Override
             public T buildResponse(Response coapResponse) {
                 // Build LwM2m response
@@ -316,7 +343,7 @@ public class RequestSender implements Destroyable {
 
         // Add CoAP request callback
         MessageObserver obs = new CoapAsyncRequestObserver(coapRequest, responseCallback, errorCallback, timeoutInMs,
-                executor);
+                executor, callbackExecutor);
         coapRequest.addMessageObserver(obs);
 
         // Store pending request to be able to cancel it later
@@ -416,8 +443,14 @@ public class RequestSender implements Destroyable {
     @Override
     public void destroy() {
         executor.shutdownNow();
+        if (callbackExecutor instanceof ExecutorService) {
+            ((ExecutorService) callbackExecutor).shutdown();
+        }
         try {
             executor.awaitTermination(5, TimeUnit.SECONDS);
+            if (callbackExecutor instanceof ExecutorService) {
+                ((ExecutorService) callbackExecutor).awaitTermination(5, TimeUnit.SECONDS);
+            }
         } catch (InterruptedException e) {
             LOG.warn("Destroying RequestSender was interrupted.", e);
         }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.observation;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.californium.observation.NotificationDispatcher.OverflowPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+public class NotificationDispatcherTest {
+
+    NotificationDispatcher dispatcher;
+    List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch blocked = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        blocked.countDown();
+        if (dispatcher != null) {
+            dispatcher.destroy();
+        }
+    }
+
+    @Test
+    public void keep_order_of_a_registration() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(4, 1000, OverflowPolicy.BLOCK);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            dispatch("reg", 1, "n" + i);
+            expected.add("n" + i);
+        }
+        waitDispatched(500);
+
+        assertEquals(expected, dispatched);
+        assertEquals(500, dispatcher.getDispatchedCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void drop_oldest_when_full() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(1, 2, OverflowPolicy.DROP_OLDEST);
+        givenABlockedWorker();
+        dispatch("reg", 1, "n1");
+        dispatch("reg", 2, "n2");
+        dispatch("reg", 3, "n3");
+        assertEquals(2, dispatcher.getQueueDepth());
+
+        blocked.countDown();
+        waitDispatched(2);
+
+        assertEquals(Arrays.asList("n2", "n3"), dispatched);
+        assertEquals(1, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void coalesce_notifications_of_an_observation_when_full() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(1, 2, OverflowPolicy.COALESCE);
+        givenABlockedWorker();
+        dispatch("reg", 1, "obs1-v1");
+        dispatch("reg", 2, "obs2-v1");
+        dispatch("reg", 1, "obs1-v2");
+        assertEquals(2, dispatcher.getQueueDepth());
+
+        blocked.countDown();
+        waitDispatched(2);
+
+        assertEquals(Arrays.asList("obs1-v2", "obs2-v1"), dispatched);
+        assertEquals(1, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void do_not_coalesce_notifications_when_not_full() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(1, 10, OverflowPolicy.COALESCE);
+        givenABlockedWorker();
+        dispatch("reg", 1, "obs1-v1");
+        dispatch("reg", 2, "obs2-v1");
+        dispatch("reg", 1, "obs1-v2");
+        assertEquals(3, dispatcher.getQueueDepth());
+
+        blocked.countDown();
+        waitDispatched(3);
+
+        assertEquals(Arrays.asList("obs1-v1", "obs2-v1", "obs1-v2"), dispatched);
+        assertEquals(0, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void coalesce_last_notification_of_an_observation() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(1, 3, OverflowPolicy.COALESCE);
+        givenABlockedWorker();
+        dispatch("reg", 1, "obs1-v1");
+        dispatch("reg", 2, "obs2-v1");
+        dispatch("reg", 1, "obs1-v2");
+        dispatch("reg", 1, "obs1-v3");
+        assertEquals(3, dispatcher.getQueueDepth());
+
+        blocked.countDown();
+        waitDispatched(3);
+
+        assertEquals(Arrays.asList("obs1-v1", "obs2-v1", "obs1-v3"), dispatched);
+        assertEquals(1, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void block_when_full() throws InterruptedException {
+        dispatcher = new NotificationDispatcher(1, 1, OverflowPolicy.BLOCK);
+        givenABlockedWorker();
+        dispatch("reg", 1, "n1");
+
+        final CountDownLatch added = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch("reg", 2, "n2");
+                added.countDown();
+            }
+        }).start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        blocked.countDown();
+        assertTrue(added.await(1, TimeUnit.SECONDS));
+        waitDispatched(2);
+
+        assertEquals(Arrays.asList("n1", "n2"), dispatched);
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    private void givenABlockedWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        dispatcher.dispatch("reg", new byte[] { 0 }, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+    }
+
+    private void dispatch(String registrationId, int observationId, final String notification) {
+        dispatcher.dispatch(registrationId, new byte[] { (byte) observationId }, new Runnable() {
+            @Override
+            public void run() {
+                dispatched.add(notification);
+            }
+        });
+    }
+
+    private void waitDispatched(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (dispatched.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        // let a few more notifications be dispatched if any
+        Thread.sleep(50);
+    }
+}
@@ -17,21 +17,47 @@ package org.eclipse.leshan.server.californium.observation;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.leshan.core.Link;
 import org.eclipse.leshan.core.californium.EndpointContextUtil;
 import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.Identity;
 import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.ObserveResponse;
 import org.eclipse.leshan.server.californium.CaliforniumTestSupport;
 import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.californium.registration.InMemoryRegistrationStore;
 import org.eclipse.leshan.server.model.StandardModelProvider;
+import org.eclipse.leshan.server.observation.ObservationListener;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStore;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStoreAdapter;
+import org.eclipse.leshan.server.registration.Deregistration;
 import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationServiceImpl;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.ResultCallback;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -42,13 +68,27 @@ public class ObservationServiceTest {
     LwM2mPath target;
     ObservationServiceImpl observationService;
     CaliforniumRegistrationStore store;
+    AtomicInteger storeReads = new AtomicInteger();
+    List<Registration> notifiedRegistrations = new ArrayList<>();
 
     private CaliforniumTestSupport support = new CaliforniumTestSupport();
 
     @Before
     public void setUp() throws Exception {
         support.givenASimpleClient();
-        store = new InMemoryRegistrationStore();
+        store = new InMemoryRegistrationStore() {
+            @Override
+            public Observation getObservation(String registrationId, byte[] observationId) {
+                storeReads.incrementAndGet();
+                return super.getObservation(registrationId, observationId);
+            }
+
+            @Override
+            public Registration getRegistration(String registrationId) {
+                storeReads.incrementAndGet();
+                return super.getRegistration(registrationId);
+            }
+        };
         observationService = new ObservationServiceImpl(store, new StandardModelProvider(),
                 new DefaultLwM2mNodeDecoder());
     }
@@ -127,6 +167,167 @@ public class ObservationServiceTest {
         Assert.assertEquals(1, observations.size());
     }
 
+    @Test
+    public void notification_read_store_without_registration_service() {
+        givenANotificationListener();
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+        storeReads.set(0);
+
+        whenANotificationIsReceived();
+        whenANotificationIsReceived();
+
+        Assert.assertEquals(2, notifiedRegistrations.size());
+        Assert.assertEquals(4, storeReads.get());
+    }
+
+    @Test
+    public void notification_does_not_read_store_with_registration_service() {
+        observationService.setRegistrationService(new RegistrationServiceImpl(store));
+        givenANotificationListener();
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+        storeReads.set(0);
+
+        whenANotificationIsReceived();
+        whenANotificationIsReceived();
+
+        Assert.assertEquals(2, notifiedRegistrations.size());
+        Assert.assertEquals(0, storeReads.get());
+    }
+
+    @Test
+    public void notification_uses_updated_registration() {
+        RegistrationServiceImpl registrationService = new RegistrationServiceImpl(store);
+        observationService.setRegistrationService(registrationService);
+        givenANotificationListener();
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+
+        // update registration
+        RegistrationUpdate update = new RegistrationUpdate(support.registration.getId(),
+                store.getRegistration(support.registration.getId()).getIdentity(), 600L, null, null, null, null);
+        UpdatedRegistration updated = store.updateRegistration(update);
+        registrationService.fireUpdated(update, updated.getUpdatedRegistration(), updated.getPreviousRegistration());
+        whenANotificationIsReceived();
+
+        Assert.assertEquals(600L, notifiedRegistrations.get(0).getLifeTimeInSec().longValue());
+    }
+
+    @Test
+    public void notification_read_store_again_after_registration_removal() {
+        RegistrationServiceImpl registrationService = new RegistrationServiceImpl(store);
+        observationService.setRegistrationService(registrationService);
+        givenANotificationListener();
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+
+        // remove registration
+        Registration registration = store.getRegistration(support.registration.getId());
+        registrationService.fireUnregistered(registration,
+                store.removeRegistration(registration.getId()).getObservations(), null);
+        storeReads.set(0);
+        whenANotificationIsReceived();
+
+        Assert.assertEquals(0, notifiedRegistrations.size());
+        Assert.assertEquals(1, storeReads.get());
+    }
+
+    @Test
+    public void notifications_stay_ordered_with_async_store() throws InterruptedException {
+        assertNotificationsOrderedWithAsyncStore(false);
+    }
+
+    @Test
+    public void cached_notifications_stay_ordered_with_async_store_and_registration_update()
+            throws InterruptedException {
+        assertNotificationsOrderedWithAsyncStore(true);
+    }
+
+    /**
+     * @param cached <code>true</code> to resolve notifications using cached observation descriptors and update the
+     *        registration on each notification, <code>false</code> to read the observation and the registration.
+     */
+    private void assertNotificationsOrderedWithAsyncStore(boolean cached) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            store = new AsyncStore(executor);
+            observationService = new ObservationServiceImpl(store, new StandardModelProvider(),
+                    new DefaultLwM2mNodeDecoder(), cached);
+            if (cached) {
+                observationService.setRegistrationService(new RegistrationServiceImpl(store));
+            }
+            givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+
+            int count = 200;
+            final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+            final CountDownLatch received = new CountDownLatch(count);
+            observationService.addListener(new ObservationListener() {
+                @Override
+                public void newObservation(Observation observation, Registration registration) {
+                }
+
+                @Override
+                public void cancelled(Observation observation) {
+                }
+
+                @Override
+                public void onResponse(Observation observation, Registration registration, ObserveResponse response) {
+                    times.add(((Date) ((LwM2mSingleResource) response.getContent()).getValue()).getTime());
+                    received.countDown();
+                }
+
+                @Override
+                public void onError(Observation observation, Registration registration, Exception error) {
+                    throw new AssertionError(error);
+                }
+            });
+
+            for (int i = 0; i < count; i++) {
+                whenANotificationIsReceived(String.valueOf(1500000000L + i));
+            }
+
+            Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                Assert.assertEquals((1500000000L + i) * 1000, times.get(i).longValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void givenANotificationListener() {
+        observationService.addListener(new ObservationListener() {
+            @Override
+            public void newObservation(Observation observation, Registration registration) {
+            }
+
+            @Override
+            public void cancelled(Observation observation) {
+            }
+
+            @Override
+            public void onResponse(Observation observation, Registration registration, ObserveResponse response) {
+                Assert.assertTrue(response.isSuccess());
+                notifiedRegistrations.add(registration);
+            }
+
+            @Override
+            public void onError(Observation observation, Registration registration, Exception error) {
+                throw new AssertionError(error);
+            }
+        });
+    }
+
+    private void whenANotificationIsReceived() {
+        whenANotificationIsReceived("1500000000");
+    }
+
+    private void whenANotificationIsReceived(String payload) {
+        Response coapResponse = new Response(ResponseCode.CONTENT);
+        coapResponse.setToken(coapRequest.getToken());
+        coapResponse.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+        coapResponse.setSourceContext(coapRequest.getDestinationContext());
+        coapResponse.setPayload(payload);
+        observationService.onNotification(coapRequest, coapResponse);
+    }
+
     private Observation givenAnObservation(String registrationId, LwM2mPath target) {
         Registration registration = store.getRegistration(registrationId);
         if (registration == null) {
@@ -159,9 +360,68 @@ public class ObservationServiceTest {
         try {
             builder = new Registration.Builder(registrationId, registrationId + "_ep",
                     Identity.unsecure(InetAddress.getLocalHost(), 10000));
+            builder.objectLinks(Link.parse("</3/0>".getBytes()));
             return builder.build();
         } catch (UnknownHostException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * A store whose asynchronous callbacks are executed by several threads after a random delay, so they complete out
+     * of order.
+     */
+    private static class AsyncStore extends InMemoryRegistrationStore implements AsyncRegistrationStore {
+        private final AsyncRegistrationStore async;
+
+        AsyncStore(final Executor executor) {
+            async = new AsyncRegistrationStoreAdapter(this, new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                            command.run();
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void addRegistration(Registration registration, ResultCallback<Deregistration> onResult,
+                ErrorCallback onError) {
+            async.addRegistration(registration, onResult, onError);
+        }
+
+        @Override
+        public void updateRegistration(RegistrationUpdate update, ResultCallback<UpdatedRegistration> onResult,
+                ErrorCallback onError) {
+            async.updateRegistration(update, onResult, onError);
+        }
+
+        @Override
+        public void getRegistration(String registrationId, ResultCallback<Registration> onResult,
+                ErrorCallback onError) {
+            async.getRegistration(registrationId, onResult, onError);
+        }
+
+        @Override
+        public void removeRegistration(String registrationId, ResultCallback<Deregistration> onResult,
+                ErrorCallback onError) {
+            async.removeRegistration(registrationId, onResult, onError);
+        }
+
+        @Override
+        public void getObservation(String registrationId, byte[] observationId, ResultCallback<Observation> onResult,
+                ErrorCallback onError) {
+            async.getObservation(registrationId, observationId, onResult, onError);
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.registration;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStore;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStoreAdapter;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.ResultCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncRegistrationStoreAdapterTest {
+
+    InMemoryRegistrationStore store;
+    ExecutorService executor;
+    Registration registration;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryRegistrationStore();
+        executor = Executors.newSingleThreadExecutor();
+        registration = new Registration.Builder("4711", "urn:endpoint",
+                Identity.unsecure(InetAddress.getLoopbackAddress(), 23452)).build();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void adapt_synchronous_store() {
+        assertTrue(AsyncRegistrationStoreAdapter.adapt(store) instanceof AsyncRegistrationStoreAdapter);
+    }
+
+    @Test
+    public void execute_operation_in_calling_thread_without_executor() {
+        Callback<Deregistration> callback = new Callback<>();
+        new AsyncRegistrationStoreAdapter(store).addRegistration(registration, callback, callback);
+
+        // the callback was already called
+        assertEquals(0, callback.latch.getCount());
+        assertSame(Thread.currentThread(), callback.thread.get());
+        assertNull(callback.error.get());
+        assertNotNull(store.getRegistration("4711"));
+    }
+
+    @Test
+    public void execute_operation_using_executor() throws InterruptedException {
+        AsyncRegistrationStore asyncStore = new AsyncRegistrationStoreAdapter(store, executor);
+        store.addRegistration(registration);
+
+        Callback<Registration> callback = new Callback<>();
+        asyncStore.getRegistration("4711", callback, callback);
+
+        assertTrue(callback.latch.await(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), callback.thread.get());
+        assertEquals(registration, callback.result.get());
+    }
+
+    @Test
+    public void report_store_exception_to_error_callback() throws InterruptedException {
+        final IllegalStateException failure = new IllegalStateException("store failure");
+        AsyncRegistrationStore asyncStore = new AsyncRegistrationStoreAdapter(new InMemoryRegistrationStore() {
+            @Override
+            public Deregistration removeRegistration(String registrationId) {
+                throw failure;
+            }
+        }, executor);
+
+        Callback<Deregistration> callback = new Callback<>();
+        asyncStore.removeRegistration("4711", callback, callback);
+
+        assertTrue(callback.latch.await(1, TimeUnit.SECONDS));
+        assertSame(failure, callback.error.get());
+        assertNull(callback.result.get());
+    }
+
+    @Test
+    public void do_not_report_result_callback_exception_as_store_error() {
+        final Callback<Deregistration> callback = new Callback<>();
+        try {
+            new AsyncRegistrationStoreAdapter(store).addRegistration(registration,
+                    new ResultCallback<Deregistration>() {
+                        @Override
+                        public void onResult(Deregistration result) {
+                            throw new IllegalStateException("callback failure");
+                        }
+                    }, callback);
+            fail("callback exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("callback failure", e.getMessage());
+        }
+        assertNull(callback.error.get());
+    }
+
+    @Test
+    public void report_rejected_execution_to_error_callback() {
+        executor.shutdown();
+        Callback<Registration> callback = new Callback<>();
+        new AsyncRegistrationStoreAdapter(store, executor).getRegistration("4711", callback, callback);
+
+        assertNotNull(callback.error.get());
+        assertNull(callback.result.get());
+    }
+
+    private static class Callback<T> implements ResultCallback<T>, ErrorCallback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<T> result = new AtomicReference<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        @Override
+        public void onResult(T result) {
+            this.result.set(result);
+            this.thread.set(Thread.currentThread());
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            this.error.set(e);
+            this.thread.set(Thread.currentThread());
+            latch.countDown();
+        }
+    }
+}
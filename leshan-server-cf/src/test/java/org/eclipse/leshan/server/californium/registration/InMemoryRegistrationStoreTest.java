@@ -16,14 +16,21 @@
 package org.eclipse.leshan.server.californium.registration;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.leshan.core.Link;
 import org.eclipse.leshan.core.request.BindingMode;
 import org.eclipse.leshan.core.request.Identity;
-import org.eclipse.leshan.server.californium.registration.InMemoryRegistrationStore;
+import org.eclipse.leshan.server.registration.Deregistration;
 import org.eclipse.leshan.server.registration.Registration;
-import org.eclipse.leshan.server.registration.RegistrationStore;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.junit.Assert;
@@ -32,7 +39,7 @@ import org.junit.Test;
 
 public class InMemoryRegistrationStoreTest {
 
-    RegistrationStore store;
+    InMemoryRegistrationStore store;
     String ep = "urn:endpoint";
     InetAddress address;
     int port = 23452;
@@ -91,6 +98,119 @@ public class InMemoryRegistrationStoreTest {
         Assert.assertTrue(reg.isAlive());
     }
 
+    @Test
+    public void expiration_index_tracks_due_registrations() {
+        givenASimpleRegistration(0L);
+        store.addRegistration(registration);
+        Assert.assertEquals(1, store.getExpirationIndexSize());
+        Assert.assertEquals(1, store.getDueRegistrationsCount());
+
+        RegistrationUpdate update = new RegistrationUpdate(registrationId, Identity.unsecure(address, port), lifetime,
+                null, null, null, null);
+        store.updateRegistration(update);
+        Assert.assertEquals(1, store.getExpirationIndexSize());
+        Assert.assertEquals(0, store.getDueRegistrationsCount());
+
+        store.removeRegistration(registrationId);
+        Assert.assertEquals(0, store.getExpirationIndexSize());
+    }
+
+    @Test
+    public void register_again_replaces_previous_registration() {
+        givenASimpleRegistration(lifetime);
+        store.addRegistration(registration);
+
+        Registration newRegistration = new Registration.Builder("4712", ep, Identity.unsecure(address, port + 1))
+                .lifeTimeInSec(lifetime).objectLinks(objectLinks).build();
+        Deregistration deregistration = store.addRegistration(newRegistration);
+
+        Assert.assertEquals(registration, deregistration.getRegistration());
+        Assert.assertEquals(newRegistration, store.getRegistrationByEndpoint(ep));
+        Assert.assertEquals(newRegistration, store.getRegistration("4712"));
+        Assert.assertNull(store.getRegistration(registrationId));
+        Assert.assertEquals(newRegistration, store.getRegistrationByAdress(new InetSocketAddress(address, port + 1)));
+        Assert.assertNull(store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+        Assert.assertEquals(1, store.getExpirationIndexSize());
+    }
+
+    @Test
+    public void concurrent_registrations_are_all_stored() throws InterruptedException {
+        final int nbThreads = 8;
+        final int nbRegistrationsPerThread = 500;
+        final CountDownLatch done = new CountDownLatch(nbThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        for (int i = 0; i < nbThreads; i++) {
+            final int threadId = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < nbRegistrationsPerThread; j++) {
+                        String id = threadId + "-" + j;
+                        // register twice to replace the previous registration of this endpoint
+                        store.addRegistration(new Registration.Builder(id + "-a", "ep" + id,
+                                Identity.unsecure(address, 10000 + j)).objectLinks(objectLinks).build());
+                        store.addRegistration(new Registration.Builder(id + "-b", "ep" + id,
+                                Identity.unsecure(address, 10000 + j)).objectLinks(objectLinks).build());
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        int count = 0;
+        for (Iterator<Registration> it = store.getAllRegistrations(); it.hasNext(); it.next()) {
+            count++;
+        }
+        Assert.assertEquals(nbThreads * nbRegistrationsPerThread, count);
+        Assert.assertNull(store.getRegistration("0-0-a"));
+        Assert.assertNotNull(store.getRegistration("0-0-b"));
+    }
+
+    @Test
+    public void concurrent_add_and_remove_keep_store_consistent() throws Exception {
+        // many stripes, so the endpoint and the id of the registration are guarded by different locks
+        store = new InMemoryRegistrationStore(Executors.newSingleThreadScheduledExecutor(), 2, 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                final Registration reg = new Registration.Builder("id" + i, "ep" + i, Identity.unsecure(address, port))
+                        .objectLinks(objectLinks).build();
+                final CountDownLatch start = new CountDownLatch(1);
+                Future<?> add = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        store.addRegistration(reg);
+                        return null;
+                    }
+                });
+                Future<?> remove = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        store.removeRegistration(reg.getId());
+                        return null;
+                    }
+                });
+                start.countDown();
+                add.get(5, TimeUnit.SECONDS);
+                remove.get(5, TimeUnit.SECONDS);
+
+                // the registration is either fully stored or fully removed
+                boolean byId = store.getRegistration(reg.getId()) != null;
+                boolean byEndpoint = store.getRegistrationByEndpoint(reg.getEndpoint()) != null;
+                Assert.assertEquals(byId, byEndpoint);
+                Assert.assertEquals(byId ? 1 : 0, store.getExpirationIndexSize());
+                store.removeRegistration(reg.getId());
+            }
+        } finally {
+            executor.shutdownNow();
+            store.destroy();
+        }
+    }
+
     private void givenASimpleRegistration(Long lifetime) {
 
         Registration.Builder builder = new Registration.Builder(registrationId, ep, Identity.unsecure(address, port));
@@ -12,78 +12,88 @@
  * 
  * Contributors:
  *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - share models between registrations supporting the same objects
  *******************************************************************************/
 package org.eclipse.leshan.server.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.LwM2mModelRepository;
 import org.eclipse.leshan.core.model.ObjectModel;
-import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.StaticModel;
+import org.eclipse.leshan.core.util.Validate;
 import org.eclipse.leshan.server.registration.Registration;
 
 /**
  * A LwM2mModelProvider which supports object versioning. It returns a LwM2mModel taking into account object version
  * given in registration.
+ * <p>
+ * Models are resolved once for each distinct set of supported objects and versions, then shared by all the
+ * registrations supporting the same objects in the same versions (typically devices of the same kind).
  */
 public class VersionedModelProvider implements LwM2mModelProvider {
 
-    private LwM2mModelRepository repository;
+    /** The default maximum number of distinct models kept in cache */
+    public static final int DEFAULT_MAX_CACHED_MODELS = 1000;
+
+    private final LwM2mModelRepository repository;
+    private final int maxCachedModels;
+
+    // models indexed by the supported objects (object id => version) they were resolved for
+    private final ConcurrentMap<Map<Integer, String>, LwM2mModel> models = new ConcurrentHashMap<>();
 
     public VersionedModelProvider(Collection<ObjectModel> objectModels) {
-        this.repository = new LwM2mModelRepository(objectModels);
+        this(new LwM2mModelRepository(objectModels));
     }
 
     public VersionedModelProvider(LwM2mModelRepository repository) {
+        this(repository, DEFAULT_MAX_CACHED_MODELS);
+    }
+
+    /**
+     * @param repository the object models available
+     * @param maxCachedModels the maximum number of distinct models kept in cache. Once reached, models for new sets of
+     *        supported objects are still resolved but no more cached.
+     */
+    public VersionedModelProvider(LwM2mModelRepository repository, int maxCachedModels) {
+        Validate.notNull(repository);
+        Validate.isTrue(maxCachedModels >= 0, "maxCachedModels must not be negative");
         this.repository = repository;
+        this.maxCachedModels = maxCachedModels;
     }
 
     @Override
     public LwM2mModel getObjectModel(Registration registration) {
-        return new DynamicModel(registration);
-    }
-
-    private class DynamicModel implements LwM2mModel {
-
-        private final Registration registration;
-
-        public DynamicModel(Registration registration) {
-            this.registration = registration;
-        }
-
-        @Override
-        public ResourceModel getResourceModel(int objectId, int resourceId) {
-            ObjectModel objectModel = getObjectModel(objectId);
-            if (objectModel != null)
-                return objectModel.resources.get(resourceId);
-            else
-                return null;
-        }
-
-        @Override
-        public ObjectModel getObjectModel(int objectId) {
-            String version = registration.getSupportedVersion(objectId);
-            if (version != null) {
-                return repository.getObjectModel(objectId, version);
+        Map<Integer, String> supportedObjects = registration.getSupportedObject();
+        LwM2mModel model = models.get(supportedObjects);
+        if (model == null) {
+            model = resolve(supportedObjects);
+            if (models.size() < maxCachedModels) {
+                // copy the key as we can not be sure the map of the registration will never be modified
+                LwM2mModel previous = models.putIfAbsent(new HashMap<>(supportedObjects), model);
+                if (previous != null) {
+                    model = previous;
+                }
             }
-            return null;
         }
+        return model;
+    }
 
-        @Override
-        public Collection<ObjectModel> getObjectModels() {
-            Map<Integer, String> supportedObjects = registration.getSupportedObject();
-            Collection<ObjectModel> result = new ArrayList<>(supportedObjects.size());
-            for (Entry<Integer, String> supportedObject : supportedObjects.entrySet()) {
-                ObjectModel objectModel = repository.getObjectModel(supportedObject.getKey(),
-                        supportedObject.getValue());
-                if (objectModel != null)
-                    result.add(objectModel);
-            }
-            return result;
+    private LwM2mModel resolve(Map<Integer, String> supportedObjects) {
+        List<ObjectModel> objectModels = new ArrayList<>(supportedObjects.size());
+        for (Entry<Integer, String> supportedObject : supportedObjects.entrySet()) {
+            ObjectModel objectModel = repository.getObjectModel(supportedObject.getKey(), supportedObject.getValue());
+            if (objectModel != null)
+                objectModels.add(objectModel);
         }
+        return new StaticModel(objectModels);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import java.util.List;
+
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * A {@link PresenceListener} able to receive several events at once.
+ * <p>
+ * When a {@link PresenceServiceImpl} dispatches events in batches, the batch methods are called instead of
+ * {@link #onAwake(Registration)} and {@link #onSleeping(Registration)}, from the presence timer thread.
+ */
+public interface BatchPresenceListener extends PresenceListener {
+
+    /**
+     * This method is invoked with the LWM2M clients whose state changed to awake since the last batch.
+     * 
+     * @param registrations data of the lwm2m clients.
+     */
+    void onAwake(List<Registration> registrations);
+
+    /**
+     * This method is invoked with the LWM2M clients whose state changed to sleeping since the last batch.
+     * 
+     * @param registrations data of the lwm2m clients.
+     */
+    void onSleeping(List<Registration> registrations);
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import java.util.List;
+
+/**
+ * A store of the requests waiting for sleeping LWM2M clients, with one FIFO queue per endpoint.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface DownlinkQueueStore {
+
+    /**
+     * Add a request at the end of the queue of its endpoint.
+     * <p>
+     * Queued requests of the same endpoint with the same {@link QueuedRequest#getCoalescingKey() coalescing key} are
+     * removed, as well as the oldest requests if the queue is full.
+     *
+     * @param request the request to queue.
+     * @return the requests removed from the queue, never <code>null</code>.
+     */
+    List<QueuedRequest> add(QueuedRequest request);
+
+    /**
+     * Get the next request to send to a client which woke up.
+     * <p>
+     * A store shared by several servers may return <code>null</code> while another server is sending the queue.
+     *
+     * @param endpoint the client endpoint.
+     * @return the oldest request of the queue, without removing it, or <code>null</code> if the queue is empty.
+     */
+    QueuedRequest peek(String endpoint);
+
+    /**
+     * Remove a request from the queue of the given endpoint.
+     *
+     * @param endpoint the client endpoint.
+     * @param id the identifier of the queued request.
+     * @return <code>true</code> if the request was in the queue.
+     */
+    boolean remove(String endpoint, String id);
+
+    /**
+     * Remove all the requests queued for the given endpoint.
+     *
+     * @param endpoint the client endpoint.
+     * @return the removed requests in queue order, never <code>null</code>.
+     */
+    List<QueuedRequest> removeAll(String endpoint);
+
+    /**
+     * @param endpoint the client endpoint.
+     * @return the number of requests queued for the given endpoint.
+     */
+    int size(String endpoint);
+}
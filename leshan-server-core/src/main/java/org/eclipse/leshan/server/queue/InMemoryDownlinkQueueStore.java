@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * A {@link DownlinkQueueStore} which keeps the queued requests in memory.
+ * <p>
+ * Queued requests are lost when the server is restarted, see the Redis implementation for a durable store.
+ */
+public class InMemoryDownlinkQueueStore implements DownlinkQueueStore {
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_ENDPOINT = 100;
+
+    private final ConcurrentMap<String /* endpoint */, EndpointQueue> queues = new ConcurrentHashMap<>();
+    private final int maxRequestsPerEndpoint;
+
+    public InMemoryDownlinkQueueStore() {
+        this(DEFAULT_MAX_REQUESTS_PER_ENDPOINT);
+    }
+
+    /**
+     * @param maxRequestsPerEndpoint the maximum number of requests queued for a given endpoint. When it is reached,
+     *        the oldest request is removed from the queue.
+     */
+    public InMemoryDownlinkQueueStore(int maxRequestsPerEndpoint) {
+        Validate.isTrue(maxRequestsPerEndpoint > 0, "maxRequestsPerEndpoint must be positive");
+        this.maxRequestsPerEndpoint = maxRequestsPerEndpoint;
+    }
+
+    @Override
+    public List<QueuedRequest> add(QueuedRequest request) {
+        while (true) {
+            EndpointQueue queue = queues.get(request.getEndpoint());
+            if (queue == null) {
+                EndpointQueue newQueue = new EndpointQueue();
+                queue = queues.putIfAbsent(request.getEndpoint(), newQueue);
+                if (queue == null) {
+                    queue = newQueue;
+                }
+            }
+            synchronized (queue) {
+                // the queue was emptied and removed concurrently, try again with a new one
+                if (queue.removed) {
+                    continue;
+                }
+
+                List<QueuedRequest> removed = new ArrayList<>();
+                String key = request.getCoalescingKey();
+                if (key != null) {
+                    for (Iterator<QueuedRequest> it = queue.requests.iterator(); it.hasNext();) {
+                        QueuedRequest queued = it.next();
+                        if (key.equals(queued.getCoalescingKey())) {
+                            it.remove();
+                            removed.add(queued);
+                        }
+                    }
+                }
+                queue.requests.addLast(request);
+                while (queue.requests.size() > maxRequestsPerEndpoint) {
+                    removed.add(queue.requests.removeFirst());
+                }
+                return removed;
+            }
+        }
+    }
+
+    @Override
+    public QueuedRequest peek(String endpoint) {
+        EndpointQueue queue = queues.get(endpoint);
+        if (queue == null) {
+            return null;
+        }
+        synchronized (queue) {
+            return queue.requests.peekFirst();
+        }
+    }
+
+    @Override
+    public boolean remove(String endpoint, String id) {
+        EndpointQueue queue = queues.get(endpoint);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            for (Iterator<QueuedRequest> it = queue.requests.iterator(); it.hasNext();) {
+                if (it.next().getId().equals(id)) {
+                    it.remove();
+                    if (queue.requests.isEmpty()) {
+                        queue.removed = true;
+                        queues.remove(endpoint, queue);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public List<QueuedRequest> removeAll(String endpoint) {
+        EndpointQueue queue = queues.remove(endpoint);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        synchronized (queue) {
+            queue.removed = true;
+            List<QueuedRequest> removed = new ArrayList<>(queue.requests);
+            queue.requests.clear();
+            return removed;
+        }
+    }
+
+    @Override
+    public int size(String endpoint) {
+        EndpointQueue queue = queues.get(endpoint);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.requests.size();
+        }
+    }
+
+    private static class EndpointQueue {
+        private final LinkedList<QueuedRequest> requests = new LinkedList<>();
+        // true when this queue is not in the map anymore
+        private boolean removed;
+    }
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * A {@link PresenceService} whose state is updated by the server, when a client communicates with it or does not
+ * respond to a request.
+ * <p>
+ * {@link PresenceServiceImpl} keeps the state in memory. Other implementations can share it between several servers.
+ */
+public interface MutablePresenceService extends PresenceService {
+
+    /**
+     * Set the client identified by registration as awake. Listeners are notified if that client state changed to awake
+     * state.
+     * 
+     * @param registration the client's registration object
+     */
+    void setAwake(Registration registration);
+
+    /**
+     * Set the client in a sleeping state. Nothing is done if it already in sleeping state. Listeners are notified if
+     * that client state changed to sleeping state.
+     * 
+     * @param registration the client's registration object
+     */
+    void setSleeping(Registration registration);
+
+    /**
+     * Stop to track presence for the given registration. No event is raised.
+     * 
+     * @param registration the client's registration object.
+     */
+    void stopPresenceTracking(Registration registration);
+}
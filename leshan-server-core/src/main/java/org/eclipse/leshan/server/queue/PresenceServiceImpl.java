@@ -13,11 +13,16 @@
  * Contributors:
  *     Bosch Software Innovations GmbH - initial API
  *     RISE SICS AB - added more features 
+ *     Sierra Wireless - add timing wheel and batch events options
+ *     Sierra Wireless - implement MutablePresenceService
  *******************************************************************************/
 package org.eclipse.leshan.server.queue;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
@@ -27,6 +32,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.leshan.core.util.NamedThreadFactory;
+import org.eclipse.leshan.core.util.Validate;
 import org.eclipse.leshan.server.Destroyable;
 import org.eclipse.leshan.server.registration.Registration;
 import org.slf4j.Logger;
@@ -36,8 +42,16 @@ import org.slf4j.LoggerFactory;
  * Tracks the status of each LWM2M client registered with Queue mode binding. Also ensures that the
  * {@link PresenceListener} are notified on state changes only for those LWM2M clients registered using Queue mode
  * binding.
+ * <p>
+ * By default, each awake client has its own timer, which is cancelled and scheduled again each time the client is set
+ * awake. For a large number of clients, a hashed timing wheel can be used instead: resetting a timer is then a simple
+ * field update and clients fall asleep with a precision of one tick. With the timing wheel, events can also be
+ * dispatched in batches once per tick, see {@link BatchPresenceListener}.
  */
-public final class PresenceServiceImpl implements PresenceService, Destroyable {
+public final class PresenceServiceImpl implements MutablePresenceService, Destroyable {
+
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
     private final Logger LOG = LoggerFactory.getLogger(PresenceServiceImpl.class);
 
     private final ConcurrentMap<String /* endpoint */, AtomicReference<ScheduledFuture<?>>> clientPresences = new ConcurrentHashMap<>();
@@ -46,8 +60,39 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
     private final ScheduledExecutorService clientTimersExecutor = Executors
             .newSingleThreadScheduledExecutor(new NamedThreadFactory("Presence Service"));
 
+    // null when each client has its own timer
+    private final PresenceTimingWheel timingWheel;
+    private final boolean batchEvents;
+    // events waiting for the next batch, in order
+    private final Queue<PresenceEvent> events = new ConcurrentLinkedQueue<>();
+
     public PresenceServiceImpl(ClientAwakeTimeProvider awakeTimeProvider) {
+        this(awakeTimeProvider, 0, false);
+    }
+
+    /**
+     * @param awakeTimeProvider to set the client awake time.
+     * @param tickDuration the duration in milliseconds of a tick of the timing wheel tracking awake clients, or 0 to
+     *        use one timer per client.
+     * @param batchEvents <code>true</code> to dispatch events in batches once per tick from the presence timer thread,
+     *        instead of dispatching each event from the thread changing the client state. Needs a timing wheel.
+     */
+    public PresenceServiceImpl(ClientAwakeTimeProvider awakeTimeProvider, long tickDuration, boolean batchEvents) {
+        Validate.isTrue(tickDuration >= 0, "tickDuration must be positive or 0");
+        Validate.isTrue(!batchEvents || tickDuration > 0, "batch events need a timing wheel");
         this.awakeTimeProvider = awakeTimeProvider;
+        this.batchEvents = batchEvents;
+        if (tickDuration > 0) {
+            timingWheel = new PresenceTimingWheel(tickDuration, DEFAULT_WHEEL_SIZE, currentTime());
+            clientTimersExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+        } else {
+            timingWheel = null;
+        }
     }
 
     @Override
@@ -62,6 +107,9 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
 
     @Override
     public boolean isClientAwake(Registration registration) {
+        if (timingWheel != null) {
+            return timingWheel.isAwake(registration.getEndpoint());
+        }
         return clientPresences.containsKey(registration.getEndpoint());
     }
 
@@ -71,8 +119,13 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
      * 
      * @param reg the client's registration object
      */
+    @Override
     public void setAwake(final Registration reg) {
-        if (reg.usesQueueMode()) {
+        if (reg.usesQueueMode() && timingWheel != null) {
+            if (timingWheel.setAwake(reg, awakeTimeProvider.getClientAwakeTime(reg), currentTime())) {
+                fireAwake(reg);
+            }
+        } else if (reg.usesQueueMode()) {
             boolean stateChanged;
             final AtomicReference<ScheduledFuture<?>> timerFuture = new AtomicReference<>();
             // set this device as awake
@@ -96,9 +149,7 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
                         boolean removed = clientPresences.remove(reg.getEndpoint(), timerFuture);
                         if (removed) {
                             // success remove means we go in sleeping mode.
-                            for (PresenceListener listener : listeners) {
-                                listener.onSleeping(reg);
-                            }
+                            fireSleeping(reg);
                         }
                     }
                 }, clientAwakeTime, TimeUnit.MILLISECONDS));
@@ -115,9 +166,7 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
 
             // notify if state changed
             if (stateChanged) {
-                for (PresenceListener listener : listeners) {
-                    listener.onAwake(reg);
-                }
+                fireAwake(reg);
             }
         }
     }
@@ -130,8 +179,13 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
      * 
      * @param reg the client's registration object
      */
+    @Override
     public void setSleeping(Registration reg) {
-        if (reg.usesQueueMode()) {
+        if (reg.usesQueueMode() && timingWheel != null) {
+            if (timingWheel.setSleeping(reg.getEndpoint()) != null) {
+                fireSleeping(reg);
+            }
+        } else if (reg.usesQueueMode()) {
             AtomicReference<ScheduledFuture<?>> timerFuture = clientPresences.remove(reg.getEndpoint());
             if (timerFuture != null) {
                 if (timerFuture.get() != null) {
@@ -139,9 +193,7 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
                     // itself.
                     timerFuture.get().cancel(false);
                 }
-                for (PresenceListener listener : listeners) {
-                    listener.onSleeping(reg);
-                }
+                fireSleeping(reg);
             }
         }
     }
@@ -151,8 +203,94 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
      * 
      * @param reg the client's registration object.
      */
+    @Override
     public void stopPresenceTracking(Registration reg) {
-        clientPresences.remove(reg.getEndpoint());
+        if (timingWheel != null) {
+            timingWheel.remove(reg.getEndpoint());
+        } else {
+            clientPresences.remove(reg.getEndpoint());
+        }
+    }
+
+    private void tick() {
+        try {
+            List<Registration> expired = timingWheel.advance(currentTime());
+            if (batchEvents) {
+                for (Registration reg : expired) {
+                    events.add(new PresenceEvent(reg, false));
+                }
+                dispatchEvents();
+            } else {
+                for (Registration reg : expired) {
+                    fireSleeping(reg);
+                }
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            LOG.error("Unable to process presence timers", e);
+        }
+    }
+
+    private void fireAwake(Registration reg) {
+        if (batchEvents) {
+            events.add(new PresenceEvent(reg, true));
+        } else {
+            for (PresenceListener listener : listeners) {
+                listener.onAwake(reg);
+            }
+        }
+    }
+
+    private void fireSleeping(Registration reg) {
+        if (batchEvents) {
+            events.add(new PresenceEvent(reg, false));
+        } else {
+            for (PresenceListener listener : listeners) {
+                listener.onSleeping(reg);
+            }
+        }
+    }
+
+    // dispatch waiting events, consecutive events of the same kind are dispatched in one batch
+    private void dispatchEvents() {
+        List<Registration> batch = new ArrayList<>();
+        boolean awake = false;
+        for (PresenceEvent event = events.poll(); event != null; event = events.poll()) {
+            if (event.awake != awake) {
+                dispatch(batch, awake);
+                batch = new ArrayList<>();
+                awake = event.awake;
+            }
+            batch.add(event.registration);
+        }
+        dispatch(batch, awake);
+    }
+
+    private void dispatch(List<Registration> registrations, boolean awake) {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        for (PresenceListener listener : listeners) {
+            if (listener instanceof BatchPresenceListener) {
+                if (awake) {
+                    ((BatchPresenceListener) listener).onAwake(registrations);
+                } else {
+                    ((BatchPresenceListener) listener).onSleeping(registrations);
+                }
+            } else {
+                for (Registration reg : registrations) {
+                    if (awake) {
+                        listener.onAwake(reg);
+                    } else {
+                        listener.onSleeping(reg);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long currentTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 
     @Override
@@ -164,4 +302,14 @@ public final class PresenceServiceImpl implements PresenceService, Destroyable {
             LOG.warn("Destroying presence service was interrupted.", e);
         }
     }
+
+    private static class PresenceEvent {
+        private final Registration registration;
+        private final boolean awake;
+
+        private PresenceEvent(Registration registration, boolean awake) {
+            this.registration = registration;
+            this.awake = awake;
+        }
+    }
 }
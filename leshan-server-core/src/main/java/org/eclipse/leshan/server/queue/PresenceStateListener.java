@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *     RISE SICS AB - initial API and implementation
+ *     Sierra Wireless - accept any MutablePresenceService
  *******************************************************************************/
 package org.eclipse.leshan.server.queue;
 
@@ -32,12 +33,17 @@ import org.eclipse.leshan.server.registration.RegistrationUpdate;
 
 public class PresenceStateListener implements RegistrationListener, ObservationListener {
 
-    PresenceServiceImpl presenceService;
+    MutablePresenceService presenceService;
 
-    public PresenceStateListener(PresenceServiceImpl presenceService) {
+    public PresenceStateListener(MutablePresenceService presenceService) {
         this.presenceService = presenceService;
     }
 
+    // kept for binary compatibility
+    public PresenceStateListener(PresenceServiceImpl presenceService) {
+        this((MutablePresenceService) presenceService);
+    }
+
     @Override
     public void registered(Registration reg, Registration previousReg, Collection<Observation> previousObsersations) {
         if (reg.usesQueueMode()) {
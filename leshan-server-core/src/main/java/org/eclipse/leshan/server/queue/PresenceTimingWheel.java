@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Tracks awake clients using a hashed timing wheel: a ring of buckets, each one holding the clients which should fall
+ * asleep during a given tick.
+ * <p>
+ * Resetting the awake timer of a client only updates its deadline. The client stays in its bucket until this bucket is
+ * processed: it is then either set asleep or moved to the bucket of its new deadline. So a client is never in more than
+ * one bucket and frequent resets do not create any garbage.
+ * <p>
+ * {@link #advance(long)} must be called by a single thread, at least once per tick. Clients are never set asleep before
+ * their deadline and, unless their deadline was moved earlier, at most one tick after it.
+ */
+class PresenceTimingWheel {
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    // states of a presence
+    private static final int AWAKE = 0;
+    private static final int EXPIRING = 1;
+    private static final int ASLEEP = 2;
+
+    private final ConcurrentMap<String /* endpoint */, Presence> presences = new ConcurrentHashMap<>();
+    private final List<Queue<Presence>> buckets;
+    private final long tickDuration;
+    // last processed tick, only written by the thread advancing the wheel
+    private volatile long processedTick;
+
+    /**
+     * @param tickDuration the duration of a tick in milliseconds.
+     * @param wheelSize the number of buckets.
+     * @param now the current time in milliseconds.
+     */
+    PresenceTimingWheel(long tickDuration, int wheelSize, long now) {
+        this.tickDuration = tickDuration;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ConcurrentLinkedQueue<Presence>());
+        }
+        this.processedTick = now / tickDuration;
+    }
+
+    boolean isAwake(String endpoint) {
+        return presences.containsKey(endpoint);
+    }
+
+    /**
+     * Set the client awake until <code>now + awakeTime</code>.
+     * 
+     * @param awakeTime the awake time in milliseconds, 0 to never set the client asleep.
+     * @return <code>true</code> if the client was sleeping.
+     */
+    boolean setAwake(Registration registration, long awakeTime, long now) {
+        long deadline = awakeTime == 0 ? NEVER : now + awakeTime;
+        while (true) {
+            Presence presence = presences.get(registration.getEndpoint());
+            boolean created = false;
+            if (presence == null) {
+                Presence newPresence = new Presence();
+                presence = presences.putIfAbsent(registration.getEndpoint(), newPresence);
+                if (presence == null) {
+                    presence = newPresence;
+                    created = true;
+                }
+            }
+            presence.registration = registration;
+            presence.deadline = deadline;
+            if (presence.state.get() != AWAKE) {
+                // set asleep concurrently, retry with a new presence once it is done
+                continue;
+            }
+            if (deadline != NEVER && presence.scheduled.compareAndSet(false, true)) {
+                schedule(presence, Math.max(tickOf(deadline), processedTick + 1));
+            }
+            return created;
+        }
+    }
+
+    /**
+     * @return the registration of the client if it was awake, else <code>null</code>.
+     */
+    Registration setSleeping(String endpoint) {
+        Presence presence = presences.remove(endpoint);
+        if (presence == null) {
+            return null;
+        }
+        while (true) {
+            if (presence.state.compareAndSet(AWAKE, ASLEEP)) {
+                return presence.registration;
+            }
+            if (presence.state.get() == ASLEEP) {
+                return null;
+            }
+            // the wheel is checking the deadline, wait for its decision
+        }
+    }
+
+    /**
+     * Stop tracking the client, without considering it fell asleep.
+     */
+    void remove(String endpoint) {
+        setSleeping(endpoint);
+    }
+
+    /**
+     * Process the buckets of the ticks elapsed since the last call.
+     * 
+     * @return the registrations of the clients which fell asleep.
+     */
+    List<Registration> advance(long now) {
+        List<Registration> expired = new ArrayList<>();
+        long nowTick = now / tickDuration;
+        // a bucket holds all the ticks with the same index, so there is no need to process it twice
+        long first = Math.max(processedTick + 1, nowTick - buckets.size() + 1);
+        for (long tick = first; tick <= nowTick; tick++) {
+            processedTick = tick;
+            Queue<Presence> bucket = bucket(tick);
+            // presences moved to a later tick are added to another bucket, so this loop ends
+            int size = bucket.size();
+            for (int i = 0; i < size; i++) {
+                Presence presence = bucket.poll();
+                if (presence == null) {
+                    break;
+                }
+                process(presence, now, tick, expired);
+            }
+        }
+        return expired;
+    }
+
+    private void process(Presence presence, long now, long tick, List<Registration> expired) {
+        long deadline = presence.deadline;
+        if (deadline <= now) {
+            if (!presence.state.compareAndSet(AWAKE, EXPIRING)) {
+                return;
+            }
+            // the client could have been set awake before the state changed: setAwake() writes the deadline before
+            // reading the state, so the new deadline is visible now or setAwake() waits for this decision.
+            deadline = presence.deadline;
+            if (deadline <= now) {
+                presence.state.set(ASLEEP);
+                presences.remove(presence.registration.getEndpoint(), presence);
+                expired.add(presence.registration);
+                return;
+            }
+            presence.state.set(AWAKE);
+        } else if (presence.state.get() != AWAKE) {
+            return;
+        }
+        if (deadline == NEVER) {
+            presence.scheduled.set(false);
+            // the deadline could have been changed meanwhile
+            if (presence.deadline != NEVER && presence.scheduled.compareAndSet(false, true)) {
+                schedule(presence, Math.max(tickOf(presence.deadline), tick + 1));
+            }
+        } else {
+            schedule(presence, Math.max(tickOf(deadline), tick + 1));
+        }
+    }
+
+    private void schedule(Presence presence, long tick) {
+        bucket(tick).add(presence);
+    }
+
+    private Queue<Presence> bucket(long tick) {
+        return buckets.get((int) (tick % buckets.size()));
+    }
+
+    // the first tick processed after the deadline
+    private long tickOf(long deadline) {
+        return (deadline + tickDuration - 1) / tickDuration;
+    }
+
+    private static class Presence {
+        private volatile Registration registration;
+        private volatile long deadline;
+        // true if this presence is in a bucket
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // ASLEEP when this presence is not tracked anymore
+        private final AtomicInteger state = new AtomicInteger(AWAKE);
+    }
+}
@@ -12,39 +12,161 @@
  * 
  * Contributors:
  *     RISE SICS AB - initial API and implementation
+ *     Sierra Wireless - queue requests for sleeping clients
+ *     Sierra Wireless - support queue and presence state shared by several servers
+ *     Sierra Wireless - release flush lease and notify requests handled by another server
  *******************************************************************************/
 package org.eclipse.leshan.server.queue;
 
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.eclipse.leshan.core.request.DownlinkRequest;
 import org.eclipse.leshan.core.request.exception.ClientSleepingException;
+import org.eclipse.leshan.core.request.exception.RequestCanceledException;
 import org.eclipse.leshan.core.request.exception.TimeoutException;
 import org.eclipse.leshan.core.request.exception.UnconnectedPeerException;
 import org.eclipse.leshan.core.response.ErrorCallback;
 import org.eclipse.leshan.core.response.LwM2mResponse;
 import org.eclipse.leshan.core.response.ResponseCallback;
+import org.eclipse.leshan.core.util.NamedThreadFactory;
 import org.eclipse.leshan.core.util.Validate;
+import org.eclipse.leshan.server.Destroyable;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.request.LwM2mRequestSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link LwM2mRequestSender} which supports LWM2M Queue Mode.
+ * <p>
+ * By default, requests sent to a sleeping client are rejected with a {@link ClientSleepingException}. When a
+ * {@link DownlinkQueueStore} is given, asynchronous requests are queued instead and sent in order when the client wakes
+ * up:
+ * <ul>
+ * <li>a queued request which is not sent before its time-to-live fails with a {@link ClientSleepingException},</li>
+ * <li>a queued request superseded by a newer one (see {@link QueuedRequest#getCoalescingKey()}) or removed because the
+ * queue is full fails with a {@link RequestCanceledException},</li>
+ * <li>the number of clients whose queue is flushed at the same time is bounded, the requests of a given client are
+ * sent one by one.</li>
+ * </ul>
+ * Callbacks are kept in memory: requests restored from a durable store after a restart are sent without notifying
+ * anyone of the result. With a {@link SharedDownlinkQueueStore}, a request sent or removed by another server fails
+ * with a {@link RequestCanceledException} as soon as this server is notified. Synchronous requests are never queued.
  */
-public class QueueModeLwM2mRequestSender implements LwM2mRequestSender {
+public class QueueModeLwM2mRequestSender implements LwM2mRequestSender, Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueueModeLwM2mRequestSender.class);
+
+    public static final long DEFAULT_QUEUED_REQUEST_TTL = 24 * 60 * 60 * 1000L; // 1 day
+    public static final int DEFAULT_MAX_CONCURRENT_FLUSHES = 100;
 
-    protected PresenceServiceImpl presenceService;
+    protected MutablePresenceService presenceService;
     protected LwM2mRequestSender delegatedSender;
 
+    protected final DownlinkQueueStore queueStore;
+    protected final long queuedRequestTtl;
+    protected final int maxConcurrentFlushes;
+
+    // callbacks of the requests queued by this sender
+    private final ConcurrentMap<String /* queued request id */, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+    // endpoints being flushed or waiting to be flushed
+    private final ConcurrentMap<String /* endpoint */, Registration> flushes = new ConcurrentHashMap<>();
+    private final Queue<Registration> waitingFlushes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeFlushes = new AtomicInteger();
+    private final ScheduledExecutorService expirationExecutor;
+    private final QueuedRequestRemovalListener removalListener = new QueuedRequestRemovalListener() {
+        @Override
+        public void onRemoved(String endpoint, String id, String result) {
+            PendingRequest<?> removed = pendingRequests.remove(id);
+            if (removed != null) {
+                removed.expiration.cancel(false);
+                removed.errorCallback.onError(new RequestCanceledException(
+                        "Request to [%s] was handled by another server, its result is: %s", endpoint, result));
+            }
+        }
+    };
+
     /**
      * @param presenceService the presence service object for setting the client into sleepint state when request
      *        Timeout expires and into awake state when a response arrives.
      * @param delegatedSender internal sender that it is used for sending the requests, using delegation.
      */
+    public QueueModeLwM2mRequestSender(MutablePresenceService presenceService, LwM2mRequestSender delegatedSender) {
+        this(presenceService, delegatedSender, null, DEFAULT_QUEUED_REQUEST_TTL, DEFAULT_MAX_CONCURRENT_FLUSHES);
+    }
+
+    /**
+     * Same as {@link #QueueModeLwM2mRequestSender(MutablePresenceService, LwM2mRequestSender)}, kept for binary
+     * compatibility.
+     */
     public QueueModeLwM2mRequestSender(PresenceServiceImpl presenceService, LwM2mRequestSender delegatedSender) {
+        this((MutablePresenceService) presenceService, delegatedSender);
+    }
+
+    /**
+     * Same as
+     * {@link #QueueModeLwM2mRequestSender(MutablePresenceService, LwM2mRequestSender, DownlinkQueueStore, long, int)},
+     * kept for binary compatibility.
+     */
+    public QueueModeLwM2mRequestSender(PresenceServiceImpl presenceService, LwM2mRequestSender delegatedSender,
+            DownlinkQueueStore queueStore, long queuedRequestTtl, int maxConcurrentFlushes) {
+        this((MutablePresenceService) presenceService, delegatedSender, queueStore, queuedRequestTtl,
+                maxConcurrentFlushes);
+    }
+
+    /**
+     * @param presenceService the presence service object for setting the client into sleeping state when request
+     *        Timeout expires and into awake state when a response arrives.
+     * @param delegatedSender internal sender that it is used for sending the requests, using delegation.
+     * @param queueStore the store of requests waiting for sleeping clients or <code>null</code> to reject requests
+     *        sent to sleeping clients.
+     * @param queuedRequestTtl the time in milliseconds a request can wait for a sleeping client.
+     * @param maxConcurrentFlushes the maximum number of clients whose queued requests are sent at the same time.
+     */
+    public QueueModeLwM2mRequestSender(MutablePresenceService presenceService, LwM2mRequestSender delegatedSender,
+            DownlinkQueueStore queueStore, long queuedRequestTtl, int maxConcurrentFlushes) {
         Validate.notNull(presenceService);
         Validate.notNull(delegatedSender);
+        Validate.isTrue(queuedRequestTtl > 0, "queuedRequestTtl must be positive");
+        Validate.isTrue(maxConcurrentFlushes > 0, "maxConcurrentFlushes must be positive");
 
         this.presenceService = presenceService;
         this.delegatedSender = delegatedSender;
+        this.queueStore = queueStore;
+        this.queuedRequestTtl = queuedRequestTtl;
+        this.maxConcurrentFlushes = maxConcurrentFlushes;
+
+        if (queueStore != null) {
+            expirationExecutor = Executors
+                    .newSingleThreadScheduledExecutor(new NamedThreadFactory("Queued requests expiration"));
+            presenceService.addListener(new PresenceListener() {
+                @Override
+                public void onAwake(Registration registration) {
+                    if (QueueModeLwM2mRequestSender.this.queueStore.size(registration.getEndpoint()) > 0) {
+                        flush(registration);
+                    }
+                }
+
+                @Override
+                public void onSleeping(Registration registration) {
+                }
+            });
+            if (queueStore instanceof SharedDownlinkQueueStore) {
+                ((SharedDownlinkQueueStore) queueStore).addListener(removalListener);
+            }
+        } else {
+            expirationExecutor = null;
+        }
     }
 
     /**
@@ -101,12 +223,28 @@ public class QueueModeLwM2mRequestSender implements LwM2mRequestSender {
 
         // If the client uses Q-Mode...
 
-        // If the client is sleeping, warn the user and return
-        if (!presenceService.isClientAwake(destination)) {
+        if (queueStore != null) {
+            // Queue the request if the client is sleeping or if older requests are still waiting
+            String endpoint = destination.getEndpoint();
+            if (!presenceService.isClientAwake(destination) || flushes.containsKey(endpoint)
+                    || queueStore.size(endpoint) > 0) {
+                enqueue(destination, request, timeout, responseCallback, errorCallback);
+                return;
+            }
+        } else if (!presenceService.isClientAwake(destination)) {
+            // If the client is sleeping, warn the user and return
             throw new ClientSleepingException("The destination client is sleeping, request cannot be sent.");
         }
 
-        // Use delegation to send the request, with specific callbacks to perform Queue Mode operation
+        sendToAwakeClient(destination, request, timeout, responseCallback, errorCallback);
+    }
+
+    /**
+     * Use delegation to send the request, with specific callbacks to perform Queue Mode operation
+     */
+    protected <T extends LwM2mResponse> void sendToAwakeClient(final Registration destination,
+            DownlinkRequest<T> request, long timeout, final ResponseCallback<T> responseCallback,
+            final ErrorCallback errorCallback) {
         delegatedSender.send(destination, request, timeout, new ResponseCallback<T>() {
             @Override
             public void onResponse(T response) {
@@ -131,11 +269,215 @@ public class QueueModeLwM2mRequestSender implements LwM2mRequestSender {
                 errorCallback.onError(e);
             }
         });
+    }
+
+    private <T extends LwM2mResponse> void enqueue(Registration destination, DownlinkRequest<T> request, long timeout,
+            ResponseCallback<T> responseCallback, ErrorCallback errorCallback) {
+        final String endpoint = destination.getEndpoint();
+        final String id = UUID.randomUUID().toString();
+        QueuedRequest queued = new QueuedRequest(id, endpoint, request, timeout,
+                System.currentTimeMillis() + queuedRequestTtl);
 
+        PendingRequest<T> pending = new PendingRequest<>(responseCallback, errorCallback);
+        pendingRequests.put(id, pending);
+        pending.expiration = expirationExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                PendingRequest<?> expired = pendingRequests.remove(id);
+                boolean removed = removeFromQueue(endpoint, id, "expired");
+                if (expired == null) {
+                    return;
+                }
+                if (removed) {
+                    expired.errorCallback.onError(new ClientSleepingException(
+                            "The destination client [%s] did not wake up before the request expiration", endpoint));
+                } else {
+                    // a store shared by several servers: the request was sent by another one
+                    expired.errorCallback.onError(new RequestCanceledException(
+                            "Request to [%s] was sent by another server, its result is unknown", endpoint));
+                }
+            }
+        }, queuedRequestTtl, TimeUnit.MILLISECONDS);
+
+        List<QueuedRequest> removedRequests = queueStore.add(queued);
+        for (QueuedRequest removed : removedRequests) {
+            PendingRequest<?> canceled = pendingRequests.remove(removed.getId());
+            if (canceled != null) {
+                canceled.expiration.cancel(false);
+                if (queued.getCoalescingKey() != null && queued.getCoalescingKey().equals(removed.getCoalescingKey())) {
+                    canceled.errorCallback.onError(new RequestCanceledException(
+                            "Request superseded by a newer request to [%s]", removed.getRequest().getPath()));
+                } else {
+                    canceled.errorCallback
+                            .onError(new RequestCanceledException("Request queue of client [%s] is full", endpoint));
+                }
+            }
+        }
+
+        // the client may have woken up in the meantime
+        if (presenceService.isClientAwake(destination)) {
+            flush(destination);
+        }
+    }
+
+    /**
+     * Send the requests queued for the given client, unless it is already done.
+     */
+    protected void flush(Registration registration) {
+        if (flushes.putIfAbsent(registration.getEndpoint(), registration) == null) {
+            waitingFlushes.add(registration);
+            startWaitingFlushes();
+        }
+    }
+
+    private void startWaitingFlushes() {
+        while (!waitingFlushes.isEmpty()) {
+            if (activeFlushes.incrementAndGet() > maxConcurrentFlushes) {
+                // an active flush will start the waiting ones when it ends
+                activeFlushes.decrementAndGet();
+                return;
+            }
+            Registration registration = waitingFlushes.poll();
+            if (registration == null) {
+                activeFlushes.decrementAndGet();
+            } else {
+                sendNextQueuedRequest(registration);
+            }
+        }
+    }
+
+    private void endFlush(Registration registration) {
+        if (queueStore instanceof SharedDownlinkQueueStore) {
+            // let other servers send the queue
+            ((SharedDownlinkQueueStore) queueStore).endFlush(registration.getEndpoint());
+        }
+        flushes.remove(registration.getEndpoint());
+        activeFlushes.decrementAndGet();
+        startWaitingFlushes();
+
+        // a request could have been queued just before the end of the flush
+        if (presenceService.isClientAwake(registration) && queueStore.peek(registration.getEndpoint()) != null) {
+            flush(registration);
+        }
+    }
+
+    private void sendNextQueuedRequest(final Registration registration) {
+        final String endpoint = registration.getEndpoint();
+        // loop instead of recursing when sending fails, so a long queue of failing requests does not grow the stack
+        while (true) {
+            QueuedRequest queued = peekQueuedRequest(registration);
+            if (queued == null) {
+                endFlush(registration);
+                return;
+            }
+
+            PendingRequest<?> pending = pendingRequests.remove(queued.getId());
+            if (pending != null) {
+                pending.expiration.cancel(false);
+            }
+            try {
+                sendQueuedRequest(registration, queued, pending);
+                return;
+            } catch (RuntimeException e) {
+                removeFromQueue(endpoint, queued.getId(), describe(e));
+                if (pending != null) {
+                    pending.errorCallback.onError(e);
+                } else {
+                    LOG.warn("Unable to send queued request {}", queued, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next request to send to the given client, or <code>null</code> if the client is sleeping or has no
+     *         more queued request.
+     */
+    private QueuedRequest peekQueuedRequest(Registration registration) {
+        String endpoint = registration.getEndpoint();
+        while (presenceService.isClientAwake(registration)) {
+            QueuedRequest next = queueStore.peek(endpoint);
+            if (next == null || !next.isExpired(System.currentTimeMillis())) {
+                return next;
+            }
+            // expired requests restored from a durable store have no expiration timer
+            if (removeFromQueue(endpoint, next.getId(), "expired")) {
+                LOG.debug("Queued request {} expired", next);
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends LwM2mResponse> void sendQueuedRequest(final Registration registration,
+            final QueuedRequest queued, final PendingRequest<T> pending) {
+        sendToAwakeClient(registration, (DownlinkRequest<T>) queued.getRequest(), queued.getTimeout(),
+                new ResponseCallback<T>() {
+                    @Override
+                    public void onResponse(T response) {
+                        removeFromQueue(queued.getEndpoint(), queued.getId(), "response " + response.getCode());
+                        if (pending != null) {
+                            pending.responseCallback.onResponse(response);
+                        }
+                        sendNextQueuedRequest(registration);
+                    }
+                }, new ErrorCallback() {
+                    @Override
+                    public void onError(Exception e) {
+                        removeFromQueue(queued.getEndpoint(), queued.getId(), describe(e));
+                        if (pending != null) {
+                            pending.errorCallback.onError(e);
+                        } else {
+                            LOG.debug("Unable to send queued request {}", queued, e);
+                        }
+                        sendNextQueuedRequest(registration);
+                    }
+                });
+    }
+
+    private boolean removeFromQueue(String endpoint, String id, String result) {
+        if (queueStore instanceof SharedDownlinkQueueStore) {
+            return ((SharedDownlinkQueueStore) queueStore).remove(endpoint, id, result);
+        }
+        return queueStore.remove(endpoint, id);
+    }
+
+    private static String describe(Exception e) {
+        return e.getMessage() == null ? e.getClass().getSimpleName()
+                : e.getClass().getSimpleName() + " " + e.getMessage();
     }
 
     @Override
     public void cancelOngoingRequests(Registration registration) {
         delegatedSender.cancelOngoingRequests(registration);
     }
+
+    @Override
+    public void destroy() {
+        if (queueStore instanceof SharedDownlinkQueueStore) {
+            ((SharedDownlinkQueueStore) queueStore).removeListener(removalListener);
+        }
+        if (expirationExecutor != null) {
+            expirationExecutor.shutdownNow();
+            try {
+                expirationExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                LOG.warn("Destroying queue mode request sender was interrupted.", e);
+            }
+        }
+        if (delegatedSender instanceof Destroyable) {
+            ((Destroyable) delegatedSender).destroy();
+        }
+    }
+
+    private static class PendingRequest<T extends LwM2mResponse> {
+        private final ResponseCallback<T> responseCallback;
+        private final ErrorCallback errorCallback;
+        private volatile ScheduledFuture<?> expiration;
+
+        private PendingRequest(ResponseCallback<T> responseCallback, ErrorCallback errorCallback) {
+            this.responseCallback = responseCallback;
+            this.errorCallback = errorCallback;
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * A request waiting in a {@link DownlinkQueueStore} for a sleeping LWM2M client to wake up.
+ */
+public class QueuedRequest {
+
+    private final String id;
+    private final String endpoint;
+    private final DownlinkRequest<?> request;
+    private final long timeout;
+    private final long expirationTime;
+
+    /**
+     * @param id the unique identifier of this queued request.
+     * @param endpoint the endpoint of the client which should receive the request.
+     * @param request the request to send.
+     * @param timeout the timeout in milliseconds to use when the request will be sent.
+     * @param expirationTime the time in milliseconds (since epoch) after which the request must not be sent anymore.
+     */
+    public QueuedRequest(String id, String endpoint, DownlinkRequest<?> request, long timeout, long expirationTime) {
+        Validate.notNull(id);
+        Validate.notNull(endpoint);
+        Validate.notNull(request);
+        this.id = id;
+        this.endpoint = endpoint;
+        this.request = request;
+        this.timeout = timeout;
+        this.expirationTime = expirationTime;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public DownlinkRequest<?> getRequest() {
+        return request;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expirationTime;
+    }
+
+    /**
+     * Queued requests with the same coalescing key supersede each other: only the last one needs to be sent.
+     * <p>
+     * This is the case of WRITE requests which replace the whole value of their target (a resource or an instance
+     * written in REPLACE mode).
+     *
+     * @return the coalescing key of this request or <code>null</code> if it must always be sent.
+     */
+    public String getCoalescingKey() {
+        if (request instanceof WriteRequest) {
+            WriteRequest write = (WriteRequest) request;
+            if (write.isReplaceRequest() || write.getNode() instanceof LwM2mSingleResource) {
+                return "WRITE " + write.getPath();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueuedRequest [id=%s, endpoint=%s, request=%s, expirationTime=%s]", id, endpoint,
+                request, expirationTime);
+    }
+}
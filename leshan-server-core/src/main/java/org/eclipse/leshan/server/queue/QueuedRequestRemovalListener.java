@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+/**
+ * A listener notified when a queued request is removed from a {@link SharedDownlinkQueueStore} by another server.
+ */
+public interface QueuedRequestRemovalListener {
+
+    /**
+     * @param endpoint the client endpoint.
+     * @param id the identifier of the removed request.
+     * @param result a short description of what happened to the request.
+     */
+    void onRemoved(String endpoint, String id, String result);
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+/**
+ * A {@link DownlinkQueueStore} shared by several servers of a cluster.
+ * <p>
+ * Only one server sends the queue of a client at a time: {@link #peek(String)} takes a lease on the queue, which is
+ * kept while the queue is being sent and released by {@link #endFlush(String)}.
+ * <p>
+ * As callbacks of queued requests are only known by the server which queued them, servers are notified when another
+ * server removes one of their requests, e.g. after sending it.
+ */
+public interface SharedDownlinkQueueStore extends DownlinkQueueStore {
+
+    /**
+     * Release the lease on the queue of the given endpoint taken by {@link #peek(String)}, so another server can send
+     * it.
+     *
+     * @param endpoint the client endpoint.
+     */
+    void endFlush(String endpoint);
+
+    /**
+     * Remove a request from the queue of the given endpoint, notifying the other servers of the result.
+     *
+     * @param endpoint the client endpoint.
+     * @param id the identifier of the queued request.
+     * @param result a short description of what happened to the request (e.g. the response code).
+     * @return <code>true</code> if the request was in the queue.
+     */
+    boolean remove(String endpoint, String id, String result);
+
+    /**
+     * Add a listener notified when a request is removed by another server.
+     */
+    void addListener(QueuedRequestRemovalListener listener);
+
+    void removeListener(QueuedRequestRemovalListener listener);
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.response.ErrorCallback;
+
+/**
+ * An asynchronous variant of the {@link RegistrationStore} operations used while handling client requests (registration
+ * and notification).
+ * <p>
+ * Implementations must not block the calling thread on I/O: the result is given to the <code>onResult</code>
+ * callback or the failure to the <code>onError</code> callback, exactly once, generally from another thread. A
+ * {@link RegistrationStore} which does not implement this interface is used through
+ * {@link AsyncRegistrationStoreAdapter}.
+ * <p>
+ * Semantics of each operation are the same as the corresponding {@link RegistrationStore} method.
+ */
+public interface AsyncRegistrationStore {
+
+    /**
+     * @see RegistrationStore#addRegistration(Registration)
+     */
+    void addRegistration(Registration registration, ResultCallback<Deregistration> onResult, ErrorCallback onError);
+
+    /**
+     * @see RegistrationStore#updateRegistration(RegistrationUpdate)
+     */
+    void updateRegistration(RegistrationUpdate update, ResultCallback<UpdatedRegistration> onResult,
+            ErrorCallback onError);
+
+    /**
+     * @see RegistrationStore#getRegistration(String)
+     */
+    void getRegistration(String registrationId, ResultCallback<Registration> onResult, ErrorCallback onError);
+
+    /**
+     * @see RegistrationStore#removeRegistration(String)
+     */
+    void removeRegistration(String registrationId, ResultCallback<Deregistration> onResult, ErrorCallback onError);
+
+    /**
+     * @see RegistrationStore#getObservation(String, byte[])
+     */
+    void getObservation(String registrationId, byte[] observationId, ResultCallback<Observation> onResult,
+            ErrorCallback onError);
+}
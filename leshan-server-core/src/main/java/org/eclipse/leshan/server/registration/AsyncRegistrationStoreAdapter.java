@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * An {@link AsyncRegistrationStore} which executes the operations of a synchronous {@link RegistrationStore} using an
+ * {@link Executor}.
+ * <p>
+ * Without executor, operations are executed in the calling thread: this is the right choice for stores which do not do
+ * I/O (e.g. an in-memory store).
+ */
+public class AsyncRegistrationStoreAdapter implements AsyncRegistrationStore {
+
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final RegistrationStore store;
+    private final Executor executor;
+
+    /**
+     * Create an adapter which executes operations in the calling thread.
+     */
+    public AsyncRegistrationStoreAdapter(RegistrationStore store) {
+        this(store, CALLING_THREAD);
+    }
+
+    public AsyncRegistrationStoreAdapter(RegistrationStore store, Executor executor) {
+        Validate.notNull(store);
+        Validate.notNull(executor);
+        this.store = store;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the given store if it is already an {@link AsyncRegistrationStore}, else an adapter which executes its
+     *         operations in the calling thread.
+     */
+    public static AsyncRegistrationStore adapt(RegistrationStore store) {
+        if (store instanceof AsyncRegistrationStore) {
+            return (AsyncRegistrationStore) store;
+        }
+        return new AsyncRegistrationStoreAdapter(store);
+    }
+
+    @Override
+    public void addRegistration(final Registration registration, ResultCallback<Deregistration> onResult,
+            ErrorCallback onError) {
+        execute(new Task<Deregistration>(onResult, onError) {
+            @Override
+            protected Deregistration call() {
+                return store.addRegistration(registration);
+            }
+        });
+    }
+
+    @Override
+    public void updateRegistration(final RegistrationUpdate update, ResultCallback<UpdatedRegistration> onResult,
+            ErrorCallback onError) {
+        execute(new Task<UpdatedRegistration>(onResult, onError) {
+            @Override
+            protected UpdatedRegistration call() {
+                return store.updateRegistration(update);
+            }
+        });
+    }
+
+    @Override
+    public void getRegistration(final String registrationId, ResultCallback<Registration> onResult,
+            ErrorCallback onError) {
+        execute(new Task<Registration>(onResult, onError) {
+            @Override
+            protected Registration call() {
+                return store.getRegistration(registrationId);
+            }
+        });
+    }
+
+    @Override
+    public void removeRegistration(final String registrationId, ResultCallback<Deregistration> onResult,
+            ErrorCallback onError) {
+        execute(new Task<Deregistration>(onResult, onError) {
+            @Override
+            protected Deregistration call() {
+                return store.removeRegistration(registrationId);
+            }
+        });
+    }
+
+    @Override
+    public void getObservation(final String registrationId, final byte[] observationId,
+            ResultCallback<Observation> onResult, ErrorCallback onError) {
+        execute(new Task<Observation>(onResult, onError) {
+            @Override
+            protected Observation call() {
+                return store.getObservation(registrationId, observationId);
+            }
+        });
+    }
+
+    private void execute(Task<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.onError.onError(e);
+        }
+    }
+
+    private static abstract class Task<T> implements Runnable {
+
+        private final ResultCallback<T> onResult;
+        private final ErrorCallback onError;
+
+        public Task(ResultCallback<T> onResult, ErrorCallback onError) {
+            Validate.notNull(onResult);
+            Validate.notNull(onError);
+            this.onResult = onResult;
+            this.onError = onError;
+        }
+
+        protected abstract T call();
+
+        @Override
+        public void run() {
+            T result;
+            try {
+                result = call();
+            } catch (RuntimeException e) {
+                onError.onError(e);
+                return;
+            }
+            // outside of the try block, so an exception raised by the callback is not reported as a store error.
+            onResult.onResult(result);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.util.Validate;
+
+/**
+ * A cache of registration object links.
+ * <p>
+ * Devices of the same kind generally register with exactly the same object links. Instead of keeping one copy of
+ * these links and of the supported objects extracted from them for each registration, registrations with identical
+ * object links share the same {@link Link} array and the same supported objects map.
+ * <p>
+ * Shared arrays must not be modified.
+ */
+public class ObjectLinksCache {
+
+    /** The default maximum number of distinct object links kept in cache */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final int maxSize;
+
+    // shared arrays indexed by their content
+    private final ConcurrentMap<Key, Link[]> links = new ConcurrentHashMap<>();
+    // supported objects indexed by shared arrays (arrays use identity for equals and hashCode)
+    private final ConcurrentMap<Link[], Map<Integer, String>> supportedObjects = new ConcurrentHashMap<>();
+
+    public ObjectLinksCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of distinct object links kept in cache. Once reached, new object links are no
+     *        more shared.
+     */
+    public ObjectLinksCache(int maxSize) {
+        Validate.isTrue(maxSize >= 0, "maxSize must not be negative");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param objectLinks object links of a registration, may be <code>null</code>.
+     * @return a shared array equal to the given one, or the given array itself if the cache is full.
+     */
+    public Link[] intern(Link[] objectLinks) {
+        if (objectLinks == null) {
+            return null;
+        }
+        Key key = new Key(objectLinks);
+        Link[] shared = links.get(key);
+        if (shared != null) {
+            return shared;
+        }
+        if (links.size() >= maxSize) {
+            return objectLinks;
+        }
+        shared = links.putIfAbsent(key, objectLinks);
+        if (shared != null) {
+            return shared;
+        }
+        supportedObjects.put(objectLinks, Collections.unmodifiableMap(
+                Registration.getSupportedObject(Registration.getRootPath(objectLinks), objectLinks)));
+        return objectLinks;
+    }
+
+    /**
+     * @param objectLinks an array returned by {@link #intern(Link[])}.
+     * @return the supported objects shared by all registrations with these object links or <code>null</code> if the
+     *         array is not shared.
+     */
+    public Map<Integer, String> getSupportedObject(Link[] objectLinks) {
+        if (objectLinks == null) {
+            return null;
+        }
+        return supportedObjects.get(objectLinks);
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    private static class Key {
+        private final Link[] links;
+        private final int hashCode;
+
+        Key(Link[] links) {
+            this.links = links;
+            this.hashCode = Arrays.hashCode(links);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(links, ((Key) obj).links);
+        }
+    }
+}
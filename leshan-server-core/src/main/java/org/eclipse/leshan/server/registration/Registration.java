@@ -13,6 +13,7 @@
  * Contributors:
  *     Sierra Wireless - initial API and implementation
  *     Achim Kraus (Bosch Software Innovations GmbH) - use Identity as destination
+ *     Sierra Wireless - extract supported objects without regular expression
  *******************************************************************************/
 package org.eclipse.leshan.server.registration;
 
@@ -26,8 +27,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.eclipse.leshan.core.Link;
 import org.eclipse.leshan.core.attributes.Attribute;
@@ -94,19 +93,7 @@ public class Registration implements Serializable {
         this.smsNumber = smsNumber;
 
         this.objectLinks = objectLinks;
-        // Parse object link to extract root path.
-        String rootPath = "/";
-        if (objectLinks != null) {
-            for (Link link : objectLinks) {
-                if (link != null && "oma.lwm2m".equals(Link.unquote(link.getAttributes().get("rt")))) {
-                    rootPath = link.getUrl();
-                    break;
-                }
-            }
-        }
-        if (!rootPath.endsWith("/"))
-            rootPath = rootPath + "/";
-        this.rootPath = rootPath;
+        this.rootPath = getRootPath(objectLinks);
         this.supportedObjects = new AtomicReference<Map<Integer, String>>(supportedObjects);
         this.lifeTimeInSec = lifetimeInSec == null ? DEFAULT_LIFETIME_IN_SEC : lifetimeInSec;
         this.lwM2mVersion = lwM2mVersion == null ? DEFAULT_LWM2M_VERSION : lwM2mVersion;
@@ -355,23 +342,46 @@ public class Registration implements Serializable {
         }
     }
 
+    /**
+     * Extract the root path of the LWM2M tree from registration object links.
+     * 
+     * @param objectLinks the registration object links payload, may be <code>null</code>.
+     * @return the root path, always ending with "/".
+     */
+    public static String getRootPath(Link[] objectLinks) {
+        String rootPath = "/";
+        if (objectLinks != null) {
+            for (Link link : objectLinks) {
+                if (link != null && "oma.lwm2m".equals(Link.unquote(link.getAttributes().get("rt")))) {
+                    rootPath = link.getUrl();
+                    break;
+                }
+            }
+        }
+        if (!rootPath.endsWith("/"))
+            rootPath = rootPath + "/";
+        return rootPath;
+    }
+
     /**
      * Build a Map {@code objectId} {@literal =>} {@code supportedVersion} from root path and registration object links.
      * 
      * @param rootPath the rootpath of LWM2M tree.
-     * @param objectLinks the registraiton object links payload.
+     * @param objectLinks the registration object links payload, may be <code>null</code>.
      * @return a Map {@code objectId} {@literal =>} {@code supportedVersion}.
      */
     public static Map<Integer, String> getSupportedObject(String rootPath, Link[] objectLinks) {
         Map<Integer, String> objects = new HashMap<>();
+        if (objectLinks == null) {
+            return objects;
+        }
         for (Link link : objectLinks) {
             if (link != null) {
-                Pattern p = Pattern.compile("^\\Q" + rootPath + "\\E(\\d+)(?:/\\d+)*$");
-                Matcher m = p.matcher(link.getUrl());
-                if (m.matches()) {
+                String objectIdPart = getObjectIdPart(rootPath, link.getUrl());
+                if (objectIdPart != null) {
                     try {
                         // extract object id and version
-                        int objectId = Integer.parseInt(m.group(1));
+                        int objectId = Integer.parseInt(objectIdPart);
                         String version = link.getAttributes().get(Attribute.OBJECT_VERSION);
                         // un-quote version (see https://github.com/eclipse/leshan/issues/732)
                         version = Link.unquote(version);
@@ -401,7 +411,47 @@ public class Registration implements Serializable {
         return objects;
     }
 
+    /**
+     * Match the given url against {@code <rootPath>(\d+)(/\d+)*} without any regular expression.
+     * 
+     * @return the first digits after the root path or <code>null</code> if the url does not match.
+     */
+    private static String getObjectIdPart(String rootPath, String url) {
+        if (!url.startsWith(rootPath)) {
+            return null;
+        }
+        int start = rootPath.length();
+        int objectIdEnd = -1;
+        int i = start;
+        while (i < url.length()) {
+            int digitsStart = i;
+            while (i < url.length() && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == digitsStart) {
+                return null;
+            }
+            if (objectIdEnd == -1) {
+                objectIdEnd = i;
+            }
+            if (i < url.length()) {
+                if (url.charAt(i) != '/') {
+                    return null;
+                }
+                i++;
+                if (i == url.length()) {
+                    // trailing slash
+                    return null;
+                }
+            }
+        }
+        return objectIdEnd == -1 ? null : url.substring(start, objectIdEnd);
+    }
+
     public static class Builder {
+        private static final Class<?> UNMODIFIABLE_MAP_CLASS = Collections
+                .unmodifiableMap(Collections.emptyMap()).getClass();
+
         private final String registrationId;
         private final String endpoint;
         private final Identity identity;
@@ -462,7 +512,12 @@ public class Registration implements Serializable {
         }
 
         public Builder supportedObjects(Map<Integer, String> supportedObjects) {
-            this.supportedObjects = Collections.unmodifiableMap(supportedObjects);
+            // avoid to wrap again a map coming from an other registration
+            if (supportedObjects == null || supportedObjects.getClass() == UNMODIFIABLE_MAP_CLASS) {
+                this.supportedObjects = supportedObjects;
+            } else {
+                this.supportedObjects = Collections.unmodifiableMap(supportedObjects);
+            }
             return this;
         }
 
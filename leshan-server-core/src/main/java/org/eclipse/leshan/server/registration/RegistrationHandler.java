@@ -14,16 +14,21 @@
  *     Sierra Wireless - initial API and implementation
  *     Achim Kraus (Bosch Software Innovations GmbH) - use Identity as destination
  *     Rokwoon Kim (contracted with NTELS) - use registrationIdProvider
+ *     Sierra Wireless - add asynchronous request handling
+ *     Sierra Wireless - share object links between registrations
  *******************************************************************************/
 package org.eclipse.leshan.server.registration;
 
 import java.util.Date;
 
+import org.eclipse.leshan.core.Link;
 import org.eclipse.leshan.core.request.DeregisterRequest;
 import org.eclipse.leshan.core.request.Identity;
 import org.eclipse.leshan.core.request.RegisterRequest;
 import org.eclipse.leshan.core.request.UpdateRequest;
 import org.eclipse.leshan.core.response.DeregisterResponse;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.LwM2mResponse;
 import org.eclipse.leshan.core.response.RegisterResponse;
 import org.eclipse.leshan.core.response.SendableResponse;
 import org.eclipse.leshan.core.response.UpdateResponse;
@@ -34,6 +39,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Handle the client registration logic. Check if the client is allowed to register, with the wanted security scheme.
  * Create the {@link Registration} representing the registered client and add it to the {@link RegistrationService}
+ * <p>
+ * Each request can be handled synchronously or asynchronously. In the asynchronous case, the registration store is
+ * accessed through an {@link AsyncRegistrationStore} (see
+ * {@link AsyncRegistrationStoreAdapter#adapt(RegistrationStore)}) so the calling thread does not wait for store I/O.
  */
 public class RegistrationHandler {
 
@@ -42,117 +51,236 @@ public class RegistrationHandler {
     private RegistrationServiceImpl registrationService;
     private RegistrationIdProvider registrationIdProvider;
     private Authorizer authorizer;
+    // executes store operations in the calling thread
+    private AsyncRegistrationStore syncStore;
+    private AsyncRegistrationStore asyncStore;
+    private ObjectLinksCache objectLinksCache;
 
     public RegistrationHandler(RegistrationServiceImpl registrationService, Authorizer authorizer,
             RegistrationIdProvider registrationIdProvider) {
+        this(registrationService, authorizer, registrationIdProvider, new ObjectLinksCache());
+    }
+
+    /**
+     * @param objectLinksCache used to share object links between registrations of devices of the same kind.
+     */
+    public RegistrationHandler(RegistrationServiceImpl registrationService, Authorizer authorizer,
+            RegistrationIdProvider registrationIdProvider, ObjectLinksCache objectLinksCache) {
         this.registrationService = registrationService;
         this.authorizer = authorizer;
         this.registrationIdProvider = registrationIdProvider;
+        this.objectLinksCache = objectLinksCache;
+        this.syncStore = new AsyncRegistrationStoreAdapter(registrationService.getStore());
+        this.asyncStore = AsyncRegistrationStoreAdapter.adapt(registrationService.getStore());
     }
 
     public SendableResponse<RegisterResponse> register(Identity sender, RegisterRequest registerRequest) {
+        ResultHolder<SendableResponse<RegisterResponse>> result = new ResultHolder<>();
+        register(syncStore, sender, registerRequest, result);
+        return result.get();
+    }
+
+    /**
+     * Handle a register request, the response is given to the callback once the registration is stored.
+     */
+    public void register(Identity sender, RegisterRequest registerRequest,
+            ResultCallback<SendableResponse<RegisterResponse>> callback) {
+        register(asyncStore, sender, registerRequest, callback);
+    }
+
+    private void register(AsyncRegistrationStore store, Identity sender, RegisterRequest registerRequest,
+            final ResultCallback<SendableResponse<RegisterResponse>> callback) {
 
         Registration.Builder builder = new Registration.Builder(
                 registrationIdProvider.getRegistrationId(registerRequest), registerRequest.getEndpointName(), sender);
 
+        Link[] objectLinks = objectLinksCache.intern(registerRequest.getObjectLinks());
         builder.lwM2mVersion(registerRequest.getLwVersion()).lifeTimeInSec(registerRequest.getLifetime())
-                .bindingMode(registerRequest.getBindingMode()).objectLinks(registerRequest.getObjectLinks())
+                .bindingMode(registerRequest.getBindingMode()).objectLinks(objectLinks)
+                .supportedObjects(objectLinksCache.getSupportedObject(objectLinks))
                 .smsNumber(registerRequest.getSmsNumber()).registrationDate(new Date()).lastUpdate(new Date())
                 .additionalRegistrationAttributes(registerRequest.getAdditionalAttributes());
 
         // We must check if the client is using the right identity.
         final Registration registration = authorizer.isAuthorized(registerRequest, builder.build(), sender);
         if (registration == null) {
-            return new SendableResponse<>(RegisterResponse.forbidden(null));
+            callback.onResult(new SendableResponse<>(RegisterResponse.forbidden(null)));
+            return;
         }
 
         // Add registration to the store
-        final Deregistration deregistration = registrationService.getStore().addRegistration(registration);
-
-        // Create callback to notify new registration and de-registration
-        LOG.debug("New registration: {}", registration);
-        Runnable whenSent = new Runnable() {
+        store.addRegistration(registration, new ResultCallback<Deregistration>() {
             @Override
-            public void run() {
-                if (deregistration != null) {
-                    registrationService.fireUnregistered(deregistration.getRegistration(),
-                            deregistration.getObservations(), registration);
-                    registrationService.fireRegistered(registration, deregistration.registration,
-                            deregistration.observations);
-                } else {
-                    registrationService.fireRegistered(registration, null, null);
-                }
-            }
-        };
+            public void onResult(final Deregistration deregistration) {
+                // Create callback to notify new registration and de-registration
+                LOG.debug("New registration: {}", registration);
+                Runnable whenSent = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deregistration != null) {
+                            registrationService.fireUnregistered(deregistration.getRegistration(),
+                                    deregistration.getObservations(), registration);
+                            registrationService.fireRegistered(registration, deregistration.registration,
+                                    deregistration.observations);
+                        } else {
+                            registrationService.fireRegistered(registration, null, null);
+                        }
+                    }
+                };
 
-        return new SendableResponse<>(RegisterResponse.success(registration.getId()), whenSent);
+                callback.onResult(new SendableResponse<>(RegisterResponse.success(registration.getId()), whenSent));
+            }
+        }, storeError(callback, RegisterResponse.internalServerError("unable to store registration")));
     }
 
     public SendableResponse<UpdateResponse> update(Identity sender, UpdateRequest updateRequest) {
+        ResultHolder<SendableResponse<UpdateResponse>> result = new ResultHolder<>();
+        update(syncStore, sender, updateRequest, result);
+        return result.get();
+    }
+
+    /**
+     * Handle an update request, the response is given to the callback once the registration is updated.
+     */
+    public void update(Identity sender, UpdateRequest updateRequest,
+            ResultCallback<SendableResponse<UpdateResponse>> callback) {
+        update(asyncStore, sender, updateRequest, callback);
+    }
+
+    private void update(final AsyncRegistrationStore store, final Identity sender, final UpdateRequest updateRequest,
+            final ResultCallback<SendableResponse<UpdateResponse>> callback) {
+
+        final ErrorCallback onError = storeError(callback,
+                UpdateResponse.internalServerError("unable to update registration"));
 
         // We must check if the client is using the right identity.
-        Registration registration = registrationService.getById(updateRequest.getRegistrationId());
-        if (registration == null) {
-            return new SendableResponse<>(UpdateResponse.notFound());
-        }
+        store.getRegistration(updateRequest.getRegistrationId(), new ResultCallback<Registration>() {
+            @Override
+            public void onResult(final Registration registration) {
+                if (registration == null) {
+                    callback.onResult(new SendableResponse<>(UpdateResponse.notFound()));
+                    return;
+                }
 
-        if (authorizer.isAuthorized(updateRequest, registration, sender) == null) {
-            return new SendableResponse<>(UpdateResponse.badRequest("forbidden"));
-        }
+                if (authorizer.isAuthorized(updateRequest, registration, sender) == null) {
+                    callback.onResult(new SendableResponse<>(UpdateResponse.badRequest("forbidden")));
+                    return;
+                }
 
-        // Create update
-        final RegistrationUpdate update = new RegistrationUpdate(updateRequest.getRegistrationId(), sender,
-                updateRequest.getLifeTimeInSec(), updateRequest.getSmsNumber(), updateRequest.getBindingMode(),
-                updateRequest.getObjectLinks(), updateRequest.getAdditionalAttributes());
-
-        // update registration
-        final UpdatedRegistration updatedRegistration = registrationService.getStore().updateRegistration(update);
-        if (updatedRegistration == null) {
-            LOG.debug("Invalid update:  registration {} not found", registration.getId());
-            return new SendableResponse<>(UpdateResponse.notFound());
-        } else {
-            LOG.debug("Updated registration {} by {}", updatedRegistration, update);
-            // Create callback to notify registration update
-            Runnable whenSent = new Runnable() {
-                @Override
-                public void run() {
-                    registrationService.fireUpdated(update, updatedRegistration.getUpdatedRegistration(),
-                            updatedRegistration.getPreviousRegistration());
-                };
-            };
-            return new SendableResponse<>(UpdateResponse.success(), whenSent);
-        }
+                // Create update
+                final RegistrationUpdate update = new RegistrationUpdate(updateRequest.getRegistrationId(), sender,
+                        updateRequest.getLifeTimeInSec(), updateRequest.getSmsNumber(), updateRequest.getBindingMode(),
+                        objectLinksCache.intern(updateRequest.getObjectLinks()),
+                        updateRequest.getAdditionalAttributes());
+
+                // update registration
+                store.updateRegistration(update, new ResultCallback<UpdatedRegistration>() {
+                    @Override
+                    public void onResult(final UpdatedRegistration updatedRegistration) {
+                        if (updatedRegistration == null) {
+                            LOG.debug("Invalid update:  registration {} not found", registration.getId());
+                            callback.onResult(new SendableResponse<>(UpdateResponse.notFound()));
+                        } else {
+                            LOG.debug("Updated registration {} by {}", updatedRegistration, update);
+                            // Create callback to notify registration update
+                            Runnable whenSent = new Runnable() {
+                                @Override
+                                public void run() {
+                                    registrationService.fireUpdated(update,
+                                            updatedRegistration.getUpdatedRegistration(),
+                                            updatedRegistration.getPreviousRegistration());
+                                };
+                            };
+                            callback.onResult(new SendableResponse<>(UpdateResponse.success(), whenSent));
+                        }
+                    }
+                }, onError);
+            }
+        }, onError);
     }
 
     public SendableResponse<DeregisterResponse> deregister(Identity sender, DeregisterRequest deregisterRequest) {
+        ResultHolder<SendableResponse<DeregisterResponse>> result = new ResultHolder<>();
+        deregister(syncStore, sender, deregisterRequest, result);
+        return result.get();
+    }
+
+    /**
+     * Handle a deregister request, the response is given to the callback once the registration is removed.
+     */
+    public void deregister(Identity sender, DeregisterRequest deregisterRequest,
+            ResultCallback<SendableResponse<DeregisterResponse>> callback) {
+        deregister(asyncStore, sender, deregisterRequest, callback);
+    }
+
+    private void deregister(final AsyncRegistrationStore store, final Identity sender,
+            final DeregisterRequest deregisterRequest,
+            final ResultCallback<SendableResponse<DeregisterResponse>> callback) {
+
+        final ErrorCallback onError = storeError(callback,
+                DeregisterResponse.internalServerError("unable to remove registration"));
 
         // We must check if the client is using the right identity.
-        Registration registration = registrationService.getById(deregisterRequest.getRegistrationId());
-        if (registration == null) {
-            return new SendableResponse<>(DeregisterResponse.notFound());
-        }
-        if (authorizer.isAuthorized(deregisterRequest, registration, sender) == null) {
-            return new SendableResponse<>(DeregisterResponse.badRequest("forbidden"));
+        store.getRegistration(deregisterRequest.getRegistrationId(), new ResultCallback<Registration>() {
+            @Override
+            public void onResult(final Registration registration) {
+                if (registration == null) {
+                    callback.onResult(new SendableResponse<>(DeregisterResponse.notFound()));
+                    return;
+                }
+                if (authorizer.isAuthorized(deregisterRequest, registration, sender) == null) {
+                    callback.onResult(new SendableResponse<>(DeregisterResponse.badRequest("forbidden")));
+                    return;
+                }
+
+                store.removeRegistration(deregisterRequest.getRegistrationId(), new ResultCallback<Deregistration>() {
+                    @Override
+                    public void onResult(final Deregistration deregistration) {
+                        if (deregistration != null) {
+                            LOG.debug("Deregistered client: {}", deregistration.getRegistration());
+                            // Create callback to notify new de-registration
+                            Runnable whenSent = new Runnable() {
+                                @Override
+                                public void run() {
+                                    registrationService.fireUnregistered(deregistration.getRegistration(),
+                                            deregistration.getObservations(), null);
+                                };
+                            };
+                            callback.onResult(new SendableResponse<>(DeregisterResponse.success(), whenSent));
+                        } else {
+                            LOG.debug("Invalid deregistration :  registration {} not found", registration.getId());
+                            callback.onResult(new SendableResponse<>(DeregisterResponse.notFound()));
+                        }
+                    }
+                }, onError);
+            }
+        }, onError);
+    }
+
+    private <T extends LwM2mResponse> ErrorCallback storeError(final ResultCallback<SendableResponse<T>> callback,
+            final T errorResponse) {
+        return new ErrorCallback() {
+            @Override
+            public void onError(Exception e) {
+                LOG.error("Unable to access registration store", e);
+                callback.onResult(new SendableResponse<>(errorResponse));
+            }
+        };
+    }
+
+    /**
+     * Keeps the result of an operation done in the calling thread.
+     */
+    private static class ResultHolder<T> implements ResultCallback<T> {
+        private T result;
+
+        @Override
+        public void onResult(T result) {
+            this.result = result;
         }
 
-        final Deregistration deregistration = registrationService.getStore()
-                .removeRegistration(deregisterRequest.getRegistrationId());
-
-        if (deregistration != null) {
-            LOG.debug("Deregistered client: {}", deregistration.getRegistration());
-            // Create callback to notify new de-registration
-            Runnable whenSent = new Runnable() {
-                @Override
-                public void run() {
-                    registrationService.fireUnregistered(deregistration.getRegistration(),
-                            deregistration.getObservations(), null);
-                };
-            };
-            return new SendableResponse<>(DeregisterResponse.success(), whenSent);
-        } else {
-            LOG.debug("Invalid deregistration :  registration {} not found", registration.getId());
-            return new SendableResponse<>(DeregisterResponse.notFound());
+        public T get() {
+            return result;
         }
     }
-
 }
@@ -85,6 +85,10 @@ public class RegistrationUpdate {
         builder.lwM2mVersion(registration.getLwM2mVersion()).lifeTimeInSec(lifeTimeInSec).smsNumber(smsNumber)
                 .bindingMode(bindingMode).objectLinks(linkObject).registrationDate(registration.getRegistrationDate())
                 .lastUpdate(lastUpdate).additionalRegistrationAttributes(additionalAttributes);
+        if (this.objectLinks == null) {
+            // object links did not change, no need to extract supported objects again
+            builder.supportedObjects(registration.getSupportedObject());
+        }
 
         return builder.build();
 
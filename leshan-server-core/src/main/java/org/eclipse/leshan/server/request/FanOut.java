@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.request;
+
+/**
+ * The progress of a request sent to many LWM2M clients by a {@link FanOutRequestSender}.
+ * <p>
+ * Counters are updated as responses and errors are received, so they can be read at any time to follow the campaign.
+ */
+public interface FanOut {
+
+    /**
+     * @return the number of requests sent so far.
+     */
+    long getSent();
+
+    /**
+     * @return the number of successful responses received.
+     */
+    long getSucceeded();
+
+    /**
+     * @return the number of error responses received (e.g. NOT_FOUND or UNAUTHORIZED).
+     */
+    long getFailed();
+
+    /**
+     * @return the number of requests which did not get any response (e.g. timeout, sleeping client, send failure).
+     */
+    long getErrors();
+
+    /**
+     * @return the number of requests sent which are waiting for a response.
+     */
+    int getInFlight();
+
+    /**
+     * Stop sending the request to the remaining clients. Requests already sent are not canceled, the fan-out is
+     * completed when all of them are answered.
+     */
+    void cancel();
+
+    boolean isCancelled();
+
+    /**
+     * @return <code>true</code> if no more request will be sent and all responses are received, or if the
+     *         {@link FanOutRequestSender} was destroyed.
+     */
+    boolean isDone();
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.request;
+
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Receives the results of a request sent to many LWM2M clients by a {@link FanOutRequestSender}.
+ * <p>
+ * Callbacks are called concurrently for different clients, so implementations must be thread-safe.
+ * 
+ * @param <T> The expected type of the response received.
+ */
+public interface FanOutListener<T extends LwM2mResponse> {
+
+    /**
+     * Called when a response is received (successful or error response).
+     */
+    void onResponse(Registration destination, T response);
+
+    /**
+     * Called when no response can be received, see the error callback of the asynchronous
+     * {@link LwM2mRequestSender} send method for possible exceptions.
+     */
+    void onError(Registration destination, Exception e);
+
+    /**
+     * Called once when the request was sent to all clients (or the fan-out is canceled) and all responses are
+     * received.
+     * <p>
+     * If the {@link FanOutRequestSender} is destroyed meanwhile, it is called immediately and responses of requests in
+     * flight may still be received afterwards.
+     */
+    void onCompleted(FanOut fanOut);
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.request;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.core.node.codec.CachingLwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ResponseCallback;
+import org.eclipse.leshan.core.util.NamedThreadFactory;
+import org.eclipse.leshan.core.util.Validate;
+import org.eclipse.leshan.server.Destroyable;
+import org.eclipse.leshan.server.registration.Registration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the same {@link DownlinkRequest} to many LWM2M clients.
+ * <p>
+ * Destinations are pulled lazily from an {@link Iterator}, so a campaign can target millions of registrations without
+ * loading them all. The number of requests waiting for a response and the number of requests sent per second are
+ * bounded, and results are streamed to a {@link FanOutListener}.
+ * <p>
+ * When a {@link CachingLwM2mNodeEncoder} is given, the payload of a {@link WriteRequest} is encoded only once for all
+ * clients sharing the same object model.
+ */
+public class FanOutRequestSender implements Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanOutRequestSender.class);
+
+    private final LwM2mRequestSender sender;
+    private final ScheduledExecutorService scheduler;
+    private final CachingLwM2mNodeEncoder encoder;
+    // fan-outs not completed yet, aborted on destroy
+    private final Set<FanOutTask<?>> running = Collections
+            .newSetFromMap(new ConcurrentHashMap<FanOutTask<?>, Boolean>());
+
+    /**
+     * @param sender the sender used to send each request.
+     * @param encoder the encoder used by <code>sender</code> to encode payloads, or <code>null</code> if payloads must
+     *        be encoded for each client.
+     */
+    public FanOutRequestSender(LwM2mRequestSender sender, CachingLwM2mNodeEncoder encoder) {
+        this(sender, encoder, Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory("Leshan Fan-out request sender")));
+    }
+
+    /**
+     * @param sender the sender used to send each request.
+     * @param encoder the encoder used by <code>sender</code> to encode payloads, or <code>null</code> if payloads must
+     *        be encoded for each client.
+     * @param scheduler the executor pulling destinations and sending requests. It is shut down on {@link #destroy()},
+     *        which also completes the running fan-outs.
+     */
+    public FanOutRequestSender(LwM2mRequestSender sender, CachingLwM2mNodeEncoder encoder,
+            ScheduledExecutorService scheduler) {
+        Validate.notNull(sender);
+        Validate.notNull(scheduler);
+        this.sender = sender;
+        this.encoder = encoder;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Send a Lightweight M2M {@link DownlinkRequest} asynchronously to all the given LWM2M clients.
+     * <p>
+     * This method returns immediately, destinations are iterated in a dedicated thread.
+     * 
+     * @param destinations the {@link Registration}s of the clients to send the request to. It is only used by one
+     *        thread at a time.
+     * @param request The request to send to the clients.
+     * @param timeoutInMs The global timeout to wait in milliseconds for each client (see
+     *        https://github.com/eclipse/leshan/wiki/Request-Timeout)
+     * @param maxInFlight The maximum number of requests waiting for a response.
+     * @param maxRequestsPerSecond The maximum number of requests sent by second, or 0 for no limit.
+     * @param listener the listener notified of each result and of the completion. This listener MUST NOT be null.
+     * @param <T> The expected type of the response received.
+     * @return the progress of the fan-out.
+     */
+    public <T extends LwM2mResponse> FanOut send(Iterator<Registration> destinations, DownlinkRequest<T> request,
+            long timeoutInMs, int maxInFlight, int maxRequestsPerSecond, FanOutListener<T> listener) {
+        Validate.notNull(destinations);
+        Validate.notNull(request);
+        Validate.notNull(listener);
+        Validate.isTrue(maxInFlight > 0, "max in-flight requests must be positive");
+        Validate.isTrue(maxRequestsPerSecond >= 0, "max requests per second must be positive or 0");
+
+        FanOutTask<T> task = new FanOutTask<>(destinations, request, timeoutInMs, maxInFlight, maxRequestsPerSecond,
+                listener);
+        if (encoder != null && request instanceof WriteRequest) {
+            encoder.retain(((WriteRequest) request).getNode());
+        }
+        running.add(task);
+        task.drain();
+        return task;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warn("Fan-out scheduler was not shut down in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Destroying fan-out request sender was interrupted.", e);
+        }
+        // pending drains were dropped by the scheduler
+        for (FanOutTask<?> task : running) {
+            task.abort();
+        }
+    }
+
+    private class FanOutTask<T extends LwM2mResponse> implements FanOut, Runnable {
+
+        private final Iterator<Registration> destinations;
+        private final DownlinkRequest<T> request;
+        private final long timeoutInMs;
+        private final int maxInFlight;
+        private final long intervalInNanos;
+        private final FanOutListener<T> listener;
+
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // number of drain requests, only the thread incrementing it from 0 iterates destinations
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean delayed = new AtomicBoolean();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile boolean exhausted;
+        // only accessed while iterating destinations
+        private long nextSlot;
+
+        private final Runnable delayedDrain = new Runnable() {
+            @Override
+            public void run() {
+                delayed.set(false);
+                drain();
+            }
+        };
+
+        private FanOutTask(Iterator<Registration> destinations, DownlinkRequest<T> request, long timeoutInMs,
+                int maxInFlight, int maxRequestsPerSecond, FanOutListener<T> listener) {
+            this.destinations = destinations;
+            this.request = request;
+            this.timeoutInMs = timeoutInMs;
+            this.maxInFlight = maxInFlight;
+            this.intervalInNanos = maxRequestsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond;
+            this.listener = listener;
+            this.nextSlot = System.nanoTime();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    scheduler.execute(this);
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Unable to continue fan-out of {}", request, e);
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * Stop the fan-out when the scheduler is shut down, without waiting for requests in flight.
+         */
+        private void abort() {
+            exhausted = true;
+            if (completed.compareAndSet(false, true)) {
+                complete();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                sendNext();
+                if (exhausted && inFlight.get() == 0 && completed.compareAndSet(false, true)) {
+                    complete();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void sendNext() {
+            while (!exhausted && inFlight.get() < maxInFlight) {
+                if (cancelled || !hasNext()) {
+                    exhausted = true;
+                    return;
+                }
+                if (intervalInNanos > 0) {
+                    long now = System.nanoTime();
+                    long delay = nextSlot - now;
+                    if (delay > 0) {
+                        if (delayed.compareAndSet(false, true)) {
+                            try {
+                                scheduler.schedule(delayedDrain, delay, TimeUnit.NANOSECONDS);
+                            } catch (RejectedExecutionException e) {
+                                LOG.debug("Unable to delay fan-out of {}", request, e);
+                                abort();
+                            }
+                        }
+                        return;
+                    }
+                    // absorb scheduling delays but do not accumulate unused slots while waiting for responses
+                    nextSlot = Math.max(nextSlot, now - intervalInNanos) + intervalInNanos;
+                }
+
+                final Registration destination = destinations.next();
+                inFlight.incrementAndGet();
+                sent.incrementAndGet();
+                try {
+                    sender.send(destination, request, timeoutInMs, new ResponseCallback<T>() {
+                        @Override
+                        public void onResponse(T response) {
+                            handleResponse(destination, response);
+                        }
+                    }, new ErrorCallback() {
+                        @Override
+                        public void onError(Exception e) {
+                            handleError(destination, e);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    handleError(destination, e);
+                }
+            }
+        }
+
+        private boolean hasNext() {
+            try {
+                return destinations.hasNext();
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to get next destination of fan-out of {}", request, e);
+                return false;
+            }
+        }
+
+        private void handleResponse(Registration destination, T response) {
+            if (response.isSuccess()) {
+                succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            try {
+                listener.onResponse(destination, response);
+            } catch (RuntimeException e) {
+                LOG.warn("Fan-out listener failed to handle response of {}", destination.getEndpoint(), e);
+            }
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+        private void handleError(Registration destination, Exception error) {
+            errors.incrementAndGet();
+            try {
+                listener.onError(destination, error);
+            } catch (RuntimeException e) {
+                LOG.warn("Fan-out listener failed to handle error of {}", destination.getEndpoint(), e);
+            }
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+        private void complete() {
+            running.remove(this);
+            if (encoder != null && request instanceof WriteRequest) {
+                encoder.release(((WriteRequest) request).getNode());
+            }
+            try {
+                listener.onCompleted(this);
+            } catch (RuntimeException e) {
+                LOG.warn("Fan-out listener failed to handle completion of {}", request, e);
+            }
+        }
+
+        @Override
+        public long getSent() {
+            return sent.get();
+        }
+
+        @Override
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        @Override
+        public long getFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return completed.get();
+        }
+    }
+}
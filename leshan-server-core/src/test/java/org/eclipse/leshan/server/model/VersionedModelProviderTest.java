@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.model;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.LwM2mModelRepository;
+import org.eclipse.leshan.core.model.ObjectModel;
+import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.ResourceModel.Operations;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.Test;
+
+public class VersionedModelProviderTest {
+
+    private final ObjectModel device10 = objectModel(3, "1.0");
+    private final ObjectModel device11 = objectModel(3, "1.1");
+    private final ObjectModel custom = objectModel(10241, null);
+
+    @Test
+    public void find_model_by_id_and_version() {
+        LwM2mModelRepository repository = new LwM2mModelRepository(device10, device11, custom);
+
+        assertSame(device10, repository.getObjectModel(3, "1.0"));
+        assertSame(device11, repository.getObjectModel(3, "1.1"));
+        assertSame(custom, repository.getObjectModel(10241, ObjectModel.DEFAULT_VERSION));
+        assertNull(repository.getObjectModel(3, "1.2"));
+        assertNull(repository.getObjectModel(4, "1.0"));
+    }
+
+    @Test
+    public void last_model_overrides_same_id_and_version() {
+        ObjectModel otherDevice10 = objectModel(3, "1.0");
+        LwM2mModelRepository repository = new LwM2mModelRepository(Arrays.asList(device10, device11, otherDevice10));
+
+        assertSame(otherDevice10, repository.getObjectModel(3, "1.0"));
+        assertSame(device11, repository.getObjectModel(3, "1.1"));
+    }
+
+    @Test
+    public void registrations_supporting_same_objects_share_model() {
+        VersionedModelProvider provider = new VersionedModelProvider(Arrays.asList(device10, device11, custom));
+
+        LwM2mModel model = provider.getObjectModel(registration("1", "</3/0>;ver=1.1,</10241/0>"));
+        assertSame(model, provider.getObjectModel(registration("2", "</3/0>;ver=1.1,</10241/0>,</10241/1>")));
+        assertSame(device11, model.getObjectModel(3));
+        assertSame(custom, model.getObjectModel(10241));
+        assertEquals(2, model.getObjectModels().size());
+
+        LwM2mModel otherModel = provider.getObjectModel(registration("3", "</3/0>,</4/0>"));
+        assertNotSame(model, otherModel);
+        assertSame(device10, otherModel.getObjectModel(3));
+        assertNull(otherModel.getObjectModel(4));
+        assertNull(otherModel.getObjectModel(10241));
+    }
+
+    @Test
+    public void models_are_still_resolved_when_cache_is_full() {
+        VersionedModelProvider provider = new VersionedModelProvider(new LwM2mModelRepository(device10, device11), 0);
+
+        LwM2mModel model = provider.getObjectModel(registration("1", "</3/0>;ver=1.1"));
+        assertSame(device11, model.getObjectModel(3));
+        assertNotSame(model, provider.getObjectModel(registration("2", "</3/0>;ver=1.1")));
+    }
+
+    private static ObjectModel objectModel(int id, String version) {
+        return new ObjectModel(id, "object" + id, "", version, false, false, new ResourceModel(0, "resource", Operations.R,
+                false, false, ResourceModel.Type.STRING, null, null, ""));
+    }
+
+    private static Registration registration(String id, String objectLinks) {
+        Registration.Builder builder = new Registration.Builder(id, "endpoint" + id,
+                Identity.unsecure(InetSocketAddress.createUnresolved("localhost", 0)));
+        builder.objectLinks(Link.parse(objectLinks.getBytes()));
+        return builder.build();
+    }
+}
@@ -12,6 +12,7 @@
  *
  * Contributors:
  *     Bosch Software Innovations GmbH - initial API
+ *     Sierra Wireless - add timing wheel tests
  *******************************************************************************/
 package org.eclipse.leshan.server.queue;
 
@@ -19,6 +20,14 @@ import static org.junit.Assert.*;
 
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.leshan.core.request.BindingMode;
 import org.eclipse.leshan.core.request.Identity;
@@ -60,6 +69,149 @@ public class PresenceServiceTest {
         assertFalse(presenceService.isClientAwake(queueModeRegistration));
     }
 
+    @Test
+    public void timing_wheel_sets_client_asleep_after_awake_time() {
+        PresenceTimingWheel wheel = new PresenceTimingWheel(100, 8, 0);
+        Registration reg = queueModeClient("urn:client");
+
+        assertTrue(wheel.setAwake(reg, 1000, 0));
+        assertTrue(wheel.isAwake("urn:client"));
+        assertTrue(wheel.advance(999).isEmpty());
+        assertEquals(Arrays.asList(reg), wheel.advance(1000));
+        assertFalse(wheel.isAwake("urn:client"));
+    }
+
+    @Test
+    public void timing_wheel_reset_postpones_sleep() {
+        PresenceTimingWheel wheel = new PresenceTimingWheel(100, 8, 0);
+        Registration reg = queueModeClient("urn:client");
+
+        wheel.setAwake(reg, 1000, 0);
+        assertFalse(wheel.setAwake(reg, 1000, 800));
+        for (long now = 100; now < 1800; now += 100) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        assertEquals(Arrays.asList(reg), wheel.advance(1800));
+    }
+
+    @Test
+    public void timing_wheel_handles_awake_time_longer_than_a_round() {
+        PresenceTimingWheel wheel = new PresenceTimingWheel(100, 8, 0);
+        Registration reg = queueModeClient("urn:client");
+
+        wheel.setAwake(reg, 5000, 0);
+        for (long now = 100; now < 5000; now += 100) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        assertEquals(Arrays.asList(reg), wheel.advance(5000));
+    }
+
+    @Test
+    public void timing_wheel_forgets_sleeping_client() {
+        PresenceTimingWheel wheel = new PresenceTimingWheel(100, 8, 0);
+        Registration reg = queueModeClient("urn:client");
+
+        wheel.setAwake(reg, 1000, 0);
+        assertEquals(reg, wheel.setSleeping("urn:client"));
+        assertNull(wheel.setSleeping("urn:client"));
+        assertTrue(wheel.advance(1000).isEmpty());
+    }
+
+    @Test
+    public void timing_wheel_does_not_set_asleep_client_reset_concurrently() throws InterruptedException {
+        final PresenceTimingWheel wheel = new PresenceTimingWheel(100, 8, 0);
+        final AtomicLong time = new AtomicLong();
+        final AtomicLong sleeps = new AtomicLong();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread advancer = new Thread() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    sleeps.addAndGet(wheel.advance(time.addAndGet(100)).size());
+                }
+            }
+        };
+        advancer.start();
+
+        List<Registration> clients = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            clients.add(queueModeClient("urn:client" + i));
+        }
+        long awakes = 0;
+        try {
+            for (int i = 0; i < 2000; i++) {
+                long now = time.get();
+                // expires on the next tick...
+                for (Registration reg : clients) {
+                    if (wheel.setAwake(reg, 1, now)) {
+                        awakes++;
+                    }
+                }
+                // ...unless postponed before the wheel sets it asleep
+                for (Registration reg : clients) {
+                    if (wheel.setAwake(reg, 1L << 60, now)) {
+                        awakes++;
+                    }
+                }
+                for (Registration reg : clients) {
+                    assertTrue(reg.getEndpoint() + " set asleep after a reset", wheel.isAwake(reg.getEndpoint()));
+                    if (wheel.setSleeping(reg.getEndpoint()) != null) {
+                        sleeps.incrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            advancer.join();
+        }
+        // each awake client fell asleep exactly once
+        assertEquals(awakes, sleeps.get());
+    }
+
+    @Test
+    public void events_are_dispatched_in_batches() throws InterruptedException {
+        PresenceServiceImpl batchPresenceService = new PresenceServiceImpl(new StaticClientAwakeTimeProvider(50), 10,
+                true);
+        final List<Registration> awake = Collections.synchronizedList(new ArrayList<Registration>());
+        final CountDownLatch sleeping = new CountDownLatch(2);
+        batchPresenceService.addListener(new BatchPresenceListener() {
+            @Override
+            public void onAwake(List<Registration> registrations) {
+                awake.addAll(registrations);
+            }
+
+            @Override
+            public void onSleeping(List<Registration> registrations) {
+                for (int i = 0; i < registrations.size(); i++) {
+                    sleeping.countDown();
+                }
+            }
+
+            @Override
+            public void onAwake(Registration registration) {
+                fail("batch expected");
+            }
+
+            @Override
+            public void onSleeping(Registration registration) {
+                fail("batch expected");
+            }
+        });
+        try {
+            batchPresenceService.setAwake(queueModeClient("urn:client1"));
+            batchPresenceService.setAwake(queueModeClient("urn:client2"));
+            assertTrue(sleeping.await(2, TimeUnit.SECONDS));
+            assertEquals(2, awake.size());
+        } finally {
+            batchPresenceService.destroy();
+        }
+    }
+
+    private Registration queueModeClient(String endpoint) {
+        return new Registration.Builder("ID-" + endpoint, endpoint,
+                Identity.unsecure(Inet4Address.getLoopbackAddress(), 12354)).bindingMode(BindingMode.UQ).build();
+    }
+
     private Registration givenASimpleClient() throws UnknownHostException {
         Registration.Builder builder = new Registration.Builder("ID", "urn:client",
                 Identity.unsecure(Inet4Address.getLoopbackAddress(), 12354));
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.queue;
+
+import static org.junit.Assert.*;
+
+import java.net.Inet4Address;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.request.exception.ClientSleepingException;
+import org.eclipse.leshan.core.request.exception.RequestCanceledException;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ResponseCallback;
+import org.eclipse.leshan.core.response.WriteResponse;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.request.RecordingRequestSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the queue of requests of {@link QueueModeLwM2mRequestSender}.
+ */
+public class QueueModeLwM2mRequestSenderTest {
+
+    private PresenceServiceImpl presenceService;
+    private RecordingRequestSender delegatedSender;
+    private DownlinkQueueStore queueStore;
+    private QueueModeLwM2mRequestSender sender;
+    private Registration registration;
+
+    @Before
+    public void setUp() {
+        presenceService = new PresenceServiceImpl(new StaticClientAwakeTimeProvider(0));
+        delegatedSender = new RecordingRequestSender();
+        queueStore = new InMemoryDownlinkQueueStore(3);
+        sender = new QueueModeLwM2mRequestSender(presenceService, delegatedSender, queueStore, 60000, 1);
+        registration = queueModeClient("urn:client");
+    }
+
+    @After
+    public void tearDown() {
+        sender.destroy();
+        presenceService.destroy();
+    }
+
+    @Test
+    public void requests_to_sleeping_client_are_sent_in_order_on_wake_up() {
+        Results results = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        send(registration, new ExecuteRequest("/3/0/5"), results);
+        assertEquals(0, delegatedSender.size());
+        assertEquals(2, queueStore.size("urn:client"));
+
+        presenceService.setAwake(registration);
+
+        // requests of a client are sent one by one
+        assertEquals(1, delegatedSender.size());
+        assertEquals("/3/0/4", delegatedSender.get(0).getRequest().getPath().toString());
+        delegatedSender.respond(0, WriteResponse.success());
+        assertEquals(2, delegatedSender.size());
+        assertEquals("/3/0/5", delegatedSender.get(1).getRequest().getPath().toString());
+        delegatedSender.respond(1, WriteResponse.success());
+
+        assertEquals(2, results.responses.size());
+        assertEquals(0, queueStore.size("urn:client"));
+
+        // then requests are sent directly
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        assertEquals(3, delegatedSender.size());
+        assertEquals(0, queueStore.size("urn:client"));
+    }
+
+    @Test
+    public void superseded_write_is_canceled() {
+        Results first = new Results();
+        Results second = new Results();
+        send(registration, new WriteRequest(3, 0, 14, "+01"), first);
+        send(registration, new WriteRequest(3, 0, 14, "+02"), second);
+
+        assertEquals(1, first.errors.size());
+        assertTrue(first.errors.get(0) instanceof RequestCanceledException);
+        assertEquals(1, queueStore.size("urn:client"));
+
+        presenceService.setAwake(registration);
+        assertEquals(1, delegatedSender.size());
+        WriteRequest sent = (WriteRequest) delegatedSender.get(0).getRequest();
+        assertEquals("+02", ((LwM2mSingleResource) sent.getNode()).getValue());
+        delegatedSender.respond(0, WriteResponse.success());
+        assertEquals(1, second.responses.size());
+    }
+
+    @Test
+    public void oldest_request_is_canceled_when_queue_is_full() {
+        Results oldest = new Results();
+        Results others = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), oldest);
+        for (int i = 0; i < 3; i++) {
+            send(registration, new ExecuteRequest("/3/0/5"), others);
+        }
+
+        assertEquals(1, oldest.errors.size());
+        assertTrue(oldest.errors.get(0) instanceof RequestCanceledException);
+        assertTrue(others.errors.isEmpty());
+        assertEquals(3, queueStore.size("urn:client"));
+    }
+
+    @Test
+    public void queued_request_expires() throws InterruptedException {
+        sender.destroy();
+        sender = new QueueModeLwM2mRequestSender(presenceService, delegatedSender, queueStore, 50, 1);
+
+        Results results = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        results.await(2000);
+
+        assertEquals(1, results.errors.size());
+        assertTrue(results.errors.get(0) instanceof ClientSleepingException);
+        assertEquals(0, queueStore.size("urn:client"));
+    }
+
+    @Test
+    public void number_of_concurrent_flushes_is_bounded() {
+        Registration other = queueModeClient("urn:other");
+        Results results = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        send(other, new ExecuteRequest("/3/0/4"), results);
+
+        presenceService.setAwake(registration);
+        presenceService.setAwake(other);
+
+        // only one flush at a time
+        assertEquals(1, delegatedSender.size());
+        assertEquals("urn:client", delegatedSender.get(0).getDestination().getEndpoint());
+        delegatedSender.respond(0, WriteResponse.success());
+        assertEquals(2, delegatedSender.size());
+        assertEquals("urn:other", delegatedSender.get(1).getDestination().getEndpoint());
+    }
+
+    @Test
+    public void long_queue_of_failing_requests_is_flushed() {
+        sender.destroy();
+        queueStore = new InMemoryDownlinkQueueStore(10000);
+        sender = new QueueModeLwM2mRequestSender(presenceService, delegatedSender, queueStore, 60000, 1);
+
+        Results results = new Results();
+        for (int i = 0; i < 10000; i++) {
+            send(registration, new ExecuteRequest("/3/0/4"), results);
+        }
+        delegatedSender.setFailing("urn:client");
+        presenceService.setAwake(registration);
+
+        assertEquals(10000, results.errors.size());
+        assertEquals(0, queueStore.size("urn:client"));
+    }
+
+    @Test
+    public void request_removed_by_another_server_fails_immediately() {
+        sender.destroy();
+        SharedQueueStore sharedStore = new SharedQueueStore();
+        queueStore = sharedStore;
+        sender = new QueueModeLwM2mRequestSender(presenceService, delegatedSender, queueStore, 60000, 1);
+
+        Results results = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        String id = queueStore.peek("urn:client").getId();
+
+        // another server sent the request
+        queueStore.remove("urn:client", id);
+        sharedStore.listener.onRemoved("urn:client", id, "response CHANGED");
+
+        assertEquals(1, results.errors.size());
+        assertTrue(results.errors.get(0) instanceof RequestCanceledException);
+        assertTrue(results.errors.get(0).getMessage().contains("CHANGED"));
+    }
+
+    @Test
+    public void flush_lease_is_released_and_result_is_shared() {
+        sender.destroy();
+        SharedQueueStore sharedStore = new SharedQueueStore();
+        queueStore = sharedStore;
+        sender = new QueueModeLwM2mRequestSender(presenceService, delegatedSender, queueStore, 60000, 1);
+
+        Results results = new Results();
+        send(registration, new ExecuteRequest("/3/0/4"), results);
+        presenceService.setAwake(registration);
+        delegatedSender.respond(0, WriteResponse.success());
+
+        assertEquals(Arrays.asList("response CHANGED"), sharedStore.results);
+        assertTrue(sharedStore.endedFlushes.contains("urn:client"));
+
+        sender.destroy();
+        assertNull(sharedStore.listener);
+    }
+
+    private <T extends LwM2mResponse> void send(Registration destination, DownlinkRequest<T> request,
+            final Results results) {
+        sender.send(destination, request, 1000, new ResponseCallback<T>() {
+            @Override
+            public void onResponse(T response) {
+                results.onResponse(response);
+            }
+        }, results);
+    }
+
+    private Registration queueModeClient(String endpoint) {
+        return new Registration.Builder("ID-" + endpoint, endpoint,
+                Identity.unsecure(Inet4Address.getLoopbackAddress(), 12354)).bindingMode(BindingMode.UQ).build();
+    }
+
+    private static class Results implements ErrorCallback {
+        private final List<LwM2mResponse> responses = new ArrayList<>();
+        private final List<Exception> errors = new ArrayList<>();
+
+        public synchronized void onResponse(LwM2mResponse response) {
+            responses.add(response);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(Exception e) {
+            errors.add(e);
+            notifyAll();
+        }
+
+        private synchronized void await(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (responses.isEmpty() && errors.isEmpty() && System.currentTimeMillis() < end) {
+                wait(end - System.currentTimeMillis());
+            }
+        }
+    }
+
+    private static class SharedQueueStore extends InMemoryDownlinkQueueStore implements SharedDownlinkQueueStore {
+        private final List<String> endedFlushes = new ArrayList<>();
+        private final List<String> results = new ArrayList<>();
+        private QueuedRequestRemovalListener listener;
+
+        @Override
+        public void endFlush(String endpoint) {
+            endedFlushes.add(endpoint);
+        }
+
+        @Override
+        public boolean remove(String endpoint, String id, String result) {
+            results.add(result);
+            return remove(endpoint, id);
+        }
+
+        @Override
+        public void addListener(QueuedRequestRemovalListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeListener(QueuedRequestRemovalListener listener) {
+            if (this.listener == listener) {
+                this.listener = null;
+            }
+        }
+    }
+}
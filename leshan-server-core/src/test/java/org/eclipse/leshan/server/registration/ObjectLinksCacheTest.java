@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.eclipse.leshan.core.Link;
+import org.junit.Test;
+
+public class ObjectLinksCacheTest {
+
+    @Test
+    public void identical_object_links_are_shared() {
+        ObjectLinksCache cache = new ObjectLinksCache();
+
+        String content = "</lwm2m>;rt=\"oma.lwm2m\",</lwm2m/1/0>,</lwm2m/3/0>;ver=1.1";
+        Link[] links = cache.intern(Link.parse(content.getBytes()));
+        Link[] sameLinks = cache.intern(Link.parse(content.getBytes()));
+        Link[] otherLinks = cache.intern(Link.parse("</1/0>,</3/0>".getBytes()));
+
+        assertSame(links, sameLinks);
+        assertNotSame(links, otherLinks);
+        assertEquals(2, cache.size());
+
+        Map<Integer, String> supportedObjects = cache.getSupportedObject(links);
+        assertEquals(2, supportedObjects.size());
+        assertEquals("1.1", supportedObjects.get(3));
+        assertNull(cache.getSupportedObject(Link.parse("</1/0>,</3/0>".getBytes())));
+    }
+
+    @Test
+    public void object_links_are_not_shared_when_cache_is_full() {
+        ObjectLinksCache cache = new ObjectLinksCache(1);
+        cache.intern(Link.parse("</1/0>".getBytes()));
+
+        Link[] links = Link.parse("</1/0>,</3/0>".getBytes());
+        assertSame(links, cache.intern(links));
+        assertNull(cache.getSupportedObject(links));
+        assertNull(cache.intern(null));
+    }
+}
@@ -97,6 +97,28 @@ public class RegistrationTest {
         assertEquals("1.1", supportedObject.get(3));
     }
 
+    @Test
+    public void test_supported_object_given_invalid_object_links() {
+        Registration reg = given_a_registration_with_object_link_like("</root>;rt=\"oma.lwm2m\", </root/1/0/>,"
+                + "</root/2//0>,</root/3a>,</root/>,</root/99999999999>,</root/4/0/1>");
+
+        // Ensure supported objects are correct
+        Map<Integer, String> supportedObject = reg.getSupportedObject();
+        assertEquals(1, supportedObject.size());
+        assertEquals(ObjectModel.DEFAULT_VERSION, supportedObject.get(4));
+    }
+
+    @Test
+    public void test_update_without_object_links_keeps_supported_objects() {
+        Registration reg = given_a_registration_with_object_link_like("</1/0>,</3/0>;ver=1.1");
+
+        Registration updatedReg = new RegistrationUpdate(reg.getId(), reg.getIdentity(), 3600L, null, null, null,
+                null).update(reg);
+
+        assertSame(reg.getObjectLinks(), updatedReg.getObjectLinks());
+        assertSame(reg.getSupportedObject(), updatedReg.getSupportedObject());
+    }
+
     private Registration given_a_registration_with_object_link_like(String objectLinks) {
         Builder builder = new Registration.Builder("id", "endpoin",
                 Identity.unsecure(InetSocketAddress.createUnresolved("localhost", 0)));
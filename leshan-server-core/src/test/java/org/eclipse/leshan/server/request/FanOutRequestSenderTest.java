@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.request;
+
+import static org.junit.Assert.*;
+
+import java.net.Inet4Address;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.StaticModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.codec.CachingLwM2mNodeEncoder;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.request.exception.SendFailedException;
+import org.eclipse.leshan.core.response.ExecuteResponse;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.WriteResponse;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the concurrency control of {@link FanOutRequestSender}.
+ */
+public class FanOutRequestSenderTest {
+
+    private EncodingSender delegatedSender;
+    private CountingEncoder delegatedEncoder;
+    private CachingLwM2mNodeEncoder encoder;
+    private FanOutRequestSender sender;
+
+    @Before
+    public void setUp() {
+        delegatedSender = new EncodingSender();
+        delegatedEncoder = new CountingEncoder();
+        encoder = new CachingLwM2mNodeEncoder(delegatedEncoder);
+        sender = new FanOutRequestSender(delegatedSender, encoder);
+    }
+
+    @After
+    public void tearDown() {
+        sender.destroy();
+    }
+
+    @Test
+    public void in_flight_requests_are_bounded() throws InterruptedException {
+        Results<ExecuteResponse> results = new Results<>();
+        FanOut fanOut = sender.send(clients(5).iterator(), new ExecuteRequest("/3/0/4"), 1000, 2, 0, results);
+
+        delegatedSender.awaitSent(2);
+        Thread.sleep(50);
+        assertEquals(2, delegatedSender.size());
+        assertEquals(2, fanOut.getInFlight());
+
+        delegatedSender.respond(0, ExecuteResponse.success());
+        delegatedSender.awaitSent(3);
+        delegatedSender.respond(1, ExecuteResponse.notFound());
+        delegatedSender.respond(2, ExecuteResponse.success());
+        delegatedSender.awaitSent(5);
+        delegatedSender.respond(3, ExecuteResponse.success());
+        assertFalse(fanOut.isDone());
+        delegatedSender.respond(4, ExecuteResponse.success());
+
+        results.awaitCompletion(2000);
+        assertTrue(fanOut.isDone());
+        assertEquals(5, fanOut.getSent());
+        assertEquals(4, fanOut.getSucceeded());
+        assertEquals(1, fanOut.getFailed());
+        assertEquals(0, fanOut.getInFlight());
+        assertEquals(5, results.responses.size());
+    }
+
+    @Test
+    public void send_failures_are_reported_as_errors() throws InterruptedException {
+        delegatedSender.setFailing("urn:client1");
+        Results<ExecuteResponse> results = new Results<>();
+        FanOut fanOut = sender.send(clients(3).iterator(), new ExecuteRequest("/3/0/4"), 1000, 10, 0, results);
+
+        delegatedSender.awaitSent(2);
+        delegatedSender.respond(0, ExecuteResponse.success());
+        delegatedSender.error(1, new SendFailedException("no route"));
+
+        results.awaitCompletion(2000);
+        assertEquals(3, fanOut.getSent());
+        assertEquals(1, fanOut.getSucceeded());
+        assertEquals(2, fanOut.getErrors());
+        assertEquals(2, results.errors.size());
+    }
+
+    @Test
+    public void requests_per_second_are_bounded() throws InterruptedException {
+        delegatedSender.setAutoResponse(WriteResponse.success());
+        Results<ExecuteResponse> results = new Results<>();
+        long start = System.nanoTime();
+        sender.send(clients(5).iterator(), new ExecuteRequest("/3/0/4"), 1000, 10, 20, results);
+
+        results.awaitCompletion(5000);
+        long durationInMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(5, results.responses.size());
+        // 50ms between each request
+        assertTrue("fan-out took " + durationInMs + "ms", durationInMs >= 150);
+    }
+
+    @Test
+    public void cancel_stops_sending() throws InterruptedException {
+        Results<ExecuteResponse> results = new Results<>();
+        FanOut fanOut = sender.send(clients(5).iterator(), new ExecuteRequest("/3/0/4"), 1000, 1, 0, results);
+
+        delegatedSender.awaitSent(1);
+        fanOut.cancel();
+        delegatedSender.respond(0, ExecuteResponse.success());
+
+        results.awaitCompletion(2000);
+        assertTrue(fanOut.isCancelled());
+        assertTrue(fanOut.isDone());
+        assertEquals(1, fanOut.getSent());
+        assertEquals(1, delegatedSender.size());
+    }
+
+    @Test
+    public void write_payload_is_encoded_once() throws InterruptedException {
+        delegatedSender.setAutoResponse(WriteResponse.success());
+        WriteRequest request = new WriteRequest(3, 0, 14, "+02");
+        Results<WriteResponse> results = new Results<>();
+        sender.send(clients(5).iterator(), request, 1000, 2, 0, results);
+
+        results.awaitCompletion(2000);
+        assertEquals(5, results.responses.size());
+        assertEquals(1, delegatedEncoder.count);
+
+        // payload is not cached anymore once completed
+        delegatedSender.encode(request);
+        assertEquals(2, delegatedEncoder.count);
+    }
+
+    @Test
+    public void destroy_completes_running_fan_out() throws InterruptedException {
+        WriteRequest request = new WriteRequest(3, 0, 14, "+02");
+        Results<WriteResponse> results = new Results<>();
+        FanOut fanOut = sender.send(clients(5).iterator(), request, 1000, 1, 0, results);
+        delegatedSender.awaitSent(1);
+
+        sender.destroy();
+        results.awaitCompletion(2000);
+        assertTrue(fanOut.isDone());
+        assertEquals(1, fanOut.getSent());
+
+        // late responses are still reported, but nothing more is sent
+        delegatedSender.respond(0, WriteResponse.success());
+        assertEquals(1, results.responses.size());
+        assertEquals(1, delegatedSender.size());
+
+        // payload is released
+        delegatedSender.encode(request);
+        assertEquals(2, delegatedEncoder.count);
+    }
+
+    @Test
+    public void send_after_destroy_completes_immediately() throws InterruptedException {
+        sender.destroy();
+        Results<ExecuteResponse> results = new Results<>();
+        FanOut fanOut = sender.send(clients(5).iterator(), new ExecuteRequest("/3/0/4"), 1000, 1, 0, results);
+
+        results.awaitCompletion(2000);
+        assertTrue(fanOut.isDone());
+        assertEquals(0, fanOut.getSent());
+    }
+
+    @Test
+    public void destroy_while_rate_limited_completes_fan_out() throws InterruptedException {
+        delegatedSender.setAutoResponse(WriteResponse.success());
+        Results<ExecuteResponse> results = new Results<>();
+        // 1 request per second, the next one is delayed
+        FanOut fanOut = sender.send(clients(5).iterator(), new ExecuteRequest("/3/0/4"), 1000, 10, 1, results);
+        delegatedSender.awaitSent(1);
+
+        sender.destroy();
+        results.awaitCompletion(2000);
+        assertTrue(fanOut.isDone());
+        assertEquals(1, fanOut.getSent());
+    }
+
+    private List<Registration> clients(int count) {
+        List<Registration> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clients.add(new Registration.Builder("ID-" + i, "urn:client" + i,
+                    Identity.unsecure(Inet4Address.getLoopbackAddress(), 12354 + i)).build());
+        }
+        return clients;
+    }
+
+    private static class Results<T extends LwM2mResponse> implements FanOutListener<T> {
+        private final List<LwM2mResponse> responses = new ArrayList<>();
+        private final List<Exception> errors = new ArrayList<>();
+        private int completions;
+
+        @Override
+        public synchronized void onResponse(Registration destination, T response) {
+            responses.add(response);
+        }
+
+        @Override
+        public synchronized void onError(Registration destination, Exception e) {
+            errors.add(e);
+        }
+
+        @Override
+        public synchronized void onCompleted(FanOut fanOut) {
+            completions++;
+            notifyAll();
+        }
+
+        private synchronized void awaitCompletion(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (completions == 0 && System.currentTimeMillis() < end) {
+                wait(end - System.currentTimeMillis());
+            }
+            assertEquals(1, completions);
+        }
+    }
+
+    private class EncodingSender extends RecordingRequestSender {
+        private final LwM2mModel model = new StaticModel(ObjectLoader.loadDefault());
+
+        @Override
+        protected void onSend(DownlinkRequest<?> request) {
+            if (request instanceof WriteRequest) {
+                encode((WriteRequest) request);
+            }
+        }
+
+        private void encode(WriteRequest request) {
+            encoder.encode(request.getNode(), ContentFormat.TLV, request.getPath(), model);
+        }
+    }
+
+    private static class CountingEncoder extends DefaultLwM2mNodeEncoder {
+        private volatile int count;
+
+        @Override
+        public byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model)
+                throws CodecException {
+            count++;
+            return super.encode(node, format, path, model);
+        }
+    }
+}
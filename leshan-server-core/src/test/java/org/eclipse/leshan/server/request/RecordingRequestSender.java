@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.request;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ResponseCallback;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * A {@link LwM2mRequestSender} recording the requests sent asynchronously, to be answered by the test.
+ */
+public class RecordingRequestSender implements LwM2mRequestSender {
+
+    public static class SentRequest {
+        private final Registration destination;
+        private final DownlinkRequest<?> request;
+        private final ResponseCallback<?> responseCallback;
+        private final ErrorCallback errorCallback;
+
+        private SentRequest(Registration destination, DownlinkRequest<?> request,
+                ResponseCallback<?> responseCallback, ErrorCallback errorCallback) {
+            this.destination = destination;
+            this.request = request;
+            this.responseCallback = responseCallback;
+            this.errorCallback = errorCallback;
+        }
+
+        public Registration getDestination() {
+            return destination;
+        }
+
+        public DownlinkRequest<?> getRequest() {
+            return request;
+        }
+    }
+
+    // guarded by this
+    private final List<SentRequest> sent = new ArrayList<>();
+    private volatile String failingEndpoint;
+    private volatile LwM2mResponse autoResponse;
+
+    /**
+     * Make the sending of requests to the given client fail with an exception.
+     */
+    public void setFailing(String endpoint) {
+        this.failingEndpoint = endpoint;
+    }
+
+    /**
+     * Answer each request with the given response as soon as it is sent.
+     */
+    public void setAutoResponse(LwM2mResponse response) {
+        this.autoResponse = response;
+    }
+
+    /**
+     * Only asynchronous sending is used by the tested senders.
+     */
+    @Override
+    public <T extends LwM2mResponse> T send(Registration destination, DownlinkRequest<T> request, long timeout) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends LwM2mResponse> void send(Registration destination, DownlinkRequest<T> request, long timeout,
+            ResponseCallback<T> responseCallback, ErrorCallback errorCallback) {
+        if (destination.getEndpoint().equals(failingEndpoint)) {
+            throw new IllegalStateException("unable to send");
+        }
+        onSend(request);
+        synchronized (this) {
+            sent.add(new SentRequest(destination, request, responseCallback, errorCallback));
+            notifyAll();
+        }
+        LwM2mResponse response = autoResponse;
+        if (response != null) {
+            // responses of the type expected by the callback does not matter for the tested senders
+            ((ResponseCallback<LwM2mResponse>) responseCallback).onResponse(response);
+        }
+    }
+
+    /**
+     * Called before recording a request, e.g. to encode it.
+     */
+    protected void onSend(DownlinkRequest<?> request) {
+    }
+
+    @Override
+    public void cancelOngoingRequests(Registration registration) {
+    }
+
+    public synchronized int size() {
+        return sent.size();
+    }
+
+    public synchronized SentRequest get(int index) {
+        return sent.get(index);
+    }
+
+    public synchronized void awaitSent(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (sent.size() < count && System.currentTimeMillis() < end) {
+            wait(end - System.currentTimeMillis());
+        }
+        assertEquals(count, sent.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void respond(int index, LwM2mResponse response) {
+        ((ResponseCallback<LwM2mResponse>) get(index).responseCallback).onResponse(response);
+    }
+
+    public void error(int index, Exception e) {
+        get(index).errorCallback.onError(e);
+    }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *     Sierra Wireless - only one server sends the queue of a client
+ *     Sierra Wireless - renew flush lease and publish removed requests
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.util.NamedThreadFactory;
+import org.eclipse.leshan.core.util.Validate;
+import org.eclipse.leshan.server.Destroyable;
+import org.eclipse.leshan.server.queue.DownlinkQueueStore;
+import org.eclipse.leshan.server.queue.InMemoryDownlinkQueueStore;
+import org.eclipse.leshan.server.queue.QueuedRequest;
+import org.eclipse.leshan.server.queue.QueuedRequestRemovalListener;
+import org.eclipse.leshan.server.queue.SharedDownlinkQueueStore;
+import org.eclipse.leshan.server.redis.serialization.QueuedRequestSerDes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * A {@link DownlinkQueueStore} implementation based on Redis, so queued requests survive a server restart and can be
+ * sent by any server of a cluster.
+ * <p>
+ * The queue of an endpoint is stored using 3 keys: a list of request ids giving the order, a hash of serialized
+ * requests by id and a hash of coalescing keys by id. Each operation is done atomically by a Lua script. Keys expire
+ * with the last queued request, so queues of clients which never come back are removed by Redis.
+ * <p>
+ * When the servers of a cluster are all notified that a client woke up, only one of them must send its queued
+ * requests: {@link #peek(String)} gives a short lease on the queue to the calling store. The lease is renewed in the
+ * background until {@link #endFlush(String)} is called, so other stores see an empty queue while it is sent, and only
+ * for one lease duration if the sending server dies.
+ * <p>
+ * Each removed request is published on a Redis channel with its result, so the server which queued it can notify the
+ * sender of the request without waiting for its expiration.
+ */
+public class RedisDownlinkQueueStore implements SharedDownlinkQueueStore, Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisDownlinkQueueStore.class);
+
+    private static final String QUEUE_IDS = "DLQ:IDS:"; // (Endpoint => list of request ids)
+    private static final String QUEUE_REQS = "DLQ:REQS:"; // (Endpoint => hash of requests by id)
+    private static final String QUEUE_KEYS = "DLQ:KEYS:"; // (Endpoint => hash of coalescing keys by id)
+    private static final String QUEUE_OWNER = "DLQ:OWNER:"; // (Endpoint => id of the store sending the queue)
+
+    /** Default duration of the lease given by {@link #peek(String)}, it is renewed while the queue is sent. */
+    public static final long DEFAULT_FLUSH_LEASE = 30 * 1000L; // 30s in ms
+
+    private static final byte[] CHANNEL = "DLQ:EVENTS".getBytes(UTF_8);
+    private static final long RESUBSCRIBE_DELAY = 1000; // in ms
+    private static final String SUPERSEDED = "superseded by a newer request";
+    private static final String QUEUE_FULL = "removed as the queue is full";
+    private static final String REMOVED = "removed";
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // remove a request from the 3 keys, the removed request is appended to the "removed" table and the removal is
+    // published with the given result.
+    private static final String REMOVE_FUNCTION = //
+            "local function removeId(id, removed, result)\n" //
+                    + "  local data = redis.call('HGET', KEYS[2], id)\n" //
+                    + "  redis.call('LREM', KEYS[1], 1, id)\n" //
+                    + "  redis.call('HDEL', KEYS[2], id)\n" //
+                    + "  redis.call('HDEL', KEYS[3], id)\n" //
+                    + "  if data then\n" //
+                    + "    table.insert(removed, data)\n" //
+                    + "    local event = ARGV[8] .. '\\n' .. id .. '\\n' .. result .. '\\n' .. ARGV[9]\n" //
+                    + "    redis.call('PUBLISH', ARGV[7], event)\n" //
+                    + "  end\n" //
+                    + "end\n";
+
+    /**
+     * KEYS : id list key, request hash key, coalescing key hash key.<br>
+     * ARGV : request id, serialized request, coalescing key (empty if none), maximum size, expiration time stamp,
+     * current time stamp, events channel, store id, endpoint.<br>
+     * Returns the removed requests.
+     */
+    private static final LuaScript ADD = new LuaScript( //
+            REMOVE_FUNCTION //
+                    + "local removed = {}\n" //
+                    + "if ARGV[3] ~= '' then\n" //
+                    + "  local keys = redis.call('HGETALL', KEYS[3])\n" //
+                    + "  for i = 1, #keys, 2 do\n" //
+                    + "    if keys[i + 1] == ARGV[3] then removeId(keys[i], removed, '" + SUPERSEDED + "') end\n" //
+                    + "  end\n" //
+                    + "  redis.call('HSET', KEYS[3], ARGV[1], ARGV[3])\n" //
+                    + "end\n" //
+                    + "redis.call('RPUSH', KEYS[1], ARGV[1])\n" //
+                    + "redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])\n" //
+                    + "while redis.call('LLEN', KEYS[1]) > tonumber(ARGV[4]) do\n" //
+                    + "  removeId(redis.call('LINDEX', KEYS[1], 0), removed, '" + QUEUE_FULL + "')\n" //
+                    + "end\n" //
+                    + "for i = 1, 3 do\n" //
+                    + "  if redis.call('PTTL', KEYS[i]) < tonumber(ARGV[5]) - tonumber(ARGV[6]) then\n" //
+                    + "    redis.call('PEXPIREAT', KEYS[i], ARGV[5])\n" //
+                    + "  end\n" //
+                    + "end\n" //
+                    + "return removed\n");
+
+    /**
+     * KEYS : id list key, request hash key, owner key.<br>
+     * ARGV : store id, lease duration.<br>
+     * Returns the first serialized request or nil if the queue is empty or owned by another store.
+     */
+    private static final LuaScript PEEK = new LuaScript( //
+            "local owner = redis.call('GET', KEYS[3])\n" //
+                    + "if owner and owner ~= ARGV[1] then return false end\n" //
+                    + "local id = redis.call('LINDEX', KEYS[1], 0)\n" //
+                    + "if not id then\n" //
+                    + "  redis.call('DEL', KEYS[3])\n" //
+                    + "  return false\n" //
+                    + "end\n" //
+                    + "redis.call('SET', KEYS[3], ARGV[1], 'PX', ARGV[2])\n" //
+                    + "return redis.call('HGET', KEYS[2], id)\n");
+
+    /**
+     * KEYS : owner key.<br>
+     * ARGV : store id, lease duration.<br>
+     * Returns 1 if the lease is renewed, 0 if it is owned by another store or expired.
+     */
+    private static final LuaScript RENEW = new LuaScript( //
+            "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n" //
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" //
+                    + "return 1\n");
+
+    /**
+     * KEYS : owner key.<br>
+     * ARGV : store id.
+     */
+    private static final LuaScript RELEASE = new LuaScript( //
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) end\n" //
+                    + "return 0\n");
+
+    /**
+     * KEYS : id list key, request hash key, coalescing key hash key.<br>
+     * ARGV : request id, events channel, event.<br>
+     * Returns the number of removed requests.
+     */
+    private static final LuaScript REMOVE = new LuaScript( //
+            "local n = redis.call('LREM', KEYS[1], 1, ARGV[1])\n" //
+                    + "redis.call('HDEL', KEYS[2], ARGV[1])\n" //
+                    + "redis.call('HDEL', KEYS[3], ARGV[1])\n" //
+                    + "if n > 0 then redis.call('PUBLISH', ARGV[2], ARGV[3]) end\n" //
+                    + "return n\n");
+
+    /**
+     * KEYS : id list key, request hash key, coalescing key hash key, owner key.<br>
+     * ARGV : events channel, store id, endpoint.<br>
+     * Returns the removed requests in queue order.
+     */
+    private static final LuaScript REMOVE_ALL = new LuaScript( //
+            "local removed = {}\n" //
+                    + "for _, id in ipairs(redis.call('LRANGE', KEYS[1], 0, -1)) do\n" //
+                    + "  local data = redis.call('HGET', KEYS[2], id)\n" //
+                    + "  if data then\n" //
+                    + "    table.insert(removed, data)\n" //
+                    + "    local event = ARGV[2] .. '\\n' .. id .. '\\n" + REMOVED + "\\n' .. ARGV[3]\n" //
+                    + "    redis.call('PUBLISH', ARGV[1], event)\n" //
+                    + "  end\n" //
+                    + "end\n" //
+                    + "redis.call('DEL', KEYS[1], KEYS[2], KEYS[3], KEYS[4])\n" //
+                    + "return removed\n");
+
+    private final Pool<Jedis> pool;
+    private final int maxRequestsPerEndpoint;
+    private final long flushLease;
+    private final String storeId = UUID.randomUUID().toString();
+
+    // endpoints whose queue is sent by this store, their lease is renewed until the end of the flush
+    private final Set<String> flushes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ScheduledExecutorService leaseExecutor;
+
+    private final List<QueuedRequestRemovalListener> listeners = new CopyOnWriteArrayList<>();
+    private Thread subscriber;
+    private volatile BinaryJedisPubSub pubSub;
+
+    public RedisDownlinkQueueStore(Pool<Jedis> pool) {
+        this(pool, InMemoryDownlinkQueueStore.DEFAULT_MAX_REQUESTS_PER_ENDPOINT);
+    }
+
+    /**
+     * @param pool the Redis connection pool.
+     * @param maxRequestsPerEndpoint the maximum number of requests queued for a given endpoint. When it is reached,
+     *        the oldest request is removed from the queue.
+     */
+    public RedisDownlinkQueueStore(Pool<Jedis> pool, int maxRequestsPerEndpoint) {
+        this(pool, maxRequestsPerEndpoint, DEFAULT_FLUSH_LEASE);
+    }
+
+    /**
+     * @param pool the Redis connection pool.
+     * @param maxRequestsPerEndpoint the maximum number of requests queued for a given endpoint. When it is reached,
+     *        the oldest request is removed from the queue.
+     * @param flushLease the duration in milliseconds of the lease given by {@link #peek(String)}. It is renewed every
+     *        third of this duration until {@link #endFlush(String)}, so it is the time other stores of the cluster wait
+     *        when the sending server dies.
+     */
+    public RedisDownlinkQueueStore(Pool<Jedis> pool, int maxRequestsPerEndpoint, long flushLease) {
+        Validate.notNull(pool);
+        Validate.isTrue(maxRequestsPerEndpoint > 0, "maxRequestsPerEndpoint must be positive");
+        Validate.isTrue(flushLease >= 3, "flushLease must be at least 3ms");
+        this.pool = pool;
+        this.maxRequestsPerEndpoint = maxRequestsPerEndpoint;
+        this.flushLease = flushLease;
+
+        leaseExecutor = Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory("Redis downlink queue lease renewal"));
+        leaseExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                renewLeases();
+            }
+        }, flushLease / 3, flushLease / 3, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<QueuedRequest> add(QueuedRequest request) {
+        String key = request.getCoalescingKey();
+        try (Jedis j = pool.getResource()) {
+            Object result = ADD.eval(j, keys(request.getEndpoint()),
+                    Arrays.asList(request.getId().getBytes(UTF_8), QueuedRequestSerDes.serialize(request),
+                            key == null ? EMPTY : key.getBytes(UTF_8),
+                            Integer.toString(maxRequestsPerEndpoint).getBytes(UTF_8),
+                            Long.toString(request.getExpirationTime()).getBytes(UTF_8),
+                            Long.toString(System.currentTimeMillis()).getBytes(UTF_8), CHANNEL,
+                            storeId.getBytes(UTF_8), request.getEndpoint().getBytes(UTF_8)));
+            return deserialize(result);
+        }
+    }
+
+    @Override
+    public QueuedRequest peek(String endpoint) {
+        try (Jedis j = pool.getResource()) {
+            byte[] data = (byte[]) PEEK.eval(j,
+                    Arrays.asList(idsKey(endpoint), requestsKey(endpoint), ownerKey(endpoint)),
+                    Arrays.asList(storeId.getBytes(UTF_8), Long.toString(flushLease).getBytes(UTF_8)));
+            if (data == null) {
+                flushes.remove(endpoint);
+                return null;
+            }
+            flushes.add(endpoint);
+            return QueuedRequestSerDes.deserialize(data);
+        }
+    }
+
+    @Override
+    public void endFlush(String endpoint) {
+        flushes.remove(endpoint);
+        try (Jedis j = pool.getResource()) {
+            RELEASE.eval(j, Arrays.asList(ownerKey(endpoint)), Arrays.asList(storeId.getBytes(UTF_8)));
+        }
+    }
+
+    @Override
+    public boolean remove(String endpoint, String id) {
+        return remove(endpoint, id, REMOVED);
+    }
+
+    @Override
+    public boolean remove(String endpoint, String id, String result) {
+        byte[] event = (storeId + "\n" + id + "\n" + result.replace('\n', ' ') + "\n" + endpoint).getBytes(UTF_8);
+        try (Jedis j = pool.getResource()) {
+            Long removed = (Long) REMOVE.eval(j, keys(endpoint), Arrays.asList(id.getBytes(UTF_8), CHANNEL, event));
+            return removed > 0;
+        }
+    }
+
+    @Override
+    public List<QueuedRequest> removeAll(String endpoint) {
+        flushes.remove(endpoint);
+        try (Jedis j = pool.getResource()) {
+            List<byte[]> keys = new ArrayList<>(keys(endpoint));
+            keys.add(ownerKey(endpoint));
+            return deserialize(REMOVE_ALL.eval(j, keys,
+                    Arrays.asList(CHANNEL, storeId.getBytes(UTF_8), endpoint.getBytes(UTF_8))));
+        }
+    }
+
+    @Override
+    public int size(String endpoint) {
+        try (Jedis j = pool.getResource()) {
+            return j.llen(idsKey(endpoint)).intValue();
+        }
+    }
+
+    private void renewLeases() {
+        for (String endpoint : flushes) {
+            try (Jedis j = pool.getResource()) {
+                Long renewed = (Long) RENEW.eval(j, Arrays.asList(ownerKey(endpoint)),
+                        Arrays.asList(storeId.getBytes(UTF_8), Long.toString(flushLease).getBytes(UTF_8)));
+                if (renewed == 0) {
+                    // the queue was emptied or the lease expired meanwhile
+                    flushes.remove(endpoint);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to renew lease on the queue of [{}]", endpoint, e);
+            }
+        }
+    }
+
+    /* *************** Removal events **************** */
+
+    @Override
+    public void addListener(QueuedRequestRemovalListener listener) {
+        listeners.add(listener);
+        startSubscriber();
+    }
+
+    @Override
+    public void removeListener(QueuedRequestRemovalListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void onEvent(byte[] message) {
+        // store id, request id, result, endpoint: the endpoint is last as it may contain any character
+        String[] event = new String(message, UTF_8).split("\n", 4);
+        if (event.length != 4) {
+            LOG.warn("Invalid queued request removal event");
+            return;
+        }
+        if (storeId.equals(event[0])) {
+            // already handled locally
+            return;
+        }
+        for (QueuedRequestRemovalListener listener : listeners) {
+            listener.onRemoved(event[3], event[1], event[2]);
+        }
+    }
+
+    private synchronized void startSubscriber() {
+        if (subscriber != null) {
+            return;
+        }
+        subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribe();
+            }
+        }, "Redis Downlink Queue Events");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    private synchronized boolean isRunning() {
+        return subscriber == Thread.currentThread();
+    }
+
+    private void subscribe() {
+        while (isRunning()) {
+            try (Jedis j = pool.getResource()) {
+                pubSub = new BinaryJedisPubSub() {
+                    @Override
+                    public void onSubscribe(byte[] channel, int subscribedChannels) {
+                        if (!isRunning()) {
+                            // stopped meanwhile
+                            unsubscribe();
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(byte[] channel, byte[] message) {
+                        try {
+                            onEvent(message);
+                        } catch (RuntimeException e) {
+                            LOG.error("Unable to handle queued request removal event", e);
+                        }
+                    }
+                };
+                if (!isRunning()) {
+                    return;
+                }
+                // blocks until unsubscribe or connection lost
+                j.subscribe(pubSub, CHANNEL);
+            } catch (RuntimeException e) {
+                if (isRunning()) {
+                    LOG.warn("Queued request events subscription lost, retrying in {}ms", RESUBSCRIBE_DELAY, e);
+                }
+            }
+            if (isRunning()) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Thread thread;
+        synchronized (this) {
+            thread = subscriber;
+            subscriber = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            BinaryJedisPubSub currentPubSub = pubSub;
+            if (currentPubSub != null && currentPubSub.isSubscribed()) {
+                currentPubSub.unsubscribe();
+            }
+        }
+        leaseExecutor.shutdownNow();
+        try {
+            leaseExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Destroying downlink queue store was interrupted.", e);
+        }
+    }
+
+    private List<byte[]> keys(String endpoint) {
+        return Arrays.asList(idsKey(endpoint), requestsKey(endpoint), (QUEUE_KEYS + endpoint).getBytes(UTF_8));
+    }
+
+    private byte[] idsKey(String endpoint) {
+        return (QUEUE_IDS + endpoint).getBytes(UTF_8);
+    }
+
+    private byte[] requestsKey(String endpoint) {
+        return (QUEUE_REQS + endpoint).getBytes(UTF_8);
+    }
+
+    private byte[] ownerKey(String endpoint) {
+        return (QUEUE_OWNER + endpoint).getBytes(UTF_8);
+    }
+
+    private List<QueuedRequest> deserialize(Object result) {
+        @SuppressWarnings("unchecked")
+        List<byte[]> data = (List<byte[]>) result;
+        List<QueuedRequest> requests = new ArrayList<>(data.size());
+        for (byte[] request : data) {
+            requests.add(QueuedRequestSerDes.deserialize(request));
+        }
+        return requests;
+    }
+}
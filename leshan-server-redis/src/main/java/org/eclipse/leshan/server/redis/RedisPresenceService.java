@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.core.util.NamedThreadFactory;
+import org.eclipse.leshan.core.util.Validate;
+import org.eclipse.leshan.server.Destroyable;
+import org.eclipse.leshan.server.queue.ClientAwakeTimeProvider;
+import org.eclipse.leshan.server.queue.MutablePresenceService;
+import org.eclipse.leshan.server.queue.PresenceListener;
+import org.eclipse.leshan.server.redis.serialization.PresenceEventSerDes;
+import org.eclipse.leshan.server.redis.serialization.PresenceEventSerDes.PresenceEvent;
+import org.eclipse.leshan.server.registration.Registration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * A {@link MutablePresenceService} implementation based on Redis, so the state of Queue Mode clients is shared by all
+ * the servers of a cluster.
+ * <p>
+ * The awake window of a client is a Redis key expiring after the client awake time. State changes are published on a
+ * Redis channel: listeners of every server are notified, whichever server received the communication from the client.
+ * As a consequence, {@link PresenceListener}s are notified of changes done by other servers, from a dedicated thread.
+ * <p>
+ * The server which set a client awake last checks the expiration of its awake window and publishes the sleeping event.
+ * If this server stops before, the client is sleeping for all servers when the key expires but no event is published.
+ * <p>
+ * States read from Redis are cached locally: an awake state until the end of the awake window and a sleeping state
+ * for a configurable time. The cache is updated by published events and is only used while the subscription to the
+ * channel is active.
+ */
+public class RedisPresenceService implements MutablePresenceService, Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisPresenceService.class);
+
+    public static final long DEFAULT_CACHE_TTL = 10000; // in ms
+
+    private static final String AWAKE_EP = "PRES:EP:"; // (Endpoint => token of the last awake state, expires)
+    private static final String LAST_AWAKE_EP = "PRES:LAST:"; // (Endpoint => token of the last expiring awake state)
+    private static final byte[] CHANNEL = "PRES:EVENTS".getBytes(UTF_8);
+
+    // time the last awake token is kept after the awake window, so the expiration can be checked
+    private static final long EXPIRATION_GRACE_PERIOD = 60000; // in ms
+    private static final long RESUBSCRIBE_DELAY = 1000; // in ms
+
+    /**
+     * KEYS : awake key, last awake key.<br>
+     * ARGV : token, awake time (0 for no expiration), grace period, channel, awake event.<br>
+     * Returns 1 if the client was already awake, 0 else.
+     */
+    private static final LuaScript SET_AWAKE = new LuaScript( //
+            "local existed = redis.call('EXISTS', KEYS[1])\n" //
+                    + "if tonumber(ARGV[2]) > 0 then\n" //
+                    + "  redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])\n" //
+                    + "  redis.call('SET', KEYS[2], ARGV[1], 'PX', tonumber(ARGV[2]) + tonumber(ARGV[3]))\n" //
+                    + "else\n" //
+                    + "  redis.call('SET', KEYS[1], ARGV[1])\n" //
+                    + "  redis.call('DEL', KEYS[2])\n" //
+                    + "end\n" //
+                    + "if existed == 0 then redis.call('PUBLISH', ARGV[4], ARGV[5]) end\n" //
+                    + "return existed\n");
+
+    /**
+     * KEYS : awake key, last awake key.<br>
+     * ARGV : channel, sleeping event.<br>
+     * Returns 1 if the client was awake, 0 else.
+     */
+    private static final LuaScript SET_SLEEPING = new LuaScript( //
+            "local existed = redis.call('DEL', KEYS[1])\n" //
+                    + "redis.call('DEL', KEYS[2])\n" //
+                    + "if existed == 1 then redis.call('PUBLISH', ARGV[1], ARGV[2]) end\n" //
+                    + "return existed\n");
+
+    /**
+     * KEYS : awake key, last awake key.<br>
+     * ARGV : token, channel, sleeping event.<br>
+     * Returns -1 if the awake state was set by someone else, 0 if it expired, else the remaining time in ms.
+     */
+    private static final LuaScript CHECK_EXPIRATION = new LuaScript( //
+            "if redis.call('GET', KEYS[2]) ~= ARGV[1] then return -1 end\n" //
+                    + "local ttl = redis.call('PTTL', KEYS[1])\n" //
+                    + "if ttl > 0 then return ttl end\n" //
+                    + "redis.call('DEL', KEYS[1], KEYS[2])\n" //
+                    + "redis.call('PUBLISH', ARGV[2], ARGV[3])\n" //
+                    + "return 0\n");
+
+    private final Pool<Jedis> pool;
+    private final ClientAwakeTimeProvider awakeTimeProvider;
+    private final long cacheTtl;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong tokens = new AtomicLong();
+
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String /* endpoint */, CachedPresence> cache = new ConcurrentHashMap<>();
+    // incremented on each state change, used to not cache states read before a change
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean cacheEnabled;
+    // expiration checks of the awake windows set by this server
+    private final ConcurrentMap<String /* endpoint */, ScheduledFuture<?>> expirationChecks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    private Thread subscriber;
+    private volatile BinaryJedisPubSub pubSub;
+
+    public RedisPresenceService(Pool<Jedis> pool, ClientAwakeTimeProvider awakeTimeProvider) {
+        this(pool, awakeTimeProvider, DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * @param pool the Redis connection pool. A connection is used to subscribe to presence events.
+     * @param awakeTimeProvider to set the client awake time.
+     * @param cacheTtl the time in milliseconds a sleeping state read from Redis is cached, or 0 to disable the cache.
+     */
+    public RedisPresenceService(Pool<Jedis> pool, ClientAwakeTimeProvider awakeTimeProvider, long cacheTtl) {
+        Validate.notNull(pool);
+        Validate.notNull(awakeTimeProvider);
+        Validate.isTrue(cacheTtl >= 0, "cacheTtl must be positive or 0");
+        this.pool = pool;
+        this.awakeTimeProvider = awakeTimeProvider;
+        this.cacheTtl = cacheTtl;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Redis Presence Service"));
+        if (cacheTtl > 0) {
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    purgeCache();
+                }
+            }, cacheTtl, cacheTtl, TimeUnit.MILLISECONDS);
+        }
+        startSubscriber();
+    }
+
+    @Override
+    public void addListener(PresenceListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(PresenceListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isClientAwake(Registration registration) {
+        String endpoint = registration.getEndpoint();
+        long now = currentTime();
+        if (cacheEnabled) {
+            CachedPresence cached = cache.get(endpoint);
+            if (cached != null && cached.validUntil > now) {
+                return cached.awake;
+            }
+        }
+
+        long readGeneration = generation.get();
+        long ttl;
+        try (Jedis j = pool.getResource()) {
+            ttl = j.pttl(awakeKey(endpoint));
+        }
+        // -2 : no key, -1 : no expiration
+        boolean awake = ttl != -2;
+        if (cacheEnabled && cacheTtl > 0 && readGeneration == generation.get()) {
+            cache.put(endpoint, new CachedPresence(awake, ttl > 0 ? now + ttl : now + cacheTtl));
+        }
+        return awake;
+    }
+
+    @Override
+    public void setAwake(final Registration reg) {
+        if (!reg.usesQueueMode()) {
+            return;
+        }
+        final String endpoint = reg.getEndpoint();
+        final int awakeTime = awakeTimeProvider.getClientAwakeTime(reg);
+        final byte[] token = (nodeId + ":" + tokens.incrementAndGet()).getBytes(UTF_8);
+
+        Long existed;
+        try (Jedis j = pool.getResource()) {
+            existed = (Long) SET_AWAKE.eval(j, keys(endpoint),
+                    Arrays.asList(token, Long.toString(awakeTime).getBytes(UTF_8),
+                            Long.toString(EXPIRATION_GRACE_PERIOD).getBytes(UTF_8), CHANNEL,
+                            PresenceEventSerDes.serialize(nodeId, true, awakeTime, reg)));
+        }
+        updateCache(endpoint, true, awakeTime);
+
+        ScheduledFuture<?> previous;
+        if (awakeTime != 0) {
+            previous = expirationChecks.put(endpoint, scheduleExpirationCheck(reg, token, awakeTime));
+        } else {
+            previous = expirationChecks.remove(endpoint);
+        }
+        if (previous != null) {
+            previous.cancel(false);
+        }
+
+        if (existed == 0) {
+            fireAwake(reg);
+        }
+    }
+
+    @Override
+    public void setSleeping(Registration reg) {
+        if (!reg.usesQueueMode()) {
+            return;
+        }
+        String endpoint = reg.getEndpoint();
+        cancelExpirationCheck(endpoint);
+
+        Long existed;
+        try (Jedis j = pool.getResource()) {
+            existed = (Long) SET_SLEEPING.eval(j, keys(endpoint),
+                    Arrays.asList(CHANNEL, PresenceEventSerDes.serialize(nodeId, false, 0, reg)));
+        }
+        updateCache(endpoint, false, 0);
+
+        if (existed == 1) {
+            fireSleeping(reg);
+        }
+    }
+
+    @Override
+    public void stopPresenceTracking(Registration reg) {
+        String endpoint = reg.getEndpoint();
+        cancelExpirationCheck(endpoint);
+        try (Jedis j = pool.getResource()) {
+            List<byte[]> keys = keys(endpoint);
+            j.del(keys.get(0), keys.get(1));
+        }
+        generation.incrementAndGet();
+        cache.remove(endpoint);
+    }
+
+    /* *************** Awake window expiration **************** */
+
+    private ScheduledFuture<?> scheduleExpirationCheck(final Registration reg, final byte[] token, long delay) {
+        return executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkExpiration(reg, token, this);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkExpiration(Registration reg, byte[] token, Runnable check) {
+        String endpoint = reg.getEndpoint();
+        try {
+            Long result;
+            try (Jedis j = pool.getResource()) {
+                result = (Long) CHECK_EXPIRATION.eval(j, keys(endpoint),
+                        Arrays.asList(token, CHANNEL, PresenceEventSerDes.serialize(nodeId, false, 0, reg)));
+            }
+            if (result > 0) {
+                // the Redis key expires a bit later than the local timer
+                expirationChecks.put(endpoint, executor.schedule(check, result, TimeUnit.MILLISECONDS));
+            } else {
+                expirationChecks.remove(endpoint);
+                if (result == 0) {
+                    updateCache(endpoint, false, 0);
+                    fireSleeping(reg);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to check the end of the awake window of client {}", endpoint, e);
+        }
+    }
+
+    private void cancelExpirationCheck(String endpoint) {
+        ScheduledFuture<?> check = expirationChecks.remove(endpoint);
+        if (check != null) {
+            check.cancel(false);
+        }
+    }
+
+    /* *************** Local cache **************** */
+
+    private void updateCache(String endpoint, boolean awake, long awakeTime) {
+        generation.incrementAndGet();
+        if (cacheEnabled && cacheTtl > 0) {
+            long now = currentTime();
+            if (awake) {
+                cache.put(endpoint, new CachedPresence(true, awakeTime == 0 ? now + cacheTtl : now + awakeTime));
+            } else {
+                cache.put(endpoint, new CachedPresence(false, now + cacheTtl));
+            }
+        }
+    }
+
+    private void purgeCache() {
+        long now = currentTime();
+        for (Iterator<CachedPresence> it = cache.values().iterator(); it.hasNext();) {
+            if (it.next().validUntil <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private void setCacheEnabled(boolean enabled) {
+        generation.incrementAndGet();
+        cacheEnabled = enabled;
+        cache.clear();
+    }
+
+    /* *************** Events **************** */
+
+    private void fireAwake(Registration reg) {
+        for (PresenceListener listener : listeners) {
+            listener.onAwake(reg);
+        }
+    }
+
+    private void fireSleeping(Registration reg) {
+        for (PresenceListener listener : listeners) {
+            listener.onSleeping(reg);
+        }
+    }
+
+    private void onEvent(byte[] message) {
+        PresenceEvent event;
+        try {
+            event = PresenceEventSerDes.deserialize(message);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to read presence event", e);
+            return;
+        }
+        if (nodeId.equals(event.getNodeId())) {
+            // already handled locally
+            return;
+        }
+        Registration reg = event.getRegistration();
+        updateCache(reg.getEndpoint(), event.isAwake(), event.getAwakeTime());
+        if (event.isAwake()) {
+            // the awake window is now checked by the other server
+            cancelExpirationCheck(reg.getEndpoint());
+            fireAwake(reg);
+        } else {
+            fireSleeping(reg);
+        }
+    }
+
+    private synchronized void startSubscriber() {
+        subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribe();
+            }
+        }, "Redis Presence Service Events");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    private synchronized boolean isRunning() {
+        return subscriber == Thread.currentThread();
+    }
+
+    private void subscribe() {
+        while (isRunning()) {
+            try (Jedis j = pool.getResource()) {
+                pubSub = new BinaryJedisPubSub() {
+                    @Override
+                    public void onSubscribe(byte[] channel, int subscribedChannels) {
+                        if (!isRunning()) {
+                            // stopped meanwhile
+                            unsubscribe();
+                        } else {
+                            setCacheEnabled(true);
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(byte[] channel, byte[] message) {
+                        try {
+                            onEvent(message);
+                        } catch (RuntimeException e) {
+                            LOG.error("Unable to handle presence event", e);
+                        }
+                    }
+                };
+                if (!isRunning()) {
+                    return;
+                }
+                // blocks until unsubscribe or connection lost
+                j.subscribe(pubSub, CHANNEL);
+            } catch (RuntimeException e) {
+                if (isRunning()) {
+                    LOG.warn("Presence events subscription lost, retrying in {}ms", RESUBSCRIBE_DELAY, e);
+                }
+            } finally {
+                // events may have been missed
+                setCacheEnabled(false);
+            }
+            if (isRunning()) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Thread thread;
+        synchronized (this) {
+            thread = subscriber;
+            subscriber = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            BinaryJedisPubSub currentPubSub = pubSub;
+            if (currentPubSub != null && currentPubSub.isSubscribed()) {
+                currentPubSub.unsubscribe();
+            }
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Destroying presence service was interrupted.", e);
+        }
+    }
+
+    private static List<byte[]> keys(String endpoint) {
+        return Arrays.asList((AWAKE_EP + endpoint).getBytes(UTF_8), (LAST_AWAKE_EP + endpoint).getBytes(UTF_8));
+    }
+
+    private static byte[] awakeKey(String endpoint) {
+        return (AWAKE_EP + endpoint).getBytes(UTF_8);
+    }
+
+    private static long currentTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class CachedPresence {
+        private final boolean awake;
+        private final long validUntil;
+
+        private CachedPresence(boolean awake, long validUntil) {
+            this.awake = awake;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -16,6 +16,13 @@
  *                                                     EndpointContext
  *     Achim Kraus (Bosch Software Innovations GmbH) - update to modified 
  *                                                     ObservationStore API
+ *     Sierra Wireless - use Lua scripts instead of distributed lock to modify
+ *                       registrations and observations atomically
+ *     Sierra Wireless - remove expired registrations by batch
+ *     Sierra Wireless - add pluggable serialization format
+ *     Sierra Wireless - add optional near cache
+ *     Sierra Wireless - store observation tokens in a set
+ *     Sierra Wireless - implement AsyncRegistrationStore
  *******************************************************************************/
 package org.eclipse.leshan.server.redis;
 
@@ -29,7 +36,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -39,6 +46,7 @@ import org.eclipse.californium.core.coap.Token;
 import org.eclipse.californium.core.observe.ObservationStoreException;
 import org.eclipse.californium.elements.EndpointContext;
 import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.response.ErrorCallback;
 import org.eclipse.leshan.core.util.NamedThreadFactory;
 import org.eclipse.leshan.core.util.Validate;
 import org.eclipse.leshan.server.Destroyable;
@@ -46,12 +54,16 @@ import org.eclipse.leshan.server.Startable;
 import org.eclipse.leshan.server.Stoppable;
 import org.eclipse.leshan.server.californium.observation.ObserveUtil;
 import org.eclipse.leshan.server.californium.registration.CaliforniumRegistrationStore;
-import org.eclipse.leshan.server.redis.serialization.ObservationSerDes;
-import org.eclipse.leshan.server.redis.serialization.RegistrationSerDes;
+import org.eclipse.leshan.server.redis.serialization.BinaryRegistrationStoreSerDes;
+import org.eclipse.leshan.server.redis.serialization.JsonRegistrationStoreSerDes;
+import org.eclipse.leshan.server.redis.serialization.RegistrationStoreSerDes;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStore;
+import org.eclipse.leshan.server.registration.AsyncRegistrationStoreAdapter;
 import org.eclipse.leshan.server.registration.Deregistration;
 import org.eclipse.leshan.server.registration.ExpirationListener;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.ResultCallback;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,19 +71,28 @@ import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
-import redis.clients.jedis.Transaction;
 import redis.clients.jedis.util.Pool;
 
 /**
  * A RegistrationStore which stores registrations and observations in Redis.
+ * <p>
+ * Modifications are done atomically on the server side using Lua scripts (see {@link RegistrationScripts}), so no
+ * distributed lock is needed and most operations need only 1 or 2 round trips.
+ * <p>
+ * As Jedis is a blocking client, operations of the {@link AsyncRegistrationStore} API are executed by a dedicated
+ * executor, so Californium threads do not wait for Redis.
  */
-public class RedisRegistrationStore implements CaliforniumRegistrationStore, Startable, Stoppable, Destroyable {
+public class RedisRegistrationStore
+        implements CaliforniumRegistrationStore, AsyncRegistrationStore, Startable, Stoppable, Destroyable {
 
     /** Default time in seconds between 2 cleaning tasks (used to remove expired registration). */
     public static final long DEFAULT_CLEAN_PERIOD = 60;
+    /** Default maximum number of expired registrations removed in one batch. */
     public static final int DEFAULT_CLEAN_LIMIT = 500;
     /** Defaut Extra time for registration lifetime in seconds */
     public static final long DEFAULT_GRACE_PERIOD = 0;
+    /** Default number of threads executing asynchronous operations (default maximum size of a JedisPool). */
+    public static final int DEFAULT_ASYNC_THREADS = 8;
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisRegistrationStore.class);
 
@@ -79,27 +100,34 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     private static final String REG_EP = "REG:EP:"; // (Endpoint => Registration)
     private static final String REG_EP_REGID_IDX = "EP:REGID:"; // secondary index key (Registration ID => Endpoint)
     private static final String REG_EP_ADDR_IDX = "EP:ADDR:"; // secondary index key (Socket Address => Endpoint)
-    private static final String LOCK_EP = "LOCK:EP:";
     private static final byte[] OBS_TKN = "OBS:TKN:".getBytes(UTF_8);
-    private static final String OBS_TKNS_REGID_IDX = "TKNS:REGID:"; // secondary index (token list by registration)
+    private static final String OBS_TKNS_REGID_IDX = "TKNS:REGID:"; // secondary index (token set by registration)
     private static final byte[] EXP_EP = "EXP:EP".getBytes(UTF_8); // a sorted set used for registration expiration
                                                                    // (expiration date, Endpoint)
+    private static final byte[] REG_EP_BYTES = REG_EP.getBytes(UTF_8);
+
+    // Lua script arguments
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] TRUE = "1".getBytes(UTF_8);
+    private static final byte[] FALSE = "0".getBytes(UTF_8);
 
     private final Pool<Jedis> pool;
+    private final RegistrationStoreSerDes serDes;
+    private final RegistrationNearCache nearCache; // null if disabled
 
     // Listener use to notify when a registration expires
     private ExpirationListener expirationListener;
 
     private final ScheduledExecutorService schedExecutor;
+    private final ExecutorService asyncExecutor;
+    private final AsyncRegistrationStore asyncStore;
     private ScheduledFuture<?> cleanerTask;
     private boolean started = false;
 
     private final long cleanPeriod; // in seconds
-    private final int cleanLimit; // maximum number to clean in a clean period
+    private final int cleanLimit; // maximum number to clean in one batch
     private final long gracePeriod; // in seconds
 
-    private final JedisLock lock;
-
     public RedisRegistrationStore(Pool<Jedis> p) {
         this(p, DEFAULT_CLEAN_PERIOD, DEFAULT_GRACE_PERIOD, DEFAULT_CLEAN_LIMIT); // default clean period 60s
     }
@@ -112,20 +140,74 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
     public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
             long lifetimeGracePeriodInSec, int cleanLimit) {
-        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, cleanLimit, new SingleInstanceJedisLock());
+        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, cleanLimit,
+                new JsonRegistrationStoreSerDes());
     }
 
     /**
-     * @since 1.1
+     * Create a store using the given serialization format.
+     * <p>
+     * Registrations and observations are written using the given {@link RegistrationStoreSerDes} (e.g.
+     * {@link BinaryRegistrationStoreSerDes} for a more compact format). Both provided implementations are able to read
+     * the data written by the other one.
      */
     public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
-            long lifetimeGracePeriodInSec, int cleanLimit, JedisLock redisLock) {
+            long lifetimeGracePeriodInSec, int cleanLimit, RegistrationStoreSerDes serDes) {
+        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, cleanLimit, serDes, 0);
+    }
+
+    /**
+     * Create a store with a local near cache.
+     * <p>
+     * When <code>nearCacheSize</code> is positive, up to this number of registrations and this number of observations
+     * are kept in memory to avoid reading them from Redis on each access (e.g. on each notification). The cache is
+     * invalidated using Redis keyspace notifications, so they must be enabled on the Redis server (at least
+     * <code>notify-keyspace-events K$g</code>). The cache stays disabled if they are not, unless this configuration
+     * can not be read with the <code>CONFIG</code> command. A dedicated connection of the pool is used to receive them
+     * while the store is started.
+     * 
+     * @param nearCacheSize the maximum number of entries of the near cache, 0 to disable it.
+     */
+    public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, int cleanLimit, RegistrationStoreSerDes serDes, int nearCacheSize) {
+        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, cleanLimit, serDes, nearCacheSize,
+                Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS,
+                        new NamedThreadFactory("RedisRegistrationStore Async %d")));
+    }
+
+    /**
+     * Create a store using the given executor for asynchronous operations.
+     * <p>
+     * The executor is shut down when the store is destroyed.
+     * 
+     * @param asyncExecutor the executor used to execute {@link AsyncRegistrationStore} operations.
+     */
+    public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, int cleanLimit, RegistrationStoreSerDes serDes, int nearCacheSize,
+            ExecutorService asyncExecutor) {
+        Validate.notNull(serDes);
+        Validate.notNull(asyncExecutor);
+        Validate.isTrue(nearCacheSize >= 0, "near cache size must not be negative");
         this.pool = p;
+        this.serDes = serDes;
+        this.nearCache = nearCacheSize > 0 ? new RegistrationNearCache(nearCacheSize, REG_EP, OBS_TKN) : null;
         this.schedExecutor = schedExecutor;
+        this.asyncExecutor = asyncExecutor;
+        this.asyncStore = new AsyncRegistrationStoreAdapter(this, asyncExecutor);
         this.cleanPeriod = cleanPeriodInSec;
         this.cleanLimit = cleanLimit;
         this.gracePeriod = lifetimeGracePeriodInSec;
-        this.lock = redisLock;
+    }
+
+    /**
+     * @since 1.1
+     * @deprecated the store does not use any lock anymore, modifications are done atomically using Lua scripts. Use
+     *             {@link #RedisRegistrationStore(Pool, ScheduledExecutorService, long, long, int)} instead.
+     */
+    @Deprecated
+    public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, int cleanLimit, JedisLock redisLock) {
+        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, cleanLimit);
     }
 
     /* *************** Redis Key utility function **************** */
@@ -141,55 +223,41 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         return (prefix + registrationID).getBytes();
     }
 
-    private byte[] toLockKey(String endpoint) {
-        return toKey(LOCK_EP, endpoint);
-    }
-
-    private byte[] toLockKey(byte[] endpoint) {
-        return toKey(LOCK_EP.getBytes(UTF_8), endpoint);
-    }
-
     /* *************** Leshan Registration API **************** */
 
     @Override
     public Deregistration addRegistration(Registration registration) {
         try (Jedis j = pool.getResource()) {
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(registration.getEndpoint());
-
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                // add registration
-                byte[] k = toEndpointKey(registration.getEndpoint());
-                byte[] old = j.getSet(k, serializeReg(registration));
-
-                // add registration: secondary indexes
-                byte[] regid_idx = toRegIdKey(registration.getId());
-                j.set(regid_idx, registration.getEndpoint().getBytes(UTF_8));
-                byte[] addr_idx = toRegAddrKey(registration.getSocketAddress());
-                j.set(addr_idx, registration.getEndpoint().getBytes(UTF_8));
-
-                // Add or update expiration
-                addOrUpdateExpiration(j, registration);
-
-                if (old != null) {
-                    Registration oldRegistration = deserializeReg(old);
-                    // remove old secondary index
-                    if (!registration.getId().equals(oldRegistration.getId()))
-                        j.del(toRegIdKey(oldRegistration.getId()));
-                    if (!oldRegistration.getSocketAddress().equals(registration.getSocketAddress())) {
-                        removeAddrIndex(j, oldRegistration);
+            byte[] ep = registration.getEndpoint().getBytes(UTF_8);
+            byte[] serializedReg = serializeReg(registration);
+
+            // first assume there is no registration for this endpoint, else retry with the current one.
+            byte[] old = null;
+            while (true) {
+                Registration oldRegistration = old == null ? null : deserializeReg(old);
+
+                List<byte[]> keys = new ArrayList<>();
+                keys.add(toEndpointKey(ep));
+                keys.add(toRegIdKey(registration.getId()));
+                keys.add(toRegAddrKey(registration.getSocketAddress()));
+                keys.add(EXP_EP);
+                if (oldRegistration != null) {
+                    keys.add(toRegIdKey(oldRegistration.getId()));
+                    keys.add(toRegAddrKey(oldRegistration.getSocketAddress()));
+                    keys.add(toKey(OBS_TKNS_REGID_IDX, oldRegistration.getId()));
+                }
+                List<Object> result = eval(j, RegistrationScripts.ADD_REGISTRATION, keys, old == null ? EMPTY : old,
+                        serializedReg, ep, toExpiration(registration), OBS_TKN);
+
+                if (isSuccess(result)) {
+                    Collection<Observation> removedObservations = toObservations(result.subList(1, result.size()));
+                    invalidateCache(registration.getEndpoint(), removedObservations);
+                    if (oldRegistration == null) {
+                        return null;
                     }
-                    // remove old observation
-                    Collection<Observation> obsRemoved = unsafeRemoveAllObservations(j, oldRegistration.getId());
-
-                    return new Deregistration(oldRegistration, obsRemoved);
+                    return new Deregistration(oldRegistration, removedObservations);
                 }
-
-                return null;
-            } finally {
-                lock.release(j, lockKey, lockValue);
+                old = (byte[]) result.get(1);
             }
         }
     }
@@ -198,66 +266,78 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     public UpdatedRegistration updateRegistration(RegistrationUpdate update) {
         try (Jedis j = pool.getResource()) {
 
-            // Fetch the registration ep by registration ID index
-            byte[] ep = j.get(toRegIdKey(update.getRegistrationId()));
-            if (ep == null) {
-                return null;
-            }
+            // Fetch the registration by registration ID index
+            byte[] data = getRegistrationData(j, update.getRegistrationId());
 
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(ep);
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                // Fetch the registration
-                byte[] data = j.get(toEndpointKey(ep));
-                if (data == null) {
+            while (data != null) {
+                Registration r = deserializeReg(data);
+                if (!r.getId().equals(update.getRegistrationId())) {
+                    // the endpoint registered again meanwhile
                     return null;
                 }
 
-                Registration r = deserializeReg(data);
-
                 Registration updatedRegistration = update.update(r);
 
-                // Store the new registration
-                j.set(toEndpointKey(updatedRegistration.getEndpoint()), serializeReg(updatedRegistration));
-
-                // Add or update expiration
-                addOrUpdateExpiration(j, updatedRegistration);
-
-                // Update secondary index :
+                // Store the new registration, expiration and secondary index :
                 // If registration is already associated to this address we don't care as we only want to keep the most
                 // recent binding.
-                byte[] addr_idx = toRegAddrKey(updatedRegistration.getSocketAddress());
-                j.set(addr_idx, updatedRegistration.getEndpoint().getBytes(UTF_8));
-                if (!r.getSocketAddress().equals(updatedRegistration.getSocketAddress())) {
-                    removeAddrIndex(j, r);
+                byte[] ep = updatedRegistration.getEndpoint().getBytes(UTF_8);
+                List<Object> result = eval(j, RegistrationScripts.UPDATE_REGISTRATION,
+                        Arrays.asList(toEndpointKey(ep), toRegAddrKey(updatedRegistration.getSocketAddress()), EXP_EP,
+                                toRegAddrKey(r.getSocketAddress())),
+                        data, serializeReg(updatedRegistration), ep, toExpiration(updatedRegistration));
+
+                if (isSuccess(result)) {
+                    invalidateCache(updatedRegistration.getEndpoint(), Collections.<Observation> emptyList());
+                    return new UpdatedRegistration(r, updatedRegistration);
                 }
-
-                return new UpdatedRegistration(r, updatedRegistration);
-
-            } finally {
-                lock.release(j, lockKey, lockValue);
+                // registration was modified meanwhile, retry with the current one.
+                data = (byte[]) result.get(1);
             }
+            return null;
         }
     }
 
     @Override
     public Registration getRegistration(String registrationId) {
+        long generation = 0;
+        if (nearCache != null) {
+            Registration cached = nearCache.getRegistration(registrationId);
+            if (cached != null) {
+                return cached;
+            }
+            generation = nearCache.getGeneration();
+        }
         try (Jedis j = pool.getResource()) {
-            return getRegistration(j, registrationId);
+            Registration registration = getRegistration(j, registrationId);
+            if (nearCache != null && registration != null) {
+                nearCache.putRegistration(generation, registration);
+            }
+            return registration;
         }
     }
 
     @Override
     public Registration getRegistrationByEndpoint(String endpoint) {
         Validate.notNull(endpoint);
+        long generation = 0;
+        if (nearCache != null) {
+            Registration cached = nearCache.getRegistrationByEndpoint(endpoint);
+            if (cached != null) {
+                return cached;
+            }
+            generation = nearCache.getGeneration();
+        }
         try (Jedis j = pool.getResource()) {
             byte[] data = j.get(toEndpointKey(endpoint));
             if (data == null) {
                 return null;
             }
-            return deserializeReg(data);
+            Registration registration = deserializeReg(data);
+            if (nearCache != null) {
+                nearCache.putRegistration(generation, registration);
+            }
+            return registration;
         }
     }
 
@@ -348,71 +428,40 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     @Override
     public Deregistration removeRegistration(String registrationId) {
         try (Jedis j = pool.getResource()) {
-            return removeRegistration(j, registrationId, false);
+            return removeRegistration(j, registrationId);
         }
     }
 
-    private Deregistration removeRegistration(Jedis j, String registrationId, boolean removeOnlyIfNotAlive) {
-        // fetch the client ep by registration ID index
-        byte[] ep = j.get(toRegIdKey(registrationId));
-        if (ep == null) {
-            return null;
-        }
-
-        byte[] lockValue = null;
-        byte[] lockKey = toLockKey(ep);
-        try {
-            lockValue = lock.acquire(j, lockKey);
+    private Deregistration removeRegistration(Jedis j, String registrationId) {
+        // fetch the registration by registration ID index
+        byte[] data = getRegistrationData(j, registrationId);
 
-            // fetch the client
-            byte[] data = j.get(toEndpointKey(ep));
-            if (data == null) {
-                return null;
-            }
+        while (data != null) {
             Registration r = deserializeReg(data);
-
-            if (!removeOnlyIfNotAlive || !r.isAlive(gracePeriod)) {
-                long nbRemoved = j.del(toRegIdKey(r.getId()));
-                if (nbRemoved > 0) {
-                    j.del(toEndpointKey(r.getEndpoint()));
-                    Collection<Observation> obsRemoved = unsafeRemoveAllObservations(j, r.getId());
-                    removeAddrIndex(j, r);
-                    removeExpiration(j, r);
-                    return new Deregistration(r, obsRemoved);
-                }
+            if (!r.getId().equals(registrationId)) {
+                // the endpoint registered again meanwhile
+                return null;
             }
-            return null;
-        } finally {
-            lock.release(j, lockKey, lockValue);
-        }
-    }
 
-    private void removeAddrIndex(Jedis j, Registration registration) {
-        // Watch the key to remove.
-        byte[] regAddrKey = toRegAddrKey(registration.getSocketAddress());
-        j.watch(regAddrKey);
+            byte[] ep = r.getEndpoint().getBytes(UTF_8);
+            List<Object> result = eval(j, RegistrationScripts.REMOVE_REGISTRATION,
+                    Arrays.asList(toEndpointKey(ep), toRegIdKey(r.getId()), toRegAddrKey(r.getSocketAddress()), EXP_EP,
+                            toKey(OBS_TKNS_REGID_IDX, r.getId())),
+                    data, ep, OBS_TKN);
 
-        byte[] epFromAddr = j.get(regAddrKey);
-        // Delete the key if needed.
-        if (Arrays.equals(epFromAddr, registration.getEndpoint().getBytes(UTF_8))) {
-            // Try to delete the key
-            Transaction transaction = j.multi();
-            transaction.del(regAddrKey);
-            transaction.exec();
-            // if transaction failed this is not an issue as the socket address is probably reused and we don't neeed to
-            // delete it anymore.
-        } else {
-            // the key must not be deleted.
-            j.unwatch();
+            if (isSuccess(result)) {
+                Collection<Observation> removedObservations = toObservations(result.subList(1, result.size()));
+                invalidateCache(r.getEndpoint(), removedObservations);
+                return new Deregistration(r, removedObservations);
+            }
+            // registration was modified meanwhile, retry with the current one.
+            data = (byte[]) result.get(1);
         }
+        return null;
     }
 
-    private void addOrUpdateExpiration(Jedis j, Registration registration) {
-        j.zadd(EXP_EP, registration.getExpirationTimeStamp(gracePeriod), registration.getEndpoint().getBytes(UTF_8));
-    }
-
-    private void removeExpiration(Jedis j, Registration registration) {
-        j.zrem(EXP_EP, registration.getEndpoint().getBytes(UTF_8));
+    private byte[] toExpiration(Registration registration) {
+        return Long.toString(registration.getExpirationTimeStamp(gracePeriod)).getBytes(UTF_8);
     }
 
     private byte[] toRegIdKey(String registrationId) {
@@ -432,11 +481,42 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     }
 
     private byte[] serializeReg(Registration registration) {
-        return RegistrationSerDes.bSerialize(registration);
+        return serDes.serializeRegistration(registration);
     }
 
     private Registration deserializeReg(byte[] data) {
-        return RegistrationSerDes.deserialize(data);
+        return serDes.deserializeRegistration(data);
+    }
+
+    /* *************** Leshan Async Registration API **************** */
+
+    @Override
+    public void addRegistration(Registration registration, ResultCallback<Deregistration> onResult,
+            ErrorCallback onError) {
+        asyncStore.addRegistration(registration, onResult, onError);
+    }
+
+    @Override
+    public void updateRegistration(RegistrationUpdate update, ResultCallback<UpdatedRegistration> onResult,
+            ErrorCallback onError) {
+        asyncStore.updateRegistration(update, onResult, onError);
+    }
+
+    @Override
+    public void getRegistration(String registrationId, ResultCallback<Registration> onResult, ErrorCallback onError) {
+        asyncStore.getRegistration(registrationId, onResult, onError);
+    }
+
+    @Override
+    public void removeRegistration(String registrationId, ResultCallback<Deregistration> onResult,
+            ErrorCallback onError) {
+        asyncStore.removeRegistration(registrationId, onResult, onError);
+    }
+
+    @Override
+    public void getObservation(String registrationId, byte[] observationId, ResultCallback<Observation> onResult,
+            ErrorCallback onError) {
+        asyncStore.getObservation(registrationId, observationId, onResult, onError);
     }
 
     /* *************** Leshan Observation API **************** */
@@ -448,63 +528,28 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     @Override
     public Collection<Observation> addObservation(String registrationId, Observation observation) {
 
-        List<Observation> removed = new ArrayList<>();
         try (Jedis j = pool.getResource()) {
 
-            // fetch the client ep by registration ID index
-            byte[] ep = j.get(toRegIdKey(registrationId));
-            if (ep == null) {
-                return null;
-            }
-
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(ep);
-
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                // cancel existing observations for the same path and registration id.
-                for (Observation obs : getObservations(j, registrationId)) {
-                    if (observation.getPath().equals(obs.getPath())
-                            && !Arrays.equals(observation.getId(), obs.getId())) {
-                        removed.add(obs);
-                        unsafeRemoveObservation(j, registrationId, obs.getId());
-                    }
+            // cancel existing observations for the same path and registration id.
+            List<byte[]> tokensToRemove = new ArrayList<>();
+            for (Observation obs : getObservations(j, registrationId)) {
+                if (observation.getPath().equals(obs.getPath()) && !Arrays.equals(observation.getId(), obs.getId())) {
+                    tokensToRemove.add(obs.getId());
                 }
-
-            } finally {
-                lock.release(j, lockKey, lockValue);
             }
+            if (tokensToRemove.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return unsafeRemoveObservations(j, registrationId, tokensToRemove);
         }
-        return removed;
     }
 
     @Override
     public Observation removeObservation(String registrationId, byte[] observationId) {
         try (Jedis j = pool.getResource()) {
-
-            // fetch the client ep by registration ID index
-            byte[] ep = j.get(toRegIdKey(registrationId));
-            if (ep == null) {
-                return null;
-            }
-
-            // remove observation
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(ep);
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                Observation observation = build(get(new Token(observationId)));
-                if (observation != null && registrationId.equals(observation.getRegistrationId())) {
-                    unsafeRemoveObservation(j, registrationId, observationId);
-                    return observation;
-                }
-                return null;
-
-            } finally {
-                lock.release(j, lockKey, lockValue);
-            }
+            Collection<Observation> removed = unsafeRemoveObservations(j, registrationId,
+                    Collections.singletonList(observationId));
+            return removed.isEmpty() ? null : removed.iterator().next();
         }
     }
 
@@ -521,35 +566,14 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     }
 
     private Collection<Observation> getObservations(Jedis j, String registrationId) {
-        Collection<Observation> result = new ArrayList<>();
-        for (byte[] token : j.lrange(toKey(OBS_TKNS_REGID_IDX, registrationId), 0, -1)) {
-            byte[] obs = j.get(toKey(OBS_TKN, token));
-            if (obs != null) {
-                result.add(build(deserializeObs(obs)));
-            }
-        }
-        return result;
+        return toObservations(eval(j, RegistrationScripts.GET_OBSERVATIONS,
+                Collections.singletonList(toKey(OBS_TKNS_REGID_IDX, registrationId)), OBS_TKN));
     }
 
     @Override
     public Collection<Observation> removeObservations(String registrationId) {
         try (Jedis j = pool.getResource()) {
-            // check registration exists
-            Registration registration = getRegistration(j, registrationId);
-            if (registration == null)
-                return Collections.emptyList();
-
-            // get endpoint and create lock
-            String endpoint = registration.getEndpoint();
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                return unsafeRemoveAllObservations(j, registrationId);
-            } finally {
-                lock.release(j, lockKey, lockValue);
-            }
+            return unsafeRemoveAllObservations(j, registrationId);
         }
     }
 
@@ -569,44 +593,37 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
     private org.eclipse.californium.core.observe.Observation add(Token token,
             org.eclipse.californium.core.observe.Observation obs, boolean ifAbsent) throws ObservationStoreException {
-        String endpoint = ObserveUtil.validateCoapObservation(obs);
+        ObserveUtil.validateCoapObservation(obs);
         org.eclipse.californium.core.observe.Observation previousObservation = null;
 
         try (Jedis j = pool.getResource()) {
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                String registrationId = ObserveUtil.extractRegistrationId(obs);
-                if (!j.exists(toRegIdKey(registrationId)))
-                    throw new ObservationStoreException("no registration for this Id");
-                byte[] key = toKey(OBS_TKN, obs.getRequest().getToken().getBytes());
-                byte[] serializeObs = serializeObs(obs);
-                byte[] previousValue = null;
-                if (ifAbsent) {
-                    previousValue = j.get(key);
-                    if (previousValue == null || previousValue.length == 0) {
-                        j.set(key, serializeObs);
-                    } else {
-                        return deserializeObs(previousValue);
-                    }
-                } else {
-                    previousValue = j.getSet(key, serializeObs);
-                }
+            String registrationId = ObserveUtil.extractRegistrationId(obs);
+            byte[] tokenBytes = obs.getRequest().getToken().getBytes();
 
-                // secondary index to get the list by registrationId
-                j.lpush(toKey(OBS_TKNS_REGID_IDX, registrationId), obs.getRequest().getToken().getBytes());
+            List<Object> result = eval(j, RegistrationScripts.ADD_OBSERVATION,
+                    Arrays.asList(toRegIdKey(registrationId), toKey(OBS_TKN, tokenBytes),
+                            toKey(OBS_TKNS_REGID_IDX, registrationId)),
+                    serializeObs(obs), tokenBytes, ifAbsent ? TRUE : FALSE);
 
-                // log any collisions
-                if (previousValue != null && previousValue.length != 0) {
-                    previousObservation = deserializeObs(previousValue);
-                    LOG.warn(
-                            "Token collision ? observation from request [{}] will be replaced by observation from request [{}] ",
-                            previousObservation.getRequest(), obs.getRequest());
-                }
-            } finally {
-                lock.release(j, lockKey, lockValue);
+            long status = (Long) result.get(0);
+            if (nearCache != null && status == 1) {
+                nearCache.invalidateObservation(obs.getRequest().getToken());
+            }
+            if (status == 0) {
+                throw new ObservationStoreException("no registration for this Id");
+            }
+            byte[] previousValue = result.size() > 1 ? (byte[]) result.get(1) : null;
+            if (status == 2) {
+                // observation was already present
+                return deserializeObs(previousValue);
+            }
+
+            // log any collisions
+            if (previousValue != null && previousValue.length != 0) {
+                previousObservation = deserializeObs(previousValue);
+                LOG.warn(
+                        "Token collision ? observation from request [{}] will be replaced by observation from request [{}] ",
+                        previousObservation.getRequest(), obs.getRequest());
             }
         }
         return previousObservation;
@@ -624,47 +641,37 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
             org.eclipse.californium.core.observe.Observation obs = deserializeObs(serializedObs);
             String registrationId = ObserveUtil.extractRegistrationId(obs);
-            Registration registration = getRegistration(j, registrationId);
-            if (registration == null) {
-                LOG.warn("Unable to remove observation {}, registration {} does not exist anymore", obs.getRequest(),
-                        registrationId);
-                return;
-            }
-
-            String endpoint = registration.getEndpoint();
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = lock.acquire(j, lockKey);
-
-                unsafeRemoveObservation(j, registrationId, token.getBytes());
-            } finally {
-                lock.release(j, lockKey, lockValue);
-            }
+            unsafeRemoveObservations(j, registrationId, Collections.singletonList(token.getBytes()));
         }
-
     }
 
     @Override
     public org.eclipse.californium.core.observe.Observation get(Token token) {
+        long generation = 0;
+        if (nearCache != null) {
+            org.eclipse.californium.core.observe.Observation cached = nearCache.getObservation(token);
+            if (cached != null) {
+                return cached;
+            }
+            generation = nearCache.getGeneration();
+        }
         try (Jedis j = pool.getResource()) {
-            byte[] obs = j.get(toKey(OBS_TKN, token.getBytes()));
-            if (obs == null) {
+            byte[] data = j.get(toKey(OBS_TKN, token.getBytes()));
+            if (data == null) {
                 return null;
-            } else {
-                return deserializeObs(obs);
             }
+            org.eclipse.californium.core.observe.Observation obs = deserializeObs(data);
+            if (nearCache != null) {
+                nearCache.putObservation(generation, token, obs);
+            }
+            return obs;
         }
     }
 
     /* *************** Observation utility functions **************** */
 
     private Registration getRegistration(Jedis j, String registrationId) {
-        byte[] ep = j.get(toRegIdKey(registrationId));
-        if (ep == null) {
-            return null;
-        }
-        byte[] data = j.get(toEndpointKey(ep));
+        byte[] data = getRegistrationData(j, registrationId);
         if (data == null) {
             return null;
         }
@@ -672,27 +679,83 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         return deserializeReg(data);
     }
 
-    private void unsafeRemoveObservation(Jedis j, String registrationId, byte[] observationId) {
-        if (j.del(toKey(OBS_TKN, observationId)) > 0L) {
-            j.lrem(toKey(OBS_TKNS_REGID_IDX, registrationId), 0, observationId);
-        }
+    private byte[] getRegistrationData(Jedis j, String registrationId) {
+        return (byte[]) RegistrationScripts.GET_REGISTRATION_BY_ID.eval(j,
+                Collections.singletonList(toRegIdKey(registrationId)), Collections.singletonList(REG_EP_BYTES));
+    }
+
+    private Collection<Observation> unsafeRemoveObservations(Jedis j, String registrationId,
+            List<byte[]> observationIds) {
+        List<byte[]> args = new ArrayList<>(observationIds.size() + 1);
+        args.add(OBS_TKN);
+        args.addAll(observationIds);
+        Collection<Observation> removed = toObservations(eval(j, RegistrationScripts.REMOVE_OBSERVATIONS,
+                Collections.singletonList(toKey(OBS_TKNS_REGID_IDX, registrationId)), args));
+        invalidateCache(null, removed);
+        return removed;
     }
 
     private Collection<Observation> unsafeRemoveAllObservations(Jedis j, String registrationId) {
-        Collection<Observation> removed = new ArrayList<>();
-        byte[] regIdKey = toKey(OBS_TKNS_REGID_IDX, registrationId);
+        Collection<Observation> removed = toObservations(eval(j, RegistrationScripts.REMOVE_ALL_OBSERVATIONS,
+                Arrays.asList(toRegIdKey(registrationId), toKey(OBS_TKNS_REGID_IDX, registrationId)),
+                Collections.singletonList(OBS_TKN)));
+        invalidateCache(null, removed);
+        return removed;
+    }
 
-        // fetch all observations by token
-        for (byte[] token : j.lrange(regIdKey, 0, -1)) {
-            byte[] obs = j.get(toKey(OBS_TKN, token));
-            if (obs != null) {
-                removed.add(build(deserializeObs(obs)));
-            }
-            j.del(toKey(OBS_TKN, token));
+    private Collection<Observation> toObservations(List<Object> serializedObservations) {
+        Collection<Observation> observations = new ArrayList<>(serializedObservations.size());
+        for (Object serializedObs : serializedObservations) {
+            observations.add(build(deserializeObs((byte[]) serializedObs)));
         }
-        j.del(regIdKey);
+        return observations;
+    }
 
-        return removed;
+    /* *************** Near cache **************** */
+
+    /**
+     * Invalidate modified entries of the near cache. Other nodes are notified by Redis keyspace notifications, this is
+     * done to see our own modifications immediately.
+     */
+    private void invalidateCache(String endpoint, Collection<Observation> removedObservations) {
+        if (nearCache == null) {
+            return;
+        }
+        if (endpoint != null) {
+            nearCache.invalidateEndpoint(endpoint);
+        }
+        for (Observation observation : removedObservations) {
+            nearCache.invalidateObservation(new Token(observation.getId()));
+        }
+    }
+
+    /**
+     * @return the number of lookups served by the near cache, always 0 if it is disabled.
+     */
+    public long getNearCacheHitCount() {
+        return nearCache == null ? 0 : nearCache.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups not served by the near cache, always 0 if it is disabled.
+     */
+    public long getNearCacheMissCount() {
+        return nearCache == null ? 0 : nearCache.getMissCount();
+    }
+
+    /* *************** Lua script utility functions **************** */
+
+    @SuppressWarnings("unchecked")
+    private List<Object> eval(Jedis j, LuaScript script, List<byte[]> keys, List<byte[]> args) {
+        return (List<Object>) script.eval(j, keys, args);
+    }
+
+    private List<Object> eval(Jedis j, LuaScript script, List<byte[]> keys, byte[]... args) {
+        return eval(j, script, keys, Arrays.asList(args));
+    }
+
+    private boolean isSuccess(List<Object> result) {
+        return (Long) result.get(0) != 0L;
     }
 
     @Override
@@ -701,11 +764,11 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     }
 
     private byte[] serializeObs(org.eclipse.californium.core.observe.Observation obs) {
-        return ObservationSerDes.serialize(obs);
+        return serDes.serializeObservation(obs);
     }
 
     private org.eclipse.californium.core.observe.Observation deserializeObs(byte[] data) {
-        return ObservationSerDes.deserialize(data);
+        return serDes.deserializeObservation(data);
     }
 
     private Observation build(org.eclipse.californium.core.observe.Observation cfObs) {
@@ -725,6 +788,9 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         if (!started) {
             started = true;
             cleanerTask = schedExecutor.scheduleAtFixedRate(new Cleaner(), cleanPeriod, cleanPeriod, TimeUnit.SECONDS);
+            if (nearCache != null) {
+                nearCache.start(pool);
+            }
         }
     }
 
@@ -739,44 +805,118 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
                 cleanerTask.cancel(false);
                 cleanerTask = null;
             }
+            if (nearCache != null) {
+                nearCache.stop();
+            }
         }
     }
 
     /**
-     * Destroy "cleanup" scheduler.
+     * Destroy "cleanup" scheduler and asynchronous operations executor.
      */
     @Override
     public synchronized void destroy() {
         started = false;
+        if (nearCache != null) {
+            nearCache.stop();
+        }
         schedExecutor.shutdownNow();
+        asyncExecutor.shutdown();
         try {
             schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            asyncExecutor.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             LOG.warn("Destroying RedisRegistrationStore was interrupted.", e);
         }
     }
 
+    /**
+     * Remove expired registrations by batch of {@code cleanLimit} until there is no more due registration.
+     * <p>
+     * Each batch is first claimed, so several cleaners (e.g. one per cluster node) can share the work.
+     */
     private class Cleaner implements Runnable {
 
         @Override
         public void run() {
 
             try (Jedis j = pool.getResource()) {
-                Set<byte[]> endpointsExpired = j.zrangeByScore(EXP_EP, Double.NEGATIVE_INFINITY,
-                        System.currentTimeMillis(), 0, cleanLimit);
-
-                for (byte[] endpoint : endpointsExpired) {
-                    Registration r = deserializeReg(j.get(toEndpointKey(endpoint)));
-                    if (!r.isAlive(gracePeriod)) {
-                        Deregistration dereg = removeRegistration(j, r.getId(), true);
-                        if (dereg != null)
-                            expirationListener.registrationExpired(dereg.getRegistration(), dereg.getObservations());
-                    }
-                }
+                int claimed;
+                do {
+                    claimed = cleanBatch(j);
+                } while (claimed >= cleanLimit);
             } catch (Exception e) {
                 LOG.warn("Unexpected Exception while registration cleaning", e);
             }
         }
+
+        /**
+         * @return the number of claimed registrations.
+         */
+        @SuppressWarnings("unchecked")
+        private int cleanBatch(Jedis j) {
+            long now = System.currentTimeMillis();
+            List<byte[]> endpointsExpired = (List<byte[]>) RegistrationScripts.CLAIM_EXPIRED_REGISTRATIONS.eval(j,
+                    Collections.singletonList(EXP_EP),
+                    Arrays.asList(Long.toString(now).getBytes(UTF_8), Integer.toString(cleanLimit).getBytes(UTF_8),
+                            Long.toString(now + cleanPeriod * 1000).getBytes(UTF_8)));
+            if (endpointsExpired.isEmpty()) {
+                return 0;
+            }
+
+            // fetch all claimed registrations
+            byte[][] endpointKeys = new byte[endpointsExpired.size()][];
+            for (int i = 0; i < endpointKeys.length; i++) {
+                endpointKeys[i] = toEndpointKey(endpointsExpired.get(i));
+            }
+            List<byte[]> data = j.mget(endpointKeys);
+
+            // remove expired ones in one script
+            Registration[] registrations = new Registration[endpointKeys.length];
+            List<byte[]> keys = new ArrayList<>(1 + endpointKeys.length * 4);
+            List<byte[]> args = new ArrayList<>(1 + endpointKeys.length * 3);
+            keys.add(EXP_EP);
+            args.add(OBS_TKN);
+            for (int i = 0; i < endpointKeys.length; i++) {
+                byte[] ep = endpointsExpired.get(i);
+                keys.add(endpointKeys[i]);
+                if (data.get(i) == null) {
+                    // registration does not exist anymore
+                    keys.add(endpointKeys[i]);
+                    keys.add(endpointKeys[i]);
+                    keys.add(endpointKeys[i]);
+                    args.add(EMPTY);
+                    args.add(ep);
+                    args.add(EMPTY);
+                } else {
+                    Registration r = deserializeReg(data.get(i));
+                    keys.add(toRegIdKey(r.getId()));
+                    keys.add(toRegAddrKey(r.getSocketAddress()));
+                    keys.add(toKey(OBS_TKNS_REGID_IDX, r.getId()));
+                    args.add(data.get(i));
+                    args.add(ep);
+                    if (r.isAlive(gracePeriod)) {
+                        // reschedule it
+                        args.add(toExpiration(r));
+                    } else {
+                        registrations[i] = r;
+                        args.add(EMPTY);
+                    }
+                }
+            }
+            List<Object> results = eval(j, RegistrationScripts.REMOVE_EXPIRED_REGISTRATIONS, keys, args);
+
+            // notify expirations
+            for (int i = 0; i < registrations.length; i++) {
+                List<Object> result = (List<Object>) results.get(i);
+                if (registrations[i] != null && isSuccess(result)) {
+                    Collection<Observation> removedObservations = toObservations(result.subList(1, result.size()));
+                    invalidateCache(registrations[i].getEndpoint(), removedObservations);
+                    expirationListener.registrationExpired(registrations[i], removedObservations);
+                }
+            }
+            return endpointKeys.length;
+        }
     }
 
     @Override
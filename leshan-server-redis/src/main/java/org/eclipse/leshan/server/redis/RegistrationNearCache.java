@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.server.registration.Registration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * A bounded local cache of registrations (by endpoint and by registration id) and observations (by token) read from
+ * Redis.
+ * <p>
+ * Entries are invalidated using Redis keyspace notifications, so modifications done by any cluster node are taken into
+ * account. This needs keyspace notifications for generic and string commands to be enabled on the Redis server (e.g.
+ * <code>notify-keyspace-events K$g</code>). Notifications are asynchronous: a modification done by another node may be
+ * visible a short time after it was done.
+ * <p>
+ * This configuration is checked with the <code>CONFIG GET</code> command before subscribing: the cache stays disabled
+ * if notifications are not enabled. If the command is not available (e.g. renamed or disabled on a managed Redis
+ * server), the configuration can not be checked and the cache is enabled, assuming notifications are configured.
+ * <p>
+ * The cache is only used while the subscription to notifications is active. It is cleared each time the subscription is
+ * lost, as notifications may have been missed.
+ */
+class RegistrationNearCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegistrationNearCache.class);
+
+    private static final long RESUBSCRIBE_DELAY = 1000; // in ms
+
+    private final int maxSize;
+    private final byte[] endpointKeyPrefix;
+    private final byte[] tokenKeyPrefix;
+
+    // all fields below are guarded by "this"
+    private final LinkedHashMap<String /* endpoint */, Registration> registrationsByEp;
+    private final Map<String /* reg-id */, String /* endpoint */> endpointsByRegId = new HashMap<>();
+    private final LinkedHashMap<Token, Observation> observationsByToken;
+    // incremented on each invalidation, used to not cache values read before an invalidation
+    private long generation;
+    private boolean enabled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private Thread subscriber;
+    private volatile BinaryJedisPubSub pubSub;
+
+    public RegistrationNearCache(int maxSize, String endpointKeyPrefix, byte[] tokenKeyPrefix) {
+        this.maxSize = maxSize;
+        this.endpointKeyPrefix = endpointKeyPrefix.getBytes(UTF_8);
+        this.tokenKeyPrefix = tokenKeyPrefix;
+        this.registrationsByEp = new LinkedHashMap<String, Registration>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Registration> eldest) {
+                if (size() > RegistrationNearCache.this.maxSize) {
+                    endpointsByRegId.remove(eldest.getValue().getId());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.observationsByToken = new LinkedHashMap<Token, Observation>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Token, Observation> eldest) {
+                return size() > RegistrationNearCache.this.maxSize;
+            }
+        };
+    }
+
+    /* *************** Cache access **************** */
+
+    /**
+     * @return the current generation, to give to <code>put</code> methods after reading the value from Redis.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized Registration getRegistrationByEndpoint(String endpoint) {
+        return count(registrationsByEp.get(endpoint));
+    }
+
+    public synchronized Registration getRegistration(String registrationId) {
+        String endpoint = endpointsByRegId.get(registrationId);
+        if (endpoint == null) {
+            return count(null);
+        }
+        Registration registration = registrationsByEp.get(endpoint);
+        if (registration == null || !registration.getId().equals(registrationId)) {
+            return count(null);
+        }
+        return count(registration);
+    }
+
+    public synchronized Observation getObservation(Token token) {
+        return count(observationsByToken.get(token));
+    }
+
+    /**
+     * Cache a registration read from Redis, unless an invalidation happened since the given generation.
+     */
+    public synchronized void putRegistration(long readGeneration, Registration registration) {
+        if (enabled && readGeneration == generation) {
+            Registration previous = registrationsByEp.put(registration.getEndpoint(), registration);
+            if (previous != null) {
+                endpointsByRegId.remove(previous.getId());
+            }
+            endpointsByRegId.put(registration.getId(), registration.getEndpoint());
+        }
+    }
+
+    /**
+     * Cache an observation read from Redis, unless an invalidation happened since the given generation.
+     */
+    public synchronized void putObservation(long readGeneration, Token token, Observation observation) {
+        if (enabled && readGeneration == generation) {
+            observationsByToken.put(token, observation);
+        }
+    }
+
+    public synchronized void invalidateEndpoint(String endpoint) {
+        generation++;
+        Registration removed = registrationsByEp.remove(endpoint);
+        if (removed != null) {
+            endpointsByRegId.remove(removed.getId());
+        }
+    }
+
+    public synchronized void invalidateObservation(Token token) {
+        generation++;
+        observationsByToken.remove(token);
+    }
+
+    public synchronized int size() {
+        return registrationsByEp.size() + observationsByToken.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private <T> T count(T value) {
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Enable or disable the cache, it is cleared in both cases.
+     */
+    synchronized void setEnabled(boolean enabled) {
+        generation++;
+        this.enabled = enabled;
+        registrationsByEp.clear();
+        endpointsByRegId.clear();
+        observationsByToken.clear();
+    }
+
+    /* *************** Keyspace notifications **************** */
+
+    /**
+     * Start listening to keyspace notifications using a dedicated connection of the given pool.
+     */
+    public synchronized void start(final Pool<Jedis> pool) {
+        if (subscriber != null) {
+            return;
+        }
+        subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribe(pool);
+            }
+        }, "RedisRegistrationStore Near Cache Invalidation");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    /**
+     * Stop listening to keyspace notifications and disable the cache.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = subscriber;
+            subscriber = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            BinaryJedisPubSub currentPubSub = pubSub;
+            if (currentPubSub != null && currentPubSub.isSubscribed()) {
+                currentPubSub.punsubscribe();
+            }
+        }
+        setEnabled(false);
+    }
+
+    private synchronized boolean isRunning() {
+        return subscriber == Thread.currentThread();
+    }
+
+    private void subscribe(Pool<Jedis> pool) {
+        while (isRunning()) {
+            try (Jedis j = pool.getResource()) {
+                final boolean configured = checkConfiguration(j);
+                String channelPrefix = "__keyspace@" + j.getDB() + "__:";
+                final byte[] endpointChannelPrefix = concat(channelPrefix.getBytes(UTF_8), endpointKeyPrefix);
+                final byte[] tokenChannelPrefix = concat(channelPrefix.getBytes(UTF_8), tokenKeyPrefix);
+                pubSub = new BinaryJedisPubSub() {
+                    @Override
+                    public void onPSubscribe(byte[] pattern, int subscribedChannels) {
+                        if (!isRunning()) {
+                            // stopped meanwhile
+                            punsubscribe();
+                        } else if (subscribedChannels == 2 && configured) {
+                            setEnabled(true);
+                        }
+                    }
+
+                    @Override
+                    public void onPMessage(byte[] pattern, byte[] channel, byte[] message) {
+                        if (startsWith(channel, endpointChannelPrefix)) {
+                            invalidateEndpoint(new String(channel, endpointChannelPrefix.length,
+                                    channel.length - endpointChannelPrefix.length, UTF_8));
+                        } else if (startsWith(channel, tokenChannelPrefix)) {
+                            invalidateObservation(
+                                    new Token(Arrays.copyOfRange(channel, tokenChannelPrefix.length, channel.length)));
+                        }
+                    }
+                };
+                if (!isRunning()) {
+                    return;
+                }
+                // blocks until punsubscribe or connection lost
+                j.psubscribe(pubSub, concat(endpointChannelPrefix, "*".getBytes(UTF_8)),
+                        concat(tokenChannelPrefix, "*".getBytes(UTF_8)));
+            } catch (RuntimeException e) {
+                if (isRunning()) {
+                    LOG.warn("Near cache invalidation subscription lost, retrying in {}ms", RESUBSCRIBE_DELAY, e);
+                }
+            } finally {
+                // notifications may have been missed
+                setEnabled(false);
+            }
+            if (isRunning()) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if keyspace notifications are not enabled, <code>true</code> if they are or if the
+     *         configuration can not be checked.
+     */
+    private boolean checkConfiguration(Jedis j) {
+        try {
+            List<String> config = j.configGet("notify-keyspace-events");
+            String events = config.size() > 1 ? config.get(1) : "";
+            if (!events.contains("K") || !(events.contains("A") || events.contains("g") && events.contains("$"))) {
+                LOG.warn("Redis keyspace notifications are not enabled (notify-keyspace-events = '{}'): "
+                        + "registration near cache is disabled. Use at least 'K$g'.", events);
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // CONFIG command may be disabled
+            LOG.debug("Unable to check Redis notify-keyspace-events configuration, assuming it is valid", e);
+            return true;
+        }
+    }
+
+    private static boolean startsWith(byte[] value, byte[] prefix) {
+        if (value.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis;
+
+/**
+ * Lua scripts used by {@link RedisRegistrationStore} to modify registrations and observations in one atomic round trip.
+ * <p>
+ * Registration modifications are optimistic : the script is given the serialized registration the modification was
+ * computed from and only applies it if the stored registration did not change meanwhile. Else it returns
+ * <code>{0, currentRegistration}</code> and the caller retries from this current value.
+ * <p>
+ * Observation keys are computed from the stored token set inside scripts, so those scripts are not usable with Redis
+ * Cluster. Observations are fetched and deleted in bulk using MGET and UNLINK, so Redis 4.0 or later is needed.
+ * <p>
+ * Tokens of a registration were previously stored in a list: scripts still read this format and convert it to a set
+ * the first time they modify it, so existing data does not need to be migrated.
+ */
+class RegistrationScripts {
+
+    private RegistrationScripts() {
+    }
+
+    // maximum number of arguments given to a Redis command by unpack(), to stay below Lua stack limit.
+    private static final int BULK_SIZE = 1000;
+
+    // get tokens of a token set or of a token list stored by a previous version.
+    private static final String GET_TOKENS_FUNCTION = //
+            "local function getTokens(tokensKey)\n" //
+                    + "  if redis.call('TYPE', tokensKey).ok ~= 'list' then\n" //
+                    + "    return redis.call('SMEMBERS', tokensKey)\n" //
+                    + "  end\n" //
+                    + "  local tokens, seen = {}, {}\n" //
+                    + "  for _, token in ipairs(redis.call('LRANGE', tokensKey, 0, -1)) do\n" //
+                    + "    if not seen[token] then\n" //
+                    + "      seen[token] = true\n" //
+                    + "      table.insert(tokens, token)\n" //
+                    + "    end\n" //
+                    + "  end\n" //
+                    + "  return tokens\n" //
+                    + "end\n";
+
+    // convert a token list stored by a previous version to a token set.
+    private static final String MIGRATE_TOKENS_FUNCTION = GET_TOKENS_FUNCTION //
+            + "local function migrateTokens(tokensKey)\n" //
+            + "  if redis.call('TYPE', tokensKey).ok == 'list' then\n" //
+            + "    local tokens = getTokens(tokensKey)\n" //
+            + "    redis.call('DEL', tokensKey)\n" //
+            + "    for i = 1, #tokens, " + BULK_SIZE + " do\n" //
+            + "      redis.call('SADD', tokensKey, unpack(tokens, i, math.min(i + " + (BULK_SIZE - 1)
+            + ", #tokens)))\n" //
+            + "    end\n" //
+            + "  end\n" //
+            + "end\n";
+
+    // call fn(obsKeys, observations) for each bulk of observations, observations not found are false.
+    private static final String FOR_EACH_OBSERVATIONS_FUNCTION = //
+            "local function forEachObservations(obsPrefix, tokens, fn)\n" //
+                    + "  for i = 1, #tokens, " + BULK_SIZE + " do\n" //
+                    + "    local obsKeys = {}\n" //
+                    + "    for k = i, math.min(i + " + (BULK_SIZE - 1) + ", #tokens) do\n" //
+                    + "      table.insert(obsKeys, obsPrefix .. tokens[k])\n" //
+                    + "    end\n" //
+                    + "    fn(obsKeys, redis.call('MGET', unpack(obsKeys)))\n" //
+                    + "  end\n" //
+                    + "end\n";
+
+    // remove observations of given tokens, removed observations are appended to the "removed" table.
+    private static final String REMOVE_OBSERVATIONS_FUNCTION = FOR_EACH_OBSERVATIONS_FUNCTION //
+            + "local function removeObservations(obsPrefix, tokens, removed)\n" //
+            + "  forEachObservations(obsPrefix, tokens, function(obsKeys, observations)\n" //
+            + "    for i = 1, #obsKeys do\n" //
+            + "      if observations[i] then table.insert(removed, observations[i]) end\n" //
+            + "    end\n" //
+            + "    redis.call('UNLINK', unpack(obsKeys))\n" //
+            + "  end)\n" //
+            + "end\n";
+
+    // remove all observations of a token set, removed observations are appended to the "removed" table.
+    private static final String REMOVE_ALL_OBSERVATIONS_FUNCTION = GET_TOKENS_FUNCTION + REMOVE_OBSERVATIONS_FUNCTION //
+            + "local function removeAllObservations(tokensKey, obsPrefix, removed)\n" //
+            + "  removeObservations(obsPrefix, getTokens(tokensKey), removed)\n" //
+            + "  redis.call('UNLINK', tokensKey)\n" //
+            + "end\n";
+
+    /**
+     * Get a registration by registration id.
+     * <p>
+     * KEYS : registration id index key.<br>
+     * ARGV : endpoint key prefix.<br>
+     * Returns the serialized registration or nil.
+     */
+    public static final LuaScript GET_REGISTRATION_BY_ID = new LuaScript( //
+            "local ep = redis.call('GET', KEYS[1])\n" //
+                    + "if not ep then return false end\n" //
+                    + "return redis.call('GET', ARGV[1] .. ep)\n");
+
+    /**
+     * Add a registration, replacing the previous one for this endpoint.
+     * <p>
+     * KEYS : endpoint key, registration id index key, address index key, expiration key and, if there is a previous
+     * registration, its registration id index key, address index key and token set key.<br>
+     * ARGV : expected previous registration (empty if none), new registration, endpoint, expiration time stamp,
+     * observation key prefix.<br>
+     * Returns <code>{1, removedObservations...}</code> on success.
+     */
+    public static final LuaScript ADD_REGISTRATION = new LuaScript( //
+            REMOVE_ALL_OBSERVATIONS_FUNCTION //
+                    + "local current = redis.call('GET', KEYS[1])\n" //
+                    + "if (current or '') ~= ARGV[1] then return {0, current} end\n" //
+                    + "redis.call('SET', KEYS[1], ARGV[2])\n" //
+                    + "redis.call('SET', KEYS[2], ARGV[3])\n" //
+                    + "redis.call('SET', KEYS[3], ARGV[3])\n" //
+                    + "redis.call('ZADD', KEYS[4], ARGV[4], ARGV[3])\n" //
+                    + "local result = {1}\n" //
+                    + "if current then\n" //
+                    + "  if KEYS[5] ~= KEYS[2] then redis.call('DEL', KEYS[5]) end\n" //
+                    + "  if KEYS[6] ~= KEYS[3] and redis.call('GET', KEYS[6]) == ARGV[3] then\n" //
+                    + "    redis.call('DEL', KEYS[6])\n" //
+                    + "  end\n" //
+                    + "  removeAllObservations(KEYS[7], ARGV[5], result)\n" //
+                    + "end\n" //
+                    + "return result\n");
+
+    /**
+     * Replace an existing registration by its updated version.
+     * <p>
+     * KEYS : endpoint key, new address index key, expiration key, previous address index key.<br>
+     * ARGV : expected registration, updated registration, endpoint, expiration time stamp.<br>
+     * Returns <code>{1}</code> on success.
+     */
+    public static final LuaScript UPDATE_REGISTRATION = new LuaScript( //
+            "local current = redis.call('GET', KEYS[1])\n" //
+                    + "if current ~= ARGV[1] then return {0, current} end\n" //
+                    + "redis.call('SET', KEYS[1], ARGV[2])\n" //
+                    + "redis.call('ZADD', KEYS[3], ARGV[4], ARGV[3])\n" //
+                    + "redis.call('SET', KEYS[2], ARGV[3])\n" //
+                    + "if KEYS[4] ~= KEYS[2] and redis.call('GET', KEYS[4]) == ARGV[3] then\n" //
+                    + "  redis.call('DEL', KEYS[4])\n" //
+                    + "end\n" //
+                    + "return {1}\n");
+
+    /**
+     * Remove a registration and all its observations.
+     * <p>
+     * KEYS : endpoint key, registration id index key, address index key, expiration key, token set key.<br>
+     * ARGV : expected registration, endpoint, observation key prefix.<br>
+     * Returns <code>{1, removedObservations...}</code> on success.
+     */
+    public static final LuaScript REMOVE_REGISTRATION = new LuaScript( //
+            REMOVE_ALL_OBSERVATIONS_FUNCTION //
+                    + "local current = redis.call('GET', KEYS[1])\n" //
+                    + "if current ~= ARGV[1] then return {0, current} end\n" //
+                    + "redis.call('DEL', KEYS[1], KEYS[2])\n" //
+                    + "if redis.call('GET', KEYS[3]) == ARGV[2] then redis.call('DEL', KEYS[3]) end\n" //
+                    + "redis.call('ZREM', KEYS[4], ARGV[2])\n" //
+                    + "local result = {1}\n" //
+                    + "removeAllObservations(KEYS[5], ARGV[3], result)\n" //
+                    + "return result\n");
+
+    /**
+     * Claim expired registrations : their expiration is postponed until the end of a lease so other cleaners (e.g. on
+     * other cluster nodes) do not claim them too. If the claiming cleaner fails, they will be due again at the end of
+     * the lease.
+     * <p>
+     * KEYS : expiration key.<br>
+     * ARGV : current time stamp, maximum number of registrations to claim, end of lease time stamp.<br>
+     * Returns the endpoints of claimed registrations.
+     */
+    public static final LuaScript CLAIM_EXPIRED_REGISTRATIONS = new LuaScript( //
+            "local eps = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])\n" //
+                    + "for _, ep in ipairs(eps) do\n" //
+                    + "  redis.call('ZADD', KEYS[1], 'XX', ARGV[3], ep)\n" //
+                    + "end\n" //
+                    + "return eps\n");
+
+    /**
+     * Remove a batch of claimed expired registrations and their observations.
+     * <p>
+     * Each registration is only modified if it did not change since it was read. If it is still alive, it is
+     * rescheduled to its expiration time stamp. If it does not exist anymore, it is removed from expiration key.
+     * <p>
+     * KEYS : expiration key, then for each registration : endpoint key, registration id index key, address index key
+     * and token set key.<br>
+     * ARGV : observation key prefix, then for each registration : expected registration (empty if none), endpoint and
+     * expiration time stamp (empty to remove it).<br>
+     * Returns for each registration <code>{1, removedObservations...}</code> if it was removed else <code>{0}</code>.
+     */
+    public static final LuaScript REMOVE_EXPIRED_REGISTRATIONS = new LuaScript( //
+            REMOVE_ALL_OBSERVATIONS_FUNCTION //
+                    + "local result = {}\n" //
+                    + "for i = 0, (#KEYS - 1) / 4 - 1 do\n" //
+                    + "  local epKey, regIdKey = KEYS[2 + i * 4], KEYS[3 + i * 4]\n" //
+                    + "  local addrKey, tokensKey = KEYS[4 + i * 4], KEYS[5 + i * 4]\n" //
+                    + "  local expected, ep, score = ARGV[2 + i * 3], ARGV[3 + i * 3], ARGV[4 + i * 3]\n" //
+                    + "  local current = redis.call('GET', epKey)\n" //
+                    + "  local removed = {0}\n" //
+                    + "  if (current or '') == expected then\n" //
+                    + "    if not current then\n" //
+                    + "      redis.call('ZREM', KEYS[1], ep)\n" //
+                    + "    elseif score ~= '' then\n" //
+                    + "      redis.call('ZADD', KEYS[1], score, ep)\n" //
+                    + "    else\n" //
+                    + "      redis.call('DEL', epKey, regIdKey)\n" //
+                    + "      if redis.call('GET', addrKey) == ep then redis.call('DEL', addrKey) end\n" //
+                    + "      redis.call('ZREM', KEYS[1], ep)\n" //
+                    + "      removed[1] = 1\n" //
+                    + "      removeAllObservations(tokensKey, ARGV[1], removed)\n" //
+                    + "    end\n" //
+                    + "  end\n" //
+                    + "  result[i + 1] = removed\n" //
+                    + "end\n" //
+                    + "return result\n");
+
+    /**
+     * Add an observation if the registration still exists.
+     * <p>
+     * KEYS : registration id index key, observation key, token set key.<br>
+     * ARGV : observation, token, "1" to add only if absent.<br>
+     * Returns <code>{0}</code> if there is no registration, <code>{1, previousObservation}</code> if the observation
+     * was added and <code>{2, existingObservation}</code> if it was not added because it is already present.
+     */
+    public static final LuaScript ADD_OBSERVATION = new LuaScript( //
+            MIGRATE_TOKENS_FUNCTION //
+                    + "if redis.call('EXISTS', KEYS[1]) == 0 then return {0} end\n" //
+                    + "local previous\n" //
+                    + "if ARGV[3] == '1' then\n" //
+                    + "  previous = redis.call('GET', KEYS[2])\n" //
+                    + "  if previous and previous ~= '' then return {2, previous} end\n" //
+                    + "  redis.call('SET', KEYS[2], ARGV[1])\n" //
+                    + "else\n" //
+                    + "  previous = redis.call('GETSET', KEYS[2], ARGV[1])\n" //
+                    + "end\n" //
+                    + "migrateTokens(KEYS[3])\n" //
+                    + "redis.call('SADD', KEYS[3], ARGV[2])\n" //
+                    + "return {1, previous}\n");
+
+    /**
+     * Get all observations of a registration.
+     * <p>
+     * KEYS : token set key.<br>
+     * ARGV : observation key prefix.<br>
+     * Returns the observations.
+     */
+    public static final LuaScript GET_OBSERVATIONS = new LuaScript( //
+            GET_TOKENS_FUNCTION + FOR_EACH_OBSERVATIONS_FUNCTION //
+                    + "local result = {}\n" //
+                    + "forEachObservations(ARGV[1], getTokens(KEYS[1]), function(obsKeys, observations)\n" //
+                    + "  for i = 1, #obsKeys do\n" //
+                    + "    if observations[i] then table.insert(result, observations[i]) end\n" //
+                    + "  end\n" //
+                    + "end)\n" //
+                    + "return result\n");
+
+    /**
+     * Remove the given observations of a registration.
+     * <p>
+     * KEYS : token set key.<br>
+     * ARGV : observation key prefix, tokens...<br>
+     * Returns the removed observations.
+     */
+    public static final LuaScript REMOVE_OBSERVATIONS = new LuaScript( //
+            MIGRATE_TOKENS_FUNCTION + REMOVE_OBSERVATIONS_FUNCTION //
+                    + "migrateTokens(KEYS[1])\n" //
+                    + "local tokens = {}\n" //
+                    + "for i = 2, #ARGV do\n" //
+                    + "  if redis.call('SREM', KEYS[1], ARGV[i]) > 0 then table.insert(tokens, ARGV[i]) end\n" //
+                    + "end\n" //
+                    + "local removed = {}\n" //
+                    + "removeObservations(ARGV[1], tokens, removed)\n" //
+                    + "return removed\n");
+
+    /**
+     * Remove all observations of a registration if it still exists.
+     * <p>
+     * KEYS : registration id index key, token set key.<br>
+     * ARGV : observation key prefix.<br>
+     * Returns the removed observations.
+     */
+    public static final LuaScript REMOVE_ALL_OBSERVATIONS = new LuaScript( //
+            REMOVE_ALL_OBSERVATIONS_FUNCTION //
+                    + "local removed = {}\n" //
+                    + "if redis.call('EXISTS', KEYS[1]) == 1 then\n" //
+                    + "  removeAllObservations(KEYS[2], ARGV[1], removed)\n" //
+                    + "end\n" //
+                    + "return removed\n");
+}
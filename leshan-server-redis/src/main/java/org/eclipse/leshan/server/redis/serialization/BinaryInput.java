@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads data written by {@link BinaryOutput}.
+ */
+class BinaryInput {
+
+    private final byte[] buffer;
+    private int position;
+    private List<String> sharedStrings;
+
+    public BinaryInput(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public int readByte() {
+        checkAvailable(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid binary content : malformed variable length integer");
+    }
+
+    public int readVarInt() {
+        return (int) readVarLong();
+    }
+
+    public byte[] readBytes() {
+        int length = readLength();
+        checkAvailable(length);
+        byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    public String readString() {
+        return readString(readLength());
+    }
+
+    public String readNullableString() {
+        int length = readLength();
+        if (length == 0) {
+            return null;
+        }
+        return readString(length - 1);
+    }
+
+    public String readSharedString() {
+        if (sharedStrings == null) {
+            sharedStrings = new ArrayList<>();
+        }
+        int index = readVarInt();
+        if (index == 0) {
+            String value = readString();
+            sharedStrings.add(value);
+            return value;
+        }
+        if (index > sharedStrings.size()) {
+            throw new IllegalArgumentException("Invalid binary content : unknown shared string " + index);
+        }
+        return sharedStrings.get(index - 1);
+    }
+
+    private String readString(int length) {
+        checkAvailable(length);
+        String value = new String(buffer, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    private int readLength() {
+        int length = readVarInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid binary content : negative length");
+        }
+        return length;
+    }
+
+    private void checkAvailable(int length) {
+        if (length > buffer.length - position) {
+            throw new IllegalArgumentException("Invalid binary content : unexpected end of data");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A growable buffer used to write the binary format of {@link BinaryRegistrationStoreSerDes}.
+ * <p>
+ * Integers are written as unsigned LEB128 variable length integers. Strings written with
+ * {@link #writeSharedString(String)} are written once, next occurrences are a reference to the first one.
+ */
+class BinaryOutput {
+
+    private byte[] buffer;
+    private int position;
+    private Map<String, Integer> sharedStrings;
+
+    public BinaryOutput(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    public void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) b;
+    }
+
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public void writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    public void writeString(String value) {
+        writeBytes(value.getBytes(UTF_8));
+    }
+
+    /**
+     * Write a string which may be <code>null</code>.
+     */
+    public void writeNullableString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+    }
+
+    /**
+     * Write a string which is likely to be repeated (e.g. attribute name). The first occurrence is written as
+     * <code>0</code> followed by the string, next occurrences are written as the 1-based index of the first one.
+     */
+    public void writeSharedString(String value) {
+        if (sharedStrings == null) {
+            sharedStrings = new HashMap<>();
+        }
+        Integer index = sharedStrings.get(value);
+        if (index != null) {
+            writeVarInt(index);
+        } else {
+            sharedStrings.put(value, sharedStrings.size() + 1);
+            writeVarInt(0);
+            writeString(value);
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.DataParser;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.californium.elements.AddressEndpointContext;
+import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.californium.elements.MapBasedEndpointContext;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.auth.PreSharedKeyIdentity;
+import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
+import org.eclipse.californium.elements.auth.X509CertPath;
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * A {@link RegistrationStoreSerDes} using a compact versioned binary format.
+ * <p>
+ * Compared to the JSON format, numbers are written as variable length integers, addresses, public keys and CoAP
+ * requests are written as raw bytes instead of text or hexadecimal strings and link attribute names are written only
+ * once per registration.
+ * <p>
+ * Each value starts with a {@link #MAGIC} byte followed by the format {@link #VERSION}. As JSON values always start
+ * with <code>{</code>, values written in JSON by a previous version (or by {@link JsonRegistrationStoreSerDes}) are
+ * still readable, so an existing Redis database can be used without migration.
+ */
+public class BinaryRegistrationStoreSerDes implements RegistrationStoreSerDes {
+
+    /** First byte of binary values. */
+    public static final int MAGIC = 0xB0;
+    /** Current version of the binary format. */
+    public static final int VERSION = 1;
+
+    private static final int REGISTRATION = 1;
+    private static final int OBSERVATION = 2;
+
+    // identity and endpoint context principal types
+    private static final int UNSECURE = 0;
+    private static final int PSK = 1;
+    private static final int RPK = 2;
+    private static final int X509 = 3;
+
+    private static final DataSerializer serializer = new UdpDataSerializer();
+    private static final DataParser parser = new UdpDataParser();
+
+    @Override
+    public byte[] serializeRegistration(Registration registration) {
+        return serializeBinaryRegistration(registration);
+    }
+
+    @Override
+    public Registration deserializeRegistration(byte[] data) {
+        if (isBinary(data)) {
+            return deserializeBinaryRegistration(data);
+        }
+        return RegistrationSerDes.deserialize(data);
+    }
+
+    @Override
+    public byte[] serializeObservation(Observation observation) {
+        return serializeBinaryObservation(observation);
+    }
+
+    @Override
+    public Observation deserializeObservation(byte[] data) {
+        if (isBinary(data)) {
+            return deserializeBinaryObservation(data);
+        }
+        return ObservationSerDes.deserialize(data);
+    }
+
+    /**
+     * @return true if the given data was written using the binary format.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > 0 && (data[0] & 0xFF) == MAGIC;
+    }
+
+    public static byte[] serializeBinaryRegistration(Registration r) {
+        BinaryOutput out = new BinaryOutput(256);
+        writeHeader(out, REGISTRATION);
+        out.writeString(r.getId());
+        out.writeString(r.getEndpoint());
+        writeIdentity(out, r.getIdentity());
+        out.writeVarLong(r.getLifeTimeInSec());
+        out.writeNullableString(r.getSmsNumber());
+        out.writeString(r.getLwM2mVersion());
+        out.writeString(r.getBindingMode().name());
+        out.writeVarLong(r.getRegistrationDate().getTime());
+        out.writeVarLong(r.getLastUpdate().getTime());
+
+        Map<String, String> additionalAttributes = r.getAdditionalRegistrationAttributes();
+        out.writeVarInt(additionalAttributes.size());
+        for (Entry<String, String> e : additionalAttributes.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeNullableString(e.getValue());
+        }
+
+        Link[] links = r.getObjectLinks();
+        if (links == null) {
+            out.writeVarInt(0);
+        } else {
+            out.writeVarInt(links.length + 1);
+            for (Link link : links) {
+                out.writeString(link.getUrl());
+                Map<String, String> attributes = link.getAttributes();
+                out.writeVarInt(attributes.size());
+                for (Entry<String, String> e : attributes.entrySet()) {
+                    out.writeSharedString(e.getKey());
+                    out.writeNullableString(e.getValue());
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static Registration deserializeBinaryRegistration(byte[] data) {
+        BinaryInput in = new BinaryInput(data);
+        readHeader(in, REGISTRATION);
+        Registration.Builder b = new Registration.Builder(in.readString(), in.readString(), readIdentity(in));
+        b.lifeTimeInSec(in.readVarLong());
+        b.smsNumber(in.readNullableString());
+        b.lwM2mVersion(in.readString());
+        b.bindingMode(BindingMode.valueOf(in.readString()));
+        b.registrationDate(new Date(in.readVarLong()));
+        b.lastUpdate(new Date(in.readVarLong()));
+
+        int size = in.readVarInt();
+        Map<String, String> additionalAttributes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            additionalAttributes.put(in.readString(), in.readNullableString());
+        }
+        b.additionalRegistrationAttributes(additionalAttributes);
+
+        int linksSize = in.readVarInt();
+        if (linksSize > 0) {
+            Link[] links = new Link[linksSize - 1];
+            for (int i = 0; i < links.length; i++) {
+                String url = in.readString();
+                int attributesSize = in.readVarInt();
+                Map<String, String> attributes = new HashMap<>(attributesSize * 2);
+                for (int j = 0; j < attributesSize; j++) {
+                    attributes.put(in.readSharedString(), in.readNullableString());
+                }
+                links[i] = new Link(url, attributes);
+            }
+            b.objectLinks(links);
+        }
+        return b.build();
+    }
+
+    public static byte[] serializeBinaryObservation(Observation obs) {
+        BinaryOutput out = new BinaryOutput(128);
+        writeHeader(out, OBSERVATION);
+        Request request = obs.getRequest();
+        out.writeBytes(serializer.serializeRequest(request).bytes);
+        writeEndpointContext(out, obs.getContext() != null ? obs.getContext() : request.getDestinationContext());
+
+        Map<String, String> userContext = request.getUserContext();
+        if (userContext == null) {
+            out.writeVarInt(0);
+        } else {
+            out.writeVarInt(userContext.size() + 1);
+            for (Entry<String, String> e : userContext.entrySet()) {
+                out.writeString(e.getKey());
+                out.writeNullableString(e.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static Observation deserializeBinaryObservation(byte[] data) {
+        BinaryInput in = new BinaryInput(data);
+        readHeader(in, OBSERVATION);
+        byte[] req = in.readBytes();
+        EndpointContext endpointContext = readEndpointContext(in);
+
+        RawData rawData = RawData.outbound(req, endpointContext, null, false);
+        Request request = (Request) parser.parseMessage(rawData);
+        request.setDestinationContext(endpointContext);
+
+        int size = in.readVarInt();
+        if (size > 0) {
+            Map<String, String> context = new HashMap<>(size * 2);
+            for (int i = 0; i < size - 1; i++) {
+                context.put(in.readString(), in.readNullableString());
+            }
+            request.setUserContext(context);
+        }
+        return new Observation(request, endpointContext);
+    }
+
+    private static void writeHeader(BinaryOutput out, int type) {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    private static void readHeader(BinaryInput in, int expectedType) {
+        if (in.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Invalid binary content : bad magic number");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid binary content : unsupported version %d", version));
+        }
+        int type = in.readByte();
+        if (type != expectedType) {
+            throw new IllegalArgumentException(String.format("Invalid binary content : unexpected type %d", type));
+        }
+    }
+
+    private static void writeAddress(BinaryOutput out, InetSocketAddress address) {
+        InetAddress inetAddress = address.getAddress();
+        if (inetAddress == null) {
+            // unresolved address
+            out.writeVarInt(0);
+            out.writeString(address.getHostString());
+        } else {
+            out.writeBytes(inetAddress.getAddress());
+        }
+        out.writeVarInt(address.getPort());
+    }
+
+    private static InetSocketAddress readAddress(BinaryInput in) {
+        byte[] rawAddress = in.readBytes();
+        if (rawAddress.length == 0) {
+            String host = in.readString();
+            return new InetSocketAddress(host, in.readVarInt());
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(rawAddress), in.readVarInt());
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid binary content : bad address", e);
+        }
+    }
+
+    private static void writeIdentity(BinaryOutput out, Identity identity) {
+        writeAddress(out, identity.getPeerAddress());
+        if (identity.isPSK()) {
+            out.writeByte(PSK);
+            out.writeString(identity.getPskIdentity());
+        } else if (identity.isRPK()) {
+            out.writeByte(RPK);
+            out.writeBytes(identity.getRawPublicKey().getEncoded());
+        } else if (identity.isX509()) {
+            out.writeByte(X509);
+            out.writeString(identity.getX509CommonName());
+        } else {
+            out.writeByte(UNSECURE);
+        }
+    }
+
+    private static Identity readIdentity(BinaryInput in) {
+        InetSocketAddress address = readAddress(in);
+        int type = in.readByte();
+        switch (type) {
+        case UNSECURE:
+            return Identity.unsecure(address);
+        case PSK:
+            return Identity.psk(address, in.readString());
+        case RPK:
+            return Identity.rpk(address, readPublicKey(in));
+        case X509:
+            return Identity.x509(address, in.readString());
+        default:
+            throw new IllegalArgumentException(
+                    String.format("Invalid binary content : unknown identity type %d", type));
+        }
+    }
+
+    private static void writeEndpointContext(BinaryOutput out, EndpointContext context) {
+        writeAddress(out, context.getPeerAddress());
+        Principal principal = context.getPeerIdentity();
+        if (principal instanceof PreSharedKeyIdentity) {
+            out.writeByte(PSK);
+            out.writeString(((PreSharedKeyIdentity) principal).getIdentity());
+        } else if (principal instanceof RawPublicKeyIdentity) {
+            out.writeByte(RPK);
+            out.writeBytes(((RawPublicKeyIdentity) principal).getKey().getEncoded());
+        } else if (principal instanceof X500Principal || principal instanceof X509CertPath) {
+            out.writeByte(X509);
+            out.writeString(principal.getName());
+        } else {
+            out.writeByte(UNSECURE);
+        }
+
+        Map<String, String> attributes = context.entries();
+        out.writeVarInt(attributes.size());
+        for (Entry<String, String> e : attributes.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeString(e.getValue());
+        }
+    }
+
+    private static EndpointContext readEndpointContext(BinaryInput in) {
+        InetSocketAddress address = readAddress(in);
+        Principal principal;
+        int type = in.readByte();
+        switch (type) {
+        case UNSECURE:
+            principal = null;
+            break;
+        case PSK:
+            principal = new PreSharedKeyIdentity(in.readString());
+            break;
+        case RPK:
+            principal = new RawPublicKeyIdentity(readPublicKey(in));
+            break;
+        case X509:
+            principal = new X500Principal(in.readString());
+            break;
+        default:
+            throw new IllegalArgumentException(
+                    String.format("Invalid binary content : unknown principal type %d", type));
+        }
+
+        int size = in.readVarInt();
+        if (size == 0) {
+            return new AddressEndpointContext(address, principal);
+        }
+        String[] attributes = new String[size * 2];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = in.readString();
+        }
+        return new MapBasedEndpointContext(address, principal, attributes);
+    }
+
+    private static PublicKey readPublicKey(BinaryInput in) {
+        try {
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(in.readBytes()));
+        } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Invalid security info content", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Functions for serialize and deserialize the presence events published by a Redis presence service in a compact
+ * versioned binary format.
+ */
+public class PresenceEventSerDes {
+
+    /** Current version of the binary format. */
+    public static final int VERSION = 1;
+
+    /**
+     * @param nodeId the identifier of the node publishing the event.
+     * @param awake <code>true</code> if the client woke up, <code>false</code> if it fell asleep.
+     * @param awakeTime the time in milliseconds the client stays awake, 0 for a sleeping event.
+     * @param registration the registration of the client.
+     */
+    public static byte[] serialize(String nodeId, boolean awake, long awakeTime, Registration registration) {
+        BinaryOutput out = new BinaryOutput(256);
+        out.writeByte(VERSION);
+        out.writeString(nodeId);
+        out.writeByte(awake ? 1 : 0);
+        out.writeVarLong(awakeTime);
+        out.writeBytes(BinaryRegistrationStoreSerDes.serializeBinaryRegistration(registration));
+        return out.toByteArray();
+    }
+
+    public static PresenceEvent deserialize(byte[] data) {
+        BinaryInput in = new BinaryInput(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported presence event format version " + version);
+        }
+        String nodeId = in.readString();
+        boolean awake = in.readByte() != 0;
+        long awakeTime = in.readVarLong();
+        Registration registration = BinaryRegistrationStoreSerDes.deserializeBinaryRegistration(in.readBytes());
+        return new PresenceEvent(nodeId, awake, awakeTime, registration);
+    }
+
+    /**
+     * A client state change published by a node of the cluster.
+     */
+    public static class PresenceEvent {
+
+        private final String nodeId;
+        private final boolean awake;
+        private final long awakeTime;
+        private final Registration registration;
+
+        public PresenceEvent(String nodeId, boolean awake, long awakeTime, Registration registration) {
+            this.nodeId = nodeId;
+            this.awake = awake;
+            this.awakeTime = awakeTime;
+            this.registration = registration;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public boolean isAwake() {
+            return awake;
+        }
+
+        public long getAwakeTime() {
+            return awakeTime;
+        }
+
+        public Registration getRegistration() {
+            return registration;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.leshan.core.attributes.AttributeSet;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.CreateRequest;
+import org.eclipse.leshan.core.request.DeleteRequest;
+import org.eclipse.leshan.core.request.DiscoverRequest;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.core.request.ReadRequest;
+import org.eclipse.leshan.core.request.WriteAttributesRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.request.WriteRequest.Mode;
+import org.eclipse.leshan.server.queue.QueuedRequest;
+
+/**
+ * Functions for serialize and deserialize {@link QueuedRequest} in a compact versioned binary format for storage.
+ * <p>
+ * Only READ, DISCOVER, WRITE, WRITE-ATTRIBUTES, EXECUTE, CREATE, DELETE and OBSERVE requests are supported.
+ */
+public class QueuedRequestSerDes {
+
+    /** Current version of the binary format. */
+    public static final int VERSION = 1;
+
+    // request types
+    private static final int READ = 1;
+    private static final int DISCOVER = 2;
+    private static final int WRITE = 3;
+    private static final int WRITE_ATTRIBUTES = 4;
+    private static final int EXECUTE = 5;
+    private static final int CREATE = 6;
+    private static final int DELETE = 7;
+    private static final int OBSERVE = 8;
+
+    // node types
+    private static final int OBJECT = 1;
+    private static final int OBJECT_INSTANCE = 2;
+    private static final int SINGLE_RESOURCE = 3;
+    private static final int MULTIPLE_RESOURCE = 4;
+
+    private static final Type[] TYPES = Type.values();
+
+    /**
+     * @throws IllegalArgumentException if the request type is not supported.
+     */
+    public static byte[] serialize(QueuedRequest queued) {
+        BinaryOutput out = new BinaryOutput(128);
+        out.writeByte(VERSION);
+        out.writeString(queued.getId());
+        out.writeString(queued.getEndpoint());
+        out.writeVarLong(queued.getTimeout());
+        out.writeVarLong(queued.getExpirationTime());
+        writeRequest(out, queued.getRequest());
+        return out.toByteArray();
+    }
+
+    public static QueuedRequest deserialize(byte[] data) {
+        BinaryInput in = new BinaryInput(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported queued request format version " + version);
+        }
+        String id = in.readString();
+        String endpoint = in.readString();
+        long timeout = in.readVarLong();
+        long expirationTime = in.readVarLong();
+        return new QueuedRequest(id, endpoint, readRequest(in), timeout, expirationTime);
+    }
+
+    private static void writeRequest(BinaryOutput out, DownlinkRequest<?> request) {
+        String path = request.getPath().toString();
+        if (request instanceof ReadRequest) {
+            out.writeByte(READ);
+            writeContentFormat(out, ((ReadRequest) request).getContentFormat());
+            out.writeString(path);
+        } else if (request instanceof DiscoverRequest) {
+            out.writeByte(DISCOVER);
+            out.writeString(path);
+        } else if (request instanceof WriteRequest) {
+            WriteRequest write = (WriteRequest) request;
+            out.writeByte(WRITE);
+            out.writeByte(write.isReplaceRequest() ? 1 : 0);
+            writeContentFormat(out, write.getContentFormat());
+            out.writeString(path);
+            writeNode(out, write.getNode());
+        } else if (request instanceof WriteAttributesRequest) {
+            out.writeByte(WRITE_ATTRIBUTES);
+            out.writeString(path);
+            String[] params = ((WriteAttributesRequest) request).getAttributes().toQueryParams();
+            out.writeVarInt(params.length);
+            for (String param : params) {
+                out.writeString(param);
+            }
+        } else if (request instanceof ExecuteRequest) {
+            out.writeByte(EXECUTE);
+            out.writeString(path);
+            out.writeNullableString(((ExecuteRequest) request).getParameters());
+        } else if (request instanceof CreateRequest) {
+            CreateRequest create = (CreateRequest) request;
+            out.writeByte(CREATE);
+            writeContentFormat(out, create.getContentFormat());
+            out.writeString(path);
+            if (create.unknownObjectInstanceId()) {
+                out.writeByte(0);
+                writeResources(out, create.getResources());
+            } else {
+                out.writeByte(1);
+                out.writeVarInt(create.getObjectInstances().size());
+                for (LwM2mObjectInstance instance : create.getObjectInstances()) {
+                    writeNode(out, instance);
+                }
+            }
+        } else if (request instanceof DeleteRequest) {
+            out.writeByte(DELETE);
+            out.writeString(path);
+        } else if (request instanceof ObserveRequest) {
+            ObserveRequest observe = (ObserveRequest) request;
+            out.writeByte(OBSERVE);
+            writeContentFormat(out, observe.getContentFormat());
+            out.writeString(path);
+            Map<String, String> context = observe.getContext();
+            out.writeVarInt(context == null ? 0 : context.size());
+            if (context != null) {
+                for (Entry<String, String> entry : context.entrySet()) {
+                    out.writeString(entry.getKey());
+                    out.writeString(entry.getValue());
+                }
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    String.format("Unsupported request type for queuing: %s", request.getClass().getSimpleName()));
+        }
+    }
+
+    private static DownlinkRequest<?> readRequest(BinaryInput in) {
+        int type = in.readByte();
+        switch (type) {
+        case READ:
+            return new ReadRequest(readContentFormat(in), in.readString());
+        case DISCOVER:
+            return new DiscoverRequest(in.readString());
+        case WRITE: {
+            Mode mode = in.readByte() == 1 ? Mode.REPLACE : Mode.UPDATE;
+            ContentFormat format = readContentFormat(in);
+            String path = in.readString();
+            return new WriteRequest(mode, format, path, readNode(in));
+        }
+        case WRITE_ATTRIBUTES: {
+            String path = in.readString();
+            String[] params = new String[in.readVarInt()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = in.readString();
+            }
+            return new WriteAttributesRequest(path, AttributeSet.parse(params));
+        }
+        case EXECUTE:
+            return new ExecuteRequest(in.readString(), in.readNullableString());
+        case CREATE: {
+            ContentFormat format = readContentFormat(in);
+            String path = in.readString();
+            if (in.readByte() == 0) {
+                return new CreateRequest(format, path, readResources(in));
+            }
+            LwM2mObjectInstance[] instances = new LwM2mObjectInstance[in.readVarInt()];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = (LwM2mObjectInstance) readNode(in);
+            }
+            return new CreateRequest(format, path, instances);
+        }
+        case DELETE:
+            return new DeleteRequest(in.readString());
+        case OBSERVE: {
+            ContentFormat format = readContentFormat(in);
+            String path = in.readString();
+            int size = in.readVarInt();
+            Map<String, String> context = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                context.put(in.readString(), in.readString());
+            }
+            return new ObserveRequest(format, path, context);
+        }
+        default:
+            throw new IllegalArgumentException("Invalid binary content : unknown request type " + type);
+        }
+    }
+
+    private static void writeContentFormat(BinaryOutput out, ContentFormat format) {
+        // 0 means no format
+        out.writeVarInt(format == null ? 0 : format.getCode() + 1);
+    }
+
+    private static ContentFormat readContentFormat(BinaryInput in) {
+        int code = in.readVarInt();
+        return code == 0 ? null : ContentFormat.fromCode(code - 1);
+    }
+
+    private static void writeNode(BinaryOutput out, LwM2mNode node) {
+        if (node instanceof LwM2mObject) {
+            out.writeByte(OBJECT);
+            out.writeVarInt(node.getId());
+            Map<Integer, LwM2mObjectInstance> instances = ((LwM2mObject) node).getInstances();
+            out.writeVarInt(instances.size());
+            for (LwM2mObjectInstance instance : instances.values()) {
+                writeNode(out, instance);
+            }
+        } else if (node instanceof LwM2mObjectInstance) {
+            out.writeByte(OBJECT_INSTANCE);
+            // 0 means undefined id
+            out.writeVarInt(node.getId() + 1);
+            writeResources(out, ((LwM2mObjectInstance) node).getResources().values());
+        } else if (node instanceof LwM2mSingleResource) {
+            LwM2mSingleResource resource = (LwM2mSingleResource) node;
+            out.writeByte(SINGLE_RESOURCE);
+            out.writeVarInt(resource.getId());
+            out.writeByte(resource.getType().ordinal());
+            writeValue(out, resource.getType(), resource.getValue());
+        } else if (node instanceof LwM2mMultipleResource) {
+            LwM2mMultipleResource resource = (LwM2mMultipleResource) node;
+            out.writeByte(MULTIPLE_RESOURCE);
+            out.writeVarInt(resource.getId());
+            out.writeByte(resource.getType().ordinal());
+            Map<Integer, ?> values = resource.getValues();
+            out.writeVarInt(values.size());
+            for (Entry<Integer, ?> entry : values.entrySet()) {
+                out.writeVarInt(entry.getKey());
+                writeValue(out, resource.getType(), entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    String.format("Unsupported node type for queuing: %s", node.getClass().getSimpleName()));
+        }
+    }
+
+    private static LwM2mNode readNode(BinaryInput in) {
+        int nodeType = in.readByte();
+        switch (nodeType) {
+        case OBJECT: {
+            int id = in.readVarInt();
+            LwM2mObjectInstance[] instances = new LwM2mObjectInstance[in.readVarInt()];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = (LwM2mObjectInstance) readNode(in);
+            }
+            return new LwM2mObject(id, instances);
+        }
+        case OBJECT_INSTANCE: {
+            int id = in.readVarInt() - 1;
+            List<LwM2mResource> resources = readResources(in);
+            return id == LwM2mObjectInstance.UNDEFINED ? new LwM2mObjectInstance(resources)
+                    : new LwM2mObjectInstance(id, resources);
+        }
+        case SINGLE_RESOURCE: {
+            int id = in.readVarInt();
+            Type type = readType(in);
+            return LwM2mSingleResource.newResource(id, readValue(in, type), type);
+        }
+        case MULTIPLE_RESOURCE: {
+            int id = in.readVarInt();
+            Type type = readType(in);
+            int size = in.readVarInt();
+            Map<Integer, Object> values = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                int instanceId = in.readVarInt();
+                values.put(instanceId, readValue(in, type));
+            }
+            return LwM2mMultipleResource.newResource(id, values, type);
+        }
+        default:
+            throw new IllegalArgumentException("Invalid binary content : unknown node type " + nodeType);
+        }
+    }
+
+    private static void writeResources(BinaryOutput out, Collection<LwM2mResource> resources) {
+        out.writeVarInt(resources.size());
+        for (LwM2mResource resource : resources) {
+            writeNode(out, resource);
+        }
+    }
+
+    private static List<LwM2mResource> readResources(BinaryInput in) {
+        int size = in.readVarInt();
+        List<LwM2mResource> resources = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            resources.add((LwM2mResource) readNode(in));
+        }
+        return resources;
+    }
+
+    private static Type readType(BinaryInput in) {
+        int ordinal = in.readByte();
+        if (ordinal >= TYPES.length) {
+            throw new IllegalArgumentException("Invalid binary content : unknown resource type " + ordinal);
+        }
+        return TYPES[ordinal];
+    }
+
+    private static void writeValue(BinaryOutput out, Type type, Object value) {
+        switch (type) {
+        case STRING:
+            out.writeString((String) value);
+            break;
+        case INTEGER:
+            out.writeVarLong((Long) value);
+            break;
+        case FLOAT:
+            out.writeVarLong(Double.doubleToLongBits((Double) value));
+            break;
+        case BOOLEAN:
+            out.writeByte((Boolean) value ? 1 : 0);
+            break;
+        case OPAQUE:
+            out.writeBytes((byte[]) value);
+            break;
+        case TIME:
+            out.writeVarLong(((Date) value).getTime());
+            break;
+        case OBJLNK:
+            out.writeVarInt(((ObjectLink) value).getObjectId());
+            out.writeVarInt(((ObjectLink) value).getObjectInstanceId());
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported resource type for queuing: " + type);
+        }
+    }
+
+    private static Object readValue(BinaryInput in, Type type) {
+        switch (type) {
+        case STRING:
+            return in.readString();
+        case INTEGER:
+            return in.readVarLong();
+        case FLOAT:
+            return Double.longBitsToDouble(in.readVarLong());
+        case BOOLEAN:
+            return in.readByte() == 1;
+        case OPAQUE:
+            return in.readBytes();
+        case TIME:
+            return new Date(in.readVarLong());
+        case OBJLNK:
+            return new ObjectLink(in.readVarInt(), in.readVarInt());
+        default:
+            throw new IllegalArgumentException("Invalid binary content : unsupported resource type " + type);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Serialize and deserialize the data stored by a Redis registration store.
+ * 
+ * @see JsonRegistrationStoreSerDes
+ * @see BinaryRegistrationStoreSerDes
+ */
+public interface RegistrationStoreSerDes {
+
+    byte[] serializeRegistration(Registration registration);
+
+    Registration deserializeRegistration(byte[] data);
+
+    byte[] serializeObservation(Observation observation);
+
+    Observation deserializeObservation(byte[] data);
+}
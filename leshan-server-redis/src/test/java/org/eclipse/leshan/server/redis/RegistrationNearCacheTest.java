@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RegistrationNearCacheTest {
+
+    private RegistrationNearCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new RegistrationNearCache(2, "REG:EP:", "OBS:TKN:".getBytes(UTF_8));
+        // as if keyspace notifications subscription was active
+        cache.setEnabled(true);
+    }
+
+    @Test
+    public void get_cached_registration_by_endpoint_and_id() {
+        Registration registration = registration("regId", "endpoint");
+        cache.putRegistration(cache.getGeneration(), registration);
+
+        assertSame(registration, cache.getRegistrationByEndpoint("endpoint"));
+        assertSame(registration, cache.getRegistration("regId"));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void invalidate_endpoint_removes_registration() {
+        cache.putRegistration(cache.getGeneration(), registration("regId", "endpoint"));
+
+        cache.invalidateEndpoint("endpoint");
+
+        assertNull(cache.getRegistrationByEndpoint("endpoint"));
+        assertNull(cache.getRegistration("regId"));
+    }
+
+    @Test
+    public void new_registration_replaces_previous_one() {
+        cache.putRegistration(cache.getGeneration(), registration("regId1", "endpoint"));
+        Registration registration = registration("regId2", "endpoint");
+        cache.putRegistration(cache.getGeneration(), registration);
+
+        assertNull(cache.getRegistration("regId1"));
+        assertSame(registration, cache.getRegistration("regId2"));
+    }
+
+    @Test
+    public void value_read_before_invalidation_is_not_cached() {
+        long generation = cache.getGeneration();
+        // value read from Redis, then modified by another node
+        cache.invalidateEndpoint("endpoint");
+        cache.putRegistration(generation, registration("regId", "endpoint"));
+
+        assertNull(cache.getRegistrationByEndpoint("endpoint"));
+    }
+
+    @Test
+    public void least_recently_used_entries_are_evicted() {
+        cache.putRegistration(cache.getGeneration(), registration("regId1", "endpoint1"));
+        cache.putRegistration(cache.getGeneration(), registration("regId2", "endpoint2"));
+        cache.getRegistrationByEndpoint("endpoint1");
+        cache.putRegistration(cache.getGeneration(), registration("regId3", "endpoint3"));
+
+        assertNull(cache.getRegistration("regId2"));
+        assertEquals("regId1", cache.getRegistration("regId1").getId());
+        assertEquals("regId3", cache.getRegistration("regId3").getId());
+    }
+
+    @Test
+    public void invalidate_observation() {
+        Token token = new Token(new byte[] { 1, 2 });
+        Request request = Request.newGet();
+        request.setObserve();
+        Observation observation = new Observation(request, null);
+        cache.putObservation(cache.getGeneration(), token, observation);
+        assertSame(observation, cache.getObservation(new Token(new byte[] { 1, 2 })));
+
+        cache.invalidateObservation(token);
+
+        assertNull(cache.getObservation(token));
+    }
+
+    @Test
+    public void nothing_is_cached_when_not_subscribed() {
+        cache.stop();
+        cache.putRegistration(cache.getGeneration(), registration("regId", "endpoint"));
+
+        assertNull(cache.getRegistrationByEndpoint("endpoint"));
+    }
+
+    private Registration registration(String regId, String endpoint) {
+        return new Registration.Builder(regId, endpoint, Identity.unsecure(InetAddress.getLoopbackAddress(), 5683))
+                .build();
+    }
+}
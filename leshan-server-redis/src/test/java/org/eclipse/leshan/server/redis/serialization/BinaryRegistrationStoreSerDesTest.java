@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.californium.elements.AddressEndpointContext;
+import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.californium.elements.MapBasedEndpointContext;
+import org.eclipse.californium.elements.auth.PreSharedKeyIdentity;
+import org.eclipse.leshan.core.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.Test;
+
+public class BinaryRegistrationStoreSerDesTest {
+
+    private final RegistrationStoreSerDes binary = new BinaryRegistrationStoreSerDes();
+    private final RegistrationStoreSerDes json = new JsonRegistrationStoreSerDes();
+
+    @Test
+    public void ser_and_des_unsecure_registration() throws Exception {
+        Registration r = registration(Identity.unsecure(InetAddress.getLoopbackAddress(), 5683));
+
+        byte[] data = binary.serializeRegistration(r);
+
+        assertTrue(BinaryRegistrationStoreSerDes.isBinary(data));
+        assertRegistrationEquals(r, binary.deserializeRegistration(data));
+    }
+
+    @Test
+    public void ser_and_des_psk_registration() throws Exception {
+        Registration r = registration(Identity.psk(InetAddress.getByName("2001:db8::1"), 5684, "pskIdentity"));
+
+        assertRegistrationEquals(r, binary.deserializeRegistration(binary.serializeRegistration(r)));
+    }
+
+    @Test
+    public void ser_and_des_rpk_registration() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        PublicKey publicKey = generator.generateKeyPair().getPublic();
+        Registration r = registration(Identity.rpk(InetAddress.getLoopbackAddress(), 5684, publicKey));
+
+        assertRegistrationEquals(r, binary.deserializeRegistration(binary.serializeRegistration(r)));
+    }
+
+    @Test
+    public void ser_and_des_x509_registration() throws Exception {
+        Registration r = registration(Identity.x509(InetAddress.getLoopbackAddress(), 5684, "commonName"));
+
+        assertRegistrationEquals(r, binary.deserializeRegistration(binary.serializeRegistration(r)));
+    }
+
+    @Test
+    public void ser_and_des_registration_without_links() throws Exception {
+        Registration r = new Registration.Builder("registrationId", "endpoint",
+                Identity.unsecure(InetAddress.getLoopbackAddress(), 5683)).build();
+
+        Registration r2 = binary.deserializeRegistration(binary.serializeRegistration(r));
+
+        assertRegistrationEquals(r, r2);
+    }
+
+    @Test
+    public void binary_and_json_formats_are_interoperable() throws Exception {
+        Registration r = registration(Identity.psk(InetAddress.getLoopbackAddress(), 5684, "pskIdentity"));
+
+        byte[] jsonData = json.serializeRegistration(r);
+        byte[] binaryData = binary.serializeRegistration(r);
+
+        assertFalse(BinaryRegistrationStoreSerDes.isBinary(jsonData));
+        assertTrue(binaryData.length < jsonData.length);
+        assertRegistrationEquals(r, binary.deserializeRegistration(jsonData));
+        assertRegistrationEquals(r, json.deserializeRegistration(binaryData));
+    }
+
+    @Test
+    public void ser_and_des_observation() throws Exception {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("DTLS_SESSION_ID", "0102");
+        EndpointContext context = new MapBasedEndpointContext(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 5684), new PreSharedKeyIdentity("pskIdentity"),
+                attributes);
+        Observation obs = observation(context);
+
+        byte[] data = binary.serializeObservation(obs);
+
+        assertTrue(BinaryRegistrationStoreSerDes.isBinary(data));
+        assertObservationEquals(obs, binary.deserializeObservation(data));
+        assertObservationEquals(obs, json.deserializeObservation(data));
+    }
+
+    @Test
+    public void des_json_observation() throws Exception {
+        Observation obs = observation(
+                new AddressEndpointContext(new InetSocketAddress(InetAddress.getLoopbackAddress(), 5683)));
+
+        assertObservationEquals(obs, binary.deserializeObservation(json.serializeObservation(obs)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void des_unsupported_version() throws Exception {
+        byte[] data = binary
+                .serializeRegistration(registration(Identity.unsecure(InetAddress.getLoopbackAddress(), 5683)));
+        data[1] = (byte) (BinaryRegistrationStoreSerDes.VERSION + 1);
+
+        binary.deserializeRegistration(data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void des_truncated_data() throws Exception {
+        byte[] data = binary
+                .serializeRegistration(registration(Identity.unsecure(InetAddress.getLoopbackAddress(), 5683)));
+
+        binary.deserializeRegistration(Arrays.copyOf(data, data.length - 3));
+    }
+
+    private Registration registration(Identity identity) {
+        Map<String, String> rootAttributes = new HashMap<>();
+        rootAttributes.put("rt", "\"oma.lwm2m\"");
+        rootAttributes.put("ct", "11543");
+        Map<String, String> versionAttributes = new HashMap<>();
+        versionAttributes.put("ver", "1.1");
+        Map<String, String> nullAttributes = new HashMap<>();
+        nullAttributes.put("hb", null);
+        Link[] links = new Link[] { new Link("/lwm2m", rootAttributes), new Link("/lwm2m/1/0"),
+                new Link("/lwm2m/3", versionAttributes), new Link("/lwm2m/3/0", nullAttributes),
+                new Link("/lwm2m/5", versionAttributes) };
+
+        Map<String, String> additionalAttributes = new HashMap<>();
+        additionalAttributes.put("imei", "123456789");
+
+        return new Registration.Builder("registrationId", "endpoint", identity).lifeTimeInSec(300L)
+                .smsNumber("+33600000000").lwM2mVersion("1.1").bindingMode(BindingMode.UQ)
+                .registrationDate(new Date(1000L)).lastUpdate(new Date(2000L)).objectLinks(links)
+                .additionalRegistrationAttributes(additionalAttributes).build();
+    }
+
+    private Observation observation(EndpointContext context) {
+        Request request = Request.newGet();
+        request.setToken(new Token(new byte[] { 1, 2, 3, 4 }));
+        request.setMID(42);
+        request.getOptions().addUriPath("3").addUriPath("0").addUriPath("13");
+        request.setObserve();
+        request.setDestinationContext(context);
+        Map<String, String> userContext = new HashMap<>();
+        userContext.put("leshan-regId", "registrationId");
+        userContext.put("leshan-path", "/3/0/13");
+        request.setUserContext(userContext);
+        return new Observation(request, context);
+    }
+
+    private void assertRegistrationEquals(Registration expected, Registration actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getEndpoint(), actual.getEndpoint());
+        assertEquals(expected.getIdentity(), actual.getIdentity());
+        assertEquals(expected.getLifeTimeInSec(), actual.getLifeTimeInSec());
+        assertEquals(expected.getSmsNumber(), actual.getSmsNumber());
+        assertEquals(expected.getLwM2mVersion(), actual.getLwM2mVersion());
+        assertEquals(expected.getBindingMode(), actual.getBindingMode());
+        assertEquals(expected.getRegistrationDate(), actual.getRegistrationDate());
+        assertEquals(expected.getLastUpdate(), actual.getLastUpdate());
+        assertEquals(expected.getAdditionalRegistrationAttributes(), actual.getAdditionalRegistrationAttributes());
+        assertArrayEquals(expected.getObjectLinks(), actual.getObjectLinks());
+        assertEquals(expected.getRootPath(), actual.getRootPath());
+    }
+
+    private void assertObservationEquals(Observation expected, Observation actual) {
+        Request expectedRequest = expected.getRequest();
+        Request actualRequest = actual.getRequest();
+        assertEquals(expectedRequest.getToken(), actualRequest.getToken());
+        assertEquals(expectedRequest.getMID(), actualRequest.getMID());
+        assertEquals(expectedRequest.getOptions().getUriPathString(), actualRequest.getOptions().getUriPathString());
+        assertEquals(expectedRequest.getOptions().getObserve(), actualRequest.getOptions().getObserve());
+        assertEquals(expectedRequest.getUserContext(), actualRequest.getUserContext());
+        assertEquals(expected.getContext().getPeerAddress(), actual.getContext().getPeerAddress());
+        assertEquals(expected.getContext().getPeerIdentity(), actual.getContext().getPeerIdentity());
+        assertEquals(expected.getContext().entries(), actual.getContext().entries());
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Date;
+
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.server.redis.serialization.PresenceEventSerDes.PresenceEvent;
+import org.eclipse.leshan.server.registration.Registration;
+import org.junit.Test;
+
+public class PresenceEventSerDesTest {
+
+    @Test
+    public void presence_event_ser_des_then_equal() {
+        Registration.Builder builder = new Registration.Builder("regid", "urn:endpoint",
+                Identity.unsecure(InetAddress.getLoopbackAddress(), 5683));
+        builder.bindingMode(BindingMode.UQ).lifeTimeInSec(300L).registrationDate(new Date(1600000000000L))
+                .lastUpdate(new Date(1600000000000L));
+        Registration registration = builder.build();
+
+        PresenceEvent event = PresenceEventSerDes
+                .deserialize(PresenceEventSerDes.serialize("node1", true, 93000, registration));
+
+        assertEquals("node1", event.getNodeId());
+        assertTrue(event.isAwake());
+        assertEquals(93000, event.getAwakeTime());
+        assertEquals(registration.getId(), event.getRegistration().getId());
+        assertEquals(registration.getEndpoint(), event.getRegistration().getEndpoint());
+        assertTrue(event.getRegistration().usesQueueMode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_version_is_rejected() {
+        PresenceEventSerDes.deserialize(new byte[] { 2 });
+    }
+}
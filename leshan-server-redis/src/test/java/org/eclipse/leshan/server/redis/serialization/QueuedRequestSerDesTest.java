@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2020 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.redis.serialization;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.leshan.core.attributes.AttributeSet;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.request.BootstrapDeleteRequest;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.CreateRequest;
+import org.eclipse.leshan.core.request.DeleteRequest;
+import org.eclipse.leshan.core.request.DiscoverRequest;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.core.request.ReadRequest;
+import org.eclipse.leshan.core.request.WriteAttributesRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.request.WriteRequest.Mode;
+import org.eclipse.leshan.server.queue.QueuedRequest;
+import org.junit.Test;
+
+public class QueuedRequestSerDesTest {
+
+    @Test
+    public void queued_request_ser_des_then_equal() {
+        QueuedRequest queued = new QueuedRequest("id", "urn:endpoint", new ExecuteRequest("/3/0/4", "5"), 2000,
+                1600000000000L);
+
+        QueuedRequest result = QueuedRequestSerDes.deserialize(QueuedRequestSerDes.serialize(queued));
+
+        assertEquals("id", result.getId());
+        assertEquals("urn:endpoint", result.getEndpoint());
+        assertEquals(2000, result.getTimeout());
+        assertEquals(1600000000000L, result.getExpirationTime());
+        assertEquals(queued.getRequest(), result.getRequest());
+    }
+
+    @Test
+    public void requests_ser_des_then_equal() {
+        Map<Integer, Long> values = new HashMap<>();
+        values.put(0, 1L);
+        values.put(3, -20L);
+        LwM2mObjectInstance instance = new LwM2mObjectInstance(1, LwM2mSingleResource.newStringResource(0, "value"),
+                LwM2mSingleResource.newFloatResource(1, -2.5), LwM2mSingleResource.newBooleanResource(2, true),
+                LwM2mSingleResource.newDateResource(3, new Date(1600000000000L)),
+                LwM2mSingleResource.newBinaryResource(4, new byte[] { 1, 2, 3 }),
+                LwM2mSingleResource.newObjectLinkResource(5, new ObjectLink(3, 0)),
+                LwM2mMultipleResource.newResource(6, values, Type.INTEGER));
+
+        assertSerDesEquals(new ReadRequest(ContentFormat.TLV, "/3/0"));
+        assertSerDesEquals(new ReadRequest("/3"));
+        assertSerDesEquals(new WriteRequest(Mode.REPLACE, ContentFormat.TLV, "/1024/1", instance));
+        assertSerDesEquals(new WriteRequest(3, 0, 14, "+02"));
+        assertSerDesEquals(new WriteAttributesRequest("/3/0/9", AttributeSet.parse("pmin=10", "pmax=60")));
+        assertSerDesEquals(new ExecuteRequest("/3/0/4"));
+        assertSerDesEquals(new CreateRequest(ContentFormat.TLV, "/1024", instance));
+        assertSerDesEquals(new CreateRequest("/1024", LwM2mSingleResource.newIntegerResource(0, 42)));
+        assertSerDesEquals(new DeleteRequest("/1024/1"));
+        assertSerDesEquals(new ObserveRequest(ContentFormat.JSON, "/3/0/9",
+                Collections.singletonMap("context", "value")));
+
+        // discover request has no equals
+        QueuedRequest discover = serDes(new DiscoverRequest("/3/0"));
+        assertEquals("/3/0", discover.getRequest().getPath().toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupported_request_is_rejected() {
+        QueuedRequestSerDes.serialize(new QueuedRequest("id", "urn:endpoint",
+                new BootstrapDeleteRequest(), 2000, 0));
+    }
+
+    private void assertSerDesEquals(DownlinkRequest<?> request) {
+        assertEquals(request, serDes(request).getRequest());
+    }
+
+    private QueuedRequest serDes(DownlinkRequest<?> request) {
+        QueuedRequest queued = new QueuedRequest("id", "urn:endpoint", request, 2000, 0);
+        return QueuedRequestSerDes.deserialize(QueuedRequestSerDes.serialize(queued));
+    }
+}